@@ -16,6 +16,7 @@
 
 package com.example.androidthings.imageclassifier;
 
+import android.graphics.Rect;
 import android.util.Size;
 import junit.framework.Assert;
 import org.junit.Test;
@@ -65,4 +66,58 @@ public class CameraSizeInstrumentationTest {
         Size cameraResolution = CameraHandler.getBestCameraSize(ALL_RESOLUTIONS, SIZE_SD);
         Assert.assertEquals(SIZE_SD, cameraResolution);
     }
+
+    private static final Size MODEL_SIZE = new Size(224, 224);
+    private static final Size SIZE_SQUARE_2X = new Size(448, 448);
+    private static final Size SIZE_SQUARE_440 = new Size(440, 440);
+
+    /**
+     * Tests that the 4:3 size wins over wider sizes when no square size is available.
+     */
+    @Test
+    public void testLeastScalingPrefersSmallestFrame() {
+        Size cameraResolution = CameraHandler.getLeastScalingCameraSize(ALL_RESOLUTIONS,
+                MODEL_SIZE);
+        Assert.assertEquals(SIZE_SD, cameraResolution);
+    }
+
+    /**
+     * Tests that an integer multiple of the model input wins over a smaller square that would
+     * need fractional scaling, so the choice is not just the smallest area.
+     */
+    @Test
+    public void testLeastScalingPrefersIntegerMultiple() {
+        Assert.assertTrue(area(SIZE_SQUARE_2X) > area(SIZE_SQUARE_440));
+        Size cameraResolution = CameraHandler.getLeastScalingCameraSize(new Size[] {
+                SIZE_SD, SIZE_SQUARE_440, SIZE_SQUARE_2X, SIZE_720P}, MODEL_SIZE);
+        Assert.assertEquals(SIZE_SQUARE_2X, cameraResolution);
+        Assert.assertTrue(CameraHandler.isIntegerMultiple(SIZE_SQUARE_2X, MODEL_SIZE));
+        Assert.assertFalse(CameraHandler.isIntegerMultiple(SIZE_SQUARE_440, MODEL_SIZE));
+    }
+
+    private static long area(Size size) {
+        return (long) size.getWidth() * size.getHeight();
+    }
+
+    /**
+     * Tests that sizes smaller than the model input are never chosen.
+     */
+    @Test
+    public void testLeastScalingRejectsTooSmall() {
+        Size cameraResolution = CameraHandler.getLeastScalingCameraSize(
+                new Size[] {new Size(320, 200)}, MODEL_SIZE);
+        Assert.assertNull(cameraResolution);
+    }
+
+    /**
+     * Tests that the crop region is the centered square of the active array, and that none is
+     * requested for non-square outputs.
+     */
+    @Test
+    public void testCenterCropRegion() {
+        Rect activeArray = new Rect(8, 0, 2600, 1944);
+        Rect crop = CameraHandler.getCenterCropRegion(activeArray, SIZE_SQUARE_2X);
+        Assert.assertEquals(new Rect(332, 0, 2276, 1944), crop);
+        Assert.assertNull(CameraHandler.getCenterCropRegion(activeArray, SIZE_SD));
+    }
 }
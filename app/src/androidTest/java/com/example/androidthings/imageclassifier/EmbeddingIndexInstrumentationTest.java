@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier;
+
+import com.example.androidthings.imageclassifier.embedding.EmbeddingIndex;
+import com.example.androidthings.imageclassifier.embedding.Neighbor;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class EmbeddingIndexInstrumentationTest {
+    private static final int DIMS = 32;
+    private static final int VECTORS = 101;
+    private static final int K = 5;
+
+    private static EmbeddingIndex randomIndex(boolean quantized, Random random) {
+        EmbeddingIndex index = new EmbeddingIndex(DIMS, quantized);
+        for (int i = 0; i < VECTORS; i++) {
+            index.add("class" + (i % 7), randomVector(random));
+        }
+        return index;
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMS];
+        for (int i = 0; i < DIMS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static void assertSameNeighbors(List<Neighbor> expected, List<Neighbor> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getIndex(), actual.get(i).getIndex());
+            Assert.assertEquals(expected.get(i).getLabel(), actual.get(i).getLabel());
+            Assert.assertEquals(expected.get(i).getSimilarity(), actual.get(i).getSimilarity(),
+                    1e-6f);
+        }
+    }
+
+    /**
+     * Tests that an enrolled vector is its own nearest neighbour, and that neighbours come
+     * most similar first.
+     */
+    @Test
+    public void testEnrolledVectorIsNearest() {
+        for (boolean quantized : new boolean[] {false, true}) {
+            Random random = new Random(1);
+            EmbeddingIndex index = new EmbeddingIndex(DIMS, quantized);
+            float[] target = null;
+            for (int i = 0; i < VECTORS; i++) {
+                float[] vector = randomVector(random);
+                index.add("class" + i, vector);
+                if (i == 42) {
+                    target = vector;
+                }
+            }
+            // 缩放不影响余弦相似度
+            for (int i = 0; i < DIMS; i++) {
+                target[i] *= 3;
+            }
+            List<Neighbor> neighbors = index.query(target, K);
+            Assert.assertEquals(K, neighbors.size());
+            Assert.assertEquals(42, neighbors.get(0).getIndex());
+            Assert.assertEquals("class42", neighbors.get(0).getLabel());
+            Assert.assertEquals(1f, neighbors.get(0).getSimilarity(), quantized ? 0.01f : 1e-5f);
+            for (int i = 1; i < K; i++) {
+                Assert.assertTrue(neighbors.get(i - 1).getSimilarity()
+                        >= neighbors.get(i).getSimilarity());
+            }
+        }
+    }
+
+    /**
+     * Tests that a parallel query returns exactly the serial result for any number of parts,
+     * including more parts than vectors.
+     */
+    @Test
+    public void testParallelQueryMatchesSerial() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (boolean quantized : new boolean[] {false, true}) {
+                Random random = new Random(2);
+                EmbeddingIndex index = randomIndex(quantized, random);
+                for (int q = 0; q < 10; q++) {
+                    float[] query = randomVector(random);
+                    List<Neighbor> serial = index.query(query, K);
+                    for (int parts : new int[] {1, 2, 3, 7, VECTORS + 5}) {
+                        assertSameNeighbors(serial, index.query(query, K, executor, parts));
+                    }
+                }
+            }
+
+            EmbeddingIndex empty = new EmbeddingIndex(DIMS, false);
+            Assert.assertEquals(0, empty.query(new float[DIMS], K, executor, 4).size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a saved and loaded index has the same vectors, labels and query results, both
+     * as floats and as int8.
+     */
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        for (boolean quantized : new boolean[] {false, true}) {
+            Random random = new Random(3);
+            EmbeddingIndex index = randomIndex(quantized, random);
+            float[] cat = randomVector(random);
+            index.add("猫", cat);
+            File file = File.createTempFile("embedding", ".idx");
+            try {
+                index.save(file);
+                EmbeddingIndex loaded = EmbeddingIndex.load(file);
+                Assert.assertEquals(DIMS, loaded.getDims());
+                Assert.assertEquals(quantized, loaded.isQuantized());
+                Assert.assertEquals(index.size(), loaded.size());
+                for (int q = 0; q < 10; q++) {
+                    float[] query = randomVector(random);
+                    assertSameNeighbors(index.query(query, K), loaded.query(query, K));
+                }
+                Assert.assertEquals("猫", loaded.query(cat, 1).get(0).getLabel());
+
+                // 加载后仍可继续登记
+                loaded.add("new", randomVector(random));
+                Assert.assertEquals(index.size() + 1, loaded.size());
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Tests that a truncated file is rejected instead of read past its end.
+     */
+    @Test
+    public void testLoadRejectsTruncatedFile() throws IOException {
+        File file = File.createTempFile("embedding", ".idx");
+        try {
+            randomIndex(false, new Random(4)).save(file);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(raf.length() / 2);
+            }
+            try {
+                EmbeddingIndex.load(file);
+                Assert.fail("Loaded a truncated index");
+            } catch (IOException expected) {
+                // 预期的异常
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier;
+
+import com.example.androidthings.imageclassifier.classifier.LabelFilter;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class LabelFilterInstrumentationTest {
+    private static final List<String> LABELS =
+            Arrays.asList("tabby", "tiger cat", "Egyptian cat", "golden retriever", "rock");
+
+    private static List<String> numberedLabels(int count) {
+        List<String> labels = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            labels.add("label" + i);
+        }
+        return labels;
+    }
+
+    /**
+     * Tests that entries resolve by title or index, are sorted and de-duplicated, and that
+     * unknown entries are rejected.
+     */
+    @Test
+    public void testResolveEntries() {
+        LabelFilter allow = LabelFilter.allow(LABELS, new String[] {"rock", " 1 ", "tabby", "4"});
+        Assert.assertTrue(Arrays.equals(new int[] {0, 1, 4}, allow.getIndices()));
+        LabelFilter deny = LabelFilter.deny(LABELS, new String[] {"tiger cat", "3"});
+        Assert.assertTrue(Arrays.equals(new int[] {0, 2, 4}, deny.getIndices()));
+        for (String unknown : new String[] {"dog", "5", "-1"}) {
+            try {
+                LabelFilter.allow(LABELS, new String[] {unknown});
+                Assert.fail("Accepted " + unknown);
+            } catch (IllegalArgumentException expected) {
+                // 预期的异常
+            }
+        }
+    }
+
+    /**
+     * Tests that topK only looks at the filtered labels, compares scores as unsigned bytes and
+     * keeps the lower index first on ties.
+     */
+    @Test
+    public void testTopKOfFilteredLabels() {
+        LabelFilter filter = LabelFilter.allow(LABELS, new String[] {"1", "2", "3", "4"});
+        byte[] scores = {(byte) 255, (byte) 200, 10, (byte) 200, 100};
+        int[] best = new int[3];
+        Assert.assertEquals(3, filter.topK(scores, best));
+        Assert.assertTrue(Arrays.equals(new int[] {1, 3, 4}, best));
+
+        // 过滤后的标签少于k个
+        int[] many = new int[10];
+        Assert.assertEquals(4, filter.topK(scores, many));
+        Assert.assertTrue(Arrays.equals(new int[] {1, 3, 4, 2}, Arrays.copyOf(many, 4)));
+
+        Assert.assertEquals(0, filter.topK(scores, new int[0]));
+    }
+
+    /**
+     * Tests topK against sorting all filtered labels for random scores.
+     */
+    @Test
+    public void testTopKMatchesSort() {
+        Random random = new Random(1);
+        List<String> labels = numberedLabels(1001);
+        for (int run = 0; run < 50; run++) {
+            List<String> entries = new ArrayList<>();
+            for (int i = 0; i < labels.size(); i++) {
+                if (random.nextInt(4) == 0) {
+                    entries.add(String.valueOf(i));
+                }
+            }
+            LabelFilter filter = LabelFilter.allow(labels, entries.toArray(new String[0]));
+            byte[] scores = new byte[labels.size()];
+            random.nextBytes(scores);
+            int[] best = new int[1 + random.nextInt(10)];
+            int found = filter.topK(scores, best);
+
+            final byte[] s = scores;
+            Integer[] sorted = new Integer[filter.size()];
+            int[] indices = filter.getIndices();
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = indices[i];
+            }
+            // 分数从高到低，相同分数时下标小的在前
+            Arrays.sort(sorted, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    int byScore = (s[b] & 0xFF) - (s[a] & 0xFF);
+                    return byScore != 0 ? byScore : a - b;
+                }
+            });
+            Assert.assertEquals(Math.min(best.length, sorted.length), found);
+            for (int i = 0; i < found; i++) {
+                Assert.assertEquals(sorted[i].intValue(), best[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier;
+
+import com.example.androidthings.imageclassifier.classifier.LabelHierarchy;
+import com.example.androidthings.imageclassifier.classifier.Recognition;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class LabelHierarchyInstrumentationTest {
+    private static final List<String> LABELS =
+            Arrays.asList("tabby", "tiger cat", "Egyptian cat", "golden retriever", "rock");
+    private static final List<String> LINES = Arrays.asList(
+            "# label, then categories from fine to coarse",
+            "tabby\tcat\tanimal",
+            "tiger cat\tcat\tanimal",
+            "Egyptian cat\tcat",
+            "3\tdog\tanimal");
+    private static final byte[] SCORES = {100, 50, 40, 30, 20};
+
+    /**
+     * Tests that siblings add up in their common category.
+     */
+    @Test
+    public void testSiblingsAddUp() {
+        LabelHierarchy hierarchy = LabelHierarchy.parse(LABELS, LINES);
+        Assert.assertEquals(3, hierarchy.getDepth());
+        List<Recognition> results = hierarchy.getBestResults(SCORES, 1, 1);
+        Assert.assertEquals("cat", results.get(0).getTitle());
+        Assert.assertEquals(100 + 50 + 40, hierarchy.getScore(1, 0));
+    }
+
+    /**
+     * Tests that a label without a line, or with fewer categories than the deepest line, keeps
+     * its deepest known name at coarser levels instead of dropping out.
+     */
+    @Test
+    public void testShallowAndUnmappedLabelsKeepTheirScore() {
+        LabelHierarchy hierarchy = LabelHierarchy.parse(LABELS, LINES);
+        List<Recognition> results = hierarchy.getBestResults(SCORES, 2, 3);
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals("animal", results.get(0).getTitle());
+        Assert.assertEquals("cat", results.get(1).getTitle());
+        Assert.assertEquals("rock", results.get(2).getTitle());
+
+        int total = 100 + 50 + 40 + 30 + 20;
+        for (int level = 0; level < hierarchy.getDepth(); level++) {
+            int sum = 0;
+            for (int i = 0; i < hierarchy.getSize(level); i++) {
+                sum += hierarchy.getScore(level, i);
+            }
+            Assert.assertEquals(total, sum);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.androidthings.imageclassifier;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+import android.util.Size;
+
+import com.example.androidthings.imageclassifier.benchmark.InferenceLoadGenerator;
+import com.example.androidthings.imageclassifier.benchmark.LabelFilterBenchmark;
+import com.example.androidthings.imageclassifier.benchmark.RegionDecodeBenchmark;
+import com.example.androidthings.imageclassifier.benchmark.ReplayBenchmark;
+import com.example.androidthings.imageclassifier.classifier.LabelFilter;
+import com.example.androidthings.imageclassifier.classifier.TensorFlowImageClassifier;
+import com.example.androidthings.imageclassifier.server.BatchingClassifier;
+import com.example.androidthings.imageclassifier.server.HttpServer;
+import com.example.androidthings.imageclassifier.server.InferenceEndpoint;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Runs {@link ReplayBenchmark} on the device. Arguments are passed through instrumentation:
+ * <pre>
+ * adb shell am instrument -w -e class com.example.androidthings.imageclassifier.ReplayBenchmarkInstrumentationTest \
+ *     -e corpus /sdcard/replay -e concurrency 2 -e batch 4 -e passes 3 \
+ *     com.example.androidthings.imageclassifier.test/android.support.test.runner.AndroidJUnitRunner
+ * </pre>
+ * The JSON report is logged and written to {@code replay-report.json} next to the corpus.
+ */
+public class ReplayBenchmarkInstrumentationTest {
+    private static final String TAG = "ReplayBenchmark";
+    private static final Size MODEL_IMAGE_SIZE = new Size(224, 224);
+
+    @Test
+    public void replayCorpus() throws IOException, InterruptedException {
+        Bundle args = InstrumentationRegistry.getArguments();
+        File corpusDir = new File(getString(args, "corpus", "/sdcard/replay"));
+        Assume.assumeTrue("No replay corpus at " + corpusDir, corpusDir.isDirectory());
+
+        List<byte[]> corpus = ReplayBenchmark.loadCorpus(corpusDir);
+        Assume.assumeTrue("Replay corpus is empty", !corpus.isEmpty());
+
+        ReplayBenchmark benchmark = new ReplayBenchmark(corpus,
+                ReplayBenchmark.classifierFactory(InstrumentationRegistry.getTargetContext(),
+                        MODEL_IMAGE_SIZE),
+                getInt(args, "concurrency", 1),
+                getInt(args, "batch", 1),
+                getInt(args, "passes", 1),
+                getInt(args, "warmup", 2));
+        String report = benchmark.run();
+        Log.i(TAG, report);
+        try (FileWriter writer = new FileWriter(new File(corpusDir, "replay-report.json"))) {
+            writer.write(report);
+        }
+    }
+
+    /**
+     * Compares full-frame and center-region JPEG decoding on the same corpus; the report is
+     * written to {@code region-decode-report.json}.
+     */
+    @Test
+    public void compareRegionDecode() throws IOException {
+        Bundle args = InstrumentationRegistry.getArguments();
+        File corpusDir = new File(getString(args, "corpus", "/sdcard/replay"));
+        Assume.assumeTrue("No replay corpus at " + corpusDir, corpusDir.isDirectory());
+
+        List<byte[]> corpus = ReplayBenchmark.loadCorpus(corpusDir);
+        Assume.assumeTrue("Replay corpus is empty", !corpus.isEmpty());
+
+        String report = new RegionDecodeBenchmark(corpus, MODEL_IMAGE_SIZE,
+                getInt(args, "passes", 1), getInt(args, "warmup", 2)).run();
+        Log.i(TAG, report);
+        try (FileWriter writer = new FileWriter(new File(corpusDir, "region-decode-report.json"))) {
+            writer.write(report);
+        }
+    }
+
+    /**
+     * Compares picking the best results over all labels and over an allow-list, given as a
+     * comma-separated {@code allow} argument of titles or indices (the first 40 labels by
+     * default); the report is written to {@code label-filter-report.json} in {@code out}.
+     */
+    @Test
+    public void compareLabelFilter() throws IOException {
+        Bundle args = InstrumentationRegistry.getArguments();
+        List<String> labels = TensorFlowImageClassifier.readLabels(
+                InstrumentationRegistry.getTargetContext());
+        String allow = args.getString("allow");
+        String[] entries;
+        if (allow == null) {
+            entries = new String[Math.min(40, labels.size())];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = String.valueOf(i);
+            }
+        } else {
+            entries = allow.split(",");
+        }
+
+        String report = new LabelFilterBenchmark(labels, LabelFilter.allow(labels, entries),
+                getInt(args, "frames", 2000)).run();
+        Log.i(TAG, report);
+        File outDir = new File(getString(args, "out", "/sdcard"));
+        try (FileWriter writer = new FileWriter(new File(outDir, "label-filter-report.json"))) {
+            writer.write(report);
+        }
+    }
+
+    /**
+     * Serves the model on an ephemeral loopback port and posts the first corpus frame from
+     * {@code concurrency} threads with {@link InferenceLoadGenerator}; the report is written to
+     * {@code inference-server-report.json} next to the corpus.
+     */
+    @Test
+    public void loadInferenceServer() throws IOException, InterruptedException {
+        Bundle args = InstrumentationRegistry.getArguments();
+        File corpusDir = new File(getString(args, "corpus", "/sdcard/replay"));
+        Assume.assumeTrue("No replay corpus at " + corpusDir, corpusDir.isDirectory());
+
+        List<byte[]> corpus = ReplayBenchmark.loadCorpus(corpusDir);
+        Assume.assumeTrue("Replay corpus is empty", !corpus.isEmpty());
+
+        Context context = InstrumentationRegistry.getTargetContext();
+        BatchingClassifier classifier = new BatchingClassifier(
+                TensorFlowImageClassifier.createInterpreter(context),
+                TensorFlowImageClassifier.readLabels(context),
+                MODEL_IMAGE_SIZE.getWidth(), MODEL_IMAGE_SIZE.getHeight(),
+                getInt(args, "batch", 4), getInt(args, "window_us", 5000));
+        HttpServer server = new HttpServer(null, 0, 64, 8 * 1024 * 1024)
+                .route("/classify", new InferenceEndpoint(classifier, 30000));
+        String report;
+        try {
+            server.start();
+            report = new InferenceLoadGenerator(
+                    new URL("http://127.0.0.1:" + server.getPort() + "/classify"),
+                    corpus.get(0), "image/jpeg", getInt(args, "concurrency", 4),
+                    getInt(args, "requests", 200), getInt(args, "warmup", 2)).run();
+        } finally {
+            server.close();
+            classifier.close();
+        }
+        Log.i(TAG, report);
+        try (FileWriter writer = new FileWriter(
+                new File(corpusDir, "inference-server-report.json"))) {
+            writer.write(report);
+        }
+    }
+
+    private static String getString(Bundle args, String key, String defaultValue) {
+        String value = args.getString(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static int getInt(Bundle args, String key, int defaultValue) {
+        String value = args.getString(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
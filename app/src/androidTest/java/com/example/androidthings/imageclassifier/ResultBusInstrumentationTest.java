@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier;
+
+import com.example.androidthings.imageclassifier.classifier.Recognition;
+import com.example.androidthings.imageclassifier.results.ResultBus;
+import com.example.androidthings.imageclassifier.results.ResultEvent;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+public class ResultBusInstrumentationTest {
+    private static final List<Recognition> RESULTS =
+            Collections.singletonList(new Recognition("281", "tabby", 0.5f));
+
+    /** Runs tasks only when asked, like a subscriber thread that is busy elsewhere. */
+    private static class ManualExecutor implements Executor {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static class FrameIds implements ResultBus.Listener {
+        final List<Long> frameIds = new ArrayList<>();
+
+        @Override
+        public void onResult(ResultEvent event) {
+            frameIds.add(event.getFrameId());
+        }
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    /**
+     * Tests that a subscriber on a direct executor gets every event exactly once, in order,
+     * starting with the first event published after it subscribed.
+     */
+    @Test
+    public void testDirectExecutorDeliversEachEventOnce() {
+        ResultBus bus = new ResultBus(4, 3);
+        bus.publish(100, 0, 0, RESULTS);
+        FrameIds listener = new FrameIds();
+        ResultBus.Subscriber subscriber = bus.subscribe("direct", listener, DIRECT);
+        for (long frame = 0; frame < 50; frame++) {
+            bus.publish(frame, frame, frame, RESULTS);
+        }
+        Assert.assertEquals(50, listener.frameIds.size());
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(Long.valueOf(i), listener.frameIds.get(i));
+        }
+        Assert.assertEquals(50, subscriber.getDelivered());
+        Assert.assertEquals(0, subscriber.getDropped());
+        Assert.assertEquals(0, subscriber.getLag());
+        Assert.assertEquals(1, subscriber.getMaxLag());
+    }
+
+    /**
+     * Tests that a subscriber falling more than the ring capacity behind skips the overwritten
+     * events, counts them as dropped and then receives the newest ones in order.
+     */
+    @Test
+    public void testSlowSubscriberDropsOverwrittenEvents() {
+        ResultBus bus = new ResultBus(8, 3);
+        Assert.assertEquals(8, bus.getCapacity());
+        ManualExecutor executor = new ManualExecutor();
+        FrameIds listener = new FrameIds();
+        ResultBus.Subscriber subscriber = bus.subscribe("slow", listener, executor);
+        for (long frame = 0; frame < 20; frame++) {
+            bus.publish(frame, frame, frame, RESULTS);
+        }
+        // 第一次发布后已调度，之后的发布不会重复调度
+        Assert.assertEquals(1, executor.tasks.size());
+        Assert.assertEquals(20, subscriber.getLag());
+
+        executor.runAll();
+        Assert.assertEquals(12, subscriber.getDropped());
+        Assert.assertEquals(8, subscriber.getDelivered());
+        Assert.assertEquals(0, subscriber.getLag());
+        Assert.assertEquals(20, subscriber.getMaxLag());
+        for (int i = 0; i < 8; i++) {
+            Assert.assertEquals(Long.valueOf(12 + i), listener.frameIds.get(i));
+        }
+
+        // 追上之后不再丢弃
+        bus.publish(20, 20, 20, RESULTS);
+        executor.runAll();
+        Assert.assertEquals(12, subscriber.getDropped());
+        Assert.assertEquals(9, subscriber.getDelivered());
+        Assert.assertEquals(Long.valueOf(20), listener.frameIds.get(8));
+    }
+
+    /**
+     * Tests that an unsubscribed subscriber is no longer scheduled.
+     */
+    @Test
+    public void testUnsubscribeStopsDelivery() {
+        ResultBus bus = new ResultBus(4, 3);
+        FrameIds listener = new FrameIds();
+        ResultBus.Subscriber subscriber = bus.subscribe("gone", listener, DIRECT);
+        bus.publish(0, 0, 0, RESULTS);
+        bus.unsubscribe(subscriber);
+        bus.publish(1, 1, 1, RESULTS);
+        Assert.assertEquals(1, listener.frameIds.size());
+        Assert.assertEquals(1, subscriber.getLag());
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier;
+
+import com.example.androidthings.imageclassifier.classifier.Recognition;
+import com.example.androidthings.imageclassifier.results.ResultBus;
+import com.example.androidthings.imageclassifier.results.ResultEvent;
+import com.example.androidthings.imageclassifier.results.ResultLog;
+import com.example.androidthings.imageclassifier.results.ResultRecord;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class ResultLogInstrumentationTest {
+    private static final int LABELS = 100;
+    private static final int SEGMENT_RECORDS = 4;
+
+    private File dir;
+    private ResultEvent lastEvent;
+    private ResultBus bus;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("result-log", "");
+        Assert.assertTrue(dir.delete());
+        // 事件只能通过总线构造：用直接执行的订阅者取出最新事件
+        bus = new ResultBus(2, ResultLog.TOP_K);
+        bus.subscribe("test", new ResultBus.Listener() {
+            @Override
+            public void onResult(ResultEvent event) {
+                lastEvent = event;
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                task.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private ResultLog open(long maxBytes) throws IOException {
+        return new ResultLog(dir, SEGMENT_RECORDS, maxBytes, LABELS);
+    }
+
+    private void append(ResultLog log, long timestamp, long frameId, int... labels)
+            throws IOException {
+        List<Recognition> results = new ArrayList<>();
+        for (int label : labels) {
+            results.add(new Recognition(String.valueOf(label), "label " + label, 0.5f));
+        }
+        bus.publish(frameId, timestamp, timestamp, results);
+        log.append(timestamp, frameId, 1, lastEvent);
+    }
+
+    private static long[] frameIds(List<ResultRecord> records) {
+        long[] ids = new long[records.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = records.get(i).getFrameId();
+        }
+        return ids;
+    }
+
+    private static void assertFrameIds(List<ResultRecord> records, long... expected) {
+        long[] actual = frameIds(records);
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], actual[i]);
+        }
+    }
+
+    /**
+     * Tests that reopening the log continues the partially filled last segment instead of
+     * starting a new one, and that records from before and after reopening are all found.
+     */
+    @Test
+    public void testReopenContinuesPartialSegment() throws IOException {
+        ResultLog log = open(Long.MAX_VALUE);
+        for (int i = 0; i < 3; i++) {
+            append(log, 1000 + i, i, 1);
+        }
+        log.close();
+
+        log = open(Long.MAX_VALUE);
+        Assert.assertEquals(3, log.size());
+        Assert.assertEquals(1, log.getSegmentCount());
+        append(log, 1003, 3, 2);
+        Assert.assertEquals(1, log.getSegmentCount());
+        append(log, 1004, 4, 2);
+        Assert.assertEquals(2, log.getSegmentCount());
+        assertFrameIds(log.query(0, Long.MAX_VALUE, -1, 100), 0, 1, 2, 3, 4);
+        log.close();
+    }
+
+    /**
+     * Tests that retention deletes the oldest segments, files included, and keeps the newest
+     * records.
+     */
+    @Test
+    public void testRetentionDeletesOldestSegments() throws IOException {
+        ResultLog log = open(Long.MAX_VALUE);
+        append(log, 0, 0, 1);
+        long segmentBytes = dir.listFiles()[0].length();
+        log.close();
+        tearDown();
+
+        log = open(3 * segmentBytes);
+        for (int i = 0; i < 5 * SEGMENT_RECORDS; i++) {
+            append(log, 1000 + i, i, 1);
+        }
+        Assert.assertEquals(3, log.getSegmentCount());
+        Assert.assertEquals(3, dir.listFiles().length);
+        Assert.assertEquals(3 * SEGMENT_RECORDS, log.size());
+        List<ResultRecord> records = log.query(0, Long.MAX_VALUE, -1, 100);
+        Assert.assertEquals(2 * SEGMENT_RECORDS, records.get(0).getFrameId());
+        Assert.assertEquals(5 * SEGMENT_RECORDS - 1, records.get(records.size() - 1).getFrameId());
+        log.close();
+    }
+
+    /**
+     * Tests that queries include both bounds, cross segment boundaries, honour the label and
+     * the limit, and that a clock set backwards is stored as repeated timestamps.
+     */
+    @Test
+    public void testQueryTimeBounds() throws IOException {
+        ResultLog log = open(Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            append(log, 100 * (i + 1), i, i % 2 == 0 ? 1 : 2);
+        }
+        assertFrameIds(log.query(300, 700, -1, 100), 2, 3, 4, 5, 6);
+        assertFrameIds(log.query(250, 750, -1, 100), 2, 3, 4, 5, 6);
+        assertFrameIds(log.query(300, 700, 2, 100), 3, 5);
+        assertFrameIds(log.query(300, 700, -1, 2), 2, 3);
+        assertFrameIds(log.query(1100, 2000, -1, 100));
+
+        // 时钟回拨：第11条和第12条（新段的第一条）都被钳制为1000
+        append(log, 500, 10, 1);
+        append(log, 400, 11, 1);
+        append(log, 1100, 12, 1);
+        List<ResultRecord> repeated = log.query(1000, 1000, -1, 100);
+        assertFrameIds(repeated, 9, 10, 11);
+        for (ResultRecord record : repeated) {
+            Assert.assertEquals(1000, record.getTimestampMillis());
+        }
+        assertFrameIds(log.query(1001, 2000, -1, 100), 12);
+        log.close();
+    }
+
+    /**
+     * Tests that lastSeen finds the newest record of a label in an older segment, and also
+     * after reopening the log.
+     */
+    @Test
+    public void testLastSeenAcrossSegments() throws IOException {
+        ResultLog log = open(Long.MAX_VALUE);
+        append(log, 100, 0, 7, 1);
+        append(log, 200, 1, 1, 7);
+        for (int i = 2; i < 3 * SEGMENT_RECORDS; i++) {
+            append(log, 100 * (i + 1), i, 1);
+        }
+        Assert.assertEquals(3, log.getSegmentCount());
+        Assert.assertEquals(1, log.lastSeen(7).getFrameId());
+        Assert.assertEquals(3 * SEGMENT_RECORDS - 1, log.lastSeen(1).getFrameId());
+        Assert.assertNull(log.lastSeen(8));
+        log.close();
+
+        log = open(Long.MAX_VALUE);
+        Assert.assertEquals(200, log.lastSeen(7).getTimestampMillis());
+        log.close();
+    }
+}
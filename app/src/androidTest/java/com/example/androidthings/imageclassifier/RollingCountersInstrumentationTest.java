@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier;
+
+import com.example.androidthings.imageclassifier.results.RollingCounters;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class RollingCountersInstrumentationTest {
+    private static final int KEYS = 3;
+    private static final int BUCKETS = 4;
+    private static final long BUCKET_MILLIS = 1000;
+
+    private static long[] sum(RollingCounters counters, long nowMillis, int window) {
+        long[] out = new long[counters.getKeys()];
+        counters.sum(nowMillis, window, out);
+        return out;
+    }
+
+    /**
+     * Tests that sums and series cover exactly the requested buckets.
+     */
+    @Test
+    public void testSumAndSeries() {
+        RollingCounters counters = new RollingCounters(KEYS, BUCKETS, BUCKET_MILLIS, 1);
+        counters.increment(0, 0);
+        counters.increment(0, 999);
+        counters.increment(1, 1000);
+        counters.increment(2, 3500);
+        counters.increment(KEYS, 3500);
+        counters.increment(-1, 3500);
+
+        long[] all = sum(counters, 3999, BUCKETS);
+        Assert.assertEquals(2, all[0]);
+        Assert.assertEquals(1, all[1]);
+        Assert.assertEquals(1, all[2]);
+        long[] newest = sum(counters, 3999, 2);
+        Assert.assertEquals(0, newest[0]);
+        Assert.assertEquals(0, newest[1]);
+        Assert.assertEquals(1, newest[2]);
+
+        long[] series = new long[BUCKETS];
+        counters.series(0, 3999, series);
+        Assert.assertEquals(2, series[0]);
+        Assert.assertEquals(0, series[1]);
+        counters.series(1, 3999, series);
+        Assert.assertEquals(1, series[1]);
+    }
+
+    /**
+     * Tests that a bucket reused a full ring later starts from zero, and that events for the
+     * period it held before are dropped instead of counted in the new one.
+     */
+    @Test
+    public void testBucketReuseDropsOlderPeriod() {
+        RollingCounters counters = new RollingCounters(KEYS, BUCKETS, BUCKET_MILLIS, 1);
+        for (int i = 0; i < 5; i++) {
+            counters.increment(0, 500);
+        }
+        long later = 500 + BUCKETS * BUCKET_MILLIS;
+        counters.increment(0, later);
+        // 迟到的旧时段事件
+        counters.increment(0, 500);
+
+        Assert.assertEquals(1, sum(counters, later, BUCKETS)[0]);
+        Assert.assertEquals(1, sum(counters, later, 1)[0]);
+        // 旧时段已不在环中
+        Assert.assertEquals(0, sum(counters, 500, 1)[0]);
+    }
+
+    /**
+     * Tests that concurrent writers lose no events, and that writes racing for the old and the
+     * new period of the same bucket never leak into the new period.
+     */
+    @Test
+    public void testConcurrentWritersAcrossRotation() throws InterruptedException {
+        final RollingCounters counters = new RollingCounters(KEYS, BUCKETS, BUCKET_MILLIS, 2);
+        final int threads = 4;
+        final int events = 20000;
+        final long oldMillis = 100;
+        final long newMillis = oldMillis + BUCKETS * BUCKET_MILLIS;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final boolean writesOld = t % 2 == 0;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < events; i++) {
+                            // 写新时段的线程同时计数其他桶，检验无丢失
+                            counters.increment(0, writesOld ? oldMillis : newMillis);
+                            if (!writesOld) {
+                                counters.increment(1, newMillis - BUCKET_MILLIS);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        long[] series = new long[BUCKETS];
+        counters.series(0, newMillis, series);
+        Assert.assertEquals((threads / 2) * events, series[BUCKETS - 1]);
+        counters.series(1, newMillis, series);
+        Assert.assertEquals((threads / 2) * events, series[BUCKETS - 2]);
+    }
+}
@@ -18,6 +18,7 @@ package com.example.androidthings.imageclassifier;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
@@ -33,6 +34,9 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 import android.util.Pair;
 import android.util.Size;
+
+import com.example.androidthings.imageclassifier.trace.TraceRecorder;
+
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -41,12 +45,28 @@ public class CameraHandler {
     private static final String TAG = CameraHandler.class.getSimpleName();
 
     private static final int MAX_IMAGES = 1;
+
+    /** Only one capture is in flight at a time. 同一时间只有一次捕获在进行 */
+    private static final String CAPTURE_TRACE_ID = "capture";
+
+    /**
+     * Pick the output size by estimated decode and resize cost, and let the ISP crop the center
+     * square when a square output size is available.
+     * 按估计的解码和缩放开销选择输出尺寸；有正方形输出尺寸时由ISP裁剪中心正方形。
+     */
+    private static final boolean MINIMIZE_SCALING = true;
     private CameraDevice mCameraDevice;
     private CameraCaptureSession mCaptureSession;
     private boolean initialized;
 
     private Size mImageDimensions;
 
+    /** Crop region requested from the ISP, or null for the full sensor. 请求ISP裁剪的区域，为null时使用整个传感器 */
+    private Rect mCropRegion;
+
+    /** Clockwise rotation that makes the sensor output upright. 使传感器输出变为正向的顺时针旋转角度 */
+    private int mSensorOrientation;
+
     /**
      * An {@link ImageReader} that handles still image capture.
      * 处理静止图像捕获。
@@ -89,12 +109,26 @@ public class CameraHandler {
             StreamConfigurationMap map = characteristics.get(
                     CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
             assert map != null;
-            Size bestSize = getBestCameraSize(map.getOutputSizes(ImageFormat.JPEG), minSize);
+            Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            mSensorOrientation = sensorOrientation == null ? 0 : sensorOrientation;
+            Size[] outputSizes = map.getOutputSizes(ImageFormat.JPEG);
+            Size previousSize = getBestCameraSize(outputSizes, minSize);
+            Size bestSize = MINIMIZE_SCALING
+                    ? getLeastScalingCameraSize(outputSizes, minSize) : previousSize;
             if (bestSize == null) {
 //                throw new RuntimeException("We could not find a camera resolution that is larger than " + minSize.getWidth() + "x" + minSize.getHeight());
                 throw new RuntimeException("我们找不到大于的相机分辨率 " + minSize.getWidth() + "x" + minSize.getHeight());
             }
 
+            if (MINIMIZE_SCALING) {
+                mCropRegion = getCenterCropRegion(characteristics.get(
+                        CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE), bestSize);
+                Log.i(TAG, "输出尺寸 " + bestSize + "（原选择 " + previousSize + "），裁剪区域 "
+                        + mCropRegion + "，估计解码和缩放开销减少 "
+                        + Math.round(100 - 100.0 * getScalingCost(bestSize, minSize)
+                        / getScalingCost(previousSize, minSize)) + "%");
+            }
+
             mImageReader = ImageReader.newInstance(bestSize.getWidth(), bestSize.getHeight(),
                     ImageFormat.JPEG, MAX_IMAGES);
             mImageDimensions = bestSize;
@@ -120,6 +154,10 @@ public class CameraHandler {
         return mImageDimensions;
     }
 
+    public int getSensorOrientation() {
+        return mSensorOrientation;
+    }
+
     /**
      * Begin a still image capture
      * 开始拍摄静止图像
@@ -130,6 +168,7 @@ public class CameraHandler {
             Log.w(TAG, "无法捕捉图像。相机未初始化");
             return;
         }
+        TraceRecorder.getDefault().asyncBegin("capture", CAPTURE_TRACE_ID);
         // Create a CameraCaptureSession for capturing still images.
         try {
             mCameraDevice.createCaptureSession(
@@ -139,6 +178,7 @@ public class CameraHandler {
         } catch (CameraAccessException cae) {
 //            Log.e(TAG, "Cannot create camera capture session", cae);
             Log.e(TAG, "无法创建摄像头捕获会话", cae);
+            TraceRecorder.getDefault().asyncEnd("capture", CAPTURE_TRACE_ID);
         }
     }
 
@@ -152,12 +192,16 @@ public class CameraHandler {
                     mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
             captureBuilder.addTarget(mImageReader.getSurface());
             captureBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+            if (mCropRegion != null) {
+                captureBuilder.set(CaptureRequest.SCALER_CROP_REGION, mCropRegion);
+            }
 //            Log.d(TAG, "Capture request created.");
             Log.d(TAG, "捕获请求已创建");
             mCaptureSession.capture(captureBuilder.build(), mCaptureCallback, null);
         } catch (CameraAccessException cae) {
 //            Log.e(TAG, "Cannot trigger a capture request");
             Log.e(TAG, "无法触发捕获请求");
+            TraceRecorder.getDefault().asyncEnd("capture", CAPTURE_TRACE_ID);
         }
     }
 
@@ -254,12 +298,14 @@ public class CameraHandler {
         public void onOpened(@NonNull CameraDevice cameraDevice) {
 //            Log.d(TAG, "Opened camera.");
             Log.d(TAG, "打开相机.");
+            TraceRecorder.getDefault().instant("camera_opened");
             mCameraDevice = cameraDevice;
         }
         @Override
         public void onDisconnected(@NonNull CameraDevice cameraDevice) {
 //            Log.d(TAG, "Camera disconnected, closing.");
             Log.d(TAG, "相机断开，关闭.");
+            TraceRecorder.getDefault().instant("camera_disconnected");
             closeCaptureSession();
             cameraDevice.close();
         }
@@ -267,6 +313,7 @@ public class CameraHandler {
         public void onError(@NonNull CameraDevice cameraDevice, int i) {
 //            Log.d(TAG, "Camera device error, closing.");
             Log.d(TAG, "相机设备错误，关闭.");
+            TraceRecorder.getDefault().instant("camera_error");
             closeCaptureSession();
             cameraDevice.close();
         }
@@ -274,6 +321,7 @@ public class CameraHandler {
         public void onClosed(@NonNull CameraDevice cameraDevice) {
 //            Log.d(TAG, "Closed camera, releasing");
             Log.d(TAG, "关闭相机，释放");
+            TraceRecorder.getDefault().instant("camera_closed");
             mCameraDevice = null;
         }
     };
@@ -288,8 +336,10 @@ public class CameraHandler {
                 public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
                     // The camera is already closed
                     if (mCameraDevice == null) {
+                        TraceRecorder.getDefault().asyncEnd("capture", CAPTURE_TRACE_ID);
                         return;
                     }
+                    TraceRecorder.getDefault().instant("session_configured");
                     // When the session is ready, we start capture.
                     mCaptureSession = cameraCaptureSession;
                     triggerImageCapture();
@@ -298,6 +348,8 @@ public class CameraHandler {
                 public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
 //                    Log.w(TAG, "Failed to configure camera");
                     Log.w(TAG, "无法配置摄像头");
+                    TraceRecorder.getDefault().instant("session_configure_failed");
+                    TraceRecorder.getDefault().asyncEnd("capture", CAPTURE_TRACE_ID);
                 }
             };
 
@@ -318,6 +370,7 @@ public class CameraHandler {
                 public void onCaptureCompleted(@NonNull CameraCaptureSession session,
                                                @NonNull CaptureRequest request,
                                                @NonNull TotalCaptureResult result) {
+                    TraceRecorder.getDefault().asyncEnd("capture", CAPTURE_TRACE_ID);
                     session.close();
                     mCaptureSession = null;
 //                    Log.d(TAG, "CaptureSession closed");
@@ -337,6 +390,73 @@ public class CameraHandler {
         return null;
     }
 
+    /**
+     * Selects the output size with the lowest estimated preprocessing cost: every pixel of the
+     * frame has to be decoded, and unless the center square is an integer multiple of the model
+     * input, the final resize needs a filtered pass over the model-sized output on top of that.
+     * So square sizes win over wider ones of similar height, and among those an exact multiple
+     * of the model input wins.
+     * 选择估计预处理开销最低的输出尺寸：整帧的每个像素都要解码；中心正方形不是模型输入的整数倍时，
+     * 最后的缩放还需要在模型尺寸的输出上再做一次滤波。因此正方形尺寸优于高度相近的宽尺寸，
+     * 其中恰为模型输入整数倍的尺寸最优。
+     */
+    static Size getLeastScalingCameraSize(Size[] availableCameraResolutions, Size modelSize) {
+        Size best = null;
+        long bestCost = Long.MAX_VALUE;
+        for (Size resolution : availableCameraResolutions) {
+            if (resolution.getWidth() < modelSize.getWidth()
+                    || resolution.getHeight() < modelSize.getHeight()) {
+                continue;
+            }
+            long cost = getScalingCost(resolution, modelSize);
+            if (cost < bestCost) {
+                best = resolution;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimated preprocessing cost of a frame size, in pixel operations.
+     * 一个帧尺寸估计的预处理开销，以像素操作数计。
+     */
+    static long getScalingCost(Size resolution, Size modelSize) {
+        long modelArea = (long) modelSize.getWidth() * modelSize.getHeight();
+        long cost = (long) resolution.getWidth() * resolution.getHeight();
+        if (!isIntegerMultiple(resolution, modelSize)) {
+            cost += modelArea;
+        }
+        return cost;
+    }
+
+    /**
+     * @return true if the center square of the frame scales to the model input by an integer
+     * factor. 帧的中心正方形是否以整数倍缩放到模型输入
+     */
+    static boolean isIntegerMultiple(Size resolution, Size modelSize) {
+        int side = Math.min(resolution.getWidth(), resolution.getHeight());
+        return side % modelSize.getWidth() == 0 && side % modelSize.getHeight() == 0
+                && side / modelSize.getWidth() == side / modelSize.getHeight();
+    }
+
+    /**
+     * Returns the centered square of the active sensor area for a square output size, so the ISP
+     * crops and scales it in hardware. For other aspect ratios the ISP would crop the square
+     * again to the output's aspect ratio and narrow the field of view, so null is returned and
+     * the full sensor is used.
+     * 输出尺寸为正方形时返回传感器有效区域居中的正方形，由ISP在硬件中裁剪和缩放。其他宽高比下ISP
+     * 会再按输出宽高比裁剪该正方形，导致视野变窄，因此返回null并使用整个传感器。
+     */
+    static Rect getCenterCropRegion(Rect activeArray, Size outputSize) {
+        if (activeArray == null || outputSize.getWidth() != outputSize.getHeight()) {
+            return null;
+        }
+        int side = Math.min(activeArray.width(), activeArray.height());
+        int left = activeArray.left + (activeArray.width() - side) / 2;
+        int top = activeArray.top + (activeArray.height() - side) / 2;
+        return new Rect(left, top, left + side, top + side);
+    }
 
     /**
      * Compares two {@code Size}s based on their areas ascending.
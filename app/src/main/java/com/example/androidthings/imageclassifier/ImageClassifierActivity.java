@@ -19,13 +19,15 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.hardware.camera2.CameraAccessException;
 import android.media.Image;
 import android.media.ImageReader;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.speech.tts.TextToSpeech;
 import android.speech.tts.UtteranceProgressListener;
 import android.util.Log;
@@ -38,25 +40,67 @@ import android.widget.TextView;
 
 import com.baidu.tts.client.SpeechSynthesizer;
 import com.baidu.tts.client.SpeechSynthesizerListener;
+import com.example.androidthings.imageclassifier.classifier.CascadeClassifier;
+import com.example.androidthings.imageclassifier.classifier.ClassifierWarmUp;
+import com.example.androidthings.imageclassifier.classifier.FrameClassifier;
+import com.example.androidthings.imageclassifier.classifier.LabelFilter;
+import com.example.androidthings.imageclassifier.classifier.LabelHierarchy;
+import com.example.androidthings.imageclassifier.classifier.MultiCropClassifier;
 import com.example.androidthings.imageclassifier.classifier.Recognition;
 import com.example.androidthings.imageclassifier.classifier.TensorFlowImageClassifier;
+import com.example.androidthings.imageclassifier.classifier.TiledClassifier;
 import com.example.androidthings.imageclassifier.control.InitConfig;
 import com.example.androidthings.imageclassifier.control.MySyntherizer;
-import com.example.androidthings.imageclassifier.listener.FileSaveListener;
-import com.example.androidthings.imageclassifier.utils.FileUtil;
+import com.example.androidthings.imageclassifier.control.NonBlockSyntherizer;
+import com.example.androidthings.imageclassifier.control.PcmPlayer;
+import com.example.androidthings.imageclassifier.control.PhraseCache;
+import com.example.androidthings.imageclassifier.embedding.EmbeddingIndex;
+import com.example.androidthings.imageclassifier.embedding.Neighbor;
+import com.example.androidthings.imageclassifier.listener.PhraseCaptureListener;
+import com.example.androidthings.imageclassifier.metrics.Counter;
+import com.example.androidthings.imageclassifier.metrics.Histogram;
+import com.example.androidthings.imageclassifier.metrics.Metric;
+import com.example.androidthings.imageclassifier.metrics.MetricsRegistry;
+import com.example.androidthings.imageclassifier.pool.BufferPool;
+import com.example.androidthings.imageclassifier.results.LabelCounters;
+import com.example.androidthings.imageclassifier.results.ResultBus;
+import com.example.androidthings.imageclassifier.results.ResultEvent;
+import com.example.androidthings.imageclassifier.results.ResultLog;
+import com.example.androidthings.imageclassifier.server.BatchingClassifier;
+import com.example.androidthings.imageclassifier.server.HttpServer;
+import com.example.androidthings.imageclassifier.server.InferenceEndpoint;
+import com.example.androidthings.imageclassifier.trace.TraceRecorder;
 import com.example.androidthings.imageclassifier.utils.OfflineResource;
 import com.google.android.things.contrib.driver.button.Button;
 import com.google.android.things.contrib.driver.button.ButtonInputDriver;
 import com.google.android.things.pio.Gpio;
 import com.google.android.things.pio.PeripheralManager;
 
+import org.tensorflow.lite.Interpreter;
+
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.example.androidthings.imageclassifier.Contant.appId;
 import static com.example.androidthings.imageclassifier.Contant.appKey;
@@ -77,11 +121,201 @@ public class ImageClassifierActivity extends Activity implements ImageReader.OnI
     /* GPIO按钮用于触发图像捕获的密钥代码 */
     private static final int SHUTTER_KEYCODE = KeyEvent.KEYCODE_CAMERA;
 
+    /**
+     * When true, a new capture only waits for the classifier, not for the previous results to be
+     * spoken. Results that arrive while speaking are summarized: only the latest is spoken next.
+     * 为true时新的拍摄只等待分类器，不等待上一次结果播报完毕。播报期间到达的结果会被汇总：接下来只说最新的结果。
+     */
+    private static final boolean DECOUPLE_SPEECH_FROM_CAPTURE = true;
+
+    /**
+     * Runs Baidu offline synthesis as part of startup, in parallel with camera and model loading.
+     * 是否在启动时初始化百度离线合成，与照相机和模型加载并行。
+     */
+    private static final boolean ENABLE_OFFLINE_TTS = false;
+
+    /**
+     * Phrase cache pre-synthesized by the offline engine, see
+     * {@link TtsSpeaker#getCacheablePhrases}. Missing phrases are synthesized before the speaker
+     * starts, waiting at most the timeout.
+     * 离线引擎预合成的短语缓存。说话之前先合成缓存中缺少的短语，最多等待该超时时间。
+     */
+    private static final String PHRASE_CACHE_FILE = "phrases.pcm";
+    private static final long PRESYNTHESIS_TIMEOUT_SECONDS = 120;
+
+    /**
+     * Upper bound of synthetic inferences run before the first capture.
+     * 第一次拍摄之前合成推理次数的上限。
+     */
+    private static final int WARM_UP_RUNS = 8;
+
+    /**
+     * When true, the LED turns on as soon as the classifier exists and warm-up continues between
+     * captures; otherwise ready is only reported once inference latency is steady.
+     * 为true时分类器创建后LED立即点亮，预热在拍摄之间继续进行；否则推理延迟稳定后才报告就绪。
+     */
+    private static final boolean WARM_UP_IN_BACKGROUND = false;
+
+    /**
+     * Decode only the center square of each frame. Compare both paths on the device with
+     * ReplayBenchmarkInstrumentationTest#compareRegionDecode before turning it on.
+     * 只解码每帧的中心正方形。启用前请先在设备上用compareRegionDecode比较两种路径。
+     */
+    private static final boolean REGION_DECODE = false;
+
+    /**
+     * Crop, rotate by the sensor orientation and resize while packing the model input, instead
+     * of drawing a model-sized bitmap first.
+     * 在打包模型输入时完成裁剪、按传感器方向旋转和缩放，而不是先绘制模型尺寸的位图。
+     */
+    private static final boolean FUSED_PREPROCESSING = true;
+
+    /**
+     * Views (crops and mirror images) classified per frame in test-time augmentation mode; 1
+     * turns the mode off. Needs FUSED_PREPROCESSING.
+     * 测试时增强模式下每帧分类的视图（裁剪和镜像）数；为1时关闭。需要FUSED_PREPROCESSING。
+     */
+    private static final int TTA_VIEWS = 1;
+
+    /** Per-frame latency budget that reduces TTA_VIEWS when exceeded. 超出后减少视图数的单帧延迟预算 */
+    private static final long TTA_BUDGET_MILLIS = 600;
+
+    /**
+     * Classify the whole frame as overlapping tiles instead of its center square. Needs
+     * FUSED_PREPROCESSING and full-frame decoding; takes precedence over TTA_VIEWS.
+     * 将整帧分为相互重叠的图块分类，而不只是中心正方形。需要FUSED_PREPROCESSING且解码整帧；优先于TTA_VIEWS。
+     */
+    private static final boolean TILED_CLASSIFICATION = false;
+
+    /** Tile side in frame pixels, overlap between neighbours, and tiles per batch. 图块边长（帧像素）、相邻重叠比例和每批次图块数 */
+    private static final int TILE_SIZE = 448;
+    private static final float TILE_OVERLAP = 0.25f;
+    private static final int TILE_BATCH = 4;
+
+    /**
+     * Screen every frame with a small low-resolution model first and only run MobileNet when
+     * one of CASCADE_CLASSES scores at least CASCADE_THRESHOLD. Needs FUSED_PREPROCESSING.
+     * 先用低分辨率的小模型筛选每帧，只有CASCADE_CLASSES之一的分数达到CASCADE_THRESHOLD时才运行MobileNet。
+     * 需要FUSED_PREPROCESSING。
+     */
+    private static final boolean CASCADE_SCREENING = false;
+    private static final Size SCREENER_IMAGE_SIZE = new Size(128, 128);
+    /** Screener labels that wake the full model; empty for anything but background. 唤醒完整模型的筛选标签；为空时为除背景外的任何标签 */
+    private static final String[] CASCADE_CLASSES = {};
+    private static final float CASCADE_THRESHOLD = 0.3f;
+
+    /**
+     * Model output holding the penultimate-layer embedding, or -1 to turn off matching frames
+     * against the custom classes enrolled in CUSTOM_CLASSES_FILE. Needs FUSED_PREPROCESSING and a
+     * model that exports that layer.
+     * 存放倒数第二层嵌入向量的模型输出下标；为-1时不与CUSTOM_CLASSES_FILE中登记的自定义类别匹配。
+     * 需要FUSED_PREPROCESSING以及导出该层的模型。
+     */
+    private static final int EMBEDDING_OUTPUT = -1;
+    private static final int EMBEDDING_DIMS = 1024;
+    /** Index in the app files directory, built with EmbeddingIndex.save. 应用文件目录中由EmbeddingIndex.save生成的索引 */
+    private static final String CUSTOM_CLASSES_FILE = "custom_classes.idx";
+    /** Cosine similarity needed to report a custom class. 报告自定义类别所需的余弦相似度 */
+    private static final float CUSTOM_CLASS_THRESHOLD = 0.8f;
+
+    /**
+     * Labels reported by the classifier, as titles or indices into labels.txt. A non-empty
+     * LABEL_ALLOW_LIST keeps only those labels; otherwise LABEL_DENY_LIST drops its labels.
+     * 分类器报告的标签，为标签名称或labels.txt中的下标。LABEL_ALLOW_LIST非空时只保留其中的标签，
+     * 否则去掉LABEL_DENY_LIST中的标签。
+     */
+    private static final String[] LABEL_ALLOW_LIST = {};
+    private static final String[] LABEL_DENY_LIST = {};
+
+    /**
+     * Hierarchy level whose categories are reported instead of the fine labels, 0 for the
+     * labels themselves. The hierarchy is read from HIERARCHY_FILE in the assets.
+     * 代替细粒度标签报告的层级，为0时报告标签本身。层级从资产中的HIERARCHY_FILE读取。
+     */
+    private static final int HIERARCHY_LEVEL = 0;
+    private static final String HIERARCHY_FILE = "label_hierarchy.txt";
+
+    /** Result events kept for slow subscribers, and results per event. 为慢速订阅者保留的结果事件数，以及每个事件的结果数 */
+    private static final int RESULT_BUS_CAPACITY = 64;
+    private static final int RESULTS_PER_EVENT = 5;
+
+    /**
+     * Result history kept in the app files directory: records per segment file and total size
+     * after which the oldest segments are deleted (about two weeks at one frame per second).
+     * 保存在应用文件目录中的结果历史：每个段文件的记录数，以及超过后删除最早段的总大小（每秒一帧约两周）。
+     */
+    private static final String RESULT_LOG_DIR = "results";
+    private static final int RESULT_LOG_SEGMENT_RECORDS = 16384;
+    private static final long RESULT_LOG_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** Counter copies of the per-label rolling counts, one per writing thread. 每标签滚动计数的计数器副本数，每个写入线程一份 */
+    private static final int LABEL_COUNTER_STRIPES = 2;
+
+    /**
+     * Port of the local HTTP inference endpoint, -1 to disable it. Other processes post images to
+     * {@code /classify} on loopback and get the best labels as JSON; requests that arrive within
+     * the window run as one batch of a dedicated interpreter. {@code /labels/counts} serves the
+     * rolling per-label counts.
+     * 本地HTTP推理端点的端口，-1表示禁用。其他进程在回环地址上向/classify提交图像，以JSON获得最好的标签；
+     * 窗口内到达的请求在专用解释器上作为一个批次运行。/labels/counts提供每标签的滚动计数。
+     */
+    private static final int INFERENCE_SERVER_PORT = -1;
+    private static final int INFERENCE_MAX_BATCH = 4;
+    private static final long INFERENCE_BATCH_WINDOW_MICROS = 5000;
+    private static final long INFERENCE_TIMEOUT_MILLIS = 10000;
+    private static final int INFERENCE_MAX_CONNECTIONS = 16;
+    private static final int INFERENCE_MAX_BODY_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * Port serving the metrics as Prometheus text on {@code /metrics}, -1 to disable it. The same
+     * text is written to METRICS_FILE in the app files directory on destroy and on demand with
+     * {@code adb shell dumpsys activity com.example.androidthings.imageclassifier metrics}.
+     * 在/metrics上以Prometheus文本提供指标的端口，-1表示禁用。同样的文本在销毁时以及按需执行
+     * adb shell dumpsys activity com.example.androidthings.imageclassifier metrics时写入应用文件目录中的METRICS_FILE。
+     */
+    private static final int METRICS_SERVER_PORT = -1;
+    private static final String METRICS_FILE = "metrics.prom";
+
+    /**
+     * Capacity of the trace-event timeline of startup steps and pipeline stages, 0 to disable it,
+     * e.g. 65536 for about ten minutes of frames. The timeline is written as Chrome trace JSON to
+     * TRACE_FILE on destroy and with {@code dumpsys activity ... trace}, and served on
+     * {@code /trace} by the metrics server. Open it in Perfetto or chrome://tracing.
+     * 启动步骤和流水线阶段trace-event时间线的容量，0表示禁用，例如65536约可记录十分钟的帧。时间线在销毁时以及执行
+     * dumpsys activity ... trace时以Chrome trace JSON写入TRACE_FILE，并由指标服务器在/trace上提供。
+     * 可在Perfetto或chrome://tracing中打开。
+     */
+    private static final int TRACE_EVENTS = 0;
+    private static final String TRACE_FILE = "trace.json";
+
+    /**
+     * Records where every pooled buffer and bitmap is acquired, so that the ones never released
+     * are logged with their stack on destroy. Costs a stack capture per acquire.
+     * 记录每个池化缓冲区和位图被取出的位置，销毁时记录未归还对象的调用栈。每次取出都要记录一次调用栈。
+     */
+    private static final boolean TRACK_BUFFER_LEAKS = false;
+
+    private static final int STARTUP_THREADS = 4;
+    private static final long TTS_INIT_TIMEOUT_SECONDS = 30;
+
     private ImagePreprocessor mImagePreprocessor;
     private TextToSpeech mTtsEngine;
-    private TtsSpeaker mTtsSpeaker;
+    private PcmPlayer mPcmPlayer;
+    /** Set once a speech engine is ready, null without speech. 语音引擎就绪后设置，没有语音时为null */
+    private volatile TtsSpeaker mTtsSpeaker;
+    private volatile SpeechScheduler mSpeechScheduler;
     private CameraHandler mCameraHandler;
     private TensorFlowImageClassifier mTensorFlowClassifier;
+    /**
+     * Classifies the frames of the fused path in the active mode, null without fused
+     * preprocessing.
+     * 以启用的模式对融合路径的帧进行分类，未启用融合预处理时为null
+     */
+    private FrameClassifier mFrameClassifier;
+    private EmbeddingIndex mEmbeddingIndex;
+    private float[] mEmbedding;
+    private Interpreter mInterpreter;
+    private List<String> mLabels;
 
     private HandlerThread mBackgroundThread;
     private Handler mBackgroundHandler;
@@ -89,7 +323,37 @@ public class ImageClassifierActivity extends Activity implements ImageReader.OnI
     private ImageView mImage;
     private TextView mResultText;
 
-    private AtomicBoolean mReady = new AtomicBoolean(false);
+    private PipelineState mPipelineState;
+    private final AtomicReference<PendingSpeech> mPendingSpeech = new AtomicReference<>();
+    private final AtomicLong mFrameCounter = new AtomicLong();
+    /** Runs subscribers that only do a little bookkeeping on the publishing thread. 在发布线程上运行只做少量记录的订阅者 */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    private final ResultBus mResultBus = new ResultBus(RESULT_BUS_CAPACITY, RESULTS_PER_EVENT);
+    private ExecutorService mResultsExecutor;
+    private ExecutorService mSpeechExecutor;
+    private ResultLog mResultLog;
+    private volatile LabelCounters mLabelCounters;
+    private BatchingClassifier mBatchingClassifier;
+    private HttpServer mInferenceServer;
+    private HttpServer mMetricsServer;
+
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    // 两个帧计数器都只在后台线程上递增
+    private final Counter mFramesCaptured = mMetrics.singleWriterCounter(
+            "imageclassifier_frames_captured_total", "Frames received from the camera.");
+    private final Counter mFramesClassified = mMetrics.singleWriterCounter(
+            "imageclassifier_frames_classified_total", "Frames whose results were published.");
+    private final Histogram mPreprocessSeconds = mMetrics.histogram(
+            "imageclassifier_preprocess_seconds", "Decoding and packing one frame.",
+            Histogram.latencySeconds());
+    private final Histogram mInferenceSeconds = mMetrics.histogram(
+            "imageclassifier_inference_seconds", "Classifying one packed frame.",
+            Histogram.latencySeconds());
     private ButtonInputDriver mButtonDriver;
     private Gpio mReadyLED;
     private MySyntherizer synthesizer;
@@ -109,16 +373,287 @@ public class ImageClassifierActivity extends Activity implements ImageReader.OnI
 
     //初始化
     private void init() {
+        BufferPool.getDefault().setTrackLeaks(TRACK_BUFFER_LEAKS);
+        if (TRACE_EVENTS > 0) {
+            TraceRecorder.getDefault().enable(TRACE_EVENTS);
+        }
         if (isAndroidThingsDevice(this)) {
             initPIO();
         }
 
+        mPipelineState = new PipelineState(DECOUPLE_SPEECH_FROM_CAPTURE,
+                new PipelineState.Listener() {
+                    @Override
+                    public void onReadyChanged(boolean ready) {
+                        setReady(ready);
+                    }
+                });
+
         mBackgroundThread = new HandlerThread("BackgroundThread");
         mBackgroundThread.start();
         mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        subscribeResults();
+        registerMetrics();
         mBackgroundHandler.post(mInitializeOnBackground);
     }
 
+    /**
+     * Registers the metrics that are read from their owners when exported.
+     * 注册导出时从其持有者读取的指标。
+     */
+    private void registerMetrics() {
+        mMetrics.counter("imageclassifier_captures_rejected_total",
+                "Shutter presses ignored because the pipeline was busy.", new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return mPipelineState.getRejectedCaptureCount();
+                    }
+                });
+        mMetrics.counter("imageclassifier_result_events_dropped_total",
+                "Result events overwritten before a subscriber read them.", new Metric.Source() {
+                    @Override
+                    public double value() {
+                        long dropped = 0;
+                        for (ResultBus.Subscriber subscriber : mResultBus.getSubscribers()) {
+                            dropped += subscriber.getDropped();
+                        }
+                        return dropped;
+                    }
+                });
+        mMetrics.gauge("imageclassifier_capture_state",
+                "Capture state: 0 initializing, 1 ready, 2 capturing, 3 classifying.",
+                new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return mPipelineState.getCapture().ordinal();
+                    }
+                });
+        mMetrics.gauge("imageclassifier_speech_state", "Speech state: 0 silent, 1 speaking.",
+                new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return mPipelineState.getSpeech().ordinal();
+                    }
+                });
+        mMetrics.gauge("imageclassifier_ready_for_capture",
+                "1 if a shutter press starts a capture.", new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return mPipelineState.isReadyForCapture() ? 1 : 0;
+                    }
+                });
+        mMetrics.gauge("imageclassifier_tts_queue_depth",
+                "Utterances queued or being spoken.", new Metric.Source() {
+                    @Override
+                    public double value() {
+                        SpeechScheduler scheduler = mSpeechScheduler;
+                        return scheduler != null ? scheduler.getQueueDepth() : 0;
+                    }
+                });
+        mMetrics.gauge("imageclassifier_speech_lag_seconds",
+                "Capture-to-speech delay of the last utterance that started.", new Metric.Source() {
+                    @Override
+                    public double value() {
+                        SpeechScheduler scheduler = mSpeechScheduler;
+                        return scheduler != null ? scheduler.getLastLagMillis() / 1e3 : 0;
+                    }
+                });
+        mMetrics.gauge("imageclassifier_speech_lag_max_seconds",
+                "Largest capture-to-speech delay so far.", new Metric.Source() {
+                    @Override
+                    public double value() {
+                        SpeechScheduler scheduler = mSpeechScheduler;
+                        return scheduler != null ? scheduler.getMaxLagMillis() / 1e3 : 0;
+                    }
+                });
+        mMetrics.counter("imageclassifier_speech_utterances_total",
+                "Utterances queued for speech.", new Metric.Source() {
+                    @Override
+                    public double value() {
+                        SpeechScheduler scheduler = mSpeechScheduler;
+                        return scheduler != null ? scheduler.getSpokenCount() : 0;
+                    }
+                });
+        mMetrics.counter("imageclassifier_speech_coalesced_total",
+                "Answers skipped because they repeated the previous one.", new Metric.Source() {
+                    @Override
+                    public double value() {
+                        SpeechScheduler scheduler = mSpeechScheduler;
+                        return scheduler != null ? scheduler.getCoalescedCount() : 0;
+                    }
+                });
+        mMetrics.counter("imageclassifier_speech_flushed_total",
+                "Utterances of older frames dropped by a newer frame.", new Metric.Source() {
+                    @Override
+                    public double value() {
+                        SpeechScheduler scheduler = mSpeechScheduler;
+                        return scheduler != null ? scheduler.getFlushedCount() : 0;
+                    }
+                });
+        mMetrics.gauge("imageclassifier_buffer_pool_in_use_bytes",
+                "Pooled buffer and bitmap bytes handed out.", new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return BufferPool.getDefault().getBytesInUse();
+                    }
+                });
+        mMetrics.gauge("imageclassifier_buffer_pool_idle_bytes",
+                "Pooled buffer and bitmap bytes kept for reuse.", new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return BufferPool.getDefault().getBytesIdle();
+                    }
+                });
+        mMetrics.gauge("process_java_heap_used_bytes", "Java heap in use.", new Metric.Source() {
+            @Override
+            public double value() {
+                Runtime runtime = Runtime.getRuntime();
+                return runtime.totalMemory() - runtime.freeMemory();
+            }
+        });
+        mMetrics.gauge("process_java_heap_max_bytes", "Java heap limit.", new Metric.Source() {
+            @Override
+            public double value() {
+                return Runtime.getRuntime().maxMemory();
+            }
+        });
+        mMetrics.gauge("process_native_heap_allocated_bytes", "Native heap in use.",
+                new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return Debug.getNativeHeapAllocatedSize();
+                    }
+                });
+    }
+
+    /**
+     * Serves the metrics on {@code /metrics}. 在/metrics上提供指标。
+     */
+    private void startMetricsServer() throws IOException {
+        mMetricsServer = new HttpServer(null, METRICS_SERVER_PORT, 4, 0)
+                .route("/metrics", new HttpServer.Handler() {
+                    @Override
+                    public HttpServer.Response handle(HttpServer.Request request) {
+                        return new HttpServer.Response(200, MetricsRegistry.CONTENT_TYPE,
+                                mMetrics.toPrometheus().getBytes(StandardCharsets.UTF_8));
+                    }
+                });
+        if (TRACE_EVENTS > 0) {
+            mMetricsServer.route("/trace", new HttpServer.Handler() {
+                @Override
+                public HttpServer.Response handle(HttpServer.Request request) throws IOException {
+                    StringWriter json = new StringWriter();
+                    TraceRecorder.getDefault().writeJson(json, Process.myPid());
+                    return HttpServer.Response.json(200, json.toString());
+                }
+            });
+        }
+        mMetricsServer.start();
+        Log.i(TAG, "指标端点监听端口 " + mMetricsServer.getPort());
+    }
+
+    private void dumpMetrics() {
+        try {
+            mMetrics.writeTo(new File(getFilesDir(), METRICS_FILE));
+        } catch (IOException e) {
+            Log.w(TAG, "无法写入指标文件", e);
+        }
+    }
+
+    private void dumpTrace() {
+        TraceRecorder trace = TraceRecorder.getDefault();
+        try {
+            trace.writeTo(new File(getFilesDir(), TRACE_FILE), Process.myPid());
+            Log.i(TAG, "时间线已写入 " + TRACE_FILE + "，共记录 " + trace.getRecorded() + " 个事件");
+        } catch (IOException e) {
+            Log.w(TAG, "无法写入时间线文件", e);
+        }
+    }
+
+    /**
+     * {@code dumpsys activity ... metrics} prints the metrics as Prometheus text and writes them
+     * to METRICS_FILE, {@code dumpsys activity ... trace} writes the timeline to TRACE_FILE;
+     * other arguments dump the activity as usual.
+     * dumpsys activity ... metrics以Prometheus文本打印指标并写入METRICS_FILE，dumpsys activity ... trace
+     * 将时间线写入TRACE_FILE；其他参数照常转储活动。
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length > 0 && "metrics".equals(args[0])) {
+            writer.print(mMetrics.toPrometheus());
+            dumpMetrics();
+            return;
+        }
+        if (args != null && args.length > 0 && "trace".equals(args[0])) {
+            // 时间线可能有数MB，只写入文件，不打印
+            dumpTrace();
+            writer.println(new File(getFilesDir(), TRACE_FILE).getAbsolutePath());
+            return;
+        }
+        super.dump(prefix, fd, writer, args);
+    }
+
+    /**
+     * Subscribes the consumers of the classification results to the result bus.
+     * 将分类结果的消费者订阅到结果总线。
+     */
+    private void subscribeResults() {
+        mResultBus.subscribe("ui", new ResultBus.Listener() {
+            @Override
+            public void onResult(ResultEvent event) {
+                if (event.getCount() == 0) {
+//                    mResultText.setText("I don't understand what I see");
+                    mResultText.setText("我不明白这是什么");
+                    return;
+                }
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < event.getCount(); i++) {
+                    sb.append(event.getTitle(i));
+                    if (i < event.getCount() - 2) {
+                        sb.append(", ");
+                    } else if (i == event.getCount() - 2) {
+                        sb.append(" or ");
+                    }
+                }
+                mResultText.setText(sb.toString());
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                runOnUiThread(command);
+            }
+        });
+
+        // 语音在自己的线程上排队，TTS引擎变慢时不会拖住分类线程
+        mSpeechExecutor = Executors.newSingleThreadExecutor();
+        mResultBus.subscribe("tts", new ResultBus.Listener() {
+            @Override
+            public void onResult(ResultEvent event) {
+                if (mTtsSpeaker != null) {
+                    // speak out loud the result of the image recognition
+                    // 大声说出图像识别的结果
+                    speakResults(event.toRecognitions(), event.getFrameId(),
+                            event.getCaptureTimeMillis());
+                }
+            }
+        }, mSpeechExecutor);
+
+        mResultsExecutor = Executors.newSingleThreadExecutor();
+        mResultBus.subscribe("log", new ResultBus.Listener() {
+            @Override
+            public void onResult(ResultEvent event) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < event.getCount(); i++) {
+                    sb.append(i == 0 ? "" : ", ").append(event.getTitle(i)).append(" (")
+                            .append(event.getScore(i) * 100 / 255).append("%)");
+                }
+                /* 从Tensorflow获得以下结果 */
+//                Log.d(TAG, "Got the following results from Tensorflow: " + results);
+                Log.d(TAG, "从Tensorflow获得以下结果 (帧 " + event.getFrameId() + "): " + sb);
+            }
+        }, mResultsExecutor);
+    }
+
     /**
      * This method should only be called when running on an Android Things device.
      * 只有在Android Things设备上运行时才应调用此方法。
@@ -145,78 +680,390 @@ public class ImageClassifierActivity extends Activity implements ImageReader.OnI
     private Runnable mInitializeOnBackground = new Runnable() {
         @Override
         public void run() {
-            //获得照相机
-            mCameraHandler = CameraHandler.getInstance();
-            try {
-                mCameraHandler.initializeCamera(ImageClassifierActivity.this,
-                        mBackgroundHandler, MODEL_IMAGE_SIZE, ImageClassifierActivity.this);
-                CameraHandler.dumpFormatInfo(ImageClassifierActivity.this);
-            } catch (CameraAccessException e) {
-                throw new RuntimeException(e);
+            // 互不依赖的步骤并发执行；预处理器和分类器就绪后立即允许拍摄，不等待TTS
+            StartupGraph graph = new StartupGraph(mStartupFailureHandler);
+            // 融合路径的分类模式，最多启用一种
+            final boolean tiled = FUSED_PREPROCESSING && !REGION_DECODE && TILED_CLASSIFICATION;
+            final boolean multiCrop = FUSED_PREPROCESSING && !tiled && TTA_VIEWS > 1;
+            final boolean cascade = FUSED_PREPROCESSING && !tiled && !multiCrop
+                    && CASCADE_SCREENING;
+            final boolean plain = FUSED_PREPROCESSING && !tiled && !multiCrop && !cascade;
+            graph.add("camera", new StartupGraph.Step() {
+                @Override
+                public void run() throws Exception {
+                    //获得照相机
+                    mCameraHandler = CameraHandler.getInstance();
+                    mCameraHandler.initializeCamera(ImageClassifierActivity.this,
+                            mBackgroundHandler, MODEL_IMAGE_SIZE, ImageClassifierActivity.this);
+                    CameraHandler.dumpFormatInfo(ImageClassifierActivity.this);
+                }
+            });
+            graph.add("preprocessor", new StartupGraph.Step() {
+                @Override
+                public void run() {
+                    Size cameraCaptureSize = mCameraHandler.getImageDimensions();
+                    if (cameraCaptureSize == null) {
+                        throw new IllegalStateException("No camera capture size");
+                    }
+                    mImagePreprocessor =
+                            new ImagePreprocessor(cameraCaptureSize.getWidth(), cameraCaptureSize.getHeight(),
+                                    MODEL_IMAGE_SIZE.getWidth(), MODEL_IMAGE_SIZE.getHeight());
+                    mImagePreprocessor.setRegionDecode(REGION_DECODE);
+                    // 分块分类读取整帧，其他融合路径只读取居中裁剪区域
+                    mImagePreprocessor.setCenterCropOnly(!TILED_CLASSIFICATION);
+                    mImagePreprocessor.setSensorOrientation(mCameraHandler.getSensorOrientation());
+                }
+            }, "camera");
+            graph.add("model", new StartupGraph.Step() {
+                @Override
+                public void run() throws Exception {
+                    mInterpreter = TensorFlowImageClassifier.createInterpreter(
+                            ImageClassifierActivity.this);
+                }
+            });
+            graph.add("labels", new StartupGraph.Step() {
+                @Override
+                public void run() {
+                    mLabels = TensorFlowImageClassifier.readLabels(ImageClassifierActivity.this);
+                }
+            });
+            graph.add("classifier", new StartupGraph.Step() {
+                @Override
+                public void run() {
+                    mTensorFlowClassifier = new TensorFlowImageClassifier(mInterpreter, mLabels,
+                            MODEL_IMAGE_SIZE.getWidth(), MODEL_IMAGE_SIZE.getHeight());
+                    if (EMBEDDING_OUTPUT >= 0) {
+                        mTensorFlowClassifier.enableEmbedding(EMBEDDING_OUTPUT, EMBEDDING_DIMS);
+                    }
+                    mTensorFlowClassifier.setLabelFilter(createLabelFilter());
+                    if (HIERARCHY_LEVEL > 0) {
+                        mTensorFlowClassifier.setHierarchy(LabelHierarchy.load(
+                                ImageClassifierActivity.this, HIERARCHY_FILE, mLabels),
+                                HIERARCHY_LEVEL);
+                    }
+                    if (plain) {
+                        mFrameClassifier = mTensorFlowClassifier;
+                    }
+                }
+            }, "model", "labels");
+
+            if (FUSED_PREPROCESSING && EMBEDDING_OUTPUT >= 0) {
+                graph.add("custom_classes", new StartupGraph.Step() {
+                    @Override
+                    public void run() throws Exception {
+                        File file = new File(getFilesDir(), CUSTOM_CLASSES_FILE);
+                        if (!file.exists()) {
+                            Log.i(TAG, "没有自定义类别索引 " + file);
+                            return;
+                        }
+                        EmbeddingIndex index = EmbeddingIndex.load(file);
+                        if (index.getDims() != EMBEDDING_DIMS) {
+                            Log.w(TAG, "自定义类别索引的维度 " + index.getDims() + " 与模型不符");
+                            return;
+                        }
+                        mEmbedding = new float[EMBEDDING_DIMS];
+                        mEmbeddingIndex = index;
+                        Log.i(TAG, "已加载 " + index.size() + " 个自定义类别向量");
+                    }
+                });
+            }
+
+            if (ENABLE_OFFLINE_TTS) {
+                graph.add("voice_assets", new StartupGraph.Step() {
+                    @Override
+                    public void run() throws Exception {
+                        if (createOfflineResource(Contant.offlineVoice) == null) {
+                            throw new IOException("Cannot extract offline voice assets");
+                        }
+                    }
+                });
+                graph.add("tts", new StartupGraph.Step() {
+                    @Override
+                    public void run() throws Exception {
+                        initialTts();
+                    }
+                }, "voice_assets", "labels");
+            } else {
+                graph.add("tts", new StartupGraph.Step() {
+                    @Override
+                    public void run() throws Exception {
+                        initSystemTts();
+                    }
+                });
             }
-            Size cameraCaptureSize = mCameraHandler.getImageDimensions();
-
-            if (cameraCaptureSize != null) {
-                mImagePreprocessor =
-                        new ImagePreprocessor(cameraCaptureSize.getWidth(), cameraCaptureSize.getHeight(),
-                                MODEL_IMAGE_SIZE.getWidth(), MODEL_IMAGE_SIZE.getHeight());
-
-//                mTtsSpeaker = new TtsSpeaker();
-//                mTtsSpeaker.setHasSenseOfHumor(true);
-//                mTtsEngine = new TextToSpeech(ImageClassifierActivity.this,
-//                        new TextToSpeech.OnInitListener() {
-//                            @Override
-//                            public void onInit(int status) {
-//                                if (status == TextToSpeech.SUCCESS) {
-//                                    mTtsEngine.setLanguage(Locale.CHINA);
-//                                    mTtsEngine.setOnUtteranceProgressListener(utteranceListener);
-//                                    mTtsSpeaker.speakReady(mTtsEngine);
-//                                    Log.i(TAG, "onInit: status" + "操作成功");
-//                                } else {
-//                                    /* “无法打开TTS引擎 忽略文本到语音” */
-//                                    Log.w(TAG, "Could not open TTS Engine (onInit status=" + status
-//                                            + "). Ignoring text to speech");
-//                                    mTtsEngine = null;
-//                                }
-//                            }
-//                        });
 
+            // 预热在分类器创建之后：前台模式下预热结束才就绪；后台模式下LED先亮，预热穿插在拍摄之间进行
+            final String classifierReady = WARM_UP_IN_BACKGROUND ? "classifier" : "warmup";
+            if (!WARM_UP_IN_BACKGROUND) {
+                graph.add("warmup", new StartupGraph.Step() {
+                    @Override
+                    public void run() {
+                        new ClassifierWarmUp(mTensorFlowClassifier, WARM_UP_RUNS).run();
+                    }
+                }, "classifier");
+            }
 
+            if (tiled) {
+                graph.add("tiled", new StartupGraph.Step() {
+                    @Override
+                    public void run() throws Exception {
+                        TiledClassifier classifier = new TiledClassifier(
+                                TensorFlowImageClassifier.createInterpreter(
+                                        ImageClassifierActivity.this),
+                                mLabels, MODEL_IMAGE_SIZE.getWidth(), MODEL_IMAGE_SIZE.getHeight(),
+                                TILE_SIZE, TILE_OVERLAP, TILE_BATCH,
+                                Runtime.getRuntime().availableProcessors());
+                        classifier.setLabelFilter(createLabelFilter());
+                        mFrameClassifier = classifier;
+                    }
+                }, "labels");
+            }
+            if (cascade) {
+                graph.add("cascade", new StartupGraph.Step() {
+                    @Override
+                    public void run() throws Exception {
+                        mFrameClassifier = new CascadeClassifier(
+                                CascadeClassifier.createScreener(ImageClassifierActivity.this),
+                                CascadeClassifier.readScreenerLabels(ImageClassifierActivity.this),
+                                SCREENER_IMAGE_SIZE.getWidth(), SCREENER_IMAGE_SIZE.getHeight(),
+                                CASCADE_CLASSES, CASCADE_THRESHOLD, mTensorFlowClassifier);
+                    }
+                }, "classifier");
+            }
+            if (multiCrop) {
+                // 批次大小会改变，因此使用单独的解释器
+                graph.add("multi_crop", new StartupGraph.Step() {
+                    @Override
+                    public void run() throws Exception {
+                        MultiCropClassifier classifier = new MultiCropClassifier(
+                                TensorFlowImageClassifier.createInterpreter(
+                                        ImageClassifierActivity.this),
+                                mLabels, MODEL_IMAGE_SIZE.getWidth(), MODEL_IMAGE_SIZE.getHeight(),
+                                TTA_VIEWS, TTA_BUDGET_MILLIS);
+                        classifier.setLabelFilter(createLabelFilter());
+                        mFrameClassifier = classifier;
+                    }
+                }, "labels");
+            }
 
-                try {
-                    mTensorFlowClassifier = new TensorFlowImageClassifier(ImageClassifierActivity.this,
-                            MODEL_IMAGE_SIZE.getWidth(), MODEL_IMAGE_SIZE.getHeight());
-                } catch (IOException e) {
-                    /* 无法初始化TFLite分类器 */
-                    throw new IllegalStateException("Cannot initialize TFLite Classifier", e);
+            // 结果历史不影响就绪，打开失败时只记录日志
+            graph.add("result_log", new StartupGraph.Step() {
+                @Override
+                public void run() throws Exception {
+                    mResultLog = new ResultLog(new File(getFilesDir(), RESULT_LOG_DIR),
+                            RESULT_LOG_SEGMENT_RECORDS, RESULT_LOG_MAX_BYTES, mLabels.size());
+                    subscribeResultLog(mResultLog);
                 }
-
-                setReady(true);
+            }, "labels");
+            graph.add("label_counts", new StartupGraph.Step() {
+                @Override
+                public void run() {
+                    mLabelCounters = new LabelCounters(mLabels.size(), LABEL_COUNTER_STRIPES);
+                    subscribeLabelCounters(mLabelCounters);
+                }
+            }, "labels");
+            if (INFERENCE_SERVER_PORT >= 0) {
+                // 推理端点不影响就绪，启动失败时只记录日志
+                graph.add("inference_server", new StartupGraph.Step() {
+                    @Override
+                    public void run() throws Exception {
+                        startInferenceServer();
+                    }
+                }, "labels", "label_counts");
             }
+            if (METRICS_SERVER_PORT >= 0) {
+                graph.add("metrics_server", new StartupGraph.Step() {
+                    @Override
+                    public void run() throws Exception {
+                        startMetricsServer();
+                    }
+                });
+            }
+
+            // 就绪所需的步骤：预处理器、分类器以及启用的附加分类模式
+            List<String> ready = new ArrayList<>();
+            ready.add("preprocessor");
+            ready.add(classifierReady);
+            if (tiled) ready.add("tiled");
+            if (multiCrop) ready.add("multi_crop");
+            if (cascade) ready.add("cascade");
+            if (FUSED_PREPROCESSING && EMBEDDING_OUTPUT >= 0) ready.add("custom_classes");
+            graph.whenDone(new Runnable() {
+                @Override
+                public void run() {
+                    mPipelineState.setCapture(PipelineState.Capture.READY);
+                    if (WARM_UP_IN_BACKGROUND) {
+                        mBackgroundHandler.post(new WarmUpSlice(
+                                new ClassifierWarmUp(mTensorFlowClassifier, WARM_UP_RUNS)));
+                    }
+                }
+            }, ready.toArray(new String[ready.size()]));
 
+            // 启动结束后线程自动退出
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(STARTUP_THREADS, STARTUP_THREADS,
+                    1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+            graph.start(executor);
+        }
+    };
+
+    /**
+     * @return the filter of LABEL_ALLOW_LIST or LABEL_DENY_LIST, null if both are empty.
+     * 根据LABEL_ALLOW_LIST或LABEL_DENY_LIST创建的过滤器，两者都为空时返回null
+     */
+    private LabelFilter createLabelFilter() {
+        if (LABEL_ALLOW_LIST.length > 0) {
+            return LabelFilter.allow(mLabels, LABEL_ALLOW_LIST);
+        } else if (LABEL_DENY_LIST.length > 0) {
+            return LabelFilter.deny(mLabels, LABEL_DENY_LIST);
+        }
+        return null;
+    }
+
+    /**
+     * Runs one warm-up inference per message on the background thread, so a capture posted
+     * meanwhile only waits for a single synthetic inference.
+     * 在后台线程上每条消息运行一次预热推理，期间到来的拍摄最多只需等待一次合成推理。
+     */
+    private class WarmUpSlice implements Runnable {
+        private final ClassifierWarmUp mWarmUp;
+
+        WarmUpSlice(ClassifierWarmUp warmUp) {
+            mWarmUp = warmUp;
+        }
+
+        @Override
+        public void run() {
+            if (mBackgroundHandler != null && mWarmUp.step()) {
+                mBackgroundHandler.post(this);
+            }
+        }
+    }
 
+    private StartupGraph.FailureHandler mStartupFailureHandler = new StartupGraph.FailureHandler() {
+        @Override
+        public void onStepFailed(String name, final Throwable error) {
+            if ("voice_assets".equals(name) || "tts".equals(name)) {
+                // 语音不是拍照分类的必要条件，失败时不播报
+                Log.w(TAG, "语音初始化失败，忽略语音合成", error);
+                return;
+            }
+            if ("camera".equals(name) || "preprocessor".equals(name)) {
+                // 与原来一样：没有照相机或拍摄尺寸时保持未就绪，不让应用崩溃
+                Log.e(TAG, "照相机初始化失败，无法拍摄", error);
+                return;
+            }
+            if ("result_log".equals(name)) {
+                Log.w(TAG, "无法打开结果历史，不保存历史", error);
+                return;
+            }
+            if ("inference_server".equals(name)) {
+                Log.w(TAG, "无法启动推理端点", error);
+                return;
+            }
+            if ("metrics_server".equals(name)) {
+                Log.w(TAG, "无法启动指标端点", error);
+                return;
+            }
+            // 与原来一样让应用崩溃，在主线程抛出
+            new Handler(getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    /* 无法初始化TFLite分类器 */
+                    throw new IllegalStateException(
+                            "Cannot initialize TFLite Classifier, step " + name + " failed", error);
+                }
+            });
         }
     };
 
+    /**
+     * 在启动线程中初始化百度离线合成，阻塞到引擎初始化结束，再预合成短语缓存中缺少的短语
+     */
+    protected void initialTts() throws InterruptedException {
+        // 此处可以改为 含有您业务逻辑的SpeechSynthesizerListener的实现类
+        PhraseCaptureListener listener = new PhraseCaptureListener(new Handler(getMainLooper()));
+        Map<String, String> params = getParams();
+
+        // appId appKey secretKey 网站上您申请的应用获取。注意使用离线合成功能的话，需要应用中填写您app的包名。包名在build.gradle中获取。
+        InitConfig initConfig = new InitConfig(appId, appKey, secretKey, ttsMode, params, listener);
+        NonBlockSyntherizer nonBlock =
+                new NonBlockSyntherizer(this, initConfig, new Handler(getMainLooper()));
+        if (!nonBlock.awaitInit(TTS_INIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            nonBlock.release();
+            throw new IllegalStateException("SpeechSynthesizer.initTts failed");
+        }
+        synthesizer = nonBlock;
+        final SpeechScheduler scheduler = new SpeechScheduler(
+                SpeechScheduler.forSynthesizer(nonBlock), utteranceListener);
+        listener.setUtteranceProgressListener(scheduler);
+        mPcmPlayer = new PcmPlayer();
 
+        // 缓存由同一个引擎按各短语的音调和语速合成，与在线合成的声音一致；预合成在说话之前进行，不会与其他语句交错
+        final PhraseCache existing = PhraseCache.open(new File(getFilesDir(), PHRASE_CACHE_FILE));
+        final CountDownLatch captured = new CountDownLatch(1);
+        listener.presynthesize(nonBlock, existing, TtsSpeaker.getCacheablePhrases(mLabels),
+                new PhraseCaptureListener.Callback() {
+                    @Override
+                    public void onPhrasesCaptured(PhraseCache cache) {
+                        Log.i(TAG, "短语缓存已就绪，共 " + cache.size() + " 条");
+                        scheduler.setPhraseCache(cache, mPcmPlayer);
+                        captured.countDown();
+                    }
+
+                    @Override
+                    public void onCaptureFailed(Exception e) {
+                        Log.w(TAG, "预合成失败，使用已有的 " + existing.size() + " 条短语", e);
+                        scheduler.setPhraseCache(existing, mPcmPlayer);
+                        captured.countDown();
+                    }
+                });
+        if (!captured.await(PRESYNTHESIS_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            // 预合成完成后再安装完整的缓存
+            Log.w(TAG, "预合成超时，先使用已有的 " + existing.size() + " 条短语");
+            scheduler.setPhraseCache(existing, mPcmPlayer);
+        }
+        startSpeaker(scheduler);
+    }
 
     /**
-     * 与SynthActivity相比，修改listener为FileSaveListener 可实现保存录音功能。
-     * 获取的音频内容同speak方法播出的声音
-     * FileSaveListener 在UiMessageListener的基础上，使用 onSynthesizeDataArrived回调，获取音频流
-//     */
-//    protected void initialTts() {
-//        String tmpDir = FileUtil.createTmpDir(this);
-//        // 设置初始化参数
-//        // 此处可以改为 含有您业务逻辑的SpeechSynthesizerListener的实现类
-//        SpeechSynthesizerListener listener = new FileSaveListener(mainHandler, tmpDir);
-//        Map<String, String> params = getParams();
-//
-//        // appId appKey secretKey 网站上您申请的应用获取。注意使用离线合成功能的话，需要应用中填写您app的包名。包名在build.gradle中获取。
-//        InitConfig initConfig = new InitConfig(appId, appKey, secretKey, ttsMode,  params, listener);
-//        // 此处可以改为MySyntherizer 了解调用过程
-//        synthesizer = new MySyntherizer(this, initConfig);
-//    }
+     * Opens the platform TextToSpeech engine on a startup thread, blocking until it is
+     * initialized.
+     * 在启动线程中打开系统TTS引擎，阻塞到初始化结束。
+     */
+    private void initSystemTts() throws InterruptedException {
+        final CountDownLatch initialized = new CountDownLatch(1);
+        final AtomicInteger status = new AtomicInteger(TextToSpeech.ERROR);
+        TextToSpeech tts = new TextToSpeech(this, new TextToSpeech.OnInitListener() {
+            @Override
+            public void onInit(int result) {
+                status.set(result);
+                initialized.countDown();
+            }
+        });
+        if (!initialized.await(TTS_INIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                || status.get() != TextToSpeech.SUCCESS) {
+            tts.shutdown();
+            /* “无法打开TTS引擎 忽略文本到语音” */
+            throw new IllegalStateException("Could not open TTS Engine (onInit status="
+                    + status.get() + ")");
+        }
+        tts.setLanguage(Locale.CHINA);
+        SpeechScheduler scheduler = new SpeechScheduler(SpeechScheduler.forTextToSpeech(tts),
+                utteranceListener);
+        tts.setOnUtteranceProgressListener(scheduler);
+        mTtsEngine = tts;
+        startSpeaker(scheduler);
+    }
+
+    private void startSpeaker(SpeechScheduler scheduler) {
+        TtsSpeaker speaker = new TtsSpeaker(scheduler);
+        speaker.setHasSenseOfHumor(true);
+        mSpeechScheduler = scheduler;
+        mTtsSpeaker = speaker;
+        speaker.speakReady();
+        Log.i(TAG, "语音已就绪");
+    }
 
     /**
      * 合成的参数，可以初始化时填写，也可以在合成前设置。
@@ -267,8 +1114,9 @@ public class ImageClassifierActivity extends Activity implements ImageReader.OnI
     private Runnable mBackgroundClickHandler = new Runnable() {
         @Override
         public void run() {
-            if (mTtsEngine != null) {
-                mTtsSpeaker.speakShutterSound(mTtsEngine);
+            TtsSpeaker speaker = mTtsSpeaker;
+            if (speaker != null) {
+                speaker.speakShutterSound();
             }
             mCameraHandler.takePicture();
         }
@@ -277,20 +1125,103 @@ public class ImageClassifierActivity extends Activity implements ImageReader.OnI
     private UtteranceProgressListener utteranceListener = new UtteranceProgressListener() {
         @Override
         public void onStart(String utteranceId) {
-            setReady(false);
+            mPipelineState.setSpeech(PipelineState.Speech.SPEAKING);
         }
 
         @Override
         public void onDone(String utteranceId) {
-            setReady(true);
+            onUtteranceFinished();
         }
 
         @Override
         public void onError(String utteranceId) {
-            setReady(true);
+            onUtteranceFinished();
+        }
+
+        @Override
+        public void onStop(String utteranceId, boolean interrupted) {
+            // Superseded utterances are stopped instead of completing
+            // 被取代的语句会被停止，不会回调onDone
+            onUtteranceFinished();
         }
     };
 
+    /**
+     * Results waiting to be spoken once the current speech finishes
+     * 等待当前语音结束后播报的结果
+     */
+    private static class PendingSpeech {
+        final Collection<Recognition> results;
+        final long frameId;
+        final long captureTimeMillis;
+
+        PendingSpeech(Collection<Recognition> results, long frameId, long captureTimeMillis) {
+            this.results = results;
+            this.frameId = frameId;
+            this.captureTimeMillis = captureTimeMillis;
+        }
+    }
+
+    /**
+     * Called on the TTS callback thread. The decision runs on the speech executor, the thread
+     * that also speaks new results, so checking the state, handing over the pending results and
+     * going silent cannot interleave with {@link #speakResults}.
+     * 在TTS回调线程上调用。判断在语音executor上进行，它也是播报新结果的线程，因此检查状态、交接待播结果和转为静默
+     * 不会与speakResults交错。
+     */
+    private void onUtteranceFinished() {
+        try {
+            mSpeechExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    speakPendingOrFinish();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 正在关闭
+        }
+    }
+
+    private void speakPendingOrFinish() {
+        if (mSpeechScheduler.getQueueDepth() > 0) {
+            return;
+        }
+        PendingSpeech pending = mPendingSpeech.getAndSet(null);
+        if (pending == null || !speakNow(pending)) {
+            mPipelineState.setSpeech(PipelineState.Speech.SILENT);
+        }
+    }
+
+    /**
+     * Speaks the results now, or, in decoupled mode while something is being said, keeps them
+     * as the latest results to say next. Runs on the speech executor.
+     * 立即播报结果；解耦模式下如果正在播报，则保存为下一次要说的最新结果。在语音executor上运行。
+     */
+    private void speakResults(Collection<Recognition> results, long frameId,
+                              long captureTimeMillis) {
+        PendingSpeech speech = new PendingSpeech(results, frameId, captureTimeMillis);
+        if (mPipelineState.isDecoupled()
+                && mPipelineState.getSpeech() == PipelineState.Speech.SPEAKING) {
+            mPendingSpeech.set(speech);
+            return;
+        }
+        speakNow(speech);
+    }
+
+    private boolean speakNow(PendingSpeech speech) {
+        mPipelineState.setSpeech(PipelineState.Speech.SPEAKING);
+        if (!mTtsSpeaker.speakResults(speech.results, speech.frameId,
+                speech.captureTimeMillis)) {
+            // repeated answer, nothing was queued
+            // 重复的答案，没有排队任何语句
+            if (mSpeechScheduler.getQueueDepth() == 0) {
+                mPipelineState.setSpeech(PipelineState.Speech.SILENT);
+            }
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public boolean onKeyUp(int keyCode, KeyEvent event) {
         /* 收到钥匙 */
@@ -317,11 +1248,10 @@ public class ImageClassifierActivity extends Activity implements ImageReader.OnI
      * 验证并启动新的图像捕获
      */
     private void startImageCapture() {
-        boolean isReady = mReady.get();
+        boolean isReady = mPipelineState.tryBeginCapture();
 //        Log.d(TAG, "Ready for another capture? " + isReady);
         Log.d(TAG, "准备好再次捕获? " + isReady);
         if (isReady) {
-            setReady(false);
             mResultText.setText("请稍等。。");
             mBackgroundHandler.post(mBackgroundClickHandler);
         } else {
@@ -331,11 +1261,11 @@ public class ImageClassifierActivity extends Activity implements ImageReader.OnI
     }
 
     /**
-     * Mark the system as ready for a new image capture
-     * 将系统标记为准备好进行新的图像捕获
+     * Reflect on the LED whether the system is ready for a new image capture. Called by
+     * {@link PipelineState} whenever the combined state changes.
+     * 在LED上反映系统是否准备好进行新的图像捕获。组合状态变化时由PipelineState调用。
      */
     private void setReady(boolean ready) {
-        mReady.set(ready);
         if (mReadyLED != null) {
             try {
                 mReadyLED.setValue(ready);
@@ -348,9 +1278,43 @@ public class ImageClassifierActivity extends Activity implements ImageReader.OnI
 
     @Override
     public void onImageAvailable(ImageReader reader) {
+        final long frameId = mFrameCounter.incrementAndGet();
+        final long captureTimeMillis = SystemClock.uptimeMillis();
+        mFramesCaptured.inc();
+        mPipelineState.setCapture(PipelineState.Capture.CLASSIFYING);
+        TraceRecorder trace = TraceRecorder.getDefault();
+        trace.begin("onImageAvailable");
+        try {
+            classifyFrame(reader, frameId, captureTimeMillis, trace);
+        } finally {
+            trace.end("onImageAvailable");
+        }
+    }
+
+    /** Preprocesses, classifies and publishes one frame. 预处理、分类并发布一帧 */
+    private void classifyFrame(ImageReader reader, long frameId, long captureTimeMillis,
+                               TraceRecorder trace) {
         final Bitmap bitmap;
+        final Collection<Recognition> results;
+        long stageStart = System.nanoTime();
+        trace.begin("preprocess");
         try (Image image = reader.acquireNextImage()) {
-            bitmap = mImagePreprocessor.preprocessImage(image);
+            if (mFrameClassifier != null) {
+                // 裁剪、旋转和缩放在写入模型输入的同一遍中完成
+                bitmap = mImagePreprocessor.preprocessImage(image, mFrameClassifier);
+            } else {
+                bitmap = mImagePreprocessor.preprocessImage(image);
+            }
+        } finally {
+            trace.end("preprocess");
+        }
+        mPreprocessSeconds.observeNanos(System.nanoTime() - stageStart);
+        if (bitmap == null) {
+            // 无法解码：跳过这一帧，不分类也不发布旧帧的结果
+            Log.w(TAG, "帧 " + frameId + " 无法解码，已跳过");
+            trace.instant("decode_failed");
+            mPipelineState.setCapture(PipelineState.Capture.READY);
+            return;
         }
 
         runOnUiThread(new Runnable() {
@@ -360,47 +1324,119 @@ public class ImageClassifierActivity extends Activity implements ImageReader.OnI
             }
         });
 
-        final Collection<Recognition> results = mTensorFlowClassifier.doRecognize(bitmap);
-        /* 从Tensorflow获得以下结果 */
-//        Log.d(TAG, "Got the following results from Tensorflow: " + results);
-        Log.d(TAG, "从Tensorflow获得以下结果: " + results);
+        stageStart = System.nanoTime();
+        trace.begin("inference");
+        try {
+            if (mFrameClassifier == mTensorFlowClassifier) {
+                // 只有普通路径每帧都运行完整模型，嵌入向量才对应当前帧
+                results = matchCustomClasses(mFrameClassifier.recognize());
+            } else if (mFrameClassifier != null) {
+                results = mFrameClassifier.recognize();
+            } else {
+                results = mTensorFlowClassifier.doRecognize(bitmap);
+            }
+        } finally {
+            trace.end("inference");
+        }
+        mInferenceSeconds.observeNanos(System.nanoTime() - stageStart);
+        // 结果经由总线分发给界面、语音和日志等订阅者
+        if (mTtsSpeaker != null && !mPipelineState.isDecoupled()) {
+            // 语音订阅者在自己的线程上运行：耦合模式下先标记为正在说，避免语音排队之前就准备好拍摄
+            mPipelineState.setSpeech(PipelineState.Speech.SPEAKING);
+        }
+        trace.begin("publish");
+        try {
+            mResultBus.publish(frameId, captureTimeMillis, SystemClock.uptimeMillis(), results);
+        } finally {
+            trace.end("publish");
+        }
+        mFramesClassified.inc();
 
-        runOnUiThread(new Runnable() {
+        // In coupled mode the speech state keeps the system busy until the utterance is spoken;
+        // if theres no TTS, or in decoupled mode, we are ready right away.
+        // 耦合模式下语音状态会使系统保持忙碌直到说完；没有TTS或解耦模式下立即准备好。
+        mPipelineState.setCapture(PipelineState.Capture.READY);
+    }
+
+    /**
+     * Puts the nearest enrolled custom class in front of the model results when it is similar
+     * enough to the embedding of the last inference.
+     * 当最近的已登记自定义类别与上一次推理的嵌入向量足够相似时，将其放在模型结果之前。
+     */
+    private Collection<Recognition> matchCustomClasses(Collection<Recognition> results) {
+        if (mEmbeddingIndex == null || mEmbeddingIndex.size() == 0) {
+            return results;
+        }
+        List<Neighbor> nearest = mEmbeddingIndex.query(
+                mTensorFlowClassifier.getEmbedding(mEmbedding), 1);
+        if (nearest.isEmpty() || nearest.get(0).getSimilarity() < CUSTOM_CLASS_THRESHOLD) {
+            return results;
+        }
+        Neighbor match = nearest.get(0);
+        List<Recognition> merged = new ArrayList<>(results.size() + 1);
+        merged.add(new Recognition("custom:" + match.getIndex(), match.getLabel(),
+                match.getSimilarity()));
+        merged.addAll(results);
+        return merged;
+    }
+
+    /**
+     * Appends every result event to the history on the results executor.
+     * 在结果executor上将每个结果事件追加到历史。
+     */
+    private void subscribeResultLog(final ResultLog log) {
+        mResultBus.subscribe("history", new ResultBus.Listener() {
             @Override
-            public void run() {
-                if (results == null || results.isEmpty()) {
-//                    mResultText.setText("I don't understand what I see");
-                    mResultText.setText("我不明白这是什么");
-                } else {
-                    StringBuilder sb = new StringBuilder();
-                    Iterator<Recognition> it = results.iterator();
-                    int counter = 0;
-                    while (it.hasNext()) {
-                        Recognition r = it.next();
-                        sb.append(r.getTitle());
-                        counter++;
-                        if (counter < results.size() - 1) {
-                            sb.append(", ");
-                        } else if (counter == results.size() - 1) {
-                            sb.append(" or ");
-                        }
-                    }
-                    mResultText.setText(sb.toString());
+            public void onResult(ResultEvent event) {
+                long age = SystemClock.uptimeMillis() - event.getCaptureTimeMillis();
+                try {
+                    log.append(System.currentTimeMillis() - age, event.getFrameId(),
+                            (int) (event.getPublishTimeMillis() - event.getCaptureTimeMillis()),
+                            event);
+                } catch (IOException e) {
+                    Log.w(TAG, "无法写入结果历史", e);
                 }
             }
-        });
+        }, mResultsExecutor);
+    }
 
-        if (mTtsEngine != null) {
-            // speak out loud the result of the image recognition
-            // 大声说出图像识别的结果
-            mTtsSpeaker.speakResults(mTtsEngine, results);
-        } else {
-            // if theres no TTS, we don't need to wait until the utterance is spoken, so we set
-            // 如果没有TTS，我们不需要等到说出话语，所以我们设置
-            // to ready right away.
-            // 立即准备好。
-            setReady(true);
-        }
+    /**
+     * Serves {@code /classify} with a batching classifier on its own interpreter, so requests
+     * never wait for or disturb the camera pipeline, and {@code /labels/counts}.
+     * 使用独立解释器上的批处理分类器提供/classify，请求既不等待也不干扰相机流水线；另外提供/labels/counts。
+     */
+    private void startInferenceServer() throws IOException {
+        mBatchingClassifier = new BatchingClassifier(
+                TensorFlowImageClassifier.createInterpreter(this), mLabels,
+                MODEL_IMAGE_SIZE.getWidth(), MODEL_IMAGE_SIZE.getHeight(),
+                INFERENCE_MAX_BATCH, INFERENCE_BATCH_WINDOW_MICROS);
+        mInferenceServer = new HttpServer(null, INFERENCE_SERVER_PORT, INFERENCE_MAX_CONNECTIONS,
+                INFERENCE_MAX_BODY_BYTES)
+                .route("/classify", new InferenceEndpoint(mBatchingClassifier,
+                        INFERENCE_TIMEOUT_MILLIS))
+                .route("/labels/counts", new HttpServer.Handler() {
+                    @Override
+                    public HttpServer.Response handle(HttpServer.Request request) {
+                        return HttpServer.Response.json(200,
+                                mLabelCounters.toJson(mLabels, System.currentTimeMillis()));
+                    }
+                });
+        mInferenceServer.start();
+        Log.i(TAG, "推理端点监听端口 " + mInferenceServer.getPort());
+    }
+
+    /**
+     * Counts the best result of every event. Recording is two atomic increments, so it runs
+     * directly on the publishing thread.
+     * 对每个事件的最佳结果计数。记录只是两次原子递增，因此直接在发布线程上运行。
+     */
+    private void subscribeLabelCounters(final LabelCounters counters) {
+        mResultBus.subscribe("label_counts", new ResultBus.Listener() {
+            @Override
+            public void onResult(ResultEvent event) {
+                counters.record(event, System.currentTimeMillis());
+            }
+        }, DIRECT_EXECUTOR);
     }
 
     @Override
@@ -420,10 +1456,61 @@ public class ImageClassifierActivity extends Activity implements ImageReader.OnI
             // close quietly
         }
         try {
+            if (mFrameClassifier != null && mFrameClassifier != mTensorFlowClassifier) {
+                mFrameClassifier.close();
+            }
             if (mTensorFlowClassifier != null) mTensorFlowClassifier.destroyClassifier();
         } catch (Throwable t) {
             // close quietly
         }
+        if (mImagePreprocessor != null) {
+            mImagePreprocessor.release();
+        }
+        if (mInferenceServer != null) {
+            mInferenceServer.close();
+        }
+        if (mMetricsServer != null) {
+            mMetricsServer.close();
+        }
+        dumpMetrics();
+        if (TRACE_EVENTS > 0) {
+            TraceRecorder.getDefault().disable();
+            dumpTrace();
+        }
+        if (mBatchingClassifier != null) {
+            Log.i(TAG, "推理端点 " + mBatchingClassifier.getBatches() + " 个批次，平均批次大小 "
+                    + mBatchingClassifier.getMeanBatchSize());
+            mBatchingClassifier.close();
+        }
+        // 先取消全部订阅，仍在进行的发布就不会再调度到正在关闭的executor
+        List<ResultBus.Subscriber> subscribers = new ArrayList<>(mResultBus.getSubscribers());
+        for (ResultBus.Subscriber subscriber : subscribers) {
+            mResultBus.unsubscribe(subscriber);
+        }
+        if (mSpeechExecutor != null) {
+            mSpeechExecutor.shutdown();
+        }
+        if (mResultsExecutor != null) {
+            // 在已排队的结果写完之后关闭历史
+            final ResultLog resultLog = mResultLog;
+            if (resultLog != null) {
+                mResultsExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        resultLog.close();
+                    }
+                });
+            }
+            mResultsExecutor.shutdown();
+        }
+        for (ResultBus.Subscriber subscriber : subscribers) {
+            Log.i(TAG, "结果订阅者 " + subscriber);
+        }
+        if (mLabelCounters != null) {
+            Log.i(TAG, "标签计数 " + mLabelCounters.toJson(mLabels, System.currentTimeMillis()));
+        }
+        BufferPool.getDefault().reportLeaks(0);
+        BufferPool.getDefault().trim();
         try {
             if (mButtonDriver != null) mButtonDriver.close();
         } catch (Throwable t) {
@@ -434,6 +1521,12 @@ public class ImageClassifierActivity extends Activity implements ImageReader.OnI
             mTtsEngine.stop();
             mTtsEngine.shutdown();
         }
+        if (synthesizer != null) {
+            synthesizer.release();
+        }
+        if (mPcmPlayer != null) {
+            mPcmPlayer.release();
+        }
     }
 
     /**
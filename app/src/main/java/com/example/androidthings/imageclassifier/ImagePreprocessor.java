@@ -18,12 +18,19 @@ package com.example.androidthings.imageclassifier;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.media.Image;
 import android.os.Environment;
 import android.util.Log;
 
+import com.example.androidthings.imageclassifier.classifier.PixelSink;
+import com.example.androidthings.imageclassifier.classifier.Resampler;
+import com.example.androidthings.imageclassifier.pool.BufferPool;
+import com.example.androidthings.imageclassifier.trace.TraceRecorder;
+
 import junit.framework.Assert;
 
 import java.io.BufferedOutputStream;
@@ -41,13 +48,105 @@ import java.nio.ByteBuffer;
 public class ImagePreprocessor {
     private static final boolean SAVE_PREVIEW_BITMAP = false;
 
+    private final int previewWidth;
+    private final int previewHeight;
+
     private Bitmap rgbFrameBitmap;
     private Bitmap croppedBitmap;
 
+    /** Center square decoded at a reduced sample size, used in region decode mode.
+     *  区域解码模式下以缩小的采样率解码的中心正方形 */
+    private Bitmap regionBitmap;
+    private boolean regionDecode;
+    private boolean centerCropOnly;
+    private int sensorOrientation;
+
+    /** Pixels of the decoded frame for the fused path, reused across frames.
+     *  融合路径中解码帧的像素，在帧之间复用 */
+    private int[] framePixels;
+    private final Rect region = new Rect();
+
+    /** Decoder options reused for every frame; inBitmap points at rgbFrameBitmap.
+     *  每帧复用的解码选项；inBitmap指向rgbFrameBitmap */
+    private final BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+    private final BitmapFactory.Options regionOptions = new BitmapFactory.Options();
+    private final ByteBufferBackedInputStream jpegStream = new ByteBufferBackedInputStream(null);
+
     public ImagePreprocessor(int previewWidth, int previewHeight,
                              int croppedwidth, int croppedHeight) {
-        this.croppedBitmap = Bitmap.createBitmap(croppedwidth, croppedHeight, Config.ARGB_8888);
-        this.rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+        this.previewWidth = previewWidth;
+        this.previewHeight = previewHeight;
+        BufferPool pool = BufferPool.getDefault();
+        this.croppedBitmap = pool.acquireBitmap(croppedwidth, croppedHeight, Config.ARGB_8888);
+        this.rgbFrameBitmap = pool.acquireBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+        decodeOptions.inMutable = true;
+        decodeOptions.inPreferredConfig = Config.ARGB_8888;
+        regionOptions.inMutable = true;
+        regionOptions.inPreferredConfig = Config.ARGB_8888;
+    }
+
+    /**
+     * When enabled, only the center square of each JPEG is decoded, at the largest power-of-two
+     * sample size that still covers the model input, and the result is resized from there. The
+     * pixels outside the square are never decoded.
+     * 启用后只解码每个JPEG的中心正方形，采用仍能覆盖模型输入的最大2的幂采样率，再从该结果缩放。
+     * 正方形之外的像素不会被解码。
+     */
+    public void setRegionDecode(boolean enabled) {
+        regionDecode = enabled;
+        if (enabled && rgbFrameBitmap != null) {
+            // 区域模式不需要整帧位图
+            BufferPool.getDefault().release(rgbFrameBitmap);
+            rgbFrameBitmap = null;
+        }
+    }
+
+    /**
+     * When enabled, the fused path hands the sink only the centered region with the model's
+     * aspect ratio, which is all that a center-cropping sink reads. Bitmap pixels live in native
+     * memory and are read through a per-call copy, so a sink cannot resample the bitmap in place;
+     * copying only the crop saves a quarter of the copy on 4:3 frames and nearly half on 16:9.
+     * Leave it off for sinks that read the whole frame, such as tiled classification.
+     * 启用后融合路径只把与模型宽高比相同的居中区域交给sink，这正是居中裁剪的sink读取的全部像素。
+     * 位图像素位于native内存，只能按调用复制出来，sink无法直接在位图上重采样；只复制裁剪区域在4:3的帧上
+     * 省去四分之一的复制，在16:9的帧上省去将近一半。读取整帧的sink（例如分块分类）不要启用。
+     */
+    public void setCenterCropOnly(boolean enabled) {
+        centerCropOnly = enabled;
+    }
+
+    /**
+     * Clockwise rotation that makes frames upright, usually the camera's SENSOR_ORIENTATION.
+     * 使帧变为正向的顺时针旋转角度，通常为相机的SENSOR_ORIENTATION。
+     */
+    public void setSensorOrientation(int sensorOrientation) {
+        this.sensorOrientation = sensorOrientation;
+    }
+
+    /**
+     * Bytes of the intermediate bitmap decoded for the last frame, i.e. the decode peak on top
+     * of the model-sized bitmap.
+     * 上一帧解码的中间位图字节数，即在模型尺寸位图之外的解码峰值。
+     */
+    public int getDecodedBytes() {
+        Bitmap decoded = regionDecode ? regionBitmap : rgbFrameBitmap;
+        return decoded == null ? 0 : decoded.getAllocationByteCount();
+    }
+
+    /**
+     * Returns the bitmaps to the shared pool. The preprocessor must not be used afterwards.
+     * 将位图归还共享池，之后不能再使用此预处理器。
+     */
+    public void release() {
+        BufferPool pool = BufferPool.getDefault();
+        pool.release(rgbFrameBitmap);
+        pool.release(croppedBitmap);
+        pool.release(regionBitmap);
+        rgbFrameBitmap = null;
+        croppedBitmap = null;
+        regionBitmap = null;
+        decodeOptions.inBitmap = null;
+        regionOptions.inBitmap = null;
     }
 
     public Bitmap preprocessImage(final Image image) {
@@ -56,18 +155,17 @@ public class ImagePreprocessor {
         }
 
 //        Assert.assertEquals("Invalid size width", rgbFrameBitmap.getWidth(), image.getWidth());
-        Assert.assertEquals("尺寸宽度无效", rgbFrameBitmap.getWidth(), image.getWidth());
+        Assert.assertEquals("尺寸宽度无效", previewWidth, image.getWidth());
 //        Assert.assertEquals("Invalid size height", rgbFrameBitmap.getHeight(), image.getHeight());
-        Assert.assertEquals("尺寸高度无效", rgbFrameBitmap.getHeight(), image.getHeight());
+        Assert.assertEquals("尺寸高度无效", previewHeight, image.getHeight());
 
-        if (croppedBitmap != null && rgbFrameBitmap != null) {
+        if (croppedBitmap != null) {
             ByteBuffer bb = image.getPlanes()[0].getBuffer();
-            rgbFrameBitmap = BitmapFactory.decodeStream(new ByteBufferBackedInputStream(bb));
-            cropAndRescaleBitmap(rgbFrameBitmap, croppedBitmap, 0);
+            if (preprocessJpeg(bb) == null) {
+                return null;
+            }
         }
 
-        image.close();
-
         // For debugging
         if (SAVE_PREVIEW_BITMAP) {
             saveBitmap(croppedBitmap);
@@ -75,6 +173,175 @@ public class ImagePreprocessor {
         return croppedBitmap;
     }
 
+    /**
+     * Decodes the frame and writes it straight into the classifier's input buffer: crop, rotation
+     * and resize happen in the single pass that packs the tensor, without drawing a rotated
+     * model-sized bitmap first.
+     * 解码帧并直接写入分类器的输入缓冲区：裁剪、旋转和缩放在打包张量的同一遍中完成，不先绘制旋转后的模型尺寸位图。
+     *
+     * The caller keeps ownership of {@code image} and closes it. 调用方持有并关闭image。
+     *
+     * @return the decoded, unrotated frame, for preview only, or null if the frame could not be
+     * decoded and nothing was packed. 解码后未旋转的帧，仅用于预览；无法解码时返回null，且没有打包任何数据
+     */
+    public Bitmap preprocessImage(final Image image, PixelSink classifier) {
+        if (image == null) {
+            return null;
+        }
+        Assert.assertEquals("尺寸宽度无效", previewWidth, image.getWidth());
+        Assert.assertEquals("尺寸高度无效", previewHeight, image.getHeight());
+
+        Bitmap decoded = decodeFrame(image.getPlanes()[0].getBuffer());
+        if (decoded == null) {
+            return null;
+        }
+        int left = 0;
+        int top = 0;
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        if (centerCropOnly) {
+            // 旋转90度或270度时，模型输入在帧中的宽高互换
+            boolean swap = sensorOrientation % 180 != 0;
+            int[] crop = Resampler.centerCrop(width, height,
+                    swap ? croppedBitmap.getHeight() : croppedBitmap.getWidth(),
+                    swap ? croppedBitmap.getWidth() : croppedBitmap.getHeight());
+            left = crop[0];
+            top = crop[1];
+            width = crop[2];
+            height = crop[3];
+        }
+        if (framePixels == null || framePixels.length < width * height) {
+            framePixels = new int[width * height];
+        }
+        TraceRecorder.getDefault().begin("copy");
+        try {
+            decoded.getPixels(framePixels, 0, width, left, top, width, height);
+        } finally {
+            TraceRecorder.getDefault().end("copy");
+        }
+        TraceRecorder.getDefault().begin("pack");
+        try {
+            classifier.loadPixels(framePixels, width, height, sensorOrientation);
+        } finally {
+            TraceRecorder.getDefault().end("pack");
+        }
+        return decoded;
+    }
+
+    /**
+     * Decodes a JPEG frame and crops it to the model input size. Used directly when replaying
+     * stored frames that did not come from the camera.
+     * 解码JPEG帧并裁剪为模型输入尺寸。回放不来自相机的已存储帧时直接使用。
+     *
+     * @return null if the frame could not be decoded. 无法解码时返回null
+     */
+    public Bitmap preprocessJpeg(ByteBuffer jpeg) {
+        Bitmap decoded = decodeFrame(jpeg);
+        if (decoded == null) {
+            return null;
+        }
+        cropAndRescaleBitmap(decoded, croppedBitmap, sensorOrientation);
+        return croppedBitmap;
+    }
+
+    /**
+     * @return the whole frame, or its center square in region decode mode
+     */
+    private Bitmap decodeFrame(ByteBuffer jpeg) {
+        TraceRecorder.getDefault().begin("decode");
+        try {
+            return regionDecode ? decodeCenterRegion(jpeg) : decodeFullFrame(jpeg);
+        } finally {
+            TraceRecorder.getDefault().end("decode");
+        }
+    }
+
+    private Bitmap decodeFullFrame(ByteBuffer jpeg) {
+        // Decode into the previous frame's bitmap instead of allocating a new one.
+        decodeOptions.inBitmap = rgbFrameBitmap;
+        jpegStream.buf = jpeg;
+        int start = jpeg.position();
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeStream(jpegStream, null, decodeOptions);
+        } catch (IllegalArgumentException e) {
+            // 尺寸与复用的位图不兼容（例如回放其他尺寸的帧），改为新分配
+            jpeg.position(start);
+            decodeOptions.inBitmap = null;
+            decoded = BitmapFactory.decodeStream(jpegStream, null, decodeOptions);
+        }
+        jpegStream.buf = null;
+        if (decoded == null) {
+            // 损坏或不完整的JPEG：复用的位图中是上一帧或只被覆盖了一部分，不能当作这一帧
+            return null;
+        }
+        if (decoded != rgbFrameBitmap) {
+            BufferPool pool = BufferPool.getDefault();
+            pool.release(rgbFrameBitmap);
+            rgbFrameBitmap = pool.adopt(decoded);
+        }
+        return rgbFrameBitmap;
+    }
+
+    private Bitmap decodeCenterRegion(ByteBuffer jpeg) {
+        jpegStream.buf = jpeg;
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(jpegStream, false);
+        } catch (IOException e) {
+            Log.w("ImageHelper", "无法创建区域解码器", e);
+            return null;
+        } finally {
+            jpegStream.buf = null;
+        }
+        try {
+            final int minDim = Math.min(decoder.getWidth(), decoder.getHeight());
+            final int left = (decoder.getWidth() - minDim) / 2;
+            final int top = (decoder.getHeight() - minDim) / 2;
+            region.set(left, top, left + minDim, top + minDim);
+            final int sampleSize = sampleSizeFor(minDim, croppedBitmap.getWidth());
+            // The decoder rounds the sampled size up.
+            final int sampledDim = (minDim + sampleSize - 1) / sampleSize;
+
+            BufferPool pool = BufferPool.getDefault();
+            if (regionBitmap == null || regionBitmap.getWidth() != sampledDim) {
+                pool.release(regionBitmap);
+                regionBitmap = pool.acquireBitmap(sampledDim, sampledDim, Config.ARGB_8888);
+            }
+            regionOptions.inSampleSize = sampleSize;
+            regionOptions.inBitmap = regionBitmap;
+            Bitmap decoded;
+            try {
+                decoded = decoder.decodeRegion(region, regionOptions);
+            } catch (IllegalArgumentException e) {
+                regionOptions.inBitmap = null;
+                decoded = decoder.decodeRegion(region, regionOptions);
+            }
+            if (decoded == null) {
+                // 区域解码失败：复用的位图中是上一帧，不能当作这一帧
+                return null;
+            }
+            if (decoded != regionBitmap) {
+                pool.release(regionBitmap);
+                regionBitmap = pool.adopt(decoded);
+            }
+        } finally {
+            decoder.recycle();
+        }
+        return regionBitmap;
+    }
+
+    /**
+     * @return the largest power of two that keeps {@code srcDim / sampleSize >= dstDim}
+     */
+    static int sampleSizeFor(int srcDim, int dstDim) {
+        int sampleSize = 1;
+        while (srcDim / (sampleSize * 2) >= dstDim) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
     private static class ByteBufferBackedInputStream extends InputStream {
 
         ByteBuffer buf;
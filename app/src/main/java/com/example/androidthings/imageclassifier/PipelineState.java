@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier;
+
+import android.util.Log;
+
+/**
+ * Capture readiness and speech output as two independent state machines. In coupled mode a new
+ * capture has to wait until speech is silent, as the sample always did; in decoupled mode the
+ * capture rate is limited only by the classifier.
+ * 拍摄就绪与语音输出是两个独立的状态机。耦合模式下新的拍摄必须等待语音结束（示例原来的行为）；
+ * 解耦模式下拍摄速率只受分类器限制。
+ */
+public class PipelineState {
+    private static final String TAG = "PipelineState";
+
+    public enum Capture {
+        INITIALIZING, READY, CAPTURING, CLASSIFYING
+    }
+
+    public enum Speech {
+        SILENT, SPEAKING
+    }
+
+    public interface Listener {
+        /**
+         * Called when {@link #isReadyForCapture()} changes. Not called on the UI thread. It is
+         * called with the state locked, so that the changes arrive in order; it must not block.
+         * 就绪状态变化时调用，不在UI线程。调用时持有状态锁，保证变化按顺序到达，不可阻塞。
+         */
+        void onReadyChanged(boolean ready);
+    }
+
+    private final boolean mDecoupled;
+    private final Listener mListener;
+
+    private Capture mCapture = Capture.INITIALIZING;
+    private Speech mSpeech = Speech.SILENT;
+    private boolean mReady;
+
+    private long mCaptures;
+    private long mRejectedCaptures;
+
+    public PipelineState(boolean decoupled, Listener listener) {
+        mDecoupled = decoupled;
+        mListener = listener;
+    }
+
+    public boolean isDecoupled() {
+        return mDecoupled;
+    }
+
+    public synchronized boolean isReadyForCapture() {
+        return mReady;
+    }
+
+    /**
+     * Moves capture from READY to CAPTURING if a new capture is allowed.
+     * 如果允许新的拍摄，则将拍摄状态从READY改为CAPTURING。
+     *
+     * @return false if the pipeline is busy
+     */
+    public synchronized boolean tryBeginCapture() {
+        if (!mReady) {
+            mRejectedCaptures++;
+            return false;
+        }
+        mCaptures++;
+        setCapture(Capture.CAPTURING);
+        return true;
+    }
+
+    public synchronized void setCapture(Capture capture) {
+        mCapture = capture;
+        updateReadyLocked();
+    }
+
+    public synchronized void setSpeech(Speech speech) {
+        mSpeech = speech;
+        updateReadyLocked();
+    }
+
+    public synchronized Capture getCapture() {
+        return mCapture;
+    }
+
+    public synchronized Speech getSpeech() {
+        return mSpeech;
+    }
+
+    public synchronized long getCaptureCount() {
+        return mCaptures;
+    }
+
+    public synchronized long getRejectedCaptureCount() {
+        return mRejectedCaptures;
+    }
+
+    /**
+     * Notifies the listener under the lock; notified outside of it, two threads changing the
+     * state at once could deliver their changes in the wrong order and leave the LED stale.
+     * 在锁内通知listener；在锁外通知时，两个线程同时改变状态可能以错误的顺序送达，使LED停留在过期的状态。
+     */
+    private void updateReadyLocked() {
+        boolean ready = mCapture == Capture.READY && (mDecoupled || mSpeech == Speech.SILENT);
+        if (ready == mReady) {
+            return;
+        }
+        mReady = ready;
+        Log.d(TAG, toString());
+        if (mListener != null) {
+            mListener.onReadyChanged(ready);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PipelineState{capture=" + mCapture + ", speech=" + mSpeech + ", ready=" + mReady
+                + ", decoupled=" + mDecoupled + ", captures=" + mCaptures
+                + ", rejected=" + mRejectedCaptures + "}";
+    }
+}
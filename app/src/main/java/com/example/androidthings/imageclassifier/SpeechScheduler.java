@@ -0,0 +1,417 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier;
+
+import android.os.SystemClock;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.util.Log;
+
+import com.example.androidthings.imageclassifier.control.MySyntherizer;
+import com.example.androidthings.imageclassifier.control.PcmPlayer;
+import com.example.androidthings.imageclassifier.control.PhraseCache;
+import com.example.androidthings.imageclassifier.trace.TraceRecorder;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps spoken output in step with the classifier. Utterances are queued here and handed to the
+ * {@link Engine} one at a time, so the scheduler always knows what is queued and what is being
+ * spoken. Results are tagged with the frame they belong to; when results for a newer frame
+ * arrive, utterances of older frames are dropped, and an answer identical to the previous one is
+ * not repeated. Untagged utterances such as the shutter sound are never dropped. The engine
+ * reports progress to this listener, which forwards every callback of the scheduler's own
+ * utterances to the delegate. With a {@link PhraseCache}, utterances at the default pitch and
+ * speech rate that are in the cache are played from it in the same queue.
+ * 使语音输出跟上分类器。语句在这里排队，每次只交给Engine一条，因此调度器始终知道哪些语句在排队、哪条正在播放。
+ * 结果语句标记了所属的帧；新帧的结果到达时丢弃旧帧的语句，与上一次相同的答案不再重复。快门声等未标记的语句不会被丢弃。
+ * Engine将进度回调给本监听器，本监听器把调度器自己语句的所有回调转发给delegate。
+ * 设置短语缓存后，默认音调和语速且已缓存的语句在同一队列中直接播放缓存片段。
+ */
+public class SpeechScheduler extends UtteranceProgressListener {
+    private static final String TAG = "SpeechScheduler";
+
+    private static final String UTTERANCE_PREFIX = "frame-";
+    private static final String UNTAGGED_PREFIX = "say-";
+
+    /**
+     * Identical consecutive answers are spoken again once this much time has passed
+     * 超过这段时间后，相同的连续答案会再次说出
+     */
+    private static final long REPEAT_AFTER_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Speaks one utterance at a time for the scheduler. Progress is reported to the scheduler's
+     * {@link UtteranceProgressListener} methods with the same utterance id.
+     * 为调度器每次说一条语句。进度以相同的语句id回调调度器的UtteranceProgressListener方法。
+     */
+    public interface Engine {
+        /**
+         * @param pitch      1 is the normal pitch. 1为正常音调
+         * @param speechRate 1 is the normal speed. 1为正常语速
+         * @return false if the engine rejected the utterance and will not report on it
+         * 引擎拒绝该语句且不会回调时返回false
+         */
+        boolean speak(String text, float pitch, float speechRate, String utteranceId);
+
+        /**
+         * Stops the utterance being spoken. It does not have to be reported as stopped.
+         * 停止正在播放的语句，不必回调onStop。
+         */
+        void stop();
+    }
+
+    private static class Utterance {
+        final String id;
+        /** Frame the utterance belongs to, null if untagged. 所属的帧，未标记时为null */
+        final Long frameId;
+        final String text;
+        final float pitch;
+        final float speechRate;
+        final long captureTimeMillis;
+        /** Played from the phrase cache. 从短语缓存播放 */
+        boolean cached;
+
+        boolean isSupersededBy(long newFrameId) {
+            return frameId != null && frameId != newFrameId;
+        }
+
+        Utterance(String id, Long frameId, String text, float pitch, float speechRate,
+                  long captureTimeMillis) {
+            this.id = id;
+            this.frameId = frameId;
+            this.text = text;
+            this.pitch = pitch;
+            this.speechRate = speechRate;
+            this.captureTimeMillis = captureTimeMillis;
+        }
+    }
+
+    private final Engine mEngine;
+    private final UtteranceProgressListener mDelegate;
+    private PhraseCache mPhraseCache;
+    private PcmPlayer mPcmPlayer;
+
+    private final ArrayDeque<Utterance> mPending = new ArrayDeque<>();
+    /** Utterance handed to the engine, null while idle. 已交给引擎的语句，空闲时为null */
+    private Utterance mSpeaking;
+
+    private long mFrameId = -1;
+    private long mFrameCaptureMillis;
+    private int mSequence;
+    private long mUntaggedSequence;
+    private String mLastAnswer;
+    private long mLastAnswerMillis;
+
+    private final AtomicLong mSpoken = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+    private final AtomicLong mFlushed = new AtomicLong();
+    private volatile long mLastLagMillis;
+    private volatile long mMaxLagMillis;
+
+    public SpeechScheduler(Engine engine, UtteranceProgressListener delegate) {
+        mEngine = engine;
+        mDelegate = delegate;
+    }
+
+    /**
+     * Speaks through the platform engine; its pitch and speech rate are set before each
+     * utterance. Install the scheduler with {@link TextToSpeech#setOnUtteranceProgressListener}.
+     * 通过系统TTS引擎播放，每条语句之前设置音调和语速。需要用setOnUtteranceProgressListener安装调度器。
+     */
+    public static Engine forTextToSpeech(final TextToSpeech tts) {
+        return new Engine() {
+            @Override
+            public boolean speak(String text, float pitch, float speechRate, String utteranceId) {
+                tts.setPitch(pitch);
+                tts.setSpeechRate(speechRate);
+                return tts.speak(text, TextToSpeech.QUEUE_ADD, null, utteranceId)
+                        == TextToSpeech.SUCCESS;
+            }
+
+            @Override
+            public void stop() {
+                // Only the utterance being spoken is in the engine's queue
+                // 引擎队列中只有正在播放的语句
+                tts.stop();
+            }
+        };
+    }
+
+    /**
+     * Speaks through the Baidu synthesizer. Pitch and speech rate map onto its 0-9 scale around
+     * the default 5 and are restored after the utterance. The synthesizer's listener has to
+     * forward the speech callbacks to the scheduler, see
+     * {@code MessageListener.setUtteranceProgressListener}.
+     * 通过百度合成引擎播放。音调和语速按默认值5映射到0-9，语句之后恢复。合成引擎的listener需要把播放回调转发给调度器。
+     */
+    public static Engine forSynthesizer(final MySyntherizer synthesizer) {
+        return new Engine() {
+            @Override
+            public boolean speak(String text, float pitch, float speechRate, String utteranceId) {
+                boolean prosody = pitch != 1f || speechRate != 1f;
+                if (prosody) {
+                    synthesizer.setParams(MySyntherizer.prosodyParams(pitch, speechRate));
+                }
+                int result = synthesizer.speak(text, utteranceId);
+                if (prosody) {
+                    synthesizer.setParams(MySyntherizer.prosodyParams(1f, 1f));
+                }
+                return result == 0;
+            }
+
+            @Override
+            public void stop() {
+                synthesizer.stop();
+            }
+        };
+    }
+
+    /**
+     * Plays cached phrases through {@code player} instead of the engine. The cache has to be
+     * synthesized by the same engine so that cached and live speech sound alike.
+     * 通过player播放已缓存的短语而不交给引擎。缓存必须由同一个引擎合成，使缓存和在线合成的声音一致。
+     */
+    public synchronized void setPhraseCache(PhraseCache cache, PcmPlayer player) {
+        mPhraseCache = cache;
+        mPcmPlayer = player;
+        player.setUtteranceProgressListener(this);
+    }
+
+    /**
+     * Starts the utterances of a new frame, dropping those of older frames.
+     * 开始一个新帧的语句，丢弃旧帧的语句。
+     *
+     * @param answer the sentence that summarizes the frame, used to coalesce repeated answers
+     * @return false if the answer repeats the previous one and should not be spoken
+     */
+    public boolean beginFrame(long frameId, long captureTimeMillis, String answer) {
+        Utterance interrupted;
+        synchronized (this) {
+            long now = SystemClock.uptimeMillis();
+            if (answer != null && answer.equals(mLastAnswer)
+                    && now - mLastAnswerMillis < REPEAT_AFTER_MILLIS) {
+                mCoalesced.incrementAndGet();
+                Log.d(TAG, "跳过与上一帧相同的答案: " + answer);
+                return false;
+            }
+            int stale = 0;
+            for (Iterator<Utterance> it = mPending.iterator(); it.hasNext(); ) {
+                if (it.next().isSupersededBy(frameId)) {
+                    it.remove();
+                    stale++;
+                }
+            }
+            interrupted = null;
+            if (mSpeaking != null && mSpeaking.isSupersededBy(frameId)) {
+                interrupted = mSpeaking;
+                stale++;
+                stopLocked();
+            }
+            if (stale > 0) {
+                mFlushed.addAndGet(stale);
+                Log.d(TAG, "帧 " + frameId + " 取代了 " + stale + " 条旧语句");
+            }
+            mFrameId = frameId;
+            mFrameCaptureMillis = captureTimeMillis;
+            mSequence = 0;
+            mLastAnswer = answer;
+            mLastAnswerMillis = now;
+        }
+        if (interrupted != null) {
+            TraceRecorder.getDefault().asyncEnd("speech", interrupted.id);
+            mDelegate.onStop(interrupted.id, true);
+            Utterance rejected;
+            synchronized (this) {
+                rejected = dispatchLocked();
+            }
+            reportRejected(rejected);
+        }
+        return true;
+    }
+
+    /**
+     * Queues {@code text} for the current frame.
+     * 为当前帧排队一条语句。
+     */
+    public void say(String text, float pitch, float speechRate) {
+        Utterance rejected;
+        synchronized (this) {
+            rejected = enqueueLocked(new Utterance(UTTERANCE_PREFIX + mFrameId + ":" + mSequence++,
+                    mFrameId, text, pitch, speechRate, mFrameCaptureMillis));
+        }
+        reportRejected(rejected);
+    }
+
+    /**
+     * Queues {@code text} without a frame, so that newer frames do not drop it.
+     * 排队一条不属于任何帧的语句，新帧不会丢弃它。
+     */
+    public void sayUntagged(String text, float pitch, float speechRate) {
+        Utterance rejected;
+        synchronized (this) {
+            rejected = enqueueLocked(new Utterance(UNTAGGED_PREFIX + mUntaggedSequence++, null,
+                    text, pitch, speechRate, SystemClock.uptimeMillis()));
+        }
+        reportRejected(rejected);
+    }
+
+    private Utterance enqueueLocked(Utterance utterance) {
+        mPending.add(utterance);
+        mSpoken.incrementAndGet();
+        return dispatchLocked();
+    }
+
+    /**
+     * Hands the next utterance to the engine if it is idle.
+     * 引擎空闲时将下一条语句交给它。
+     *
+     * @return the utterance the engine rejected, or null
+     */
+    private Utterance dispatchLocked() {
+        if (mSpeaking != null || mPending.isEmpty()) {
+            return null;
+        }
+        mSpeaking = mPending.poll();
+        // Clips are keyed by text, pitch and speech rate 缓存片段按文本、音调和语速区分
+        if (mPhraseCache != null && mPhraseCache.play(mSpeaking.text, mSpeaking.pitch,
+                mSpeaking.speechRate, mPcmPlayer, mSpeaking.id)) {
+            mSpeaking.cached = true;
+            return null;
+        }
+        if (!mEngine.speak(mSpeaking.text, mSpeaking.pitch, mSpeaking.speechRate,
+                mSpeaking.id)) {
+            Utterance rejected = mSpeaking;
+            mSpeaking = null;
+            return rejected;
+        }
+        return null;
+    }
+
+    private void stopLocked() {
+        if (mSpeaking.cached) {
+            mPcmPlayer.stop();
+        } else {
+            mEngine.stop();
+        }
+        mSpeaking = null;
+    }
+
+    private void reportRejected(Utterance rejected) {
+        while (rejected != null) {
+            Log.w(TAG, "语音引擎拒绝了语句: " + rejected.text);
+            mDelegate.onError(rejected.id);
+            synchronized (this) {
+                rejected = dispatchLocked();
+            }
+        }
+    }
+
+    /**
+     * @return true if {@code utteranceId} is being spoken and is now finished
+     */
+    private boolean finish(String utteranceId) {
+        Utterance rejected;
+        synchronized (this) {
+            if (mSpeaking == null || !mSpeaking.id.equals(utteranceId)) {
+                return false;
+            }
+            mSpeaking = null;
+            rejected = dispatchLocked();
+        }
+        TraceRecorder.getDefault().asyncEnd("speech", utteranceId);
+        reportRejected(rejected);
+        return true;
+    }
+
+    @Override
+    public void onStart(String utteranceId) {
+        PhraseCache cache;
+        synchronized (this) {
+            if (mSpeaking == null || !mSpeaking.id.equals(utteranceId)) {
+                return;
+            }
+            long lag = SystemClock.uptimeMillis() - mSpeaking.captureTimeMillis;
+            mLastLagMillis = lag;
+            if (lag > mMaxLagMillis) {
+                mMaxLagMillis = lag;
+            }
+            cache = mSpeaking.cached ? null : mPhraseCache;
+        }
+        if (cache != null) {
+            cache.getStats().markLiveFirstAudio(utteranceId);
+        }
+        TraceRecorder.getDefault().asyncBegin("speech", utteranceId);
+        mDelegate.onStart(utteranceId);
+    }
+
+    @Override
+    public void onDone(String utteranceId) {
+        if (finish(utteranceId)) {
+            mDelegate.onDone(utteranceId);
+        }
+    }
+
+    @Override
+    public void onError(String utteranceId) {
+        if (finish(utteranceId)) {
+            mDelegate.onError(utteranceId);
+        }
+    }
+
+    @Override
+    public void onStop(String utteranceId, boolean interrupted) {
+        if (finish(utteranceId)) {
+            mDelegate.onStop(utteranceId, interrupted);
+        }
+    }
+
+    /** Utterances queued or being spoken. 排队中或正在播放的语句数 */
+    public synchronized int getQueueDepth() {
+        return mPending.size() + (mSpeaking != null ? 1 : 0);
+    }
+
+    /** Capture-to-speech delay of the last utterance that started. 最近一条语句从拍摄到开始播放的延迟 */
+    public long getLastLagMillis() {
+        return mLastLagMillis;
+    }
+
+    public long getMaxLagMillis() {
+        return mMaxLagMillis;
+    }
+
+    public long getSpokenCount() {
+        return mSpoken.get();
+    }
+
+    public long getCoalescedCount() {
+        return mCoalesced.get();
+    }
+
+    public long getFlushedCount() {
+        return mFlushed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SpeechScheduler{depth=" + getQueueDepth() + ", lastLagMs=" + mLastLagMillis
+                + ", maxLagMs=" + mMaxLagMillis + ", spoken=" + mSpoken.get()
+                + ", coalesced=" + mCoalesced.get() + ", flushed=" + mFlushed.get() + "}";
+    }
+}
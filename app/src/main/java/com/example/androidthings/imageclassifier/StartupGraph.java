@@ -0,0 +1,247 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier;
+
+import android.util.Log;
+
+import com.example.androidthings.imageclassifier.trace.TraceRecorder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs startup steps as a dependency graph: every step starts as soon as the steps it depends
+ * on have finished, so independent steps run concurrently. Actions registered with
+ * {@link #whenDone(Runnable, String...)} fire as soon as their subset of steps is done, without
+ * waiting for the rest. A per-step timeline is logged once every step has finished.
+ * 以依赖图的方式运行启动步骤：每个步骤在其依赖完成后立即开始，互不依赖的步骤并发运行。
+ * 通过whenDone注册的动作在其所需步骤完成后立即触发，不等待其余步骤。全部完成后输出每个步骤的时间线。
+ */
+public class StartupGraph {
+    private static final String TAG = "StartupGraph";
+
+    public interface Step {
+        void run() throws Exception;
+    }
+
+    public interface FailureHandler {
+        /**
+         * Called once for the failed step; the steps depending on it are skipped.
+         * 步骤失败时调用一次；依赖它的步骤会被跳过。
+         */
+        void onStepFailed(String name, Throwable error);
+    }
+
+    private enum State {
+        WAITING, RUNNING, DONE, FAILED, SKIPPED
+    }
+
+    private static class Node {
+        final String name;
+        final Step step;
+        final String[] dependencies;
+        final List<Node> dependents = new ArrayList<>();
+        int remaining;
+        State state = State.WAITING;
+        long startNanos;
+        long endNanos;
+        String thread;
+
+        Node(String name, Step step, String[] dependencies) {
+            this.name = name;
+            this.step = step;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private static class Barrier {
+        final String[] names;
+        final Runnable action;
+        boolean fired;
+
+        Barrier(String[] names, Runnable action) {
+            this.names = names;
+            this.action = action;
+        }
+    }
+
+    private final Map<String, Node> mNodes = new LinkedHashMap<>();
+    private final List<Barrier> mBarriers = new ArrayList<>();
+    private final FailureHandler mFailureHandler;
+    private Executor mExecutor;
+    private long mStartNanos;
+    private int mUnfinished;
+
+    public StartupGraph(FailureHandler failureHandler) {
+        mFailureHandler = failureHandler;
+    }
+
+    /**
+     * Adds a step. Dependencies must have been added before.
+     * 添加一个步骤。依赖的步骤必须先添加。
+     */
+    public synchronized StartupGraph add(String name, Step step, String... dependsOn) {
+        if (mExecutor != null) {
+            throw new IllegalStateException("StartupGraph already started");
+        }
+        Node node = new Node(name, step, dependsOn);
+        for (String dependency : dependsOn) {
+            Node parent = mNodes.get(dependency);
+            if (parent == null) {
+                throw new IllegalArgumentException("Unknown startup step " + dependency);
+            }
+            parent.dependents.add(node);
+        }
+        node.remaining = dependsOn.length;
+        mNodes.put(name, node);
+        return this;
+    }
+
+    /**
+     * Runs {@code action} on the thread that finishes the last of {@code names}.
+     * 在完成names中最后一个步骤的线程上运行action。
+     */
+    public synchronized StartupGraph whenDone(Runnable action, String... names) {
+        mBarriers.add(new Barrier(names, action));
+        return this;
+    }
+
+    public void start(Executor executor) {
+        List<Node> roots = new ArrayList<>();
+        synchronized (this) {
+            mExecutor = executor;
+            mStartNanos = System.nanoTime();
+            mUnfinished = mNodes.size();
+            for (Node node : mNodes.values()) {
+                if (node.remaining == 0) {
+                    roots.add(node);
+                }
+            }
+        }
+        for (Node node : roots) {
+            submit(node);
+        }
+    }
+
+    private void submit(final Node node) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (StartupGraph.this) {
+                    node.state = State.RUNNING;
+                    node.startNanos = System.nanoTime();
+                    node.thread = Thread.currentThread().getName();
+                }
+                Throwable error = null;
+                TraceRecorder.getDefault().begin(node.name);
+                try {
+                    node.step.run();
+                } catch (Throwable t) {
+                    error = t;
+                } finally {
+                    TraceRecorder.getDefault().end(node.name);
+                }
+                onFinished(node, error);
+            }
+        });
+    }
+
+    private void onFinished(Node node, Throwable error) {
+        List<Node> ready = new ArrayList<>();
+        List<Runnable> actions = new ArrayList<>();
+        boolean allFinished;
+        synchronized (this) {
+            node.endNanos = System.nanoTime();
+            node.state = error == null ? State.DONE : State.FAILED;
+            mUnfinished--;
+            if (error == null) {
+                for (Node dependent : node.dependents) {
+                    if (--dependent.remaining == 0 && dependent.state == State.WAITING) {
+                        ready.add(dependent);
+                    }
+                }
+            } else {
+                skipDependents(node);
+            }
+            for (Barrier barrier : mBarriers) {
+                if (!barrier.fired && allDone(barrier.names)) {
+                    barrier.fired = true;
+                    actions.add(barrier.action);
+                }
+            }
+            allFinished = mUnfinished == 0;
+        }
+        if (error != null) {
+            Log.e(TAG, "启动步骤失败: " + node.name, error);
+            if (mFailureHandler != null) {
+                mFailureHandler.onStepFailed(node.name, error);
+            }
+        }
+        for (Node next : ready) {
+            submit(next);
+        }
+        for (Runnable action : actions) {
+            action.run();
+        }
+        if (allFinished) {
+            logTimeline();
+        }
+    }
+
+    private void skipDependents(Node node) {
+        for (Node dependent : node.dependents) {
+            if (dependent.state == State.WAITING) {
+                dependent.state = State.SKIPPED;
+                mUnfinished--;
+                Log.w(TAG, "跳过启动步骤 " + dependent.name + "，依赖 " + node.name + " 失败");
+                skipDependents(dependent);
+            }
+        }
+    }
+
+    private boolean allDone(String[] names) {
+        for (String name : names) {
+            Node node = mNodes.get(name);
+            if (node == null || node.state != State.DONE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void logTimeline() {
+        long last = 0;
+        for (Node node : mNodes.values()) {
+            if (node.state == State.SKIPPED) {
+                Log.i(TAG, String.format(Locale.US, "%-16s skipped", node.name));
+                continue;
+            }
+            long start = (node.startNanos - mStartNanos) / 1000000;
+            long end = (node.endNanos - mStartNanos) / 1000000;
+            last = Math.max(last, end);
+            Log.i(TAG, String.format(Locale.US, "%-16s +%5dms .. +%5dms (%5dms) %s %s%s",
+                    node.name, start, end, end - start, node.state, node.thread,
+                    node.dependencies.length == 0 ? ""
+                            : " after " + Arrays.toString(node.dependencies)));
+        }
+        Log.i(TAG, "启动完成，总耗时 " + last + "ms");
+    }
+}
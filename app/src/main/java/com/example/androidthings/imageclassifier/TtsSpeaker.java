@@ -15,9 +15,9 @@
  */
 package com.example.androidthings.imageclassifier;
 
-import android.speech.tts.TextToSpeech;
-
 import com.example.androidthings.imageclassifier.classifier.Recognition;
+import com.example.androidthings.imageclassifier.control.PcmPlayer;
+import com.example.androidthings.imageclassifier.control.PhraseCache;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -32,11 +32,14 @@ import java.util.concurrent.TimeUnit;
 
 public class TtsSpeaker {
 
-    private static final String UTTERANCE_ID
-            = "com.example.androidthings.imageclassifier.UTTERANCE_ID";
     private static final float HUMOR_THRESHOLD = 0.3f;
     private static final Random RANDOM = new Random();
 
+    private static final String READY = "I'm ready!";
+    private static final String NOT_UNDERSTOOD = "I don't understand what I see.";
+    private static final String DO_BETTER = "Please don't unplug me, I'll do better next time.";
+    private static final String JUST_KIDDING = "Just kidding...";
+
     private static final List<Utterance> SHUTTER_SOUNDS = new ArrayList<>();
     private static final List<Utterance> JOKES = new ArrayList<>();
     static {
@@ -75,7 +78,14 @@ public class TtsSpeaker {
      */
     private boolean mHasSenseOfHumor = true;
 
-    public TtsSpeaker() {
+    /**
+     * Queues the utterances and hands them to the TTS engine one at a time.
+     * 为语句排队并逐条交给TTS引擎。
+     */
+    private final SpeechScheduler mScheduler;
+
+    public TtsSpeaker(SpeechScheduler scheduler) {
+        mScheduler = scheduler;
         mJokes = new TreeMap<>();
         long key = 0L;
         for (Utterance joke : JOKES) {
@@ -84,44 +94,121 @@ public class TtsSpeaker {
         }
     }
 
-    public void speakReady(TextToSpeech tts) {
-        tts.speak("I'm ready!", TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
+    /**
+     * Every fixed line this speaker can say, with the pitch and speech rate it is said at, plus
+     * the single-answer sentence for each label, so that they can be pre-synthesized into a
+     * {@link PhraseCache}.
+     * 该类可能说出的所有固定语句（及其说出时的音调和语速）以及每个标签的单一答案句子，用于预合成到短语缓存。
+     */
+    public static List<PhraseCache.Phrase> getCacheablePhrases(List<String> labels) {
+        List<PhraseCache.Phrase> phrases = new ArrayList<>();
+        phrases.add(new PhraseCache.Phrase(READY, 1f, 1f));
+        phrases.add(new PhraseCache.Phrase(NOT_UNDERSTOOD, 1f, 1f));
+        phrases.add(new PhraseCache.Phrase(DO_BETTER, 1f, 1f));
+        phrases.add(new PhraseCache.Phrase(JUST_KIDDING, 1f, 1f));
+        for (Utterance u : SHUTTER_SOUNDS) {
+            phrases.add(new PhraseCache.Phrase(((SimpleUtterance) u).mMessage,
+                    ShutterUtterance.PITCH, ShutterUtterance.SPEECH_RATE));
+        }
+        phrases.add(new PhraseCache.Phrase(ISeeDeadPeopleUtterance.MESSAGE,
+                ISeeDeadPeopleUtterance.PITCH, ISeeDeadPeopleUtterance.SPEECH_RATE));
+        phrases.add(new PhraseCache.Phrase(SupermanUtterance.MESSAGE,
+                SupermanUtterance.PITCH, SupermanUtterance.SPEECH_RATE));
+        phrases.add(new PhraseCache.Phrase(LooksLikeMeUtterance.MESSAGE,
+                LooksLikeMeUtterance.PITCH, LooksLikeMeUtterance.SPEECH_RATE));
+        phrases.add(new PhraseCache.Phrase(LensCapOnUtterance.MESSAGE,
+                LensCapOnUtterance.PITCH, LensCapOnUtterance.SPEECH_RATE));
+        for (String label : labels) {
+            phrases.add(new PhraseCache.Phrase(singleAnswer(label), 1f, 1f));
+        }
+        return phrases;
+    }
+
+    private static String singleAnswer(String title) {
+        return String.format(Locale.getDefault(), "I see a %s", title);
     }
 
-    public void speakShutterSound(TextToSpeech tts) {
-        getRandomElement(SHUTTER_SOUNDS).speak(tts);
+    public void speakReady() {
+        mScheduler.sayUntagged(READY, 1f, 1f);
     }
 
-    public void speakResults(TextToSpeech tts, Collection<Recognition> results) {
+    public void speakShutterSound() {
+        getRandomElement(SHUTTER_SOUNDS).speak(this);
+    }
+
+    public void speakResults(Collection<Recognition> results) {
+        speakResults(results, -1, 0);
+    }
+
+    /**
+     * Speaks the results of a frame. Utterances still queued for older frames are dropped and a
+     * repeat of the previous answer is skipped.
+     * 说出一帧的结果。丢弃仍在排队的旧帧语句，并跳过与上一次相同的答案。
+     *
+     * @param frameId           id of the classified frame
+     * @param captureTimeMillis {@link android.os.SystemClock#uptimeMillis()} at capture time
+     * @return false if nothing was queued because the answer repeats the previous one
+     */
+    public boolean speakResults(Collection<Recognition> results, long frameId,
+                                long captureTimeMillis) {
+        String answer = getAnswer(results);
+        if (!mScheduler.beginFrame(frameId, captureTimeMillis, answer)) {
+            return false;
+        }
         if (results.isEmpty()) {
-            tts.speak("I don't understand what I see.", TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
+            say(answer);
             if (isFeelingFunnyNow()) {
-                tts.speak("Please don't unplug me, I'll do better next time.",
-                        TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
+                say(DO_BETTER);
             }
         } else {
             if (isFeelingFunnyNow()) {
-                playJoke(tts);
-            }
-            Iterator<Recognition> it = results.iterator();
-
-            Recognition first = it.hasNext() ? it.next() : null;
-            Recognition second = it.hasNext() ? it.next() : null;
-            if (results.size() == 1
-                    || first.getConfidence() > SINGLE_ANSWER_CONFIDENCE_THRESHOLD) {
-                tts.speak(String.format(Locale.getDefault(),
-                        "I see a %s", first.getTitle()),
-                        TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
-            } else {
-                tts.speak(String.format(Locale.getDefault(), "This is a %s, or maybe a %s",
-                        first.getTitle(), second.getTitle()),
-                        TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
+                playJoke();
             }
+            say(answer);
         }
+        return true;
+    }
 
+    private static String getAnswer(Collection<Recognition> results) {
+        if (results.isEmpty()) {
+            return NOT_UNDERSTOOD;
+        }
+        Iterator<Recognition> it = results.iterator();
+
+        Recognition first = it.hasNext() ? it.next() : null;
+        Recognition second = it.hasNext() ? it.next() : null;
+        if (results.size() == 1
+                || first.getConfidence() > SINGLE_ANSWER_CONFIDENCE_THRESHOLD) {
+            return singleAnswer(first.getTitle());
+        } else {
+            return String.format(Locale.getDefault(), "This is a %s, or maybe a %s",
+                    first.getTitle(), second.getTitle());
+        }
+    }
+
+    void say(String text) {
+        say(text, 1f, 1f);
+    }
+
+    /**
+     * Plays the phrases of {@link #getCacheablePhrases} from {@code cache} when they are said at
+     * the pitch and speech rate they were cached with. See {@link SpeechScheduler#setPhraseCache}.
+     * 以缓存时的音调和语速说出的短语从缓存中播放。
+     */
+    public void setPhraseCache(PhraseCache cache, PcmPlayer player) {
+        mScheduler.setPhraseCache(cache, player);
     }
 
-    private boolean playJoke(TextToSpeech tts) {
+    /**
+     * Queues {@code text} with its own pitch and speech rate, which are applied when the
+     * utterance reaches the engine.
+     * 以该语句自己的音调和语速排队，语句交给引擎时才生效。
+     */
+    void say(String text, float pitch, float speechRate) {
+        mScheduler.say(text, pitch, speechRate);
+    }
+
+    private boolean playJoke() {
         long now = System.currentTimeMillis();
         // choose a random joke whose last occurrence was far enough in the past
         SortedMap<Long, Utterance> availableJokes = mJokes.headMap(now - JOKE_COOLDOWN_MILLIS);
@@ -137,7 +224,7 @@ public class TtsSpeaker {
             }
         }
         if (joke != null) {
-            joke.speak(tts);
+            joke.speak(this);
             // add it back with the current time
             mJokes.put(now, joke);
             return true;
@@ -163,7 +250,7 @@ public class TtsSpeaker {
 
     interface Utterance {
 
-        void speak(TextToSpeech tts);
+        void speak(TtsSpeaker speaker);
     }
 
     private static class SimpleUtterance implements Utterance {
@@ -174,71 +261,76 @@ public class TtsSpeaker {
             mMessage = message;
         }
 
+        String getMessage() {
+            return mMessage;
+        }
+
         @Override
-        public void speak(TextToSpeech tts) {
-            tts.speak(mMessage, TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
+        public void speak(TtsSpeaker speaker) {
+            speaker.say(mMessage);
         }
     }
 
     private static class ShutterUtterance extends SimpleUtterance {
+        static final float PITCH = 1.5f;
+        static final float SPEECH_RATE = 1.5f;
 
         ShutterUtterance(String message) {
             super(message);
         }
 
         @Override
-        public void speak(TextToSpeech tts) {
-            tts.setPitch(1.5f);
-            tts.setSpeechRate(1.5f);
-            super.speak(tts);
-            tts.setPitch(1f);
-            tts.setSpeechRate(1f);
+        public void speak(TtsSpeaker speaker) {
+            // Not part of any frame's results 不属于任何帧的结果
+            speaker.mScheduler.sayUntagged(getMessage(), PITCH, SPEECH_RATE);
         }
     }
 
     private static class ISeeDeadPeopleUtterance implements Utterance {
+        static final String MESSAGE = "I see dead people...";
+        static final float PITCH = 0.2f;
+        static final float SPEECH_RATE = 1f;
+
         @Override
-        public void speak(TextToSpeech tts) {
-            tts.setPitch(0.2f);
-            tts.speak("I see dead people...", TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
-            tts.setPitch(1);
-            tts.speak("Just kidding...", TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
+        public void speak(TtsSpeaker speaker) {
+            speaker.say(MESSAGE, PITCH, SPEECH_RATE);
+            speaker.say(JUST_KIDDING);
         }
     }
 
     private static class SupermanUtterance implements Utterance {
+        static final String MESSAGE = "It's a bird! It's a plane! It's superman";
+        static final float PITCH = 1.8f;
+        static final float SPEECH_RATE = 1.4f;
+
         @Override
-        public void speak(TextToSpeech tts) {
-            tts.setPitch(1.8f);
-            tts.setSpeechRate(1.4f);
-            tts.speak("It's a bird! It's a plane! It's superman", TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
-            tts.setPitch(1);
-            tts.setSpeechRate(1f);
-            tts.speak("Just kidding...", TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
+        public void speak(TtsSpeaker speaker) {
+            speaker.say(MESSAGE, PITCH, SPEECH_RATE);
+            speaker.say(JUST_KIDDING);
         }
     }
 
     private static class LooksLikeMeUtterance implements Utterance {
+        static final String MESSAGE = "Hey, that looks like me!";
+        static final float PITCH = 1.3f;
+        static final float SPEECH_RATE = 1.6f;
+
         @Override
-        public void speak(TextToSpeech tts) {
-            tts.setPitch(1.3f);
-            tts.setSpeechRate(1.6f);
-            tts.speak("Hey, that looks like me!", TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
-            tts.setPitch(1);
-            tts.setSpeechRate(1f);
-            tts.speak("Just kidding...", TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
+        public void speak(TtsSpeaker speaker) {
+            speaker.say(MESSAGE, PITCH, SPEECH_RATE);
+            speaker.say(JUST_KIDDING);
         }
     }
 
     private static class LensCapOnUtterance implements Utterance {
+        static final String MESSAGE = "Oops, someone left the lens cap on!";
+        static final float PITCH = 0.7f;
+        static final float SPEECH_RATE = 1.6f;
+
         @Override
-        public void speak(TextToSpeech tts) {
-            tts.setPitch(0.7f);
-            tts.setSpeechRate(1.6f);
-            tts.speak("Oops, someone left the lens cap on!", TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
-            tts.setPitch(1);
-            tts.setSpeechRate(1f);
-            tts.speak("Just kidding...", TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
+        public void speak(TtsSpeaker speaker) {
+            speaker.say(MESSAGE, PITCH, SPEECH_RATE);
+            speaker.say(JUST_KIDDING);
         }
     }
 }
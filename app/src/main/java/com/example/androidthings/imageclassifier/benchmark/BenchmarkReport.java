@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Ordered key/value report rendered as JSON. Kept free of Android classes so the same report
+ * format is produced on the device and on a desktop JVM.
+ * 以JSON格式输出的有序键值报告。不依赖Android类，设备和桌面JVM输出相同格式。
+ */
+public class BenchmarkReport {
+
+    private final Map<String, Object> mValues = new LinkedHashMap<>();
+
+    public BenchmarkReport put(String key, long value) {
+        mValues.put(key, value);
+        return this;
+    }
+
+    public BenchmarkReport put(String key, double value) {
+        mValues.put(key, value);
+        return this;
+    }
+
+    public BenchmarkReport put(String key, String value) {
+        mValues.put(key, value);
+        return this;
+    }
+
+    public BenchmarkReport put(String key, BenchmarkReport value) {
+        mValues.put(key, value);
+        return this;
+    }
+
+    public BenchmarkReport put(String key, LatencyStats value) {
+        mValues.put(key, value.toReport());
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+
+    private void appendTo(StringBuilder sb) {
+        sb.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Object> e : mValues.entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            appendString(sb, e.getKey());
+            sb.append(':');
+            Object value = e.getValue();
+            if (value instanceof BenchmarkReport) {
+                ((BenchmarkReport) value).appendTo(sb);
+            } else if (value instanceof String) {
+                appendString(sb, (String) value);
+            } else if (value instanceof Double) {
+                double d = (Double) value;
+                if (Double.isNaN(d) || Double.isInfinite(d)) {
+                    sb.append("null");
+                } else {
+                    sb.append(String.format(Locale.US, "%.3f", d));
+                }
+            } else {
+                sb.append(value);
+            }
+        }
+        sb.append('}');
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.benchmark;
+
+import com.example.androidthings.imageclassifier.embedding.EmbeddingIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures enrollment and query throughput of {@link EmbeddingIndex} with 10k to 100k random
+ * vectors, float and int8, on one thread and split across threads, plus the time to save and
+ * load the index file. Has no Android dependencies, so it also runs on a desktop JVM; 100k
+ * float vectors of 1024 dimensions need about 400 MB of heap:
+ * <pre>
+ * java -Xmx1g -cp app/build/intermediates/javac/debug/classes \
+ *     com.example.androidthings.imageclassifier.benchmark.EmbeddingIndexBenchmark [dims] [queries]
+ * </pre>
+ * 测量EmbeddingIndex在1万到10万个随机向量下的登记和查询吞吐量，包括float和int8、单线程和多线程，
+ * 以及保存和加载索引文件的时间。不依赖Android，也可以在桌面JVM上运行。
+ */
+public class EmbeddingIndexBenchmark {
+
+    private static final int[] INDEX_SIZES = {10000, 50000, 100000};
+    private static final int K = 5;
+
+    private final int mDims;
+    private final int mQueries;
+    private final int mThreads;
+    private final File mDir;
+
+    /**
+     * @param dir directory for the temporary index files. 临时索引文件的目录
+     */
+    public EmbeddingIndexBenchmark(int dims, int queries, int threads, File dir) {
+        mDims = dims;
+        mQueries = Math.max(1, queries);
+        mThreads = Math.max(1, threads);
+        mDir = dir;
+    }
+
+    /**
+     * Runs every index size and storage format and returns the JSON report.
+     * 运行所有索引大小和存储格式，返回JSON报告。
+     */
+    public String run() throws InterruptedException, IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        BenchmarkReport report = new BenchmarkReport()
+                .put("dims", mDims)
+                .put("queries", mQueries)
+                .put("threads", mThreads)
+                .put("k", K);
+        try {
+            for (int size : INDEX_SIZES) {
+                report.put(String.valueOf(size), new BenchmarkReport()
+                        .put("float", runIndex(size, false, executor))
+                        .put("int8", runIndex(size, true, executor)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return report.toString();
+    }
+
+    private BenchmarkReport runIndex(int size, boolean quantized, ExecutorService executor)
+            throws InterruptedException, IOException {
+        Random random = new Random(size);
+        float[] vector = new float[mDims];
+        EmbeddingIndex index = new EmbeddingIndex(mDims, quantized);
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            fill(vector, random);
+            index.add("class" + (i % 100), vector);
+        }
+        long enrollNanos = System.nanoTime() - start;
+
+        float[][] queries = new float[mQueries][mDims];
+        for (float[] query : queries) {
+            fill(query, random);
+        }
+        LatencyStats serial = new LatencyStats(mQueries);
+        LatencyStats parallel = new LatencyStats(mQueries);
+        index.query(queries[0], K);
+        index.query(queries[0], K, executor, mThreads);
+        for (float[] query : queries) {
+            long queryStart = System.nanoTime();
+            index.query(query, K);
+            serial.add(System.nanoTime() - queryStart);
+            queryStart = System.nanoTime();
+            index.query(query, K, executor, mThreads);
+            parallel.add(System.nanoTime() - queryStart);
+        }
+
+        File file = new File(mDir, "embedding-benchmark-" + size + (quantized ? "-q" : "")
+                + ".idx");
+        start = System.nanoTime();
+        index.save(file);
+        long saveNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        EmbeddingIndex.load(file);
+        long loadNanos = System.nanoTime() - start;
+        long fileBytes = file.length();
+        file.delete();
+
+        return new BenchmarkReport()
+                .put("enroll_vectors_per_s", size * 1e9 / enrollNanos)
+                .put("serial_query", serial)
+                .put("serial_queries_per_s", mQueries * 1e9 / serial.getTotalNanos())
+                .put("parallel_query", parallel)
+                .put("parallel_queries_per_s", mQueries * 1e9 / parallel.getTotalNanos())
+                .put("file_bytes", fileBytes)
+                .put("save_ms", saveNanos / 1e6)
+                .put("load_ms", loadNanos / 1e6);
+    }
+
+    private static void fill(float[] vector, Random random) {
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int dims = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        System.out.println(new EmbeddingIndexBenchmark(dims, queries, threads, dir).run());
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Posts the same image to the inference endpoint from several threads, each reusing one
+ * keep-alive connection, and reports requests per second and latency percentiles as JSON. Has
+ * no Android dependencies, so it also runs on a build host against a forwarded port:
+ * <pre>
+ * adb forward tcp:8080 tcp:8080
+ * java -cp app/build/intermediates/javac/debug/classes \
+ *     com.example.androidthings.imageclassifier.benchmark.InferenceLoadGenerator \
+ *     http://127.0.0.1:8080/classify cat.jpg [concurrency] [requests]
+ * </pre>
+ * 从多个线程向推理端点发送同一张图像，每个线程复用一个保持的连接，以JSON报告每秒请求数和延迟百分位。
+ * 不依赖Android，也可以在主机上通过转发的端口运行。
+ */
+public class InferenceLoadGenerator {
+
+    private final URL mUrl;
+    private final byte[] mBody;
+    private final String mContentType;
+    private final int mConcurrency;
+    private final int mRequests;
+    private final int mWarmup;
+
+    /**
+     * @param requests total requests, split evenly across the threads. 请求总数，平均分配给各线程
+     * @param warmup   requests per thread before measuring. 测量前每个线程的请求数
+     */
+    public InferenceLoadGenerator(URL url, byte[] body, String contentType, int concurrency,
+                                  int requests, int warmup) {
+        mUrl = url;
+        mBody = body;
+        mContentType = contentType;
+        mConcurrency = Math.max(1, concurrency);
+        mRequests = Math.max(mConcurrency, requests);
+        mWarmup = Math.max(0, warmup);
+    }
+
+    /**
+     * Runs the load and returns the JSON report.
+     * 运行负载并返回JSON报告。
+     */
+    public String run() throws InterruptedException {
+        final LatencyStats[] stats = new LatencyStats[mConcurrency];
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch warmedUp = new CountDownLatch(mConcurrency);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[mConcurrency];
+        for (int t = 0; t < mConcurrency; t++) {
+            final int count = mRequests / mConcurrency + (t < mRequests % mConcurrency ? 1 : 0);
+            final LatencyStats latencies = new LatencyStats(count);
+            stats[t] = latencies;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < mWarmup; i++) {
+                            post();
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                    warmedUp.countDown();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        long begin = System.nanoTime();
+                        try {
+                            if (post() == HttpURLConnection.HTTP_OK) {
+                                latencies.add(System.nanoTime() - begin);
+                            } else {
+                                errors.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            }, "load-" + t);
+            workers[t].start();
+        }
+        warmedUp.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        LatencyStats all = new LatencyStats(mRequests);
+        for (LatencyStats s : stats) {
+            all.addAll(s);
+        }
+        return new BenchmarkReport()
+                .put("url", mUrl.toString())
+                .put("body_bytes", mBody.length)
+                .put("concurrency", mConcurrency)
+                .put("requests", mRequests)
+                .put("errors", errors.get())
+                .put("seconds", elapsed / 1e9)
+                .put("requests_per_second", all.getCount() / (elapsed / 1e9))
+                .put("latency", all.toReport()
+                        .put("p90_ms", all.getPercentile(90) / 1e6)
+                        .put("p999_ms", all.getPercentile(99.9) / 1e6))
+                .toString();
+    }
+
+    /**
+     * Sends one request and reads the whole reply, so the connection goes back to the JDK's
+     * keep-alive cache.
+     * 发送一个请求并读完整个应答，使连接回到JDK的保持连接缓存。
+     */
+    private int post() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", mContentType);
+        connection.setFixedLengthStreamingMode(mBody.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(mBody);
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            byte[] buffer = new byte[4096];
+            try {
+                while (in.read(buffer) != -1) {
+                    // 丢弃应答正文
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return status;
+    }
+
+    /** JPEG for .jpg/.jpeg files, raw RGB otherwise. .jpg/.jpeg文件为JPEG，其他为原始RGB */
+    public static String contentTypeFor(File file) {
+        String name = file.getName().toLowerCase(Locale.US);
+        return name.endsWith(".jpg") || name.endsWith(".jpeg")
+                ? "image/jpeg" : "application/octet-stream";
+    }
+
+    public static byte[] readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[16384];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: InferenceLoadGenerator <url> <image> [concurrency] [requests]");
+            System.exit(2);
+        }
+        File image = new File(args[1]);
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int requests = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        System.out.println(new InferenceLoadGenerator(new URL(args[0]), readFile(image),
+                contentTypeFor(image), concurrency, requests, 2).run());
+    }
+}
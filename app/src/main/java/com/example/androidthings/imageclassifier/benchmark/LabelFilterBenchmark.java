@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.benchmark;
+
+import com.example.androidthings.imageclassifier.classifier.LabelFilter;
+import com.example.androidthings.imageclassifier.classifier.TensorFlowHelper;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares picking the best results over all labels with picking them over a
+ * {@link LabelFilter}, on random quantized model outputs. Reports latency and Java allocation
+ * per frame for both as JSON.
+ * 在随机的量化模型输出上，比较在全部标签中选取最佳结果与在LabelFilter中选取。以JSON报告两者每帧的延迟和Java分配量。
+ */
+public class LabelFilterBenchmark {
+
+    private final List<String> mLabels;
+    private final LabelFilter mFilter;
+    private final int mFrames;
+
+    public LabelFilterBenchmark(List<String> labels, LabelFilter filter, int frames) {
+        mLabels = labels;
+        mFilter = filter;
+        mFrames = Math.max(1, frames);
+    }
+
+    /**
+     * Runs both variants on the calling thread and returns the JSON report.
+     * 在调用线程上运行两种方式并返回JSON报告。
+     */
+    public String run() {
+        Random random = new Random(0);
+        byte[][][] outputs = new byte[16][1][mLabels.size()];
+        for (byte[][] output : outputs) {
+            random.nextBytes(output[0]);
+        }
+        for (int i = 0; i < mFrames / 4 + 1; i++) {
+            TensorFlowHelper.getBestResults(outputs[i % outputs.length], mLabels);
+            TensorFlowHelper.getBestResults(outputs[i % outputs.length], mLabels, mFilter);
+        }
+
+        LatencyStats all = new LatencyStats(mFrames);
+        long allocatedBefore = MemoryProbe.allocatedBytes();
+        for (int i = 0; i < mFrames; i++) {
+            long start = System.nanoTime();
+            TensorFlowHelper.getBestResults(outputs[i % outputs.length], mLabels);
+            all.add(System.nanoTime() - start);
+        }
+        long allocatedAll = MemoryProbe.allocatedBytes();
+
+        LatencyStats filtered = new LatencyStats(mFrames);
+        for (int i = 0; i < mFrames; i++) {
+            long start = System.nanoTime();
+            TensorFlowHelper.getBestResults(outputs[i % outputs.length], mLabels, mFilter);
+            filtered.add(System.nanoTime() - start);
+        }
+        long allocatedFiltered = MemoryProbe.allocatedBytes();
+
+        boolean probed = allocatedBefore >= 0 && allocatedAll >= 0 && allocatedFiltered >= 0;
+        return new BenchmarkReport()
+                .put("frames", mFrames)
+                .put("labels", mLabels.size())
+                .put("filtered_labels", mFilter.size())
+                .put("all_labels", new BenchmarkReport()
+                        .put("latency", all)
+                        .put("allocated_bytes_per_frame",
+                                probed ? (allocatedAll - allocatedBefore) / mFrames : -1))
+                .put("filtered", new BenchmarkReport()
+                        .put("latency", filtered)
+                        .put("allocated_bytes_per_frame",
+                                probed ? (allocatedFiltered - allocatedAll) / mFrames : -1))
+                .put("saving_ms_per_frame",
+                        (all.getTotalNanos() - filtered.getTotalNanos()) / 1e6 / mFrames)
+                .toString();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples in nanoseconds. Not thread-safe: each worker owns one and the runner
+ * merges them with {@link #addAll(LatencyStats)} once the workers are done.
+ * 以纳秒收集延迟样本。非线程安全：每个工作线程各持有一个，结束后合并。
+ */
+public class LatencyStats {
+
+    private long[] mSamples;
+    private int mCount;
+
+    public LatencyStats(int expectedSamples) {
+        mSamples = new long[Math.max(16, expectedSamples)];
+    }
+
+    public void add(long nanos) {
+        if (mCount == mSamples.length) {
+            mSamples = Arrays.copyOf(mSamples, mCount * 2);
+        }
+        mSamples[mCount++] = nanos;
+    }
+
+    public void addAll(LatencyStats other) {
+        for (int i = 0; i < other.mCount; i++) {
+            add(other.mSamples[i]);
+        }
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getTotalNanos() {
+        long total = 0;
+        for (int i = 0; i < mCount; i++) {
+            total += mSamples[i];
+        }
+        return total;
+    }
+
+    /**
+     * @param percentile in the range [0, 100]
+     * @return the nearest-rank percentile in nanoseconds, or 0 if there are no samples.
+     */
+    public long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * mCount) - 1;
+        return sorted[Math.max(0, Math.min(mCount - 1, rank))];
+    }
+
+    public BenchmarkReport toReport() {
+        return new BenchmarkReport()
+                .put("count", mCount)
+                .put("mean_ms", mCount == 0 ? 0 : getTotalNanos() / 1e6 / mCount)
+                .put("p50_ms", getPercentile(50) / 1e6)
+                .put("p99_ms", getPercentile(99) / 1e6)
+                .put("max_ms", getPercentile(100) / 1e6);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+/**
+ * Process-wide memory readings for benchmark reports. Works on ART and, for the pure Java
+ * benchmarks, on a HotSpot JVM on a Linux host.
+ * 用于基准报告的进程级内存读数。可在ART上运行，纯Java基准也可在Linux主机的HotSpot JVM上运行。
+ */
+public class MemoryProbe {
+
+    private MemoryProbe() {
+    }
+
+    /**
+     * @return total bytes allocated on the Java heap since process start, or -1 if unknown.
+     * 进程启动以来Java堆上分配的总字节数，未知时返回-1。
+     */
+    public static long allocatedBytes() {
+        try {
+            String stat = android.os.Debug.getRuntimeStat("art.gc.bytes-allocated");
+            if (stat != null) {
+                return Long.parseLong(stat);
+            }
+        } catch (Throwable t) {
+            // Not running on ART, try the HotSpot thread MX bean below.
+        }
+        try {
+            Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+            Object bean = factory.getMethod("getThreadMXBean").invoke(null);
+            long[] ids = (long[]) bean.getClass().getMethod("getAllThreadIds").invoke(bean);
+            Method allocated = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long[].class);
+            long total = 0;
+            for (long bytes : (long[]) allocated.invoke(bean, (Object) ids)) {
+                if (bytes > 0) {
+                    total += bytes;
+                }
+            }
+            return total;
+        } catch (Throwable t) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the peak resident set size (VmHWM) in bytes, or -1 if /proc is unavailable.
+     * 峰值常驻内存（VmHWM），单位字节，无法读取/proc时返回-1。
+     */
+    public static long peakRssBytes() {
+        return readProcStatus("VmHWM:");
+    }
+
+    /**
+     * @return the current resident set size (VmRSS) in bytes, or -1 if /proc is unavailable.
+     */
+    public static long currentRssBytes() {
+        return readProcStatus("VmRSS:");
+    }
+
+    private static long readProcStatus(String key) {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(key)) {
+                    String[] parts = line.substring(key.length()).trim().split("\\s+");
+                    return Long.parseLong(parts[0]) * 1024L;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.benchmark;
+
+import com.example.androidthings.imageclassifier.metrics.Counter;
+import com.example.androidthings.imageclassifier.metrics.Gauge;
+import com.example.androidthings.imageclassifier.metrics.Histogram;
+import com.example.androidthings.imageclassifier.metrics.MetricsRegistry;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the hot-path cost of {@link MetricsRegistry} updates: nanoseconds per counter
+ * increment, gauge set and histogram observation on one thread and on several threads sharing
+ * the same metrics, and the Java allocation per update. A single-writer counter is only
+ * measured on one thread. {@code call_overhead} is the cost of the measuring loop itself and is
+ * included in the other figures. Has no Android dependencies:
+ * <pre>
+ * java -cp app/build/intermediates/javac/debug/classes \
+ *     com.example.androidthings.imageclassifier.benchmark.MetricsBenchmark [updates] [threads]
+ * </pre>
+ * 测量MetricsRegistry热路径更新的开销：单线程和多线程共享同一指标时，每次计数器递增、仪表设置和直方图记录的纳秒数，
+ * 以及每次更新的Java分配量。单写入方计数器只在单线程上测量。call_overhead是测量循环本身的开销，已包含在其他数值中。不依赖Android。
+ */
+public class MetricsBenchmark {
+
+    private interface Update {
+        void run(long i);
+    }
+
+    private final long mUpdates;
+    private final int mThreads;
+
+    public MetricsBenchmark(long updates, int threads) {
+        mUpdates = Math.max(1, updates);
+        mThreads = Math.max(1, threads);
+    }
+
+    /**
+     * Runs every update kind and returns the JSON report.
+     * 运行每种更新并返回JSON报告。
+     */
+    public String run() throws InterruptedException {
+        MetricsRegistry registry = new MetricsRegistry();
+        final Counter counter = registry.counter("bench_total", "Benchmark counter");
+        final Counter owned = registry.singleWriterCounter("bench_owned_total",
+                "Benchmark single-writer counter");
+        final Gauge gauge = registry.gauge("bench_gauge", "Benchmark gauge");
+        final Histogram histogram = registry.histogram("bench_seconds", "Benchmark histogram",
+                Histogram.latencySeconds());
+        Update[] updates = {
+                new Update() {
+                    @Override
+                    public void run(long i) {
+                        // 空更新：测量循环和接口调用本身的开销
+                    }
+                },
+                new Update() {
+                    @Override
+                    public void run(long i) {
+                        owned.inc();
+                    }
+                },
+                new Update() {
+                    @Override
+                    public void run(long i) {
+                        counter.inc();
+                    }
+                },
+                new Update() {
+                    @Override
+                    public void run(long i) {
+                        gauge.set(i);
+                    }
+                },
+                new Update() {
+                    @Override
+                    public void run(long i) {
+                        // 覆盖从微秒到秒的各个桶
+                        histogram.observeNanos((i & 0xFFFF) << 14);
+                    }
+                }};
+        String[] names = {"call_overhead", "counter_inc_single_writer", "counter_inc",
+                "gauge_set", "histogram_observe"};
+        // 单写入方计数器不能由多个线程同时递增
+        boolean[] shareable = {true, false, true, true, true};
+
+        BenchmarkReport report = new BenchmarkReport()
+                .put("updates", mUpdates)
+                .put("threads", mThreads);
+        for (int u = 0; u < updates.length; u++) {
+            // 先运行一遍让JIT编译
+            measure(updates[u], 1);
+            long before = MemoryProbe.allocatedBytes();
+            double single = measure(updates[u], 1);
+            long after = MemoryProbe.allocatedBytes();
+            BenchmarkReport result = new BenchmarkReport()
+                    .put("ns_per_update", single)
+                    .put("allocated_bytes_per_update", before >= 0 && after >= 0
+                            ? (double) (after - before) / mUpdates : -1);
+            if (shareable[u]) {
+                result.put("ns_per_update_shared", measure(updates[u], mThreads));
+            }
+            report.put(names[u], result);
+        }
+        report.put("scrape_bytes", registry.toPrometheus().length());
+        return report.toString();
+    }
+
+    /**
+     * @return wall-clock nanoseconds per update with all threads updating at once, so on fewer
+     * cores than threads it is not inflated by time slicing. 所有线程同时更新时每次更新的挂钟纳秒数，
+     * 核数少于线程数时不会被时间片轮转放大
+     */
+    private double measure(final Update update, int threads) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (long i = 0; i < mUpdates; i++) {
+                        update.run(i);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return (double) (System.nanoTime() - begin) / threads / mUpdates;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long updates = args.length > 0 ? Long.parseLong(args[0]) : 10000000L;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        System.out.println(new MetricsBenchmark(updates, threads).run());
+    }
+}
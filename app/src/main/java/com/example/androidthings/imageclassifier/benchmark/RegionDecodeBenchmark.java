@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.benchmark;
+
+import android.graphics.BitmapFactory;
+import android.util.Size;
+
+import com.example.androidthings.imageclassifier.ImagePreprocessor;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Compares the two JPEG preprocessing paths of {@link ImagePreprocessor}: decoding the whole
+ * frame and drawing its center square onto the model bitmap, versus decoding only the center
+ * square at a power-of-two sample size. Reports decode latency, Java allocation per frame and
+ * the size of the intermediate decoded bitmap as JSON.
+ * 比较ImagePreprocessor的两种JPEG预处理路径：解码整帧后将中心正方形绘制到模型位图，
+ * 与只以2的幂采样率解码中心正方形。以JSON报告解码延迟、每帧Java分配量和中间解码位图的大小。
+ */
+public class RegionDecodeBenchmark {
+
+    private final List<byte[]> mCorpus;
+    private final Size mModelSize;
+    private final int mPasses;
+    private final int mWarmupFrames;
+
+    public RegionDecodeBenchmark(List<byte[]> corpus, Size modelSize, int passes,
+                                 int warmupFrames) {
+        if (corpus.isEmpty()) {
+            throw new IllegalArgumentException("Replay corpus is empty");
+        }
+        mCorpus = corpus;
+        mModelSize = modelSize;
+        mPasses = Math.max(1, passes);
+        mWarmupFrames = Math.max(0, warmupFrames);
+    }
+
+    /**
+     * Runs both modes one after the other on the calling thread and returns the JSON report.
+     * 在调用线程上依次运行两种模式并返回JSON报告。
+     */
+    public String run() {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        byte[] first = mCorpus.get(0);
+        BitmapFactory.decodeByteArray(first, 0, first.length, bounds);
+
+        LatencyStats full = new LatencyStats(mCorpus.size() * mPasses);
+        LatencyStats region = new LatencyStats(mCorpus.size() * mPasses);
+        BenchmarkReport fullReport = runMode(false, bounds, full);
+        BenchmarkReport regionReport = runMode(true, bounds, region);
+
+        return new BenchmarkReport()
+                .put("frames", mCorpus.size() * mPasses)
+                .put("frame_size", bounds.outWidth + "x" + bounds.outHeight)
+                .put("full_decode", fullReport)
+                .put("region_decode", regionReport)
+                .put("p50_speedup", (double) full.getPercentile(50)
+                        / Math.max(1, region.getPercentile(50)))
+                .toString();
+    }
+
+    private BenchmarkReport runMode(boolean regionDecode, BitmapFactory.Options bounds,
+                                    LatencyStats stats) {
+        ImagePreprocessor preprocessor = new ImagePreprocessor(bounds.outWidth, bounds.outHeight,
+                mModelSize.getWidth(), mModelSize.getHeight());
+        preprocessor.setRegionDecode(regionDecode);
+        try {
+            for (int i = 0; i < mWarmupFrames; i++) {
+                preprocessor.preprocessJpeg(ByteBuffer.wrap(mCorpus.get(i % mCorpus.size())));
+            }
+            int frames = mCorpus.size() * mPasses;
+            int peakDecodedBytes = 0;
+            long allocatedBefore = MemoryProbe.allocatedBytes();
+            for (int i = 0; i < frames; i++) {
+                ByteBuffer jpeg = ByteBuffer.wrap(mCorpus.get(i % mCorpus.size()));
+                long start = System.nanoTime();
+                preprocessor.preprocessJpeg(jpeg);
+                stats.add(System.nanoTime() - start);
+                peakDecodedBytes = Math.max(peakDecodedBytes, preprocessor.getDecodedBytes());
+            }
+            long allocatedAfter = MemoryProbe.allocatedBytes();
+            return new BenchmarkReport()
+                    .put("latency", stats)
+                    .put("decoded_bitmap_bytes", peakDecodedBytes)
+                    .put("allocated_bytes_per_frame", allocatedBefore < 0 || allocatedAfter < 0
+                            ? -1 : (allocatedAfter - allocatedBefore) / frames)
+                    .put("rss_bytes", MemoryProbe.currentRssBytes());
+        } finally {
+            preprocessor.release();
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.benchmark;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Size;
+
+import com.example.androidthings.imageclassifier.ImagePreprocessor;
+import com.example.androidthings.imageclassifier.classifier.TensorFlowImageClassifier;
+import com.example.androidthings.imageclassifier.pool.BufferPool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * End-to-end replay benchmark: pushes a corpus of stored JPEG frames through preprocessing,
+ * input packing, inference and top-K selection and reports throughput, per-stage latency
+ * percentiles, allocation per frame and peak RSS as JSON.
+ * 端到端回放基准：将存储的JPEG帧依次经过预处理、输入打包、推理和top-K选择，
+ * 并以JSON报告吞吐量、各阶段延迟百分位、每帧分配量和峰值常驻内存。
+ */
+public class ReplayBenchmark {
+
+    /** Stage names, in pipeline order. 按流水线顺序的阶段名称 */
+    public static final String[] STAGES = {"preprocess", "pack", "inference", "top_k"};
+
+    private static final int STAGE_PREPROCESS = 0;
+    private static final int STAGE_PACK = 1;
+    private static final int STAGE_INFERENCE = 2;
+    private static final int STAGE_TOP_K = 3;
+
+    /**
+     * One pipeline instance. Each worker thread creates its own, so implementations don't need
+     * to be thread-safe.
+     * 一个流水线实例。每个工作线程各自创建，因此实现无需线程安全。
+     */
+    public interface FrameProcessor {
+        void preprocess(ByteBuffer jpeg);
+
+        void pack();
+
+        void infer();
+
+        Object selectTopK();
+
+        void close();
+    }
+
+    public interface ProcessorFactory {
+        FrameProcessor create() throws IOException;
+    }
+
+    private final List<byte[]> mCorpus;
+    private final ProcessorFactory mFactory;
+    private final int mConcurrency;
+    private final int mBatchSize;
+    private final int mPasses;
+    private final int mWarmupFrames;
+
+    /**
+     * @param corpus       encoded frames to replay
+     * @param factory      creates one pipeline per worker
+     * @param concurrency  number of worker threads
+     * @param batchSize    frames a worker claims from the shared cursor at a time
+     * @param passes       how many times the corpus is replayed
+     * @param warmupFrames untimed frames each worker runs before the measurement starts
+     */
+    public ReplayBenchmark(List<byte[]> corpus, ProcessorFactory factory, int concurrency,
+                           int batchSize, int passes, int warmupFrames) {
+        if (corpus.isEmpty()) {
+            throw new IllegalArgumentException("Replay corpus is empty");
+        }
+        mCorpus = corpus;
+        mFactory = factory;
+        mConcurrency = Math.max(1, concurrency);
+        mBatchSize = Math.max(1, batchSize);
+        mPasses = Math.max(1, passes);
+        mWarmupFrames = Math.max(0, warmupFrames);
+    }
+
+    /**
+     * Runs the benchmark and returns the JSON report.
+     * 运行基准并返回JSON报告。
+     */
+    public String run() throws IOException, InterruptedException {
+        final int totalFrames = mCorpus.size() * mPasses;
+        final AtomicInteger cursor = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch warmedUp = new CountDownLatch(mConcurrency);
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final LatencyStats[][] workerStats = new LatencyStats[mConcurrency][];
+        final int framesPerWorker = totalFrames / mConcurrency + mBatchSize;
+
+        List<Thread> workers = new ArrayList<>(mConcurrency);
+        for (int w = 0; w < mConcurrency; w++) {
+            final LatencyStats[] stats = new LatencyStats[STAGES.length + 1];
+            for (int s = 0; s < stats.length; s++) {
+                stats[s] = new LatencyStats(framesPerWorker);
+            }
+            workerStats[w] = stats;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    FrameProcessor processor = null;
+                    try {
+                        processor = mFactory.create();
+                        for (int i = 0; i < mWarmupFrames; i++) {
+                            processFrame(processor, mCorpus.get(i % mCorpus.size()), null);
+                        }
+                        warmedUp.countDown();
+                        startGate.await();
+                        int start;
+                        while ((start = cursor.getAndAdd(mBatchSize)) < totalFrames) {
+                            int end = Math.min(start + mBatchSize, totalFrames);
+                            for (int i = start; i < end; i++) {
+                                processFrame(processor, mCorpus.get(i % mCorpus.size()), stats);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                        warmedUp.countDown();
+                    } finally {
+                        if (processor != null) {
+                            processor.close();
+                        }
+                    }
+                }
+            }, "ReplayBenchmark-" + w);
+            workers.add(worker);
+            worker.start();
+        }
+
+        warmedUp.await();
+        long allocatedBefore = MemoryProbe.allocatedBytes();
+        long startNanos = System.nanoTime();
+        startGate.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long wallNanos = System.nanoTime() - startNanos;
+        long allocatedAfter = MemoryProbe.allocatedBytes();
+
+        if (failure.get() != null) {
+            throw new IOException("Replay benchmark worker failed", failure.get());
+        }
+
+        LatencyStats[] merged = new LatencyStats[STAGES.length + 1];
+        for (int s = 0; s < merged.length; s++) {
+            merged[s] = new LatencyStats(totalFrames);
+            for (LatencyStats[] stats : workerStats) {
+                merged[s].addAll(stats[s]);
+            }
+        }
+
+        BenchmarkReport stages = new BenchmarkReport();
+        for (int s = 0; s < STAGES.length; s++) {
+            stages.put(STAGES[s], merged[s]);
+        }
+        return new BenchmarkReport()
+                .put("frames", totalFrames)
+                .put("corpus_size", mCorpus.size())
+                .put("concurrency", mConcurrency)
+                .put("batch_size", mBatchSize)
+                .put("wall_ms", wallNanos / 1e6)
+                .put("frames_per_sec", totalFrames / (wallNanos / 1e9))
+                .put("frame", merged[STAGES.length])
+                .put("stages", stages)
+                .put("allocated_bytes_per_frame", allocatedBefore < 0 || allocatedAfter < 0
+                        ? -1 : (allocatedAfter - allocatedBefore) / totalFrames)
+                .put("peak_rss_bytes", MemoryProbe.peakRssBytes())
+                .put("pool_bytes_in_use", BufferPool.getDefault().getBytesInUse())
+                .put("pool_bytes_idle", BufferPool.getDefault().getBytesIdle())
+                .put("pool_allocations", BufferPool.getDefault().getAllocationCount())
+                .toString();
+    }
+
+    private static void processFrame(FrameProcessor processor, byte[] frame,
+                                     LatencyStats[] stats) {
+        long t0 = System.nanoTime();
+        processor.preprocess(ByteBuffer.wrap(frame));
+        long t1 = System.nanoTime();
+        processor.pack();
+        long t2 = System.nanoTime();
+        processor.infer();
+        long t3 = System.nanoTime();
+        processor.selectTopK();
+        long t4 = System.nanoTime();
+        if (stats != null) {
+            stats[STAGE_PREPROCESS].add(t1 - t0);
+            stats[STAGE_PACK].add(t2 - t1);
+            stats[STAGE_INFERENCE].add(t3 - t2);
+            stats[STAGE_TOP_K].add(t4 - t3);
+            stats[STAGES.length].add(t4 - t0);
+        }
+    }
+
+    /**
+     * Reads every *.jpg / *.jpeg file of a directory into memory, sorted by name.
+     * 将目录中所有jpg文件按名称排序读入内存。
+     */
+    public static List<byte[]> loadCorpus(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list replay corpus " + dir);
+        }
+        Arrays.sort(files);
+        List<byte[]> corpus = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName().toLowerCase(Locale.US);
+            if (!file.isFile() || !(name.endsWith(".jpg") || name.endsWith(".jpeg"))) {
+                continue;
+            }
+            byte[] data = new byte[(int) file.length()];
+            try (FileInputStream in = new FileInputStream(file)) {
+                int read = 0;
+                while (read < data.length) {
+                    int n = in.read(data, read, data.length - read);
+                    if (n < 0) {
+                        throw new IOException("Unexpected end of " + file);
+                    }
+                    read += n;
+                }
+            }
+            corpus.add(data);
+        }
+        return corpus;
+    }
+
+    /**
+     * Pipeline made of the production {@link ImagePreprocessor} and
+     * {@link TensorFlowImageClassifier}.
+     * 由生产环境的预处理器和分类器组成的流水线。
+     */
+    public static ProcessorFactory classifierFactory(final Context context, final Size modelSize) {
+        return new ProcessorFactory() {
+            @Override
+            public FrameProcessor create() throws IOException {
+                return new ClassifierFrameProcessor(context, modelSize);
+            }
+        };
+    }
+
+    private static class ClassifierFrameProcessor implements FrameProcessor {
+
+        private final ImagePreprocessor mPreprocessor;
+        private final TensorFlowImageClassifier mClassifier;
+        private Bitmap mBitmap;
+
+        ClassifierFrameProcessor(Context context, Size modelSize) throws IOException {
+            mPreprocessor = new ImagePreprocessor(modelSize.getWidth(), modelSize.getHeight(),
+                    modelSize.getWidth(), modelSize.getHeight());
+            mClassifier = new TensorFlowImageClassifier(context,
+                    modelSize.getWidth(), modelSize.getHeight());
+        }
+
+        @Override
+        public void preprocess(ByteBuffer jpeg) {
+            mBitmap = mPreprocessor.preprocessJpeg(jpeg);
+            if (mBitmap == null) {
+                throw new IllegalStateException("Cannot decode frame");
+            }
+        }
+
+        @Override
+        public void pack() {
+            mClassifier.loadImage(mBitmap);
+        }
+
+        @Override
+        public void infer() {
+            mClassifier.runInference();
+        }
+
+        @Override
+        public Object selectTopK() {
+            return mClassifier.getBestResults();
+        }
+
+        @Override
+        public void close() {
+            mClassifier.destroyClassifier();
+            mPreprocessor.release();
+        }
+    }
+}
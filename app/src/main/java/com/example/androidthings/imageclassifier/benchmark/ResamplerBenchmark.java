@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.benchmark;
+
+import com.example.androidthings.imageclassifier.classifier.Resampler;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Times {@link Resampler} in every mode, on one thread and in parallel row bands, for the
+ * usual camera frame sizes. Has no Android dependencies, so it also runs on a desktop JVM:
+ * <pre>
+ * java -cp app/build/intermediates/javac/debug/classes \
+ *     com.example.androidthings.imageclassifier.benchmark.ResamplerBenchmark [iterations]
+ * </pre>
+ * 对常见的相机帧尺寸，分别在单线程和并行条带下测量Resampler各模式的耗时。不依赖Android，也可以在桌面JVM上运行。
+ */
+public class ResamplerBenchmark {
+
+    private static final int[][] FRAME_SIZES = {{640, 480}, {1280, 720}, {1920, 1080}};
+    private static final int MODEL_SIZE = 224;
+
+    private final int mIterations;
+    private final int mThreads;
+
+    public ResamplerBenchmark(int iterations, int threads) {
+        mIterations = Math.max(1, iterations);
+        mThreads = Math.max(1, threads);
+    }
+
+    /**
+     * Runs every frame size and mode and returns the JSON report.
+     * 运行所有帧尺寸和模式，返回JSON报告。
+     */
+    public String run() throws InterruptedException {
+        ByteBuffer dst = ByteBuffer.allocateDirect(MODEL_SIZE * MODEL_SIZE * 3)
+                .order(ByteOrder.nativeOrder());
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        BenchmarkReport report = new BenchmarkReport()
+                .put("iterations", mIterations)
+                .put("threads", mThreads);
+        try {
+            Random random = new Random(0);
+            for (int[] size : FRAME_SIZES) {
+                int[] frame = new int[size[0] * size[1]];
+                for (int i = 0; i < frame.length; i++) {
+                    frame[i] = 0xFF000000 | random.nextInt(0x1000000);
+                }
+                BenchmarkReport modes = new BenchmarkReport();
+                for (Resampler.Mode mode : Resampler.Mode.values()) {
+                    Resampler serial = new Resampler(size[0], size[1], MODEL_SIZE, MODEL_SIZE, 0,
+                            mode, 1);
+                    Resampler parallel = new Resampler(size[0], size[1], MODEL_SIZE, MODEL_SIZE,
+                            0, mode, mThreads);
+                    LatencyStats serialStats = new LatencyStats(mIterations);
+                    LatencyStats parallelStats = new LatencyStats(mIterations);
+                    for (int i = 0; i < mIterations / 4 + 1; i++) {
+                        serial.resample(frame, dst);
+                        parallel.resample(frame, dst, executor);
+                    }
+                    for (int i = 0; i < mIterations; i++) {
+                        long start = System.nanoTime();
+                        serial.resample(frame, dst);
+                        serialStats.add(System.nanoTime() - start);
+                        start = System.nanoTime();
+                        parallel.resample(frame, dst, executor);
+                        parallelStats.add(System.nanoTime() - start);
+                    }
+                    modes.put(mode.name().toLowerCase(Locale.US), new BenchmarkReport()
+                            .put("serial", serialStats)
+                            .put("parallel", parallelStats));
+                }
+                report.put(size[0] + "x" + size[1], modes);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return report.toString();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int threads = Runtime.getRuntime().availableProcessors();
+        System.out.println(new ResamplerBenchmark(iterations, threads).run());
+    }
+}
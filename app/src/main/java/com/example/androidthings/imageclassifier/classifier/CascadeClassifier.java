@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.classifier;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.androidthings.imageclassifier.pool.BufferPool;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Two-stage cascade: a small low-resolution screening model looks at every frame, and the full
+ * classifier only runs when the screener scores one of the watched classes at or above the
+ * threshold. Frames rejected by the screener return no results.
+ * 两级级联：每帧先由低分辨率的小型筛选模型查看，只有当筛选模型对关注类别的分数达到阈值时才运行完整分类器。
+ * 被筛选模型拒绝的帧不返回结果。
+ */
+public class CascadeClassifier implements FrameClassifier {
+    private static final String TAG = "CascadeClassifier";
+
+    private static final String SCREENER_MODEL_FILE = "screener_quant.tflite";
+    private static final String SCREENER_LABELS_FILE = "screener_labels.txt";
+
+    private static final int DIM_PIXEL_SIZE = 3;
+
+    /** Frames between two {@link #logStats()} calls. 两次记录统计之间的帧数 */
+    private static final int LOG_INTERVAL = 50;
+
+    private final Interpreter screener;
+    private final TensorFlowImageClassifier classifier;
+    private final int screenerWidth;
+    private final int screenerHeight;
+    private final int threshold;
+    /** Screener output indices of the watched classes. 关注类别在筛选模型输出中的下标 */
+    private final int[] watched;
+
+    private final ByteBuffer screenerData;
+    private final byte[][] screenerOutput;
+    private Resampler resampler;
+    private int resamplerRotation;
+
+    /** Frame of the last {@link #loadPixels}, packed for the full model only if it passes. 上一次loadPixels的帧，通过筛选后才为完整模型打包 */
+    private int[] frame;
+    private int frameWidth;
+    private int frameHeight;
+    private int frameRotation;
+
+    private long frames;
+    private long passed;
+    private long screenNanos;
+    private long fullNanos;
+
+    /**
+     * @param screener       interpreter of the screening model, see {@link #createScreener}
+     *                       筛选模型的解释器
+     * @param screenerLabels labels of the screening model's output. 筛选模型输出的标签
+     * @param watchedClasses screener labels that let a frame through; empty for every label
+     *                       but the first ("background"). 让帧通过的筛选标签；为空时为除第一个（背景）外的所有标签
+     * @param threshold      screener confidence in [0, 1] needed to run the full classifier
+     *                       运行完整分类器所需的筛选置信度
+     */
+    public CascadeClassifier(Interpreter screener, List<String> screenerLabels,
+                             int screenerWidth, int screenerHeight, String[] watchedClasses,
+                             float threshold, TensorFlowImageClassifier classifier) {
+        this.screener = screener;
+        this.classifier = classifier;
+        this.screenerWidth = screenerWidth;
+        this.screenerHeight = screenerHeight;
+        this.threshold = Math.round(Math.max(0f, Math.min(1f, threshold)) * 255);
+        this.watched = watchedIndices(screenerLabels, watchedClasses);
+        screenerData = BufferPool.getDefault().acquireBuffer(
+                screenerWidth * screenerHeight * DIM_PIXEL_SIZE);
+        screenerOutput = new byte[1][screenerLabels.size()];
+    }
+
+    /**
+     * Memory-maps the screening model the same way as the full model.
+     * 以与完整模型相同的方式内存映射筛选模型。
+     */
+    public static Interpreter createScreener(Context context) throws IOException {
+        return new Interpreter(TensorFlowHelper.loadModelFile(context, SCREENER_MODEL_FILE));
+    }
+
+    public static List<String> readScreenerLabels(Context context) {
+        return TensorFlowHelper.readLabels(context, SCREENER_LABELS_FILE);
+    }
+
+    private static int[] watchedIndices(List<String> labels, String[] classes) {
+        if (classes == null || classes.length == 0) {
+            int[] all = new int[Math.max(0, labels.size() - 1)];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i + 1;
+            }
+            return all;
+        }
+        int[] indices = new int[classes.length];
+        int count = 0;
+        for (String name : classes) {
+            int index = labels.indexOf(name);
+            if (index < 0) {
+                Log.w(TAG, "筛选模型没有标签 " + name);
+            } else {
+                indices[count++] = index;
+            }
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("None of the watched classes is a screener label");
+        }
+        int[] found = new int[count];
+        System.arraycopy(indices, 0, found, 0, count);
+        return found;
+    }
+
+    /**
+     * Packs the frame for the screener and keeps it for the full model.
+     * 为筛选模型打包帧，并保留帧供完整模型使用。
+     */
+    @Override
+    public void loadPixels(int[] argb, int width, int height, int rotation) {
+        if (resampler == null || resampler.getSrcWidth() != width
+                || resampler.getSrcHeight() != height || resamplerRotation != rotation) {
+            // 筛选模型分辨率低，最近邻采样已足够
+            resampler = new Resampler(width, height, screenerWidth, screenerHeight, rotation,
+                    Resampler.Mode.NEAREST, 1);
+            resamplerRotation = rotation;
+        }
+        resampler.resample(argb, screenerData);
+        frame = argb;
+        frameWidth = width;
+        frameHeight = height;
+        frameRotation = rotation;
+    }
+
+    /**
+     * Screens the loaded frame and classifies it with the full model if it passes. Must be
+     * called before the pixel array given to {@link #loadPixels} is reused.
+     * 筛选已加载的帧，通过时用完整模型分类。必须在传给loadPixels的像素数组被复用之前调用。
+     */
+    @Override
+    public Collection<Recognition> recognize() {
+        long start = System.nanoTime();
+        screener.run(screenerData, screenerOutput);
+        int score = 0;
+        for (int index : watched) {
+            score = Math.max(score, screenerOutput[0][index] & 0xFF);
+        }
+        long screened = System.nanoTime();
+        screenNanos += screened - start;
+        frames++;
+        if (frames % LOG_INTERVAL == 0) {
+            logStats();
+        }
+        if (score < threshold) {
+            frame = null;
+            return Collections.emptyList();
+        }
+
+        classifier.loadPixels(frame, frameWidth, frameHeight, frameRotation);
+        frame = null;
+        classifier.runInference();
+        Collection<Recognition> results = classifier.getBestResults();
+        fullNanos += System.nanoTime() - screened;
+        passed++;
+        return results;
+    }
+
+    /** Fraction of frames that reached the full classifier. 到达完整分类器的帧的比例 */
+    public double getPassRate() {
+        return frames == 0 ? 0 : (double) passed / frames;
+    }
+
+    /** Mean screener cost per frame. 每帧筛选的平均耗时 */
+    public double getScreenMillisPerFrame() {
+        return frames == 0 ? 0 : screenNanos / 1e6 / frames;
+    }
+
+    /** Mean full-model cost per frame that passed. 通过筛选的帧的完整模型平均耗时 */
+    public double getFullMillisPerPass() {
+        return passed == 0 ? 0 : fullNanos / 1e6 / passed;
+    }
+
+    /** Mean cost of both stages over all frames. 所有帧两级的平均耗时 */
+    public double getEffectiveMillisPerFrame() {
+        return frames == 0 ? 0 : (screenNanos + fullNanos) / 1e6 / frames;
+    }
+
+    /** Logs the per-stage pass-through rates and costs. 记录各级的通过率和耗时 */
+    public void logStats() {
+        Log.i(TAG, String.format(Locale.US, "筛选: %d 帧, %.1fms/帧; 完整模型: %d 帧 (通过率 %.1f%%), "
+                        + "%.1fms/帧; 平均 %.1fms/帧", frames, getScreenMillisPerFrame(), passed,
+                getPassRate() * 100, getFullMillisPerPass(), getEffectiveMillisPerFrame()));
+    }
+
+    /**
+     * Closes the screener. The full classifier is owned by the caller.
+     * 关闭筛选模型。完整分类器由调用方负责。
+     */
+    @Override
+    public void close() {
+        screener.close();
+        BufferPool.getDefault().release(screenerData);
+    }
+}
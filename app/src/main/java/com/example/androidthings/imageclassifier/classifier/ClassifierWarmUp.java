@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.classifier;
+
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Runs synthetic inferences until the interpreter reaches steady-state latency, so that the
+ * first real classification does not pay for lazy tensor allocation and cold caches. The first
+ * run is recorded as the cold latency; warm-up stops when two consecutive runs are within
+ * {@link #STEADY_STATE_TOLERANCE} of each other, or after the configured number of runs.
+ * 运行合成输入的推理，直到解释器达到稳定延迟，使第一次真实分类不必承担延迟分配张量和冷缓存的开销。
+ * 第一次运行记录为冷启动延迟；连续两次运行相差不超过STEADY_STATE_TOLERANCE，或达到设定的次数后结束预热。
+ */
+public class ClassifierWarmUp {
+    private static final String TAG = "ClassifierWarmUp";
+
+    /** Relative difference between consecutive runs that counts as steady. 视为稳定的相邻两次运行的相对差 */
+    private static final float STEADY_STATE_TOLERANCE = 0.1f;
+
+    private final TensorFlowImageClassifier classifier;
+    private final int maxRuns;
+    private final Random random = new Random(0);
+
+    private int runs;
+    private long coldNanos;
+    private long lastNanos;
+    private boolean steady;
+
+    /**
+     * @param maxRuns upper bound of synthetic inferences, at least one. 合成推理次数的上限，至少为1
+     */
+    public ClassifierWarmUp(TensorFlowImageClassifier classifier, int maxRuns) {
+        this.classifier = classifier;
+        this.maxRuns = Math.max(1, maxRuns);
+    }
+
+    /**
+     * Runs all remaining warm-up inferences on the calling thread.
+     * 在调用线程上运行剩余的全部预热推理。
+     */
+    public void run() {
+        while (step()) {
+            // keep going
+        }
+    }
+
+    /**
+     * Runs one synthetic inference. Lets the caller interleave warm-up with real work.
+     * 运行一次合成推理，调用者可以在预热之间穿插真实的分类。
+     *
+     * @return true if more warm-up runs are needed
+     */
+    public synchronized boolean step() {
+        if (isDone()) {
+            return false;
+        }
+        long nanos = classifier.runSyntheticInference(random);
+        if (runs == 0) {
+            coldNanos = nanos;
+        } else if (runs > 1) {
+            // 第一次热运行仍可能偏慢，从第二次热运行开始比较
+            steady = Math.abs(nanos - lastNanos) <= STEADY_STATE_TOLERANCE * lastNanos;
+        }
+        lastNanos = nanos;
+        runs++;
+        if (isDone()) {
+            Log.i(TAG, toString());
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized boolean isDone() {
+        return steady || runs >= maxRuns;
+    }
+
+    /** Whether warm-up stopped because latency settled, not because it ran out of runs. 是否因延迟稳定而结束 */
+    public synchronized boolean isSteady() {
+        return steady;
+    }
+
+    public synchronized int getRuns() {
+        return runs;
+    }
+
+    public synchronized float getColdMillis() {
+        return coldNanos / 1e6f;
+    }
+
+    public synchronized float getWarmMillis() {
+        return lastNanos / 1e6f;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "ClassifierWarmUp{runs=%d, coldMs=%.1f, warmMs=%.1f, steady=%b}",
+                runs, getColdMillis(), getWarmMillis(), steady);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.classifier;
+
+import java.util.Collection;
+
+/**
+ * Classifies frames packed through {@link #loadPixels}, so that the capture loop does not need to
+ * know which classification mode is active.
+ * 对通过loadPixels打包的帧进行分类，使拍摄流程无需知道启用了哪种分类模式。
+ */
+public interface FrameClassifier extends PixelSink {
+    /**
+     * Classifies the frame given to the last {@link #loadPixels} call.
+     * 对上一次loadPixels传入的帧进行分类。
+     */
+    Collection<Recognition> recognize();
+
+    /**
+     * Releases the interpreters and buffers the classifier owns.
+     * 释放分类器持有的解释器和缓冲区。
+     */
+    void close();
+}
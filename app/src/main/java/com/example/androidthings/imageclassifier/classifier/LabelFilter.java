@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.classifier;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The subset of model labels a deployment cares about, resolved once against the label list
+ * into a sorted array of output indices, so that picking the best results only looks at those
+ * indices. Entries are label titles or decimal indices into {@code labels.txt}.
+ * 部署所关心的模型标签子集。只根据标签列表解析一次，生成有序的输出下标数组，选取最佳结果时只查看这些下标。
+ * 条目可以是标签名称，也可以是labels.txt中的十进制下标。
+ */
+public class LabelFilter {
+
+    private final int[] indices;
+
+    private LabelFilter(int[] indices) {
+        this.indices = indices;
+    }
+
+    /**
+     * Keeps only the listed labels.
+     * 只保留列出的标签。
+     */
+    public static LabelFilter allow(List<String> labels, String[] entries) {
+        return new LabelFilter(resolve(labels, entries));
+    }
+
+    /**
+     * Keeps every label except the listed ones.
+     * 保留除列出的标签之外的所有标签。
+     */
+    public static LabelFilter deny(List<String> labels, String[] entries) {
+        int[] denied = resolve(labels, entries);
+        int[] kept = new int[labels.size() - denied.length];
+        int count = 0;
+        for (int i = 0; i < labels.size(); i++) {
+            if (Arrays.binarySearch(denied, i) < 0) {
+                kept[count++] = i;
+            }
+        }
+        return new LabelFilter(kept);
+    }
+
+    private static int[] resolve(List<String> labels, String[] entries) {
+        int[] resolved = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String entry = entries[i].trim();
+            int index = labels.indexOf(entry);
+            if (index < 0 && entry.matches("\\d+")) {
+                index = Integer.parseInt(entry);
+            }
+            if (index < 0 || index >= labels.size()) {
+                throw new IllegalArgumentException("Unknown label: " + entry);
+            }
+            resolved[i] = index;
+        }
+        Arrays.sort(resolved);
+        // 去掉重复的条目
+        int count = 0;
+        for (int i = 0; i < resolved.length; i++) {
+            if (count == 0 || resolved[count - 1] != resolved[i]) {
+                resolved[count++] = resolved[i];
+            }
+        }
+        return Arrays.copyOf(resolved, count);
+    }
+
+    /** Sorted output indices that pass the filter. 通过过滤的有序输出下标 */
+    public int[] getIndices() {
+        return indices.clone();
+    }
+
+    public int size() {
+        return indices.length;
+    }
+
+    /**
+     * Writes the indices of the highest quantized scores among the filtered labels into
+     * {@code best}, highest first, without allocating.
+     * 将过滤后标签中量化分数最高的下标按从高到低写入best，不分配内存。
+     *
+     * @return number of indices written, at most {@code best.length}. 写入的下标数
+     */
+    public int topK(byte[] scores, int[] best) {
+        if (best.length == 0) {
+            return 0;
+        }
+        int found = 0;
+        for (int index : indices) {
+            int score = scores[index] & 0xFF;
+            if (found == best.length && score <= (scores[best[found - 1]] & 0xFF)) {
+                continue;
+            }
+            int i = found == best.length ? found - 1 : found++;
+            while (i > 0 && (scores[best[i - 1]] & 0xFF) < score) {
+                best[i] = best[i - 1];
+                i--;
+            }
+            best[i] = index;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.classifier;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rolls the fine model labels up into coarser categories, so that confidence split between
+ * siblings ("tabby", "tiger cat", "Egyptian cat") adds up in their common category ("cat").
+ * Level 0 is the model labels themselves. The hierarchy file has one line per label: the label
+ * title or index followed by its categories from fine to coarse, separated by tabs, e.g.
+ * {@code tabby<TAB>cat<TAB>animal}. Lines that are empty or start with '#' are ignored. A label
+ * without a line, or with fewer categories than the deepest line, keeps its deepest known name at
+ * the coarser levels, so that no confidence drops out of a level.
+ * 将模型的细粒度标签汇总为更粗的类别，使分散在同级标签（"tabby"、"tiger cat"、"Egyptian cat"）之间的置信度
+ * 在它们共同的类别（"cat"）中相加。第0层是模型标签本身。层级文件每行对应一个标签：标签名称或下标，
+ * 后面是从细到粗的类别，以制表符分隔。空行和以'#'开头的行会被忽略。没有对应行的标签，或类别少于最深一行的标签，
+ * 在更粗的层中沿用其已知的最深名称，因此任何置信度都不会从某一层中消失。
+ *
+ * <p>The file is compiled at load time into one flat array per level holding each label's
+ * category at that level, so that {@link #accumulate(byte[])} is a single pass over the output
+ * that does not allocate. Not thread-safe.
+ * 文件在加载时编译为每层一个扁平数组，保存每个标签在该层的类别，因此accumulate只需遍历一次输出且不分配内存。
+ * 非线程安全。
+ */
+public class LabelHierarchy {
+
+    /** ancestors[level][label]: category of the label at that level. 标签在该层的类别 */
+    private final int[][] ancestors;
+    /** names[level][category]; names[0] are the labels. 每层类别的名称，第0层为标签 */
+    private final String[][] names;
+    /** Summed quantized scores of the last {@link #accumulate}. 上一次accumulate累加的量化分数 */
+    private final int[][] scores;
+
+    private LabelHierarchy(int[][] ancestors, String[][] names) {
+        this.ancestors = ancestors;
+        this.names = names;
+        this.scores = new int[names.length][];
+        for (int level = 0; level < names.length; level++) {
+            scores[level] = new int[names[level].length];
+        }
+    }
+
+    /**
+     * Reads and compiles a hierarchy file from the assets.
+     * 从资产中读取并编译层级文件。
+     */
+    public static LabelHierarchy load(Context context, String file, List<String> labels) {
+        return parse(labels, TensorFlowHelper.readLabels(context, file));
+    }
+
+    public static LabelHierarchy parse(List<String> labels, List<String> lines) {
+        Map<String, Integer> labelIndex = new HashMap<>();
+        for (int i = labels.size() - 1; i >= 0; i--) {
+            labelIndex.put(labels.get(i), i);
+        }
+        // paths[label]: 从细到粗的名称，第0项为标签名称；没有对应行的标签只有自身
+        String[][] paths = new String[labels.size()][];
+        for (int label = 0; label < labels.size(); label++) {
+            paths[label] = new String[] {labels.get(label)};
+        }
+        int depth = 1;
+        for (String line : lines) {
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            String entry = fields[0].trim();
+            Integer label = labelIndex.get(entry);
+            if (label == null && entry.matches("\\d+")) {
+                label = Integer.parseInt(entry);
+            }
+            if (label == null || label >= labels.size()) {
+                throw new IllegalArgumentException("Unknown label in hierarchy: " + entry);
+            }
+            String[] path = new String[fields.length];
+            path[0] = labels.get(label);
+            for (int i = 1; i < fields.length; i++) {
+                path[i] = fields[i].trim();
+            }
+            paths[label] = path;
+            depth = Math.max(depth, fields.length);
+        }
+
+        int[][] ancestors = new int[depth][];
+        String[][] names = new String[depth][];
+        ancestors[0] = new int[labels.size()];
+        names[0] = labels.toArray(new String[labels.size()]);
+        for (int label = 0; label < labels.size(); label++) {
+            ancestors[0][label] = label;
+        }
+        for (int level = 1; level < depth; level++) {
+            ancestors[level] = new int[labels.size()];
+            // 同名类别在同一层共用一个下标
+            Map<String, Integer> categories = new HashMap<>();
+            List<String> levelNames = new ArrayList<>();
+            for (int label = 0; label < labels.size(); label++) {
+                String[] path = paths[label];
+                // 路径较短的标签沿用其最深的名称
+                String name = path[Math.min(level, path.length - 1)];
+                Integer category = categories.get(name);
+                if (category == null) {
+                    category = levelNames.size();
+                    categories.put(name, category);
+                    levelNames.add(name);
+                }
+                ancestors[level][label] = category;
+            }
+            names[level] = levelNames.toArray(new String[levelNames.size()]);
+        }
+        return new LabelHierarchy(ancestors, names);
+    }
+
+    /** Number of levels, including the labels. 层数，包括标签层 */
+    public int getDepth() {
+        return names.length;
+    }
+
+    public int getSize(int level) {
+        return names[level].length;
+    }
+
+    public String getName(int level, int index) {
+        return names[level][index];
+    }
+
+    /**
+     * Sums the quantized label scores of one model output into every level.
+     * 将一次模型输出的量化标签分数累加到每一层。
+     */
+    public void accumulate(byte[] labelScores) {
+        for (int level = 1; level < scores.length; level++) {
+            int[] levelScores = scores[level];
+            for (int i = 0; i < levelScores.length; i++) {
+                levelScores[i] = 0;
+            }
+        }
+        int[] fine = scores[0];
+        for (int label = 0; label < fine.length; label++) {
+            int score = labelScores[label] & 0xFF;
+            fine[label] = score;
+            if (score == 0) {
+                continue;
+            }
+            for (int level = 1; level < scores.length; level++) {
+                scores[level][ancestors[level][label]] += score;
+            }
+        }
+    }
+
+    /** Summed quantized score of a category after {@link #accumulate}. 累加后某类别的量化分数之和 */
+    public int getScore(int level, int index) {
+        return scores[level][index];
+    }
+
+    /**
+     * Writes the indices of the highest scoring categories of {@code level} into {@code best},
+     * highest first, without allocating.
+     * 将level层得分最高的类别下标按从高到低写入best，不分配内存。
+     *
+     * @return number of indices written. 写入的下标数
+     */
+    public int topK(int level, int[] best) {
+        if (best.length == 0) {
+            return 0;
+        }
+        int[] levelScores = scores[level];
+        int found = 0;
+        for (int index = 0; index < levelScores.length; index++) {
+            int score = levelScores[index];
+            if (found == best.length && score <= levelScores[best[found - 1]]) {
+                continue;
+            }
+            int i = found == best.length ? found - 1 : found++;
+            while (i > 0 && levelScores[best[i - 1]] < score) {
+                best[i] = best[i - 1];
+                i--;
+            }
+            best[i] = index;
+        }
+        return found;
+    }
+
+    /**
+     * Accumulates {@code labelScores} and returns the best categories of {@code level}.
+     * 累加labelScores并返回level层最好的类别。
+     */
+    public List<Recognition> getBestResults(byte[] labelScores, int level, int count) {
+        accumulate(labelScores);
+        int[] best = new int[count];
+        int found = topK(level, best);
+        List<Recognition> results = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            // 同一类别下量化概率之和可能因舍入略超过255
+            results.add(new Recognition(level == 0 ? String.valueOf(best[i])
+                    : level + ":" + best[i], names[level][best[i]],
+                    Math.min(1f, scores[level][best[i]] / 255.0f)));
+        }
+        return results;
+    }
+}
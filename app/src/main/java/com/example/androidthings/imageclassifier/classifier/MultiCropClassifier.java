@@ -0,0 +1,251 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.classifier;
+
+import android.util.Log;
+
+import com.example.androidthings.imageclassifier.pool.BufferPool;
+import com.example.androidthings.imageclassifier.trace.TraceRecorder;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Test-time augmentation: classifies several crops and mirror images of the same frame as one
+ * batch and averages the quantized outputs before picking the top results. The number of views
+ * shrinks by one whenever a frame takes longer than the latency budget, and grows back, up to
+ * the configured maximum, once there is room for another view.
+ * 测试时增强：将同一帧的多个裁剪和镜像作为一个批次分类，在选取最佳结果前对量化输出取平均。
+ * 某一帧耗时超过延迟预算时视图数减一，有余量时再逐个恢复，最多到设定的上限。
+ */
+public class MultiCropClassifier implements FrameClassifier {
+    private static final String TAG = "MultiCropClassifier";
+
+    private static final int DIM_PIXEL_SIZE = 3;
+
+    /** Side of the corner and zoomed crops relative to the center square. 角落和放大裁剪相对中心正方形的边长 */
+    private static final float SUB_CROP_FRACTION = 0.8f;
+
+    /** Views in the order they are added as K grows. K增长时按此顺序加入的视图 */
+    private enum View {
+        CENTER(false), CENTER_MIRRORED(true),
+        TOP_LEFT(false), TOP_RIGHT(false), BOTTOM_LEFT(false), BOTTOM_RIGHT(false),
+        ZOOM(false), ZOOM_MIRRORED(true);
+
+        final boolean mirrored;
+
+        View(boolean mirrored) {
+            this.mirrored = mirrored;
+        }
+    }
+
+    public static final int MAX_VIEWS = View.values().length;
+
+    private final Interpreter tfLite;
+    private final List<String> labels;
+    private LabelFilter labelFilter;
+    private final int inputWidth;
+    private final int inputHeight;
+    private final int maxViews;
+    private final long budgetNanos;
+
+    /** Input of MAX batch size; each view writes its own slice. 最大批次的输入，每个视图写入自己的分片 */
+    private final ByteBuffer batchData;
+    private final ByteBuffer[] viewSlices;
+    private final byte[][][] outputs;
+    private final byte[][] averaged;
+    private final Resampler[] resamplers;
+    private int frameWidth;
+    private int frameHeight;
+    private int frameRotation;
+
+    private int views;
+    private int batchViews;
+    private int resizedViews;
+    private long packNanos;
+    private long lastNanos;
+
+    /**
+     * @param interpreter  a dedicated interpreter; its input is resized to the number of views
+     *                     专用的解释器，其输入会被调整为视图数
+     * @param maxViews     K, between 1 and {@link #MAX_VIEWS}
+     * @param budgetMillis latency budget of one frame, 0 for none. 单帧的延迟预算，0表示不限
+     */
+    public MultiCropClassifier(Interpreter interpreter, List<String> labels, int inputWidth,
+                               int inputHeight, int maxViews, long budgetMillis) {
+        this.tfLite = interpreter;
+        this.labels = labels;
+        this.inputWidth = inputWidth;
+        this.inputHeight = inputHeight;
+        this.maxViews = Math.max(1, Math.min(MAX_VIEWS, maxViews));
+        this.budgetNanos = budgetMillis * 1000000L;
+        this.views = this.maxViews;
+
+        int viewBytes = inputWidth * inputHeight * DIM_PIXEL_SIZE;
+        batchData = BufferPool.getDefault().acquireBuffer(viewBytes * this.maxViews);
+        viewSlices = new ByteBuffer[this.maxViews];
+        outputs = new byte[this.maxViews + 1][][];
+        for (int i = 0; i < this.maxViews; i++) {
+            batchData.limit((i + 1) * viewBytes).position(i * viewBytes);
+            viewSlices[i] = batchData.slice();
+            outputs[i + 1] = new byte[i + 1][labels.size()];
+        }
+        batchData.clear();
+        averaged = new byte[1][labels.size()];
+        resamplers = new Resampler[this.maxViews];
+    }
+
+    /**
+     * Packs the current number of views of the frame into the batch.
+     * 将帧的当前数量的视图打包进批次。
+     */
+    @Override
+    public void loadPixels(int[] argb, int width, int height, int rotation) {
+        final long start = System.nanoTime();
+        if (width != frameWidth || height != frameHeight || rotation != frameRotation) {
+            frameWidth = width;
+            frameHeight = height;
+            frameRotation = rotation;
+            for (int i = 0; i < resamplers.length; i++) {
+                resamplers[i] = null;
+            }
+        }
+        for (int i = 0; i < views; i++) {
+            if (resamplers[i] == null) {
+                resamplers[i] = createResampler(View.values()[i]);
+            }
+            resamplers[i].resample(argb, viewSlices[i]);
+        }
+        batchViews = views;
+        packNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Runs the packed views as one batch and returns the best labels of the averaged output.
+     * 将打包的视图作为一个批次运行，返回平均输出的最佳标签。
+     */
+    @Override
+    public Collection<Recognition> recognize() {
+        final int k = batchViews;
+        final long start = System.nanoTime();
+        byte[][] output = outputs[k];
+        if (k != resizedViews) {
+            // 只在批次大小变化时调整输入，调整后下一次运行会重新分配张量
+            tfLite.resizeInput(0, new int[] {k, inputHeight, inputWidth, DIM_PIXEL_SIZE});
+            resizedViews = k;
+        }
+        batchData.limit(k * inputWidth * inputHeight * DIM_PIXEL_SIZE).position(0);
+        TraceRecorder.getDefault().begin("interpreter");
+        try {
+            tfLite.run(batchData, output);
+        } finally {
+            TraceRecorder.getDefault().end("interpreter");
+        }
+        batchData.clear();
+
+        // Average the uint8 scores of the views with rounding.
+        final byte[] mean = averaged[0];
+        for (int label = 0; label < mean.length; label++) {
+            int sum = 0;
+            for (int v = 0; v < k; v++) {
+                sum += output[v][label] & 0xFF;
+            }
+            mean[label] = (byte) ((sum + k / 2) / k);
+        }
+        lastNanos = packNanos + System.nanoTime() - start;
+        adjustViews(k);
+        return labelFilter != null
+                ? TensorFlowHelper.getBestResults(averaged, labels, labelFilter)
+                : TensorFlowHelper.getBestResults(averaged, labels);
+    }
+
+    /**
+     * Restricts the results to the labels that pass {@code filter}; null restores all labels.
+     * The views are averaged over all labels first.
+     * 将结果限制在通过filter的标签；为null时恢复为全部标签。视图先在全部标签上取平均。
+     */
+    public void setLabelFilter(LabelFilter filter) {
+        labelFilter = filter;
+    }
+
+    private void adjustViews(int k) {
+        if (budgetNanos <= 0) {
+            return;
+        }
+        if (lastNanos > budgetNanos && views > 1) {
+            views = k - 1;
+            Log.i(TAG, "超出延迟预算 " + lastNanos / 1000000 + "ms，视图数降为 " + views);
+        } else if (views < maxViews && lastNanos / k * (k + 1) < budgetNanos * 8 / 10) {
+            // 多一个视图后仍有20%余量时才增加，避免在预算附近来回切换
+            views = k + 1;
+            Log.i(TAG, "延迟 " + lastNanos / 1000000 + "ms，视图数增加为 " + views);
+        }
+    }
+
+    private Resampler createResampler(View view) {
+        int[] square = Resampler.centerCrop(frameWidth, frameHeight, inputWidth, inputHeight);
+        int left = square[0];
+        int top = square[1];
+        int width = square[2];
+        int height = square[3];
+        int subWidth = Math.round(width * SUB_CROP_FRACTION);
+        int subHeight = Math.round(height * SUB_CROP_FRACTION);
+        int[] crop;
+        switch (view) {
+            case TOP_LEFT:
+                crop = new int[] {left, top, subWidth, subHeight};
+                break;
+            case TOP_RIGHT:
+                crop = new int[] {left + width - subWidth, top, subWidth, subHeight};
+                break;
+            case BOTTOM_LEFT:
+                crop = new int[] {left, top + height - subHeight, subWidth, subHeight};
+                break;
+            case BOTTOM_RIGHT:
+                crop = new int[] {left + width - subWidth, top + height - subHeight,
+                        subWidth, subHeight};
+                break;
+            case ZOOM:
+            case ZOOM_MIRRORED:
+                crop = new int[] {left + (width - subWidth) / 2, top + (height - subHeight) / 2,
+                        subWidth, subHeight};
+                break;
+            default:
+                crop = square;
+                break;
+        }
+        return new Resampler(frameWidth, frameHeight, crop, inputWidth, inputHeight,
+                frameRotation, view.mirrored, Resampler.Mode.AREA, 1);
+    }
+
+    /** Views used for the next frame. 下一帧使用的视图数 */
+    public int getViews() {
+        return views;
+    }
+
+    public long getLastLatencyMillis() {
+        return lastNanos / 1000000;
+    }
+
+    @Override
+    public void close() {
+        tfLite.close();
+        BufferPool.getDefault().release(batchData);
+    }
+}
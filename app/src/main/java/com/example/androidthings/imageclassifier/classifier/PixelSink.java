@@ -0,0 +1,29 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.classifier;
+
+/**
+ * Receives a decoded frame and packs it into model input.
+ * 接收解码后的帧并将其打包为模型输入。
+ */
+public interface PixelSink {
+    /**
+     * @param argb     packed pixels, row-major; only read during the call
+     *                 按行存储的打包像素，只在调用期间读取
+     * @param rotation clockwise rotation in degrees, a multiple of 90
+     */
+    void loadPixels(int[] argb, int width, int height, int rotation);
+}
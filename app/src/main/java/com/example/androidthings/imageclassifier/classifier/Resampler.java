@@ -0,0 +1,423 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.classifier;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Center-crops, rotates and resizes packed 0xAARRGGBB pixels straight into the RGB byte layout
+ * of the model input, without android.graphics. All per-pixel work is integer fixed-point;
+ * the source positions and filter weights of both axes are computed once per source and
+ * destination size. Rows of the output can be processed in parallel bands.
+ * 将打包的0xAARRGGBB像素居中裁剪、旋转并缩放，直接写成模型输入的RGB字节布局，不依赖android.graphics。
+ * 逐像素运算全部使用整数定点；两个方向的源位置和滤波权重按源尺寸和目标尺寸预先计算一次。
+ * 输出的行可以分成若干条带并行处理。
+ */
+public class Resampler {
+
+    public enum Mode {
+        /** Nearest source pixel. 最近邻 */
+        NEAREST,
+        /** Weighted 2x2 neighbourhood; fast, but aliases when shrinking a lot. 2x2加权，缩小很多时有混叠 */
+        BILINEAR,
+        /** Average of the covered source area; best quality when shrinking. 覆盖区域的平均，缩小时质量最好 */
+        AREA
+    }
+
+    private static final int BILINEAR_BITS = 8;
+    private static final int BILINEAR_ONE = 1 << BILINEAR_BITS;
+    private static final int AREA_BITS = 12;
+    private static final int AREA_ONE = 1 << AREA_BITS;
+    /** Horizontal area sums are narrowed by this much so the vertical pass fits in an int. */
+    private static final int AREA_NARROW_BITS = 4;
+
+    private final int mSrcWidth;
+    private final int mSrcHeight;
+    private final int mDstWidth;
+    private final int mDstHeight;
+    private final Mode mMode;
+
+    /** Size of the output before rotation. 旋转前的输出尺寸 */
+    private final int mGridWidth;
+    private final int mGridHeight;
+
+    /** Output pixel index of grid (u, v) is mBase + u * mStepU + v * mStepV. */
+    private final int mBase;
+    private final int mStepU;
+    private final int mStepV;
+
+    private final Axis mX;
+    private final Axis mY;
+
+    private final Band[] mBands;
+
+    /**
+     * Resamples the largest centered region of the source that has the output's aspect ratio.
+     * 对源图像中与输出宽高比相同的最大居中区域重采样。
+     *
+     * @param rotation clockwise rotation of the output in degrees, a multiple of 90.
+     *                 输出的顺时针旋转角度，必须是90的倍数
+     * @param bands    number of row bands for {@link #resample(int[], ByteBuffer, Executor)}
+     */
+    public Resampler(int srcWidth, int srcHeight, int dstWidth, int dstHeight, int rotation,
+                     Mode mode, int bands) {
+        this(srcWidth, srcHeight, null, dstWidth, dstHeight, rotation, false, mode, bands);
+    }
+
+    /**
+     * Resamples an explicit source region, e.g. one of several crops of the same frame.
+     * 对指定的源区域重采样，例如同一帧的多个裁剪之一。
+     *
+     * @param crop   {left, top, width, height} of the source region
+     * @param mirror flips the output horizontally after rotation. 旋转后水平翻转输出
+     */
+    public Resampler(int srcWidth, int srcHeight, int[] crop, int dstWidth, int dstHeight,
+                     int rotation, boolean mirror, Mode mode, int bands) {
+        rotation = ((rotation % 360) + 360) % 360;
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90: " + rotation);
+        }
+        mSrcWidth = srcWidth;
+        mSrcHeight = srcHeight;
+        mDstWidth = dstWidth;
+        mDstHeight = dstHeight;
+        mMode = mode;
+
+        boolean swap = rotation == 90 || rotation == 270;
+        mGridWidth = swap ? dstHeight : dstWidth;
+        mGridHeight = swap ? dstWidth : dstHeight;
+        // Output x and y of grid (u, v), as (x, y) = (x0 + u * xu + v * xv, y0 + u * yu + v * yv)
+        int x0 = 0;
+        int xu = 1;
+        int xv = 0;
+        int y0 = 0;
+        int yu = 0;
+        int yv = 1;
+        switch (rotation) {
+            case 90:
+                x0 = mGridHeight - 1;
+                xu = 0;
+                xv = -1;
+                yu = 1;
+                yv = 0;
+                break;
+            case 180:
+                x0 = mGridWidth - 1;
+                xu = -1;
+                y0 = mGridHeight - 1;
+                yv = -1;
+                break;
+            case 270:
+                xu = 0;
+                xv = 1;
+                y0 = mGridWidth - 1;
+                yu = -1;
+                yv = 0;
+                break;
+            default:
+                break;
+        }
+        if (mirror) {
+            x0 = dstWidth - 1 - x0;
+            xu = -xu;
+            xv = -xv;
+        }
+        mBase = y0 * dstWidth + x0;
+        mStepU = yu * dstWidth + xu;
+        mStepV = yv * dstWidth + xv;
+
+        if (crop == null) {
+            crop = centerCrop(srcWidth, srcHeight, mGridWidth, mGridHeight);
+        }
+        mX = new Axis(mode, crop[0], crop[2], mGridWidth);
+        mY = new Axis(mode, crop[1], crop[3], mGridHeight);
+
+        bands = Math.max(1, Math.min(bands, mGridHeight));
+        mBands = new Band[bands];
+        for (int i = 0; i < bands; i++) {
+            mBands[i] = new Band(mGridHeight * i / bands, mGridHeight * (i + 1) / bands);
+        }
+    }
+
+    /**
+     * @return {left, top, width, height} of the largest centered region of a
+     * {@code srcWidth x srcHeight} frame with the aspect ratio of {@code width x height}.
+     * 帧中与width x height宽高比相同的最大居中区域
+     */
+    public static int[] centerCrop(int srcWidth, int srcHeight, int width, int height) {
+        int cropWidth = srcWidth;
+        int cropHeight = srcHeight;
+        if ((long) srcWidth * height > (long) srcHeight * width) {
+            cropWidth = (int) ((long) srcHeight * width / height);
+        } else {
+            cropHeight = (int) ((long) srcWidth * height / width);
+        }
+        return new int[] {(srcWidth - cropWidth) / 2, (srcHeight - cropHeight) / 2,
+                cropWidth, cropHeight};
+    }
+
+    public int getSrcWidth() {
+        return mSrcWidth;
+    }
+
+    public int getSrcHeight() {
+        return mSrcHeight;
+    }
+
+    public int getDstWidth() {
+        return mDstWidth;
+    }
+
+    public int getDstHeight() {
+        return mDstHeight;
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    /**
+     * Resamples the whole frame on the calling thread. {@code dst} is written with absolute puts
+     * starting at index 0; its position is not changed.
+     * 在调用线程上重采样整帧。dst使用绝对索引从0开始写入，position不变。
+     */
+    public void resample(int[] src, ByteBuffer dst) {
+        resampleRows(src, dst, 0, mGridHeight, mBands[0].mScratch);
+    }
+
+    /**
+     * Resamples the row bands in parallel on {@code executor} and waits for all of them.
+     * 在executor上并行重采样各条带并等待全部完成。
+     */
+    public void resample(final int[] src, final ByteBuffer dst, Executor executor)
+            throws InterruptedException {
+        if (mBands.length == 1) {
+            resample(src, dst);
+            return;
+        }
+        final CountDownLatch done = new CountDownLatch(mBands.length - 1);
+        for (int i = 1; i < mBands.length; i++) {
+            final Band band = mBands[i];
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        resampleRows(src, dst, band.mStart, band.mEnd, band.mScratch);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        Band first = mBands[0];
+        resampleRows(src, dst, first.mStart, first.mEnd, first.mScratch);
+        done.await();
+    }
+
+    private void resampleRows(int[] src, ByteBuffer dst, int start, int end, int[] scratch) {
+        switch (mMode) {
+            case NEAREST:
+                nearest(src, dst, start, end);
+                break;
+            case BILINEAR:
+                bilinear(src, dst, start, end);
+                break;
+            default:
+                area(src, dst, start, end, scratch);
+                break;
+        }
+    }
+
+    private void nearest(int[] src, ByteBuffer dst, int start, int end) {
+        final int[] xIndex = mX.mIndex0;
+        for (int v = start; v < end; v++) {
+            final int row = mY.mIndex0[v] * mSrcWidth;
+            int out = mBase + v * mStepV;
+            for (int u = 0; u < mGridWidth; u++, out += mStepU) {
+                put(dst, out, src[row + xIndex[u]]);
+            }
+        }
+    }
+
+    private void bilinear(int[] src, ByteBuffer dst, int start, int end) {
+        final int[] x0 = mX.mIndex0;
+        final int[] x1 = mX.mIndex1;
+        final int[] xWeight = mX.mWeight;
+        for (int v = start; v < end; v++) {
+            final int row0 = mY.mIndex0[v] * mSrcWidth;
+            final int row1 = mY.mIndex1[v] * mSrcWidth;
+            final int wy = mY.mWeight[v];
+            int out = mBase + v * mStepV;
+            for (int u = 0; u < mGridWidth; u++, out += mStepU) {
+                final int wx = xWeight[u];
+                final int p00 = src[row0 + x0[u]];
+                final int p01 = src[row0 + x1[u]];
+                final int p10 = src[row1 + x0[u]];
+                final int p11 = src[row1 + x1[u]];
+                final int i = out * 3;
+                dst.put(i, (byte) lerp(p00 >> 16, p01 >> 16, p10 >> 16, p11 >> 16, wx, wy));
+                dst.put(i + 1, (byte) lerp(p00 >> 8, p01 >> 8, p10 >> 8, p11 >> 8, wx, wy));
+                dst.put(i + 2, (byte) lerp(p00, p01, p10, p11, wx, wy));
+            }
+        }
+    }
+
+    private static int lerp(int c00, int c01, int c10, int c11, int wx, int wy) {
+        final int top = (c00 & 0xFF) * (BILINEAR_ONE - wx) + (c01 & 0xFF) * wx;
+        final int bottom = (c10 & 0xFF) * (BILINEAR_ONE - wx) + (c11 & 0xFF) * wx;
+        return (top * (BILINEAR_ONE - wy) + bottom * wy + (1 << (2 * BILINEAR_BITS - 1)))
+                >> (2 * BILINEAR_BITS);
+    }
+
+    private void area(int[] src, ByteBuffer dst, int start, int end, int[] acc) {
+        final int[] xFirst = mX.mIndex0;
+        final int[] xTapStart = mX.mTapStart;
+        final int[] xTapWeight = mX.mTapWeight;
+        final int shift = 2 * AREA_BITS - AREA_NARROW_BITS;
+        final int half = 1 << (shift - 1);
+        for (int v = start; v < end; v++) {
+            Arrays.fill(acc, 0, mGridWidth * 3, 0);
+            for (int ty = mY.mTapStart[v]; ty < mY.mTapStart[v + 1]; ty++) {
+                final int row = (mY.mIndex0[v] + ty - mY.mTapStart[v]) * mSrcWidth;
+                final int wy = mY.mTapWeight[ty];
+                for (int u = 0, a = 0; u < mGridWidth; u++, a += 3) {
+                    int r = 0;
+                    int g = 0;
+                    int b = 0;
+                    int sx = row + xFirst[u];
+                    for (int tx = xTapStart[u]; tx < xTapStart[u + 1]; tx++, sx++) {
+                        final int p = src[sx];
+                        final int wx = xTapWeight[tx];
+                        r += ((p >> 16) & 0xFF) * wx;
+                        g += ((p >> 8) & 0xFF) * wx;
+                        b += (p & 0xFF) * wx;
+                    }
+                    acc[a] += (r >> AREA_NARROW_BITS) * wy;
+                    acc[a + 1] += (g >> AREA_NARROW_BITS) * wy;
+                    acc[a + 2] += (b >> AREA_NARROW_BITS) * wy;
+                }
+            }
+            int out = mBase + v * mStepV;
+            for (int u = 0, a = 0; u < mGridWidth; u++, a += 3, out += mStepU) {
+                final int i = out * 3;
+                dst.put(i, (byte) Math.min(255, (acc[a] + half) >> shift));
+                dst.put(i + 1, (byte) Math.min(255, (acc[a + 1] + half) >> shift));
+                dst.put(i + 2, (byte) Math.min(255, (acc[a + 2] + half) >> shift));
+            }
+        }
+    }
+
+    private static void put(ByteBuffer dst, int pixel, int argb) {
+        final int i = pixel * 3;
+        dst.put(i, (byte) (argb >> 16));
+        dst.put(i + 1, (byte) (argb >> 8));
+        dst.put(i + 2, (byte) argb);
+    }
+
+    private class Band {
+        final int mStart;
+        final int mEnd;
+        /** Per-band accumulator row for the area filter. 面积滤波每个条带的累加行 */
+        final int[] mScratch;
+
+        Band(int start, int end) {
+            mStart = start;
+            mEnd = end;
+            mScratch = mMode == Mode.AREA ? new int[mGridWidth * 3] : null;
+        }
+    }
+
+    /**
+     * Precomputed source positions and weights of one axis.
+     * 一个方向上预先计算的源位置和权重。
+     */
+    private static class Axis {
+        /** First (or only) source index of each output index. 每个输出位置的第一个（或唯一）源位置 */
+        final int[] mIndex0;
+        /** Bilinear: second source index. 双线性：第二个源位置 */
+        int[] mIndex1;
+        /** Bilinear: weight of mIndex1 in 1/256. 双线性：mIndex1的权重，单位1/256 */
+        int[] mWeight;
+        /** Area: taps of output d are mTapWeight[mTapStart[d] .. mTapStart[d + 1]). 面积：输出d的抽头范围 */
+        int[] mTapStart;
+        int[] mTapWeight;
+
+        Axis(Mode mode, int offset, int crop, int size) {
+            mIndex0 = new int[size];
+            final int last = offset + crop - 1;
+            final double scale = (double) crop / size;
+            switch (mode) {
+                case NEAREST:
+                    for (int d = 0; d < size; d++) {
+                        mIndex0[d] = Math.min(last, offset + (int) ((d + 0.5) * scale));
+                    }
+                    break;
+                case BILINEAR:
+                    mIndex1 = new int[size];
+                    mWeight = new int[size];
+                    for (int d = 0; d < size; d++) {
+                        double center = Math.max(0, (d + 0.5) * scale - 0.5);
+                        int i0 = (int) center;
+                        mIndex0[d] = Math.min(last, offset + i0);
+                        mIndex1[d] = Math.min(last, offset + i0 + 1);
+                        mWeight[d] = (int) Math.round((center - i0) * BILINEAR_ONE);
+                    }
+                    break;
+                default:
+                    buildArea(offset, crop, size, scale);
+                    break;
+            }
+        }
+
+        private void buildArea(int offset, int crop, int size, double scale) {
+            mTapStart = new int[size + 1];
+            int taps = 0;
+            for (int d = 0; d < size; d++) {
+                int first = (int) Math.floor(d * scale);
+                int end = Math.min(crop, (int) Math.ceil((d + 1) * scale));
+                taps += Math.max(1, end - first);
+            }
+            mTapWeight = new int[taps];
+            taps = 0;
+            for (int d = 0; d < size; d++) {
+                final double s0 = d * scale;
+                final double s1 = (d + 1) * scale;
+                final int first = Math.min(crop - 1, (int) Math.floor(s0));
+                final int end = Math.max(first + 1, Math.min(crop, (int) Math.ceil(s1)));
+                mIndex0[d] = offset + first;
+                mTapStart[d] = taps;
+                int sum = 0;
+                int largest = taps;
+                for (int i = first; i < end; i++) {
+                    double coverage = Math.min(s1, i + 1) - Math.max(s0, i);
+                    int weight = (int) Math.round(Math.max(0, coverage) / scale * AREA_ONE);
+                    mTapWeight[taps] = weight;
+                    sum += weight;
+                    if (weight > mTapWeight[largest]) {
+                        largest = taps;
+                    }
+                    taps++;
+                }
+                // Rounding error goes to the largest tap so the weights add up to exactly one.
+                mTapWeight[largest] += AREA_ONE - sum;
+            }
+            mTapStart[size] = taps;
+        }
+    }
+}
@@ -111,6 +111,26 @@ public class TensorFlowHelper {
         return results;
     }
 
+    /**
+     * Finds the best classifications among the labels that pass {@code filter}. Only those
+     * labels are scanned, and only the results are allocated and logged.
+     * 在通过filter的标签中找到最好的分类。只扫描这些标签，也只为结果分配对象和记录日志。
+     */
+    public static Collection<Recognition> getBestResults(byte[][] labelProbArray,
+                                                         List<String> labelList,
+                                                         LabelFilter filter) {
+        int[] best = new int[RESULTS_TO_SHOW];
+        int count = filter.topK(labelProbArray[0], best);
+        List<Recognition> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Recognition r = new Recognition(String.valueOf(best[i]), labelList.get(best[i]),
+                    (labelProbArray[0][best[i]] & 0xff) / 255.0f);
+            Log.d("图像识别", r.toString());
+            results.add(r);
+        }
+        return results;
+    }
+
     /** Writes Image data into a {@code ByteBuffer}.
      * 将图像数据转换为{@code ByteBuffer}
      * */
@@ -20,19 +20,24 @@ import android.graphics.Bitmap;
 import android.os.SystemClock;
 import android.util.Log;
 
+import com.example.androidthings.imageclassifier.pool.BufferPool;
+import com.example.androidthings.imageclassifier.trace.TraceRecorder;
+
 import org.tensorflow.lite.Interpreter;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 /**
  * A classifier specialized to label images using TensorFlow.
  * 专门用于使用TensorFlow标记图像的分类器。
  */
-public class TensorFlowImageClassifier {
+public class TensorFlowImageClassifier implements FrameClassifier {
 
     private static final String TAG = "TFImageClassifier";
 
@@ -43,6 +48,8 @@ public class TensorFlowImageClassifier {
     private static final int DIM_BATCH_SIZE = 1;
     private static final int DIM_PIXEL_SIZE = 3;
 
+    private static final int RESULTS_TO_SHOW = 3;
+
     /** Labels for categories that the TensorFlow model is trained for.TensorFlow模型训练的类别标签。 */
     private List<String> labels;
 
@@ -57,6 +64,29 @@ public class TensorFlowImageClassifier {
      *  为中间位图像素预先分配的缓冲区*/
     private int[] intValues;
 
+    private final int inputWidth;
+    private final int inputHeight;
+
+    /** Resampler for {@link #loadPixels}, rebuilt when the frame size changes.
+     *  loadPixels使用的重采样器，帧尺寸变化时重建 */
+    private Resampler resampler;
+    private int resamplerRotation;
+
+    /** Labels considered by {@link #getBestResults()}, or null for all of them.
+     *  getBestResults考虑的标签，为null时考虑全部 */
+    private LabelFilter labelFilter;
+
+    /** Categories reported instead of the labels when the level is above 0.
+     *  层级大于0时代替标签报告的类别 */
+    private LabelHierarchy hierarchy;
+    private int hierarchyLevel;
+
+    /** Penultimate-layer output read together with the labels, or null when not exposed.
+     *  与标签一起读取的倒数第二层输出，未启用时为null */
+    private byte[][] embedding;
+    private Object[] inputs;
+    private Map<Integer, Object> outputs;
+
     /** TensorFlow Lite engine
      * TensorFlow Lite引擎 */
     private Interpreter tfLite;
@@ -67,24 +97,121 @@ public class TensorFlowImageClassifier {
      */
     public TensorFlowImageClassifier(Context context, int inputImageWidth, int inputImageHeight)
             throws IOException {
-        this.tfLite = new Interpreter(TensorFlowHelper.loadModelFile(context, MODEL_FILE));
-        this.labels = TensorFlowHelper.readLabels(context, LABELS_FILE);
+        this(createInterpreter(context), readLabels(context), inputImageWidth, inputImageHeight);
+    }
 
-        imgData =
-                ByteBuffer.allocateDirect(
-                        DIM_BATCH_SIZE * inputImageWidth * inputImageHeight * DIM_PIXEL_SIZE);
-        imgData.order(ByteOrder.nativeOrder());
+    /**
+     * Initializes the classifier from an interpreter and labels that were loaded separately, so
+     * that startup can load them concurrently.
+     * 使用单独加载的解释器和标签初始化分类器，以便启动时并发加载它们。
+     */
+    public TensorFlowImageClassifier(Interpreter interpreter, List<String> labels,
+                                     int inputImageWidth, int inputImageHeight) {
+        this.tfLite = interpreter;
+        this.labels = labels;
+        this.inputWidth = inputImageWidth;
+        this.inputHeight = inputImageHeight;
+
+        // Direct buffers come from the shared pool, so recreating the classifier does not
+        // allocate native memory again.
+        imgData = BufferPool.getDefault().acquireBuffer(
+                DIM_BATCH_SIZE * inputImageWidth * inputImageHeight * DIM_PIXEL_SIZE);
         confidencePerLabel = new byte[1][labels.size()];
 
         // Pre-allocate buffer for image pixels.
         intValues = new int[inputImageWidth * inputImageHeight];
     }
 
+    /**
+     * Memory-maps the model and creates the TensorFlow Lite interpreter.
+     * 内存映射模型文件并创建TensorFlow Lite解释器。
+     */
+    public static Interpreter createInterpreter(Context context) throws IOException {
+        return new Interpreter(TensorFlowHelper.loadModelFile(context, MODEL_FILE));
+    }
+
+    public static List<String> readLabels(Context context) {
+        return TensorFlowHelper.readLabels(context, LABELS_FILE);
+    }
+
+    /**
+     * Restricts {@link #getBestResults()} to the labels that pass {@code filter}; null restores
+     * all labels.
+     * 将getBestResults限制在通过filter的标签；为null时恢复为全部标签。
+     */
+    public void setLabelFilter(LabelFilter filter) {
+        labelFilter = filter;
+    }
+
+    /**
+     * Reports the categories of {@code level} of {@code hierarchy} instead of the labels. The
+     * label filter does not apply to categories.
+     * 报告hierarchy中level层的类别而不是标签。标签过滤不作用于类别。
+     */
+    public void setHierarchy(LabelHierarchy hierarchy, int level) {
+        if (hierarchy != null && (level < 0 || level >= hierarchy.getDepth())) {
+            throw new IllegalArgumentException("Hierarchy has no level " + level);
+        }
+        this.hierarchy = hierarchy;
+        this.hierarchyLevel = level;
+    }
+
+    /**
+     * Also reads the feature vector before the classification layer on every inference. Needs a
+     * model that exports that layer as an additional quantized output.
+     * 每次推理时同时读取分类层之前的特征向量。需要模型将该层导出为额外的量化输出。
+     *
+     * @param outputIndex index of the embedding among the model outputs. 嵌入向量在模型输出中的下标
+     */
+    public void enableEmbedding(int outputIndex, int dims) {
+        embedding = new byte[1][dims];
+        inputs = new Object[] {imgData};
+        outputs = new HashMap<>();
+        outputs.put(0, confidencePerLabel);
+        outputs.put(outputIndex, embedding);
+    }
+
+    /**
+     * Copies the embedding of the last inference into {@code out} as floats.
+     * 将上一次推理的嵌入向量以float复制到out。
+     *
+     * @return {@code out}, or null if {@link #enableEmbedding} was not called
+     */
+    public float[] getEmbedding(float[] out) {
+        if (embedding == null) {
+            return null;
+        }
+        // 量化的ReLU输出零点为0，比例对余弦相似度没有影响，因此直接使用原始值
+        for (int i = 0; i < out.length; i++) {
+            out[i] = embedding[0][i] & 0xFF;
+        }
+        return out;
+    }
+
+    public int getEmbeddingDims() {
+        return embedding == null ? 0 : embedding[0].length;
+    }
+
+    private void runInterpreter() {
+        TraceRecorder.getDefault().begin("interpreter");
+        try {
+            if (outputs == null) {
+                tfLite.run(imgData, confidencePerLabel);
+            } else {
+                tfLite.runForMultipleInputsOutputs(inputs, outputs);
+            }
+        } finally {
+            TraceRecorder.getDefault().end("interpreter");
+        }
+    }
+
     /**
      * Clean up the resources used by the classifier.
      */
     public void destroyClassifier() {
         tfLite.close();
+        BufferPool.getDefault().release(imgData);
+        imgData = null;
     }
 
 
@@ -97,19 +224,97 @@ public class TensorFlowImageClassifier {
      *              这可能是消耗更多时间和电量。
      */
     public Collection<Recognition> doRecognize(Bitmap image) {
+        loadImage(image);
+        runInference();
+        // Get the results with the highest confidence and map them to their labels
+        return getBestResults();
+    }
+
+    /**
+     * Packs the bitmap pixels into the model input buffer.
+     * 将位图像素打包到模型输入缓冲区。
+     */
+    public void loadImage(Bitmap image) {
         TensorFlowHelper.convertBitmapToByteBuffer(image, intValues, imgData);
+    }
+
+    /**
+     * Center-crops, rotates and resizes packed ARGB pixels of any size straight into the model
+     * input buffer, without going through a model-sized Bitmap.
+     * 将任意尺寸的打包ARGB像素居中裁剪、旋转并缩放，直接写入模型输入缓冲区，不经过模型尺寸的位图。
+     *
+     * @param rotation clockwise rotation in degrees, a multiple of 90
+     */
+    @Override
+    public void loadPixels(int[] argb, int width, int height, int rotation) {
+        if (resampler == null || resampler.getSrcWidth() != width
+                || resampler.getSrcHeight() != height || resamplerRotation != rotation) {
+            resampler = new Resampler(width, height, inputWidth, inputHeight, rotation,
+                    Resampler.Mode.AREA, 1);
+            resamplerRotation = rotation;
+        }
+        resampler.resample(argb, imgData);
+    }
 
+    /**
+     * Runs the interpreter on the current contents of the input buffer.
+     * 对输入缓冲区的当前内容运行解释器。
+     */
+    public void runInference() {
         long startTime = SystemClock.uptimeMillis();
         // Here's where the magic happens!!!
-        tfLite.run(imgData, confidencePerLabel);
+        runInterpreter();
         long endTime = SystemClock.uptimeMillis();
 //        Log.d(TAG, "Timecost to run model inference: " + Long.toString(endTime - startTime));
         Log.d(TAG, "时间成本运行模型推理: " + Long.toString(endTime - startTime));
+    }
 
-        // Get the results with the highest confidence and map them to their labels
-        return TensorFlowHelper.getBestResults(confidencePerLabel, labels);
+    /**
+     * Runs the interpreter once on random pixels, used to warm it up. It overwrites the input
+     * buffer, so it must run on the classification thread, between real inferences.
+     * 用随机像素运行一次解释器，用于预热。会覆盖输入缓冲区，因此必须在分类线程上、两次真实推理之间运行。
+     *
+     * @return inference time in nanoseconds
+     */
+    public long runSyntheticInference(Random random) {
+        imgData.rewind();
+        while (imgData.hasRemaining()) {
+            imgData.put((byte) random.nextInt(256));
+        }
+        long startTime = System.nanoTime();
+        runInterpreter();
+        return System.nanoTime() - startTime;
     }
 
-}
+    /**
+     * Runs the interpreter on the frame packed by {@link #loadPixels} and maps the output to the
+     * best labels.
+     * 对loadPixels打包的帧运行解释器，并将输出映射到最佳标签。
+     */
+    @Override
+    public Collection<Recognition> recognize() {
+        runInference();
+        return getBestResults();
+    }
+
+    @Override
+    public void close() {
+        destroyClassifier();
+    }
 
+    /**
+     * Maps the output of the last {@link #runInference()} to the best labels.
+     * 将上一次推理的输出映射到最佳标签。
+     */
+    public Collection<Recognition> getBestResults() {
+        if (hierarchy != null && hierarchyLevel > 0) {
+            return hierarchy.getBestResults(confidencePerLabel[0], hierarchyLevel,
+                    RESULTS_TO_SHOW);
+        }
+        if (labelFilter != null) {
+            return TensorFlowHelper.getBestResults(confidencePerLabel, labels, labelFilter);
+        }
+        return TensorFlowHelper.getBestResults(confidencePerLabel, labels);
+    }
 
+}
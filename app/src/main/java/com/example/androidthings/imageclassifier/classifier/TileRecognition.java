@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.classifier;
+
+/**
+ * A recognition together with the frame region of the tile it was found in, in the pixel
+ * coordinates of the unrotated camera frame.
+ * 带有所在图块区域的识别结果，坐标为未旋转相机帧的像素坐标。
+ */
+public class TileRecognition extends Recognition {
+
+    private final int left;
+    private final int top;
+    private final int width;
+    private final int height;
+
+    public TileRecognition(String id, String title, Float confidence, int left, int top,
+                           int width, int height) {
+        super(id, title, confidence);
+        this.left = left;
+        this.top = top;
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " @" + left + "," + top + " " + width + "x" + height;
+    }
+}
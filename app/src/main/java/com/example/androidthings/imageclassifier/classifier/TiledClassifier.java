@@ -0,0 +1,338 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.classifier;
+
+import android.util.Log;
+
+import com.example.androidthings.imageclassifier.pool.BufferPool;
+import com.example.androidthings.imageclassifier.trace.TraceRecorder;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sliding-window classification of the whole frame: the frame is split into overlapping square
+ * tiles, every tile is resampled to the model input in parallel, and the tiles run through the
+ * model in fixed-size batches. The best labels of each tile are merged into a frame-level
+ * result that keeps, for every label, the tile it scored highest in.
+ * 整帧的滑动窗口分类：将帧分成相互重叠的正方形图块，并行地把每个图块重采样为模型输入，
+ * 再以固定大小的批次送入模型。每个图块的最佳标签合并为整帧结果，每个标签保留其得分最高的图块。
+ */
+public class TiledClassifier implements FrameClassifier {
+    private static final String TAG = "TiledClassifier";
+
+    private static final int DIM_PIXEL_SIZE = 3;
+
+    /** Best labels taken from each tile. 每个图块取的最佳标签数 */
+    private static final int TILE_RESULTS = 3;
+
+    /** Labels in the frame-level result. 整帧结果中的标签数 */
+    private static final int RESULTS_TO_SHOW = 3;
+
+    private final Interpreter tfLite;
+    private final List<String> labels;
+    private final int inputWidth;
+    private final int inputHeight;
+    private final int tileSize;
+    private final float overlap;
+    private final int batchSize;
+    private final int threads;
+    private final ExecutorService executor;
+    private final byte[][] output;
+
+    /** Highest score of every label in the current frame and the tile it came from. 当前帧每个标签的最高分及其所在图块 */
+    private final int[] bestScore;
+    private final int[] bestTile;
+    private final int[] tileTop = new int[TILE_RESULTS];
+    /** Labels a tile may report; all labels by default. 图块可以报告的标签，默认为全部标签 */
+    private LabelFilter labelFilter;
+
+    private int frameWidth;
+    private int frameHeight;
+    private int frameRotation;
+    /** {left, top, size} of every tile. 每个图块的{left, top, size} */
+    private int[][] tiles = new int[0][];
+    private Resampler[] resamplers = new Resampler[0];
+
+    /** All tiles of a frame, padded to whole batches; one slice per batch. 一帧的全部图块，补齐为整批次；每批次一个分片 */
+    private ByteBuffer tileData;
+    private ByteBuffer[] batchSlices = new ByteBuffer[0];
+    private ByteBuffer[] tileSlices = new ByteBuffer[0];
+
+    private int packedTiles;
+    private long packNanos;
+    private long inferenceNanos;
+    private long totalTiles;
+    private long totalNanos;
+
+    /**
+     * @param interpreter a dedicated interpreter; its input is resized to {@code batchSize}
+     *                    专用的解释器，其输入会被调整为batchSize
+     * @param tileSize    side of a tile in frame pixels, capped by the shorter frame side
+     *                    图块在帧中的边长（像素），不超过帧的短边
+     * @param overlap     fraction of a tile shared with its neighbour, in [0, 0.9]
+     *                    相邻图块重叠的比例，取值[0, 0.9]
+     * @param threads     threads that pack tiles. 打包图块的线程数
+     */
+    public TiledClassifier(Interpreter interpreter, List<String> labels, int inputWidth,
+                           int inputHeight, int tileSize, float overlap, int batchSize,
+                           int threads) {
+        this.tfLite = interpreter;
+        this.labels = labels;
+        this.labelFilter = LabelFilter.deny(labels, new String[0]);
+        this.inputWidth = inputWidth;
+        this.inputHeight = inputHeight;
+        this.tileSize = Math.max(1, tileSize);
+        this.overlap = Math.max(0f, Math.min(0.9f, overlap));
+        this.batchSize = Math.max(1, batchSize);
+        this.threads = Math.max(1, threads);
+        this.executor = this.threads > 1 ? Executors.newFixedThreadPool(this.threads - 1) : null;
+        this.output = new byte[this.batchSize][labels.size()];
+        this.bestScore = new int[labels.size()];
+        this.bestTile = new int[labels.size()];
+        // 批次大小固定，最后一个不满的批次用上一帧的数据补齐，避免每帧重新分配张量
+        tfLite.resizeInput(0, new int[] {this.batchSize, inputHeight, inputWidth, DIM_PIXEL_SIZE});
+    }
+
+    /**
+     * Restricts the labels of every tile to those that pass {@code filter}; null restores all
+     * labels.
+     * 将每个图块的标签限制在通过filter的标签；为null时恢复为全部标签。
+     */
+    public void setLabelFilter(LabelFilter filter) {
+        labelFilter = filter != null ? filter : LabelFilter.deny(labels, new String[0]);
+    }
+
+    /**
+     * Splits {@code length} into {@code count} tile origins spread evenly from 0 to
+     * {@code length - size}, so that the last tile ends on the frame edge.
+     * 将length分为若干均匀分布在0到length - size之间的图块起点，使最后一个图块与帧边缘对齐。
+     */
+    static int[] tileOrigins(int length, int size, float overlap) {
+        if (length <= size) {
+            return new int[] {(length - size) / 2};
+        }
+        int stride = Math.max(1, Math.round(size * (1f - overlap)));
+        int count = (length - size + stride - 1) / stride + 1;
+        int[] origins = new int[count];
+        for (int i = 0; i < count; i++) {
+            origins[i] = (int) ((long) i * (length - size) / (count - 1));
+        }
+        return origins;
+    }
+
+    /**
+     * Resamples every tile of the frame into its slice of the batch input, in parallel.
+     * 并行地将帧的每个图块重采样到批次输入中各自的分片。
+     */
+    @Override
+    public void loadPixels(final int[] argb, int width, int height, int rotation) {
+        final long start = System.nanoTime();
+        if (width != frameWidth || height != frameHeight || rotation != frameRotation) {
+            layoutTiles(width, height, rotation);
+        }
+        final int count = tiles.length;
+        packedTiles = 0;
+        final CountDownLatch done = new CountDownLatch(threads - 1);
+        for (int t = 1; t < threads; t++) {
+            final int first = t;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        packTiles(argb, first, count);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        packTiles(argb, 0, count);
+        try {
+            done.await();
+            packedTiles = count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        packNanos = System.nanoTime() - start;
+    }
+
+    /** Packs tiles {@code first}, {@code first + threads}, ... 打包第first、first + threads……个图块 */
+    private void packTiles(int[] argb, int first, int count) {
+        for (int i = first; i < count; i += threads) {
+            resamplers[i].resample(argb, tileSlices[i]);
+        }
+    }
+
+    /**
+     * Runs the packed tiles batch by batch and returns the best labels of the frame, each with
+     * the tile it scored highest in.
+     * 逐批次运行打包好的图块，返回整帧的最佳标签，每个标签带有其得分最高的图块。
+     */
+    @Override
+    public Collection<Recognition> recognize() {
+        final int count = packedTiles;
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        final long start = System.nanoTime();
+        for (int label = 0; label < bestScore.length; label++) {
+            bestScore[label] = -1;
+        }
+        for (int batch = 0; batch * batchSize < count; batch++) {
+            TraceRecorder.getDefault().begin("interpreter");
+            try {
+                tfLite.run(batchSlices[batch], output);
+            } finally {
+                TraceRecorder.getDefault().end("interpreter");
+            }
+            int tilesInBatch = Math.min(batchSize, count - batch * batchSize);
+            for (int i = 0; i < tilesInBatch; i++) {
+                mergeTile(output[i], batch * batchSize + i);
+            }
+        }
+        inferenceNanos = System.nanoTime() - start;
+        totalTiles += count;
+        totalNanos += packNanos + inferenceNanos;
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, count + " 个图块，打包 " + packNanos / 1000000 + "ms，推理 "
+                    + inferenceNanos / 1000000 + "ms，累计 "
+                    + String.format(Locale.US, "%.1f", getTilesPerSecond()) + " 图块/秒");
+        }
+        return bestResults();
+    }
+
+    /** Folds the best labels of one tile into the frame maxima. 将一个图块的最佳标签并入整帧最大值 */
+    private void mergeTile(byte[] scores, int tile) {
+        int found = labelFilter.topK(scores, tileTop);
+        for (int i = 0; i < found; i++) {
+            int label = tileTop[i];
+            int score = scores[label] & 0xFF;
+            if (score > bestScore[label]) {
+                bestScore[label] = score;
+                bestTile[label] = tile;
+            }
+        }
+    }
+
+    private Collection<Recognition> bestResults() {
+        List<Recognition> results = new ArrayList<>(RESULTS_TO_SHOW);
+        int[] chosen = new int[RESULTS_TO_SHOW];
+        for (int n = 0; n < RESULTS_TO_SHOW; n++) {
+            int best = -1;
+            for (int label = 0; label < bestScore.length; label++) {
+                if (bestScore[label] > 0 && (best < 0 || bestScore[label] > bestScore[best])
+                        && !contains(chosen, n, label)) {
+                    best = label;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            chosen[n] = best;
+            int[] tile = tiles[bestTile[best]];
+            results.add(new TileRecognition(String.valueOf(best), labels.get(best),
+                    bestScore[best] / 255.0f, tile[0], tile[1], tile[2], tile[2]));
+        }
+        return results;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void layoutTiles(int width, int height, int rotation) {
+        frameWidth = width;
+        frameHeight = height;
+        frameRotation = rotation;
+        int size = Math.min(tileSize, Math.min(width, height));
+        int[] xs = tileOrigins(width, size, overlap);
+        int[] ys = tileOrigins(height, size, overlap);
+        tiles = new int[xs.length * ys.length][];
+        resamplers = new Resampler[tiles.length];
+        for (int y = 0; y < ys.length; y++) {
+            for (int x = 0; x < xs.length; x++) {
+                int i = y * xs.length + x;
+                tiles[i] = new int[] {xs[x], ys[y], size};
+                resamplers[i] = new Resampler(width, height, new int[] {xs[x], ys[y], size, size},
+                        inputWidth, inputHeight, rotation, false, Resampler.Mode.AREA, 1);
+            }
+        }
+
+        int tileBytes = inputWidth * inputHeight * DIM_PIXEL_SIZE;
+        int batches = (tiles.length + batchSize - 1) / batchSize;
+        int bytes = batches * batchSize * tileBytes;
+        if (tileData == null || tileData.capacity() < bytes) {
+            BufferPool.getDefault().release(tileData);
+            tileData = BufferPool.getDefault().acquireBuffer(bytes);
+        }
+        batchSlices = new ByteBuffer[batches];
+        for (int b = 0; b < batches; b++) {
+            tileData.limit((b + 1) * batchSize * tileBytes).position(b * batchSize * tileBytes);
+            batchSlices[b] = tileData.slice();
+        }
+        tileSlices = new ByteBuffer[tiles.length];
+        for (int i = 0; i < tiles.length; i++) {
+            tileData.limit((i + 1) * tileBytes).position(i * tileBytes);
+            tileSlices[i] = tileData.slice();
+        }
+        tileData.clear();
+        Log.i(TAG, width + "x" + height + " 的帧分为 " + xs.length + "x" + ys.length + " 个 "
+                + size + "px 的图块，共 " + batches + " 个批次");
+    }
+
+    /** Tiles of the last frame. 上一帧的图块数 */
+    public int getTileCount() {
+        return tiles.length;
+    }
+
+    /** Tiles classified per second since creation, packing included. 创建以来每秒分类的图块数，含打包时间 */
+    public double getTilesPerSecond() {
+        return totalNanos == 0 ? 0 : totalTiles * 1e9 / totalNanos;
+    }
+
+    public long getLastPackMillis() {
+        return packNanos / 1000000;
+    }
+
+    public long getLastInferenceMillis() {
+        return inferenceNanos / 1000000;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        tfLite.close();
+        BufferPool.getDefault().release(tileData);
+        tileData = null;
+    }
+}
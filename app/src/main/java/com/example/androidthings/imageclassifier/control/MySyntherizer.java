@@ -14,6 +14,7 @@ import com.example.androidthings.imageclassifier.MainHandlerConstant;
 
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -158,6 +159,20 @@ public class MySyntherizer implements MainHandlerConstant {
         }
     }
 
+    /**
+     * 把音调和语速（1为正常）按默认值5映射到引擎0-9的取值，用于setParams
+     */
+    public static Map<String, String> prosodyParams(float pitch, float speechRate) {
+        Map<String, String> params = new HashMap<>();
+        params.put(SpeechSynthesizer.PARAM_PITCH, toSynthesizerScale(pitch));
+        params.put(SpeechSynthesizer.PARAM_SPEED, toSynthesizerScale(speechRate));
+        return params;
+    }
+
+    private static String toSynthesizerScale(float factor) {
+        return String.valueOf(Math.max(0, Math.min(9, Math.round(5 * factor))));
+    }
+
     public int pause() {
         return mSpeechSynthesizer.pause();
     }
@@ -4,11 +4,32 @@ import android.content.Context;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
+import android.util.Log;
+import android.util.Pair;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 在新线程中调用initTTs方法。防止UI柱塞
  * <p>
+ * speak、synthesize、batchSpeak、loadModel、setParams、stop等所有合成操作都作为命令投递到同一个HandlerThread，
+ * 按提交顺序执行，调用线程（例如分类线程）不会被合成引擎阻塞。排队的命令数有上限，超过上限时拒绝新命令。
+ * 尚未开始执行的setParams会合并，重复的stop只执行一次。submit开头的方法返回Future，继承自MySyntherizer的同名方法
+ * 投递后立即返回，返回值只表示是否成功进入队列。
+ * <p>
  * Created by fujiayi on 2017/5/24.
  */
 
@@ -17,9 +38,35 @@ public class NonBlockSyntherizer extends MySyntherizer {
     private static final int INIT = 1;
 
     private static final int RELEASE = 11;
+
+    /**
+     * 排队中（尚未执行完）的命令上限
+     */
+    private static final int MAX_PENDING_COMMANDS = 32;
+
+    /**
+     * 命令被拒绝（队列已满或已释放）时，同步方法的返回值
+     */
+    public static final int ERROR_QUEUE_FULL = -100;
+
     private HandlerThread hThread;
     private Handler tHandler;
 
+    private final Object lock = new Object();
+    private final List<Command> pendingCommands = new ArrayList<>();
+    private boolean released;
+
+    private final CountDownLatch initLatch = new CountDownLatch(1);
+    private volatile boolean initSuccess;
+
+    private final AtomicLong executedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalExecNanos = new AtomicLong();
+    private final AtomicLong maxExecNanos = new AtomicLong();
+
 
     private static final String TAG = "NonBlockSyntherizer";
 
@@ -42,6 +89,8 @@ public class NonBlockSyntherizer extends MySyntherizer {
                     case INIT:
                         InitConfig config = (InitConfig) msg.obj;
                         boolean isSuccess = init(config);
+                        initSuccess = isSuccess;
+                        initLatch.countDown();
                         if (isSuccess) {
                             // speak("初始化成功");
                             sendToUiThread("NonBlockSyntherizer 初始化成功");
@@ -65,12 +114,347 @@ public class NonBlockSyntherizer extends MySyntherizer {
 
     @Override
     public void release() {
+        synchronized (lock) {
+            released = true;
+            for (Command command : pendingCommands) {
+                command.cancel(false);
+            }
+            pendingCommands.clear();
+        }
         runInHandlerThread(RELEASE);
         if (Build.VERSION.SDK_INT >= 18) {
             hThread.quitSafely();
         }
     }
 
+    /**
+     * 等待HandlerThread中的初始化结束
+     *
+     * @return 初始化是否成功；超时返回false
+     */
+    public boolean awaitInit(long timeout, TimeUnit unit) throws InterruptedException {
+        return initLatch.await(timeout, unit) && initSuccess;
+    }
+
+    public Future<Integer> submitSpeak(final String text) {
+        return submit("speak", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return NonBlockSyntherizer.super.speak(text);
+            }
+        });
+    }
+
+    public Future<Integer> submitSpeak(final String text, final String utteranceId) {
+        return submit("speak", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return NonBlockSyntherizer.super.speak(text, utteranceId);
+            }
+        });
+    }
+
+    public Future<Integer> submitSynthesize(final String text, final String utteranceId) {
+        return submit("synthesize", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return utteranceId == null ? NonBlockSyntherizer.super.synthesize(text)
+                        : NonBlockSyntherizer.super.synthesize(text, utteranceId);
+            }
+        });
+    }
+
+    public Future<Integer> submitBatchSpeak(List<Pair<String, String>> texts) {
+        final List<Pair<String, String>> copy = new ArrayList<>(texts);
+        return submit("batchSpeak", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return NonBlockSyntherizer.super.batchSpeak(copy);
+            }
+        });
+    }
+
+    public Future<Integer> submitLoadModel(final String modelFilename, final String textFilename) {
+        return submit("loadModel", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return NonBlockSyntherizer.super.loadModel(modelFilename, textFilename);
+            }
+        });
+    }
+
+    /**
+     * 连续提交、尚未执行的setParams会合并为一条命令，后提交的同名参数覆盖先提交的。
+     */
+    public Future<Integer> submitSetParams(Map<String, String> params) {
+        synchronized (lock) {
+            // 只与队尾的setParams合并，不能越过中间的speak等命令改变参数生效的顺序
+            Command last = pendingCommands.isEmpty() ? null
+                    : pendingCommands.get(pendingCommands.size() - 1);
+            if (last != null && last.params != null && !last.started) {
+                last.params.putAll(params);
+                coalescedCount.incrementAndGet();
+                return last;
+            }
+            final Map<String, String> merged = new HashMap<>(params);
+            Command command = new Command("setParams", new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    Map<String, String> snapshot;
+                    synchronized (lock) {
+                        snapshot = new HashMap<>(merged);
+                    }
+                    NonBlockSyntherizer.super.setParams(snapshot);
+                    return 0;
+                }
+            });
+            command.params = merged;
+            return enqueueLocked(command);
+        }
+    }
+
+    /**
+     * stop会取消所有尚未开始的speak/synthesize/batchSpeak命令；已在排队的stop不会重复提交。
+     */
+    public Future<Integer> submitStop() {
+        synchronized (lock) {
+            for (int i = pendingCommands.size() - 1; i >= 0; i--) {
+                Command command = pendingCommands.get(i);
+                if (command.started) {
+                    continue;
+                }
+                if (command.isStop) {
+                    coalescedCount.incrementAndGet();
+                    return command;
+                }
+                if (command.isUtterance()) {
+                    command.cancel(false);
+                    pendingCommands.remove(i);
+                }
+            }
+            Command command = new Command("stop", new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return NonBlockSyntherizer.super.stop();
+                }
+            });
+            command.isStop = true;
+            return enqueueLocked(command);
+        }
+    }
+
+    /**
+     * 投递后立即返回，此时命令还没有执行。引擎的返回值请用{@link #submitSpeak}获取。
+     *
+     * @return 进入队列时返回0，被拒绝时返回{@link #ERROR_QUEUE_FULL}
+     */
+    @Override
+    public int speak(String text) {
+        if (isHandlerThread()) {
+            return super.speak(text);
+        }
+        return queued(submitSpeak(text));
+    }
+
+    /**
+     * 投递后立即返回，此时命令还没有执行。引擎的返回值请用{@link #submitSpeak}获取。
+     *
+     * @return 进入队列时返回0，被拒绝时返回{@link #ERROR_QUEUE_FULL}
+     */
+    @Override
+    public int speak(String text, String utteranceId) {
+        if (isHandlerThread()) {
+            return super.speak(text, utteranceId);
+        }
+        return queued(submitSpeak(text, utteranceId));
+    }
+
+    /**
+     * 投递后立即返回，此时命令还没有执行。引擎的返回值请用{@link #submitSynthesize}获取。
+     *
+     * @return 进入队列时返回0，被拒绝时返回{@link #ERROR_QUEUE_FULL}
+     */
+    @Override
+    public int synthesize(String text) {
+        if (isHandlerThread()) {
+            return super.synthesize(text);
+        }
+        return queued(submitSynthesize(text, null));
+    }
+
+    /**
+     * 投递后立即返回，此时命令还没有执行。引擎的返回值请用{@link #submitSynthesize}获取。
+     *
+     * @return 进入队列时返回0，被拒绝时返回{@link #ERROR_QUEUE_FULL}
+     */
+    @Override
+    public int synthesize(String text, String utteranceId) {
+        if (isHandlerThread()) {
+            return super.synthesize(text, utteranceId);
+        }
+        return queued(submitSynthesize(text, utteranceId));
+    }
+
+    /**
+     * 投递后立即返回，此时命令还没有执行。引擎的返回值请用{@link #submitBatchSpeak}获取。
+     *
+     * @return 进入队列时返回0，被拒绝时返回{@link #ERROR_QUEUE_FULL}
+     */
+    @Override
+    public int batchSpeak(List<Pair<String, String>> texts) {
+        if (isHandlerThread()) {
+            return super.batchSpeak(texts);
+        }
+        return queued(submitBatchSpeak(texts));
+    }
+
+    /**
+     * 投递后立即返回，此时命令还没有执行。引擎的返回值请用{@link #submitLoadModel}获取。
+     *
+     * @return 进入队列时返回0，被拒绝时返回{@link #ERROR_QUEUE_FULL}
+     */
+    @Override
+    public int loadModel(String modelFilename, String textFilename) {
+        if (isHandlerThread()) {
+            return super.loadModel(modelFilename, textFilename);
+        }
+        return queued(submitLoadModel(modelFilename, textFilename));
+    }
+
+    @Override
+    public void setParams(Map<String, String> params) {
+        // init() 在HandlerThread中调用setParams，此时必须同步执行，initTts之前参数才会生效
+        if (isHandlerThread()) {
+            super.setParams(params);
+            return;
+        }
+        if (params != null) {
+            submitSetParams(params);
+        }
+    }
+
+    /**
+     * 投递后立即返回，此时命令还没有执行。引擎的返回值请用{@link #submitStop}获取。
+     *
+     * @return 进入队列时返回0，被拒绝时返回{@link #ERROR_QUEUE_FULL}
+     */
+    @Override
+    public int stop() {
+        if (isHandlerThread()) {
+            return super.stop();
+        }
+        return queued(submitStop());
+    }
+
+    /**
+     * 命令排队时间和执行时间的统计
+     */
+    public String getStats() {
+        long executed = executedCount.get();
+        return String.format(Locale.US, "executed=%d rejected=%d coalesced=%d pending=%d "
+                        + "avgWait=%.2fms maxWait=%.2fms avgExec=%.2fms maxExec=%.2fms",
+                executed, rejectedCount.get(), coalescedCount.get(), getPendingCount(),
+                executed == 0 ? 0f : totalWaitNanos.get() / 1e6f / executed,
+                maxWaitNanos.get() / 1e6f,
+                executed == 0 ? 0f : totalExecNanos.get() / 1e6f / executed,
+                maxExecNanos.get() / 1e6f);
+    }
+
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pendingCommands.size();
+        }
+    }
+
+    private boolean isHandlerThread() {
+        return Looper.myLooper() == hThread.getLooper();
+    }
+
+    /**
+     * 同步方法的返回值：只表示命令是否进入队列，不等待执行结果。
+     * 引擎执行失败时没有人读取Future，由Command记录日志。
+     */
+    private static int queued(Future<Integer> future) {
+        return future.isCancelled() ? ERROR_QUEUE_FULL : 0;
+    }
+
+    private Future<Integer> submit(String name, Callable<Integer> callable) {
+        synchronized (lock) {
+            return enqueueLocked(new Command(name, callable));
+        }
+    }
+
+    private Future<Integer> enqueueLocked(Command command) {
+        if (released || pendingCommands.size() >= MAX_PENDING_COMMANDS) {
+            rejectedCount.incrementAndGet();
+            Log.w(TAG, "合成命令被拒绝: " + command.name + (released ? "，引擎已释放" : "，队列已满"));
+            command.cancel(false);
+            return command;
+        }
+        pendingCommands.add(command);
+        tHandler.post(command);
+        return command;
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    private class Command extends FutureTask<Integer> {
+        final String name;
+        final long enqueuedNanos = System.nanoTime();
+        Map<String, String> params;
+        boolean isStop;
+        boolean started;
+
+        Command(String name, Callable<Integer> callable) {
+            super(callable);
+            this.name = name;
+        }
+
+        private void logFailure() {
+            try {
+                int result = get();
+                if (result != 0) {
+                    Log.w(TAG, name + " 执行失败，错误码：" + result);
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                Log.w(TAG, name + " 执行失败", e);
+            }
+        }
+
+        boolean isUtterance() {
+            return "speak".equals(name) || "synthesize".equals(name) || "batchSpeak".equals(name);
+        }
+
+        @Override
+        public void run() {
+            synchronized (lock) {
+                started = true;
+            }
+            long start = System.nanoTime();
+            super.run();
+            long end = System.nanoTime();
+            synchronized (lock) {
+                pendingCommands.remove(this);
+            }
+            if (isCancelled()) {
+                return;
+            }
+            logFailure();
+            long wait = start - enqueuedNanos;
+            long exec = end - start;
+            executedCount.incrementAndGet();
+            totalWaitNanos.addAndGet(wait);
+            totalExecNanos.addAndGet(exec);
+            updateMax(maxWaitNanos, wait);
+            updateMax(maxExecNanos, exec);
+            Log.d(TAG, name + " 排队 " + wait / 1000000 + "ms，执行 " + exec / 1000000 + "ms");
+        }
+    }
 
     private void runInHandlerThread(int action) {
         runInHandlerThread(action, null);
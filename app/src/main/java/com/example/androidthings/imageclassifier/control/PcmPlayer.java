@@ -0,0 +1,108 @@
+package com.example.androidthings.imageclassifier.control;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.speech.tts.UtteranceProgressListener;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在独立线程中用AudioTrack播放PCM片段（16K采样率 16bits编码 单声道），片段依次排队播放。
+ * 播放进度通过UtteranceProgressListener回调，与系统TTS的回调方式一致，调用方可以共用同一个listener。
+ */
+public class PcmPlayer {
+
+    private static final String TAG = "PcmPlayer";
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int CHUNK_BYTES = 4096;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final AudioTrack track;
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile UtteranceProgressListener listener;
+
+    public PcmPlayer() {
+        int minBuffer = AudioTrack.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_OUT_MONO,
+                AudioFormat.ENCODING_PCM_16BIT);
+        track = new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                Math.max(minBuffer, CHUNK_BYTES * 2), AudioTrack.MODE_STREAM);
+        thread = new HandlerThread("PcmPlayer-thread");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    public void setUtteranceProgressListener(UtteranceProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 排队播放一个片段。
+     *
+     * @param requestNanos 调用方发起播放请求的时间，用于统计首音时延
+     * @param stats        可为null
+     */
+    void play(final ByteBuffer clip, final String utteranceId, final long requestNanos,
+              final PhraseCache.Stats stats) {
+        final int playGeneration = generation.get();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (playGeneration != generation.get()) {
+                    return;
+                }
+                UtteranceProgressListener l = listener;
+                if (l != null) {
+                    l.onStart(utteranceId);
+                }
+                track.play();
+                boolean first = true;
+                while (clip.hasRemaining() && playGeneration == generation.get()) {
+                    int size = Math.min(CHUNK_BYTES, clip.remaining());
+                    int written = track.write(clip, size, AudioTrack.WRITE_BLOCKING);
+                    if (written < 0) {
+                        Log.w(TAG, "AudioTrack写入失败: " + written);
+                        if (l != null) {
+                            l.onError(utteranceId);
+                        }
+                        return;
+                    }
+                    if (first && stats != null) {
+                        stats.recordCachedFirstAudio(System.nanoTime() - requestNanos);
+                    }
+                    first = false;
+                }
+                if (l != null) {
+                    l.onDone(utteranceId);
+                }
+            }
+        });
+    }
+
+    /**
+     * 丢弃所有排队中和正在播放的片段。
+     */
+    public void stop() {
+        generation.incrementAndGet();
+        track.pause();
+        track.flush();
+    }
+
+    public void release() {
+        stop();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                track.release();
+            }
+        });
+        thread.quitSafely();
+    }
+}
@@ -0,0 +1,351 @@
+package com.example.androidthings.imageclassifier.control;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预合成短语的PCM缓存包（16K采样率 16bits编码 单声道，与onSynthesizeDataArrived回调的格式相同）。
+ * <p>
+ * 文件格式：所有片段的PCM数据依次排列，之后是索引（条目数，然后每条为 文本长度、UTF-8文本、偏移、长度），
+ * 最后8字节为索引偏移，再4字节为魔数。整个文件以只读方式内存映射，命中时直接返回映射区的切片，不复制音频数据。
+ * <p>
+ * 片段按 {@link #key} 索引：默认音调和语速的片段以文本本身为键，其他的在文本后附加音调和语速。
+ */
+public class PhraseCache {
+
+    private static final String TAG = "PhraseCache";
+
+    private static final int MAGIC = 0x50434d31; // "PCM1"
+    private static final int FOOTER_SIZE = 8 + 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final MappedByteBuffer data;
+    private final Map<String, Integer> index;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final Stats stats = new Stats();
+
+    private PhraseCache(File file, MappedByteBuffer data, Map<String, Integer> index,
+                        long[] offsets, int[] lengths) {
+        this.file = file;
+        this.data = data;
+        this.index = index;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * 打开并映射缓存包。文件不存在或格式不对时返回一个空缓存，所有查询都会未命中。
+     */
+    public static PhraseCache open(File file) {
+        if (!file.exists()) {
+            return empty(file);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < FOOTER_SIZE) {
+                throw new IOException("文件太小");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.BIG_ENDIAN);
+            long indexOffset = mapped.getLong((int) size - FOOTER_SIZE);
+            if (mapped.getInt((int) size - 4) != MAGIC || indexOffset < 0
+                    || indexOffset > size - FOOTER_SIZE) {
+                throw new IOException("魔数或索引偏移无效");
+            }
+            ByteBuffer idx = mapped.duplicate();
+            idx.position((int) indexOffset);
+            int count = idx.getInt();
+            Map<String, Integer> index = new HashMap<>(count * 2);
+            long[] offsets = new long[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[idx.getInt()];
+                idx.get(key);
+                offsets[i] = idx.getLong();
+                lengths[i] = idx.getInt();
+                if (offsets[i] + lengths[i] > indexOffset) {
+                    throw new IOException("片段越界: " + new String(key, UTF_8));
+                }
+                index.put(new String(key, UTF_8), i);
+            }
+            Log.i(TAG, "加载短语缓存 " + file + "，共 " + count + " 条");
+            return new PhraseCache(file, mapped, index, offsets, lengths);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "无法加载短语缓存 " + file + "，将使用在线合成", e);
+            return empty(file);
+        }
+    }
+
+    private static PhraseCache empty(File file) {
+        return new PhraseCache(file, null, Collections.<String, Integer>emptyMap(),
+                new long[0], new int[0]);
+    }
+
+    /**
+     * 片段的索引键。默认音调和语速（均为1）时就是文本本身，与旧的缓存包兼容。
+     */
+    public static String key(String text, float pitch, float speechRate) {
+        if (pitch == 1f && speechRate == 1f) {
+            return text;
+        }
+        return text + '\u0000' + String.format(Locale.US, "%.2f,%.2f", pitch, speechRate);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @param key 见 {@link #key}
+     */
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    public Set<String> getPhrases() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * @param key 见 {@link #key}
+     * @return 该键对应PCM数据的只读切片，未缓存时返回null。该方法不记录命中率，命中统计见 {@link #play}。
+     */
+    public ByteBuffer getClip(String key) {
+        Integer i = index.get(key);
+        if (i == null) {
+            return null;
+        }
+        ByteBuffer clip = data.duplicate();
+        clip.position((int) offsets[i]);
+        clip.limit((int) offsets[i] + lengths[i]);
+        return clip.slice();
+    }
+
+    /**
+     * 命中时用player直接播放缓存片段并返回true；未命中时记录一次未命中并返回false，调用方应回退到在线合成。
+     */
+    public boolean play(String text, float pitch, float speechRate, PcmPlayer player,
+                        String utteranceId) {
+        long requestNanos = System.nanoTime();
+        ByteBuffer clip = getClip(key(text, pitch, speechRate));
+        if (clip == null || player == null) {
+            stats.misses.incrementAndGet();
+            stats.markLiveRequest(utteranceId, requestNanos);
+            return false;
+        }
+        stats.hits.incrementAndGet();
+        player.play(clip, utteranceId, requestNanos, stats);
+        return true;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * 命中率和首音时延（从请求到第一块音频交给播放器的时间）统计。
+     */
+    public static class Stats {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        private final AtomicLong cachedFirstAudioNanos = new AtomicLong();
+        private final AtomicLong cachedFirstAudioCount = new AtomicLong();
+        private final AtomicLong liveFirstAudioNanos = new AtomicLong();
+        private final AtomicLong liveFirstAudioCount = new AtomicLong();
+        private final Map<String, Long> pendingLive = new ConcurrentHashMap<>();
+
+        void recordCachedFirstAudio(long nanos) {
+            cachedFirstAudioNanos.addAndGet(nanos);
+            cachedFirstAudioCount.incrementAndGet();
+        }
+
+        void markLiveRequest(String utteranceId, long requestNanos) {
+            if (utteranceId != null) {
+                pendingLive.put(utteranceId, requestNanos);
+            }
+        }
+
+        /**
+         * 在线合成的语音开始播放时调用（百度SDK的onSpeechStart或系统TTS的onStart）。
+         */
+        public void markLiveFirstAudio(String utteranceId) {
+            Long requestNanos = utteranceId == null ? null : pendingLive.remove(utteranceId);
+            if (requestNanos != null) {
+                liveFirstAudioNanos.addAndGet(System.nanoTime() - requestNanos);
+                liveFirstAudioCount.incrementAndGet();
+            }
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public float getHitRate() {
+            long total = hits.get() + misses.get();
+            return total == 0 ? 0f : (float) hits.get() / total;
+        }
+
+        public float getMeanCachedFirstAudioMillis() {
+            long count = cachedFirstAudioCount.get();
+            return count == 0 ? 0f : cachedFirstAudioNanos.get() / 1e6f / count;
+        }
+
+        public float getMeanLiveFirstAudioMillis() {
+            long count = liveFirstAudioCount.get();
+            return count == 0 ? 0f : liveFirstAudioNanos.get() / 1e6f / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "hits=%d misses=%d hitRate=%.2f cachedTTFA=%.1fms liveTTFA=%.1fms",
+                    getHits(), getMisses(), getHitRate(), getMeanCachedFirstAudioMillis(),
+                    getMeanLiveFirstAudioMillis());
+        }
+    }
+
+    /**
+     * 一条要预合成的短语及其音调和语速（1为正常）。
+     */
+    public static class Phrase {
+        public final String text;
+        public final float pitch;
+        public final float speechRate;
+
+        public Phrase(String text, float pitch, float speechRate) {
+            this.text = text;
+            this.pitch = pitch;
+            this.speechRate = speechRate;
+        }
+
+        public String getKey() {
+            return key(text, pitch, speechRate);
+        }
+
+        public boolean hasDefaultProsody() {
+            return pitch == 1f && speechRate == 1f;
+        }
+    }
+
+    /**
+     * 写缓存包。先写入临时文件，{@link #commit()} 时写索引并原子重命名，写到一半崩溃不会留下损坏的缓存。
+     */
+    public static class Writer {
+        private final File dest;
+        private final File tmp;
+        private final FileOutputStream out;
+        private final FileChannel channel;
+        private final List<String> keys = new ArrayList<>();
+        private final List<long[]> entries = new ArrayList<>();
+        private long position;
+
+        public Writer(File dest) throws IOException {
+            this.dest = dest;
+            this.tmp = new File(dest.getPath() + ".tmp");
+            this.out = new FileOutputStream(tmp);
+            this.channel = out.getChannel();
+        }
+
+        /**
+         * 追加一段PCM数据。同一个键重复追加时以最后一次为准。
+         *
+         * @param key 见 {@link #key}
+         */
+        public synchronized void append(String key, ByteBuffer pcm) throws IOException {
+            long offset = position;
+            int length = pcm.remaining();
+            while (pcm.hasRemaining()) {
+                position += channel.write(pcm);
+            }
+            int existing = keys.indexOf(key);
+            if (existing >= 0) {
+                keys.remove(existing);
+                entries.remove(existing);
+            }
+            keys.add(key);
+            entries.add(new long[]{offset, length});
+        }
+
+        /**
+         * 把已有缓存中本次没有重新合成的片段拷贝过来。
+         */
+        public void appendAll(PhraseCache existing) throws IOException {
+            for (String key : existing.getPhrases()) {
+                if (!keys.contains(key)) {
+                    append(key, existing.getClip(key));
+                }
+            }
+        }
+
+        public synchronized int size() {
+            return keys.size();
+        }
+
+        public synchronized void commit() throws IOException {
+            int indexSize = 4;
+            for (String key : keys) {
+                indexSize += 4 + key.getBytes(UTF_8).length + 8 + 4;
+            }
+            ByteBuffer idx = ByteBuffer.allocate(indexSize + FOOTER_SIZE);
+            idx.putInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] key = keys.get(i).getBytes(UTF_8);
+                idx.putInt(key.length);
+                idx.put(key);
+                idx.putLong(entries.get(i)[0]);
+                idx.putInt((int) entries.get(i)[1]);
+            }
+            idx.putLong(position);
+            idx.putInt(MAGIC);
+            idx.flip();
+            while (idx.hasRemaining()) {
+                channel.write(idx);
+            }
+            channel.force(true);
+            out.close();
+            if (!tmp.renameTo(dest)) {
+                throw new IOException("无法重命名 " + tmp + " 为 " + dest);
+            }
+            Log.i(TAG, "短语缓存写入完成 " + dest + "，共 " + keys.size() + " 条，"
+                    + position + " 字节");
+        }
+
+        public synchronized void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // close quietly
+            }
+            tmp.delete();
+        }
+    }
+}
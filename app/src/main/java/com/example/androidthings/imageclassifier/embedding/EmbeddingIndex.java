@@ -0,0 +1,342 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.embedding;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * In-memory nearest-neighbour index of embeddings for classes that are not in the model's
+ * labels. Vectors are L2-normalized when added and stored back to back in one primitive array,
+ * either as floats or quantized to int8, and a query is a brute-force scan for the highest
+ * cosine similarity, optionally split across threads. Has no Android dependencies.
+ * 模型标签之外的类别的嵌入向量的内存最近邻索引。向量在加入时做L2归一化，并首尾相接地存放在一个基本类型数组中，
+ * 可以是float，也可以量化为int8。查询是暴力扫描余弦相似度最高的向量，可以拆分到多个线程。不依赖Android。
+ */
+public class EmbeddingIndex {
+
+    private static final int MAGIC = 0x454D4249; // "EMBI"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 5 * 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Scale of the int8 components of a unit vector. 单位向量int8分量的比例 */
+    private static final float QUANT_SCALE = 127f;
+
+    private final int mDims;
+    private final boolean mQuantized;
+    private final List<String> mLabels = new ArrayList<>();
+    private float[] mVectors;
+    private byte[] mQuantizedVectors;
+    private int mCount;
+
+    /**
+     * @param quantized stores int8 components instead of floats, a quarter of the memory
+     *                  以int8而不是float存储分量，内存为四分之一
+     */
+    public EmbeddingIndex(int dims, boolean quantized) {
+        if (dims <= 0) {
+            throw new IllegalArgumentException("Dimensions must be positive: " + dims);
+        }
+        mDims = dims;
+        mQuantized = quantized;
+        if (quantized) {
+            mQuantizedVectors = new byte[dims * 16];
+        } else {
+            mVectors = new float[dims * 16];
+        }
+    }
+
+    public int getDims() {
+        return mDims;
+    }
+
+    public boolean isQuantized() {
+        return mQuantized;
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * Enrolls one embedding under {@code label}; several vectors may share a label.
+     * 以label登记一个嵌入向量；多个向量可以共用一个标签。
+     *
+     * @return position of the vector in the index. 向量在索引中的位置
+     */
+    public synchronized int add(String label, float[] embedding) {
+        checkDims(embedding);
+        float norm = norm(embedding);
+        int offset = mCount * mDims;
+        if (mQuantized) {
+            if (offset + mDims > mQuantizedVectors.length) {
+                mQuantizedVectors = Arrays.copyOf(mQuantizedVectors, mQuantizedVectors.length * 2);
+            }
+            for (int i = 0; i < mDims; i++) {
+                mQuantizedVectors[offset + i] = (byte) Math.round(embedding[i] / norm * QUANT_SCALE);
+            }
+        } else {
+            if (offset + mDims > mVectors.length) {
+                mVectors = Arrays.copyOf(mVectors, mVectors.length * 2);
+            }
+            for (int i = 0; i < mDims; i++) {
+                mVectors[offset + i] = embedding[i] / norm;
+            }
+        }
+        mLabels.add(label);
+        return mCount++;
+    }
+
+    /**
+     * Scans every vector on the calling thread.
+     * 在调用线程上扫描所有向量。
+     *
+     * @return up to {@code k} neighbours, most similar first. 最多k个近邻，最相似的在前
+     */
+    public synchronized List<Neighbor> query(float[] embedding, int k) {
+        TopK top = new TopK(k);
+        scan(prepare(embedding), 0, mCount, top);
+        return toNeighbors(top);
+    }
+
+    /**
+     * Splits the scan into {@code parts} ranges, runs all but the first on {@code executor} and
+     * waits for them.
+     * 将扫描分为parts段，除第一段外都在executor上运行，并等待它们完成。
+     */
+    public synchronized List<Neighbor> query(float[] embedding, int k, Executor executor,
+                                             int parts) throws InterruptedException {
+        final Object query = prepare(embedding);
+        parts = Math.max(1, Math.min(parts, mCount));
+        final TopK[] tops = new TopK[parts];
+        final CountDownLatch done = new CountDownLatch(parts - 1);
+        for (int p = 1; p < parts; p++) {
+            final TopK top = tops[p] = new TopK(k);
+            final int start = (int) ((long) mCount * p / parts);
+            final int end = (int) ((long) mCount * (p + 1) / parts);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        scan(query, start, end, top);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        tops[0] = new TopK(k);
+        scan(query, 0, mCount / parts, tops[0]);
+        done.await();
+        for (int p = 1; p < parts; p++) {
+            tops[0].addAll(tops[p]);
+        }
+        return toNeighbors(tops[0]);
+    }
+
+    private Object prepare(float[] embedding) {
+        checkDims(embedding);
+        float norm = norm(embedding);
+        if (mQuantized) {
+            byte[] query = new byte[mDims];
+            for (int i = 0; i < mDims; i++) {
+                query[i] = (byte) Math.round(embedding[i] / norm * QUANT_SCALE);
+            }
+            return query;
+        }
+        float[] query = new float[mDims];
+        for (int i = 0; i < mDims; i++) {
+            query[i] = embedding[i] / norm;
+        }
+        return query;
+    }
+
+    private void scan(Object query, int start, int end, TopK top) {
+        final int dims = mDims;
+        if (mQuantized) {
+            final byte[] q = (byte[]) query;
+            final byte[] vectors = mQuantizedVectors;
+            final float scale = 1f / (QUANT_SCALE * QUANT_SCALE);
+            for (int v = start; v < end; v++) {
+                int offset = v * dims;
+                int dot = 0;
+                for (int i = 0; i < dims; i++) {
+                    dot += q[i] * vectors[offset + i];
+                }
+                top.offer(v, dot * scale);
+            }
+        } else {
+            final float[] q = (float[]) query;
+            final float[] vectors = mVectors;
+            for (int v = start; v < end; v++) {
+                int offset = v * dims;
+                float dot = 0;
+                for (int i = 0; i < dims; i++) {
+                    dot += q[i] * vectors[offset + i];
+                }
+                top.offer(v, dot);
+            }
+        }
+    }
+
+    private List<Neighbor> toNeighbors(TopK top) {
+        List<Neighbor> neighbors = new ArrayList<>(top.count);
+        for (int i = 0; i < top.count; i++) {
+            neighbors.add(new Neighbor(top.indices[i], mLabels.get(top.indices[i]),
+                    top.scores[i]));
+        }
+        return neighbors;
+    }
+
+    /**
+     * Writes the index to {@code file} through a memory mapping: a header, the vectors as they
+     * are stored, then the labels.
+     * 通过内存映射将索引写入文件：文件头、按存储格式的向量，然后是标签。
+     */
+    public synchronized void save(File file) throws IOException {
+        byte[][] labels = new byte[mCount][];
+        long size = HEADER_BYTES + (long) mCount * mDims * (mQuantized ? 1 : 4);
+        for (int i = 0; i < mCount; i++) {
+            labels[i] = mLabels.get(i).getBytes(UTF_8);
+            size += 4 + labels[i].length;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(size);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            map.putInt(MAGIC).putInt(VERSION).putInt(mDims).putInt(mCount)
+                    .putInt(mQuantized ? 1 : 0);
+            if (mQuantized) {
+                map.put(mQuantizedVectors, 0, mCount * mDims);
+            } else {
+                map.asFloatBuffer().put(mVectors, 0, mCount * mDims);
+                map.position(map.position() + mCount * mDims * 4);
+            }
+            for (byte[] label : labels) {
+                map.putInt(label.length).put(label);
+            }
+            map.force();
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #save(File)}.
+     * 读取由save写入的索引。
+     */
+    public static EmbeddingIndex load(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.remaining() < HEADER_BYTES || map.getInt() != MAGIC
+                    || map.getInt() != VERSION) {
+                throw new IOException("Not an embedding index: " + file);
+            }
+            int dims = map.getInt();
+            int count = map.getInt();
+            boolean quantized = map.getInt() != 0;
+            // 向量和每个标签的长度字段必须都在文件之内，损坏的头部不能导致超大分配
+            long vectorBytes = (long) count * dims * (quantized ? 1 : 4);
+            if (dims <= 0 || count < 0
+                    || vectorBytes + (long) count * 4 > map.remaining()) {
+                throw new IOException("Corrupt embedding index " + file + ": " + count
+                        + " vectors of " + dims + " dimensions in " + channel.size() + " bytes");
+            }
+            EmbeddingIndex index = new EmbeddingIndex(dims, quantized);
+            int components = count * dims;
+            if (quantized) {
+                index.mQuantizedVectors = new byte[Math.max(components, dims * 16)];
+                map.get(index.mQuantizedVectors, 0, components);
+            } else {
+                index.mVectors = new float[Math.max(components, dims * 16)];
+                map.asFloatBuffer().get(index.mVectors, 0, components);
+                map.position(map.position() + components * 4);
+            }
+            for (int i = 0; i < count; i++) {
+                int length = map.getInt();
+                if (length < 0 || length > map.remaining()) {
+                    throw new IOException("Corrupt embedding index " + file + ": label " + i
+                            + " has " + length + " bytes");
+                }
+                byte[] label = new byte[length];
+                map.get(label);
+                index.mLabels.add(new String(label, UTF_8));
+            }
+            index.mCount = count;
+            return index;
+        }
+    }
+
+    private void checkDims(float[] embedding) {
+        if (embedding.length != mDims) {
+            throw new IllegalArgumentException("Expected " + mDims + " dimensions, got "
+                    + embedding.length);
+        }
+    }
+
+    private static float norm(float[] vector) {
+        double sum = 0;
+        for (float x : vector) {
+            sum += x * x;
+        }
+        // 全零向量保持为零，相似度也为零
+        return sum == 0 ? 1f : (float) Math.sqrt(sum);
+    }
+
+    /** The k highest scores seen so far, highest first. 目前为止最高的k个分数，从高到低 */
+    private static class TopK {
+        final int[] indices;
+        final float[] scores;
+        int count;
+
+        TopK(int k) {
+            indices = new int[Math.max(1, k)];
+            scores = new float[Math.max(1, k)];
+        }
+
+        void offer(int index, float score) {
+            if (count == scores.length && score <= scores[count - 1]) {
+                return;
+            }
+            int i = count == scores.length ? count - 1 : count++;
+            while (i > 0 && scores[i - 1] < score) {
+                scores[i] = scores[i - 1];
+                indices[i] = indices[i - 1];
+                i--;
+            }
+            scores[i] = score;
+            indices[i] = index;
+        }
+
+        void addAll(TopK other) {
+            for (int i = 0; i < other.count; i++) {
+                offer(other.indices[i], other.scores[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.embedding;
+
+import java.util.Locale;
+
+/**
+ * An enrolled vector returned by {@link EmbeddingIndex#query}.
+ * EmbeddingIndex查询返回的已登记向量。
+ */
+public class Neighbor {
+
+    private final int index;
+    private final String label;
+    private final float similarity;
+
+    public Neighbor(int index, String label, float similarity) {
+        this.index = index;
+        this.label = label;
+        this.similarity = similarity;
+    }
+
+    /** Position of the vector in the index. 向量在索引中的位置 */
+    public int getIndex() {
+        return index;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /** Cosine similarity to the query, in [-1, 1]. 与查询的余弦相似度 */
+    public float getSimilarity() {
+        return similarity;
+    }
+
+    @Override
+    public String toString() {
+        return label + " (" + String.format(Locale.US, "%.3f", similarity) + ")";
+    }
+}
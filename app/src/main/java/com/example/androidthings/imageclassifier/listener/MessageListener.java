@@ -1,10 +1,12 @@
 package com.example.androidthings.imageclassifier.listener;
 
+import android.speech.tts.UtteranceProgressListener;
 import android.util.Log;
 
 import com.baidu.tts.client.SpeechError;
 import com.baidu.tts.client.SpeechSynthesizerListener;
 import com.example.androidthings.imageclassifier.MainHandlerConstant;
+import com.example.androidthings.imageclassifier.trace.TraceRecorder;
 
 
 /**
@@ -15,6 +17,15 @@ import com.example.androidthings.imageclassifier.MainHandlerConstant;
 public class MessageListener implements SpeechSynthesizerListener, MainHandlerConstant {
     private static final String TAG = "MessageListener";
 
+    private volatile UtteranceProgressListener utteranceListener;
+
+    /**
+     * 把播放开始、播放结束和错误以系统TTS的回调方式转发给listener，例如SpeechScheduler。传null取消转发。
+     */
+    public void setUtteranceProgressListener(UtteranceProgressListener listener) {
+        this.utteranceListener = listener;
+    }
+
     /**
      * 播放开始，每句播放开始都会回调
      *
@@ -22,6 +33,7 @@ public class MessageListener implements SpeechSynthesizerListener, MainHandlerCo
      */
     @Override
     public void onSynthesizeStart(String utteranceId) {
+        TraceRecorder.getDefault().asyncBegin("synthesize", utteranceId);
         sendMessage("准备开始合成,序列号:" + utteranceId);
     }
 
@@ -44,12 +56,17 @@ public class MessageListener implements SpeechSynthesizerListener, MainHandlerCo
      */
     @Override
     public void onSynthesizeFinish(String utteranceId) {
+        TraceRecorder.getDefault().asyncEnd("synthesize", utteranceId);
         sendMessage("合成结束回调, 序列号:" + utteranceId);
     }
 
     @Override
     public void onSpeechStart(String utteranceId) {
         sendMessage("播放开始回调, 序列号:" + utteranceId);
+        UtteranceProgressListener l = utteranceListener;
+        if (l != null) {
+            l.onStart(utteranceId);
+        }
     }
 
     /**
@@ -71,6 +88,10 @@ public class MessageListener implements SpeechSynthesizerListener, MainHandlerCo
     @Override
     public void onSpeechFinish(String utteranceId) {
         sendMessage("播放结束回调, 序列号:" + utteranceId);
+        UtteranceProgressListener l = utteranceListener;
+        if (l != null) {
+            l.onDone(utteranceId);
+        }
     }
 
     /**
@@ -81,8 +102,15 @@ public class MessageListener implements SpeechSynthesizerListener, MainHandlerCo
      */
     @Override
     public void onError(String utteranceId, SpeechError speechError) {
+        // 出错时不再回调结束接口，在这里结束合成区间（未开始的结束事件会被查看器忽略）；播放区间由SpeechScheduler记录
+        TraceRecorder.getDefault().instant("tts_error");
+        TraceRecorder.getDefault().asyncEnd("synthesize", utteranceId);
         sendErrorMessage("错误发生：" + speechError.description + "，错误编码："
                 + speechError.code + "，序列号:" + utteranceId);
+        UtteranceProgressListener l = utteranceListener;
+        if (l != null) {
+            l.onError(utteranceId);
+        }
     }
 
     private void sendErrorMessage(String message) {
@@ -0,0 +1,213 @@
+package com.example.androidthings.imageclassifier.listener;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.baidu.tts.client.SpeechError;
+import com.example.androidthings.imageclassifier.control.MySyntherizer;
+import com.example.androidthings.imageclassifier.control.PhraseCache;
+import com.example.androidthings.imageclassifier.trace.TraceRecorder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 预合成短语缓存。与FileSaveListener一样使用onSynthesizeDataArrived回调获取音频流，
+ * 但按utteranceId分别收集，合成结束后写入 {@link PhraseCache} 缓存包。
+ * 不属于预合成的语句按UiMessageListener的方式处理。
+ */
+public class PhraseCaptureListener extends UiMessageListener {
+
+    private static final String TAG = "PhraseCaptureListener";
+
+    /**
+     * 预合成语句的utteranceId前缀
+     */
+    private static final String UTTERANCE_PREFIX = "phrase-";
+
+    /**
+     * 同时交给合成引擎的预合成语句数。一次全部提交会占满NonBlockSyntherizer的命令队列，
+     * 每完成一条再提交下一条，在线合成的语句也不必排在所有预合成语句之后。
+     */
+    private static final int MAX_IN_FLIGHT = 4;
+
+    public interface Callback {
+        void onPhrasesCaptured(PhraseCache cache);
+
+        void onCaptureFailed(Exception e);
+    }
+
+    private final Map<String, PhraseCache.Phrase> pendingText = new ConcurrentHashMap<>();
+    private final Map<String, ByteArrayOutputStream> pendingAudio = new ConcurrentHashMap<>();
+    private final AtomicInteger remaining = new AtomicInteger();
+
+    private final ArrayDeque<String> unsubmitted = new ArrayDeque<>();
+    private MySyntherizer synthesizer;
+    private PhraseCache.Writer writer;
+    private File dest;
+    private Callback callback;
+
+    public PhraseCaptureListener(Handler mainHandler) {
+        super(mainHandler);
+    }
+
+    /**
+     * 合成existing中还没有的短语，完成后与existing合并写回existing所在文件，并通过callback返回新缓存。
+     * 每条短语以自己的音调和语速合成。合成引擎的listener必须是本对象。
+     */
+    public synchronized void presynthesize(MySyntherizer synthesizer, PhraseCache existing,
+                                           Collection<PhraseCache.Phrase> phrases,
+                                           Callback callback) {
+        if (writer != null) {
+            throw new IllegalStateException("预合成正在进行中");
+        }
+        dest = existing.getFile();
+        try {
+            writer = new PhraseCache.Writer(dest);
+            writer.appendAll(existing);
+        } catch (IOException e) {
+            abort(e);
+            callback.onCaptureFailed(e);
+            return;
+        }
+        this.callback = callback;
+        this.synthesizer = synthesizer;
+        int id = 0;
+        Set<String> keys = new HashSet<>();
+        for (PhraseCache.Phrase phrase : phrases) {
+            if (!existing.contains(phrase.getKey()) && keys.add(phrase.getKey())) {
+                pendingText.put(UTTERANCE_PREFIX + id++, phrase);
+            }
+        }
+        Log.i(TAG, "开始预合成 " + pendingText.size() + " 条短语，已缓存 " + existing.size() + " 条");
+        if (pendingText.isEmpty()) {
+            finish();
+            return;
+        }
+        remaining.set(pendingText.size());
+        unsubmitted.addAll(pendingText.keySet());
+        for (int i = 0; i < MAX_IN_FLIGHT; i++) {
+            submitNext();
+        }
+    }
+
+    /**
+     * 提交下一条尚未提交的语句，提交失败的语句直接计为完成。
+     */
+    private void submitNext() {
+        while (true) {
+            String utteranceId;
+            synchronized (this) {
+                utteranceId = unsubmitted.poll();
+            }
+            if (utteranceId == null) {
+                return;
+            }
+            pendingAudio.put(utteranceId, new ByteArrayOutputStream());
+            PhraseCache.Phrase phrase = pendingText.get(utteranceId);
+            // 命令按提交顺序执行，参数只作用于这一条合成
+            if (!phrase.hasDefaultProsody()) {
+                synthesizer.setParams(MySyntherizer.prosodyParams(phrase.pitch, phrase.speechRate));
+            }
+            int result = synthesizer.synthesize(phrase.text, utteranceId);
+            if (!phrase.hasDefaultProsody()) {
+                synthesizer.setParams(MySyntherizer.prosodyParams(1f, 1f));
+            }
+            if (result == 0) {
+                return;
+            }
+            pendingAudio.remove(utteranceId);
+            Log.w(TAG, "预合成提交失败: " + pendingText.remove(utteranceId).text);
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onSynthesizeDataArrived(String utteranceId, byte[] data, int progress) {
+        ByteArrayOutputStream audio = pendingAudio.get(utteranceId);
+        if (audio == null) {
+            super.onSynthesizeDataArrived(utteranceId, data, progress);
+            return;
+        }
+        if (data != null) {
+            audio.write(data, 0, data.length);
+        }
+    }
+
+    @Override
+    public void onSynthesizeFinish(String utteranceId) {
+        ByteArrayOutputStream audio = pendingAudio.remove(utteranceId);
+        if (audio == null) {
+            super.onSynthesizeFinish(utteranceId);
+            return;
+        }
+        TraceRecorder.getDefault().asyncEnd("synthesize", utteranceId);
+        PhraseCache.Phrase phrase = pendingText.remove(utteranceId);
+        try {
+            writer.append(phrase.getKey(), ByteBuffer.wrap(audio.toByteArray()));
+        } catch (IOException e) {
+            Log.w(TAG, "写入短语缓存失败: " + phrase.text, e);
+        }
+        countDown();
+    }
+
+    @Override
+    public void onError(String utteranceId, SpeechError speechError) {
+        if (pendingAudio.remove(utteranceId) != null) {
+            TraceRecorder.getDefault().asyncEnd("synthesize", utteranceId);
+            Log.w(TAG, "预合成失败: " + pendingText.remove(utteranceId).text
+                    + "，错误编码：" + speechError.code);
+            countDown();
+            return;
+        }
+        super.onError(utteranceId, speechError);
+    }
+
+    private void countDown() {
+        if (remaining.decrementAndGet() == 0) {
+            finish();
+        } else {
+            submitNext();
+        }
+    }
+
+    private synchronized void finish() {
+        Callback cb = callback;
+        try {
+            writer.commit();
+            writer = null;
+            PhraseCache cache = PhraseCache.open(dest);
+            if (cb != null) {
+                cb.onPhrasesCaptured(cache);
+            }
+        } catch (IOException e) {
+            abort(e);
+            if (cb != null) {
+                cb.onCaptureFailed(e);
+            }
+        }
+    }
+
+    private void abort(Exception e) {
+        Log.w(TAG, "预合成中止", e);
+        if (writer != null) {
+            writer.abort();
+            writer = null;
+        }
+        pendingText.clear();
+        pendingAudio.clear();
+        unsubmitted.clear();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.metrics;
+
+/**
+ * A value that goes up and down: either set on the hot path (a volatile write) or read from a
+ * {@link Metric.Source} when the metrics are exported, e.g. queue depths and memory usage.
+ * 可增可减的值：要么在热路径上设置（一次volatile写入），要么在导出指标时从Metric.Source读取，例如队列深度和内存用量。
+ */
+public class Gauge extends Metric {
+
+    private final Source source;
+    private volatile double value;
+
+    Gauge(String name, String help, Source source) {
+        super(name, help);
+        this.source = source;
+    }
+
+    public void set(double value) {
+        this.value = value;
+    }
+
+    public double get() {
+        return source != null ? source.value() : value;
+    }
+
+    @Override
+    String type() {
+        return "gauge";
+    }
+
+    @Override
+    void writeSamples(StringBuilder out) {
+        out.append(getName()).append(' ');
+        appendValue(out, get());
+        out.append('\n');
+    }
+}
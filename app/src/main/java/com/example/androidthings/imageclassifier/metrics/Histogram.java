@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations over fixed buckets, exported in seconds. Observing scans the few
+ * bucket bounds in nanoseconds and does two atomic adds, without allocation. The export reads
+ * the buckets one by one, so a scrape racing an observation may see it in the count but not
+ * yet in the sum.
+ * 固定桶上的时长分布，以秒导出。记录时扫描少量以纳秒表示的桶边界并做两次原子加法，不分配内存。
+ * 导出逐个读取桶，因此与记录同时进行的抓取可能在计数中看到该记录，而总和中还没有。
+ */
+public class Histogram extends Metric {
+
+    private static final double[] LATENCY_SECONDS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final double[] boundsSeconds;
+    private final long[] boundsNanos;
+    /** Non-cumulative counts; the last bucket is +Inf. 非累计计数，最后一个桶是+Inf */
+    private final AtomicLongArray buckets;
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    Histogram(String name, String help, double[] boundsSeconds) {
+        super(name, help);
+        this.boundsSeconds = boundsSeconds.clone();
+        this.boundsNanos = new long[boundsSeconds.length];
+        for (int i = 0; i < boundsSeconds.length; i++) {
+            if (i > 0 && boundsSeconds[i] <= boundsSeconds[i - 1]) {
+                throw new IllegalArgumentException("Bucket bounds must increase");
+            }
+            boundsNanos[i] = (long) (boundsSeconds[i] * 1e9);
+        }
+        this.buckets = new AtomicLongArray(boundsSeconds.length + 1);
+    }
+
+    /** Bucket bounds from 1ms to 10s, for per-frame stage latencies. 从1ms到10s的桶边界，用于每帧各阶段的延迟 */
+    public static double[] latencySeconds() {
+        return LATENCY_SECONDS.clone();
+    }
+
+    public void observeNanos(long nanos) {
+        int i = 0;
+        while (i < boundsNanos.length && nanos > boundsNanos[i]) {
+            i++;
+        }
+        buckets.incrementAndGet(i);
+        sumNanos.addAndGet(nanos);
+    }
+
+    /** Observations so far. 目前的记录数 */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.get() / 1e9;
+    }
+
+    @Override
+    String type() {
+        return "histogram";
+    }
+
+    @Override
+    void writeSamples(StringBuilder out) {
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            cumulative += buckets.get(i);
+            out.append(getName()).append("_bucket{le=\"");
+            if (i < boundsSeconds.length) {
+                appendValue(out, boundsSeconds[i]);
+            } else {
+                out.append("+Inf");
+            }
+            out.append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(getName()).append("_sum ");
+        appendValue(out, getSumSeconds());
+        out.append('\n');
+        out.append(getName()).append("_count ").append(cumulative).append('\n');
+    }
+}
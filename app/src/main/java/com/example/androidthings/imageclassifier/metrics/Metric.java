@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.metrics;
+
+/**
+ * A named metric of a {@link MetricsRegistry} that renders itself in the Prometheus text
+ * format.
+ * MetricsRegistry中的一个命名指标，以Prometheus文本格式输出自身。
+ */
+public abstract class Metric {
+
+    /**
+     * Reads a value when the metrics are exported, for values that are owned elsewhere.
+     * 导出指标时读取的值，用于由其他对象持有的值。
+     */
+    public interface Source {
+        double value();
+    }
+
+    private final String name;
+    private final String help;
+
+    Metric(String name, String help) {
+        if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+            throw new IllegalArgumentException("Invalid metric name: " + name);
+        }
+        this.name = name;
+        this.help = help;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** "counter", "gauge" or "histogram". */
+    abstract String type();
+
+    /** Appends the samples, without the HELP and TYPE lines. 追加样本行，不含HELP和TYPE行 */
+    abstract void writeSamples(StringBuilder out);
+
+    void write(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ')
+                .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type()).append('\n');
+        writeSamples(out);
+    }
+
+    static void appendValue(StringBuilder out, double value) {
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+    }
+}
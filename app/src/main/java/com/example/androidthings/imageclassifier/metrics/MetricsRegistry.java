@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Named counters, gauges and histograms, exported in the Prometheus text exposition format.
+ * Metrics are registered once, typically at startup, and the returned objects are kept in fields
+ * so the hot path updates them directly without any lookup. Has no Android dependencies.
+ * 命名的计数器、仪表和直方图，以Prometheus文本格式导出。指标只注册一次（通常在启动时），返回的对象保存在字段中，
+ * 热路径直接更新而无需查找。不依赖Android。
+ */
+public class MetricsRegistry {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    public Counter counter(String name, String help) {
+        return register(new Counter(name, help, false, null));
+    }
+
+    /**
+     * A counter incremented by one thread only, e.g. per frame on the camera thread; cheaper than
+     * {@link #counter(String, String)} but loses counts if several threads increment it.
+     * 只由一个线程递增的计数器，例如相机线程上的每帧计数；比counter开销更小，但多个线程递增时会丢失计数。
+     */
+    public Counter singleWriterCounter(String name, String help) {
+        return register(new Counter(name, help, true, null));
+    }
+
+    /** A counter whose value is kept elsewhere. 值由其他对象持有的计数器 */
+    public Counter counter(String name, String help, Metric.Source source) {
+        return register(new Counter(name, help, false, source));
+    }
+
+    public Gauge gauge(String name, String help) {
+        return register(new Gauge(name, help, null));
+    }
+
+    /** A gauge read from {@code source} on export. 导出时从source读取的仪表 */
+    public Gauge gauge(String name, String help, Metric.Source source) {
+        return register(new Gauge(name, help, source));
+    }
+
+    /** @param boundsSeconds increasing upper bounds of the buckets. 递增的桶上界 */
+    public Histogram histogram(String name, String help, double[] boundsSeconds) {
+        return register(new Histogram(name, help, boundsSeconds));
+    }
+
+    private <T extends Metric> T register(T metric) {
+        if (metrics.putIfAbsent(metric.getName(), metric) != null) {
+            throw new IllegalArgumentException("Metric already registered: " + metric.getName());
+        }
+        return metric;
+    }
+
+    public Metric get(String name) {
+        return metrics.get(name);
+    }
+
+    /**
+     * Renders every metric, sorted by name, in the Prometheus text format.
+     * 以Prometheus文本格式按名称顺序输出所有指标。
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Metric metric : metrics.values()) {
+            metric.write(out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the current values to {@code file} through a temporary file, so readers never see
+     * a partial dump.
+     * 通过临时文件将当前值写入file，读取方不会看到不完整的内容。
+     */
+    public void writeTo(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(toPrometheus().getBytes(Charset.forName("UTF-8")));
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+    }
+}
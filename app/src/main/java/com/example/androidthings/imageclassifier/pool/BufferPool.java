@@ -0,0 +1,315 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.pool;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recycles direct {@link ByteBuffer}s and {@link Bitmap}s across frames and across classifier
+ * instances, so that steady-state classification allocates no native memory. Buffers are
+ * grouped in power-of-two size classes, bitmaps by size and config; looking up a group neither
+ * boxes nor builds a key. Every acquired object must be released exactly once. With leak
+ * tracking on, {@link #reportLeaks(long)} logs the ones held for too long together with the
+ * place they were acquired; tracking captures a stack per acquire, so it is off by default.
+ * 在帧之间以及分类器实例之间回收直接ByteBuffer和Bitmap，使稳定运行的分类不再分配本地内存。
+ * ByteBuffer按2的幂分级，Bitmap按尺寸和格式分组；查找分组时既不装箱也不构造键。每个取出的对象必须恰好归还一次。
+ * 开启泄漏跟踪时，reportLeaks会记录持有过久的对象以及取出它们的位置；跟踪会在每次取出时记录调用栈，因此默认关闭。
+ */
+public class BufferPool {
+    private static final String TAG = "BufferPool";
+
+    /** Smallest buffer size class. 最小的ByteBuffer级别 */
+    private static final int MIN_BUFFER_CLASS = 4096;
+
+    /** Idle objects kept per size class; the rest is left to the GC. 每个级别保留的空闲对象数，多余的交给GC */
+    private static final int MAX_IDLE_PER_CLASS = 4;
+
+    private static final BufferPool sDefault = new BufferPool(false);
+
+    private boolean mTrackLeaks;
+    /** Idle buffers indexed by log2 of the size class. 按级别的log2索引的空闲ByteBuffer */
+    private final List<ArrayDeque<ByteBuffer>> mIdleBuffers = new ArrayList<>(Integer.SIZE);
+    private final List<BitmapClass> mIdleBitmaps = new ArrayList<>();
+    private final Map<Object, Lease> mOutstanding = new IdentityHashMap<>();
+
+    private long mBytesInUse;
+    private long mBytesIdle;
+    private long mAllocations;
+    private long mReuses;
+
+    /**
+     * @param trackLeaks records the acquiring stack of every object for {@link #reportLeaks(long)}
+     *                   为reportLeaks记录每个对象被取出时的调用栈
+     */
+    public BufferPool(boolean trackLeaks) {
+        mTrackLeaks = trackLeaks;
+        for (int i = 0; i < Integer.SIZE; i++) {
+            mIdleBuffers.add(new ArrayDeque<ByteBuffer>());
+        }
+    }
+
+    /**
+     * Turns recording the acquiring stack on or off for objects acquired from now on, e.g. in
+     * debug builds.
+     * 对之后取出的对象开启或关闭调用栈记录，例如在调试构建中开启。
+     */
+    public synchronized void setTrackLeaks(boolean trackLeaks) {
+        mTrackLeaks = trackLeaks;
+    }
+
+    /**
+     * The pool shared by all pipeline stages.
+     * 所有流水线阶段共享的池。
+     */
+    public static BufferPool getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * @return a direct buffer in native order with at least {@code size} bytes of capacity and
+     * its limit set to {@code size}. 本地字节序的直接缓冲区，容量至少为size，limit为size
+     */
+    public synchronized ByteBuffer acquireBuffer(int size) {
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = mIdleBuffers.get(Integer.numberOfTrailingZeros(sizeClass)).pollFirst();
+        if (buffer != null) {
+            mReuses++;
+            mBytesIdle -= sizeClass;
+            buffer.clear();
+        } else {
+            mAllocations++;
+            buffer = ByteBuffer.allocateDirect(sizeClass);
+            buffer.order(ByteOrder.nativeOrder());
+        }
+        buffer.limit(size);
+        mBytesInUse += sizeClass;
+        track(buffer, sizeClass);
+        return buffer;
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        Lease lease = buffer == null ? null : untrack(buffer);
+        if (lease == null) {
+            return;
+        }
+        int sizeClass = buffer.capacity();
+        mBytesInUse -= lease.bytes;
+        ArrayDeque<ByteBuffer> idle = mIdleBuffers.get(Integer.numberOfTrailingZeros(sizeClass));
+        if (idle.size() < MAX_IDLE_PER_CLASS) {
+            idle.addFirst(buffer);
+            mBytesIdle += sizeClass;
+        }
+    }
+
+    /**
+     * @return a mutable bitmap of exactly this size and config; its pixels are not cleared.
+     * 指定尺寸和格式的可变位图，像素不会被清除
+     */
+    public synchronized Bitmap acquireBitmap(int width, int height, Bitmap.Config config) {
+        BitmapClass bitmapClass = findBitmapClass(width, height, config);
+        ArrayDeque<Bitmap> idle = bitmapClass == null ? null : bitmapClass.idle;
+        Bitmap bitmap = null;
+        while (idle != null && bitmap == null && !idle.isEmpty()) {
+            bitmap = idle.pollFirst();
+            mBytesIdle -= bitmap.getAllocationByteCount();
+            if (bitmap.isRecycled()) {
+                bitmap = null;
+            }
+        }
+        if (bitmap != null) {
+            mReuses++;
+        } else {
+            mAllocations++;
+            bitmap = Bitmap.createBitmap(width, height, config);
+        }
+        int bytes = bitmap.getAllocationByteCount();
+        mBytesInUse += bytes;
+        track(bitmap, bytes);
+        return bitmap;
+    }
+
+    /**
+     * Takes ownership of a bitmap allocated elsewhere, e.g. by a decoder that could not reuse a
+     * pooled one, so that it is released and recycled like any other.
+     * 接管在池外分配的位图（例如解码器无法复用池中位图时新建的），之后与其他位图一样归还和回收。
+     */
+    public synchronized Bitmap adopt(Bitmap bitmap) {
+        int bytes = bitmap.getAllocationByteCount();
+        mAllocations++;
+        mBytesInUse += bytes;
+        track(bitmap, bytes);
+        return bitmap;
+    }
+
+    public synchronized void release(Bitmap bitmap) {
+        Lease lease = bitmap == null ? null : untrack(bitmap);
+        if (lease == null) {
+            return;
+        }
+        mBytesInUse -= lease.bytes;
+        if (bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        BitmapClass bitmapClass =
+                findBitmapClass(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        if (bitmapClass == null) {
+            bitmapClass = new BitmapClass(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            mIdleBitmaps.add(bitmapClass);
+        }
+        ArrayDeque<Bitmap> idle = bitmapClass.idle;
+        if (idle.size() < MAX_IDLE_PER_CLASS) {
+            idle.addFirst(bitmap);
+            mBytesIdle += bitmap.getAllocationByteCount();
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Drops every idle object, e.g. when the app is trimmed.
+     * 丢弃所有空闲对象，例如内存紧张时。
+     */
+    public synchronized void trim() {
+        for (BitmapClass bitmapClass : mIdleBitmaps) {
+            for (Bitmap bitmap : bitmapClass.idle) {
+                bitmap.recycle();
+            }
+        }
+        mIdleBitmaps.clear();
+        for (ArrayDeque<ByteBuffer> idle : mIdleBuffers) {
+            idle.clear();
+        }
+        mBytesIdle = 0;
+    }
+
+    /**
+     * Logs every object held for longer than {@code olderThanMillis} and returns their count.
+     * The acquiring stack is only logged for objects acquired while leak tracking was on.
+     * 记录持有时间超过olderThanMillis的对象，返回其数量。只有开启泄漏跟踪时取出的对象才会记录调用栈。
+     */
+    public int reportLeaks(long olderThanMillis) {
+        List<Lease> leaked = new ArrayList<>();
+        long now = SystemClock.uptimeMillis();
+        synchronized (this) {
+            for (Lease lease : mOutstanding.values()) {
+                if (now - lease.acquiredMillis > olderThanMillis) {
+                    leaked.add(lease);
+                }
+            }
+        }
+        for (Lease lease : leaked) {
+            Log.w(TAG, "未归还的缓冲区: " + lease.bytes + " 字节，已持有 "
+                    + (now - lease.acquiredMillis) + "ms", lease.acquiredAt);
+        }
+        return leaked.size();
+    }
+
+    /** Native bytes handed out and not yet released. 已取出尚未归还的本地内存字节数 */
+    public synchronized long getBytesInUse() {
+        return mBytesInUse;
+    }
+
+    /** Native bytes held idle by the pool. 池中空闲的本地内存字节数 */
+    public synchronized long getBytesIdle() {
+        return mBytesIdle;
+    }
+
+    public synchronized int getOutstandingCount() {
+        return mOutstanding.size();
+    }
+
+    public synchronized long getAllocationCount() {
+        return mAllocations;
+    }
+
+    public synchronized long getReuseCount() {
+        return mReuses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BufferPool{inUse=" + mBytesInUse + ", idle=" + mBytesIdle
+                + ", outstanding=" + mOutstanding.size() + ", allocations=" + mAllocations
+                + ", reuses=" + mReuses + "}";
+    }
+
+    private void track(Object object, long bytes) {
+        mOutstanding.put(object, new Lease(bytes,
+                mTrackLeaks ? new Throwable("acquired here") : null));
+    }
+
+    private Lease untrack(Object object) {
+        Lease lease = mOutstanding.remove(object);
+        if (lease == null) {
+            Log.w(TAG, "归还了不属于池或已归还的对象", new Throwable());
+        }
+        return lease;
+    }
+
+    private BitmapClass findBitmapClass(int width, int height, Bitmap.Config config) {
+        for (int i = 0; i < mIdleBitmaps.size(); i++) {
+            BitmapClass bitmapClass = mIdleBitmaps.get(i);
+            if (bitmapClass.width == width && bitmapClass.height == height
+                    && bitmapClass.config == config) {
+                return bitmapClass;
+            }
+        }
+        return null;
+    }
+
+    static int sizeClass(int size) {
+        if (size <= MIN_BUFFER_CLASS) {
+            return MIN_BUFFER_CLASS;
+        }
+        int sizeClass = Integer.highestOneBit(size);
+        return sizeClass == size ? size : sizeClass << 1;
+    }
+
+    /** Idle bitmaps of one size and config. 同一尺寸和格式的空闲位图 */
+    private static class BitmapClass {
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+        final ArrayDeque<Bitmap> idle = new ArrayDeque<>();
+
+        BitmapClass(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+    }
+
+    private static class Lease {
+        final long bytes;
+        final Throwable acquiredAt;
+        final long acquiredMillis = SystemClock.uptimeMillis();
+
+        Lease(long bytes, Throwable acquiredAt) {
+            this.bytes = bytes;
+            this.acquiredAt = acquiredAt;
+        }
+    }
+}
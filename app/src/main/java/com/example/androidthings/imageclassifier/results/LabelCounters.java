@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.results;
+
+import java.util.List;
+
+/**
+ * How often each label was the best result, per minute over the last hour and per hour over the
+ * last two days, indexed by the label's position in {@code labels.txt}. Recording is a pair of
+ * atomic increments without allocation, so it can run on the classification thread.
+ * 每个标签作为最佳结果出现的频率：最近一小时内每分钟，以及最近两天内每小时，按标签在labels.txt中的位置索引。
+ * 记录只是两次原子递增且不分配内存，因此可以在分类线程上运行。
+ */
+public class LabelCounters {
+
+    public static final int MINUTES = 60;
+    public static final int HOURS = 48;
+
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+
+    private final RollingCounters minutes;
+    private final RollingCounters hours;
+
+    /**
+     * @param stripes counter copies for concurrent writers. 供并发写入方使用的计数器副本数
+     */
+    public LabelCounters(int labels, int stripes) {
+        minutes = new RollingCounters(labels, MINUTES, MINUTE_MILLIS, stripes);
+        hours = new RollingCounters(labels, HOURS, HOUR_MILLIS, stripes);
+    }
+
+    public int getLabels() {
+        return minutes.getKeys();
+    }
+
+    public void record(int label, long nowMillis) {
+        minutes.increment(label, nowMillis);
+        hours.increment(label, nowMillis);
+    }
+
+    /**
+     * Counts the best result of an event if it is a model label.
+     * 如果事件的最佳结果是模型标签，则对其计数。
+     */
+    public void record(ResultEvent event, long nowMillis) {
+        if (event.getCount() > 0) {
+            record(event.getIndex(0), nowMillis);
+        }
+    }
+
+    /** Adds the counts of the last {@code count} minutes to {@code out}. 将最近count分钟的计数累加到out */
+    public void sumMinutes(long nowMillis, int count, long[] out) {
+        minutes.sum(nowMillis, count, out);
+    }
+
+    /** Adds the counts of the last {@code count} hours to {@code out}. 将最近count小时的计数累加到out */
+    public void sumHours(long nowMillis, int count, long[] out) {
+        hours.sum(nowMillis, count, out);
+    }
+
+    /** Per-minute counts of one label, oldest first. 一个标签每分钟的计数，最早的在前 */
+    public void minuteSeries(int label, long nowMillis, long[] out) {
+        minutes.series(label, nowMillis, out);
+    }
+
+    /** Per-hour counts of one label, oldest first. 一个标签每小时的计数，最早的在前 */
+    public void hourSeries(int label, long nowMillis, long[] out) {
+        hours.series(label, nowMillis, out);
+    }
+
+    /**
+     * Exports the labels seen in the last two days with their counts for the current minute,
+     * the last hour and the last day, as a JSON array sorted by label index.
+     * 将最近两天出现过的标签及其在当前分钟、最近一小时和最近一天的计数导出为按标签下标排序的JSON数组。
+     */
+    public String toJson(List<String> labels, long nowMillis) {
+        int count = getLabels();
+        long[] minute = new long[count];
+        long[] hour = new long[count];
+        long[] day = new long[count];
+        long[] all = new long[count];
+        minutes.sum(nowMillis, 1, minute);
+        minutes.sum(nowMillis, MINUTES, hour);
+        hours.sum(nowMillis, 24, day);
+        hours.sum(nowMillis, HOURS, all);
+        StringBuilder sb = new StringBuilder("[");
+        for (int label = 0; label < count; label++) {
+            if (all[label] == 0) {
+                continue;
+            }
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append("{\"index\":").append(label)
+                    .append(",\"label\":\"").append(escape(label < labels.size()
+                            ? labels.get(label) : "")).append('"')
+                    .append(",\"minute\":").append(minute[label])
+                    .append(",\"hour\":").append(hour[label])
+                    .append(",\"day\":").append(day[label])
+                    .append(",\"two_days\":").append(all[label]).append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
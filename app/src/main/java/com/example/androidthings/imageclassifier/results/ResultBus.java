@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.results;
+
+import com.example.androidthings.imageclassifier.classifier.Recognition;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Fans the results of every frame out to independent subscribers (UI, speech, logging...)
+ * through a single-producer ring of preallocated {@link ResultEvent} slots. Every subscriber has
+ * its own cursor and drains the ring on its own executor. The producer never waits: a subscriber
+ * that falls more than the ring capacity behind skips the overwritten events and counts them as
+ * dropped.
+ * 通过单生产者、预分配ResultEvent槽位的环形缓冲区，将每帧的结果分发给相互独立的订阅者（界面、语音、日志……）。
+ * 每个订阅者有自己的游标，并在自己的executor上读取。生产者从不等待：落后超过环容量的订阅者会跳过被覆盖的事件，
+ * 并将其计为丢弃。
+ *
+ * <p>Slots are written under a {@link StampedLock} write lock and read with optimistic reads
+ * only, so the writer never contends with readers; a reader whose slot was overwritten while it
+ * copied it retries from the oldest event still in the ring.
+ * 槽位在StampedLock写锁下写入，读取只使用乐观读，因此写入方不会与读取方竞争；复制过程中槽位被覆盖的读取方
+ * 从环中仍存在的最早事件重新开始。
+ */
+public class ResultBus {
+
+    /**
+     * Receives the events of one subscriber, one at a time, on its executor.
+     * 在订阅者的executor上逐个接收其事件。
+     */
+    public interface Listener {
+        void onResult(ResultEvent event);
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final int maxResults;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    /** Sequence of the last published event, -1 before the first. 最后发布的事件序号，首次发布前为-1 */
+    private volatile long published = -1;
+
+    /**
+     * @param capacity   events kept for slow subscribers, rounded up to a power of two
+     *                   为慢速订阅者保留的事件数，向上取整为2的幂
+     * @param maxResults results kept per event. 每个事件保留的结果数
+     */
+    public ResultBus(int capacity, int maxResults) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(maxResults);
+        }
+        mask = size - 1;
+        this.maxResults = maxResults;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Publishes the results of a frame and schedules every subscriber that is not already
+     * draining. Must always be called from the same thread.
+     * 发布一帧的结果，并调度尚未在读取的订阅者。必须始终从同一线程调用。
+     */
+    public void publish(long frameId, long captureTimeMillis, long publishTimeMillis,
+                        Collection<Recognition> results) {
+        long sequence = published + 1;
+        Slot slot = slots[(int) (sequence & mask)];
+        long stamp = slot.lock.writeLock();
+        try {
+            slot.event.set(sequence, frameId, captureTimeMillis, publishTimeMillis, results);
+        } finally {
+            slot.lock.unlockWrite(stamp);
+        }
+        published = sequence;
+        for (Subscriber subscriber : subscribers) {
+            subscriber.schedule();
+        }
+    }
+
+    /** Sequence of the last published event, -1 before the first. 最后发布的事件序号 */
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     * Adds a subscriber that starts with the next published event.
+     * 添加一个从下一个发布的事件开始接收的订阅者。
+     *
+     * @param executor runs the subscriber's drain loop; must not run it on the publishing
+     *                 thread unless the listener is cheap. 运行订阅者的读取循环；除非监听器开销很小，
+     *                 否则不应在发布线程上运行
+     */
+    public Subscriber subscribe(String name, Listener listener, Executor executor) {
+        Subscriber subscriber = new Subscriber(name, listener, executor, published + 1);
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    public List<Subscriber> getSubscribers() {
+        return subscribers;
+    }
+
+    /**
+     * Copies the event at {@code sequence} into {@code into}.
+     * 将序号为sequence的事件复制到into。
+     *
+     * @return false if the slot no longer holds that event. 槽位已不是该事件时返回false
+     */
+    private boolean read(long sequence, ResultEvent into) {
+        Slot slot = slots[(int) (sequence & mask)];
+        long stamp = slot.lock.tryOptimisticRead();
+        if (stamp == 0) {
+            return false;
+        }
+        into.copyFrom(slot.event);
+        return slot.lock.validate(stamp) && into.getSequence() == sequence;
+    }
+
+    private static class Slot {
+        final StampedLock lock = new StampedLock();
+        final ResultEvent event;
+
+        Slot(int maxResults) {
+            event = new ResultEvent(maxResults);
+        }
+    }
+
+    /**
+     * One consumer of the bus with its own cursor and lag statistics.
+     * 总线的一个消费者，有自己的游标和延迟统计。
+     */
+    public class Subscriber implements Runnable {
+        private final String name;
+        private final Listener listener;
+        private final Executor executor;
+        private final ResultEvent event = new ResultEvent(maxResults);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /** Next sequence to deliver; only touched by the drain loop. 下一个要交付的序号，只由读取循环修改 */
+        private volatile long cursor;
+        private volatile long delivered;
+        private volatile long dropped;
+        private volatile long maxLag;
+
+        Subscriber(String name, Listener listener, Executor executor, long cursor) {
+            this.name = name;
+            this.listener = listener;
+            this.executor = executor;
+            this.cursor = cursor;
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // executor已关闭：事件留在环中，不再交付
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        /**
+         * Delivers every event published so far. Only one drain runs at a time: the flag stays
+         * set while draining and is rechecked after it is cleared.
+         * 交付目前为止发布的所有事件。同一时间只有一个读取循环：读取期间标志保持设置，清除后再检查一次。
+         */
+        @Override
+        public void run() {
+            do {
+                drain();
+                scheduled.set(false);
+            } while (cursor <= published && scheduled.compareAndSet(false, true));
+        }
+
+        private void drain() {
+            long next = cursor;
+            while (next <= published) {
+                long lag = published - next + 1;
+                if (lag > maxLag) {
+                    maxLag = lag;
+                }
+                long oldest = published - slots.length + 1;
+                if (next < oldest || !read(next, event)) {
+                    // 已被覆盖：跳到环中仍存在的最早事件
+                    long skipTo = Math.max(next + 1, published - slots.length + 1);
+                    dropped += skipTo - next;
+                    next = skipTo;
+                    cursor = next;
+                    continue;
+                }
+                next++;
+                cursor = next;
+                delivered++;
+                listener.onResult(event);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** Events published but not yet delivered. 已发布但尚未交付的事件数 */
+        public long getLag() {
+            return Math.max(0, published - cursor + 1);
+        }
+
+        public long getMaxLag() {
+            return maxLag;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /** Events overwritten before this subscriber read them. 在本订阅者读取前被覆盖的事件数 */
+        public long getDropped() {
+            return dropped;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{lag=" + getLag() + ", maxLag=" + maxLag + ", delivered=" + delivered
+                    + ", dropped=" + dropped + "}";
+        }
+    }
+}
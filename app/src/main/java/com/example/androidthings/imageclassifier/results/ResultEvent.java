@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.results;
+
+import com.example.androidthings.imageclassifier.classifier.Recognition;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The results of one frame in a preallocated, reusable form: the best label indices, their
+ * quantized scores and titles. Events handed to a {@link ResultBus.Listener} belong to the
+ * subscriber and are overwritten by its next event, so they must be copied to be kept.
+ * 一帧的结果，以预分配、可复用的形式保存：最佳标签下标、量化分数和名称。交给Listener的事件属于订阅者，
+ * 会被下一个事件覆盖，需要保留时必须复制。
+ */
+public class ResultEvent {
+
+    private final int[] indices;
+    private final int[] scores;
+    private final String[] titles;
+    private int count;
+    private long sequence;
+    private long frameId;
+    private long captureTimeMillis;
+    private long publishTimeMillis;
+
+    public ResultEvent(int maxResults) {
+        indices = new int[maxResults];
+        scores = new int[maxResults];
+        titles = new String[maxResults];
+    }
+
+    /**
+     * Fills the event from classifier results; results beyond the capacity are dropped.
+     * 用分类结果填充事件；超出容量的结果被丢弃。
+     */
+    void set(long sequence, long frameId, long captureTimeMillis, long publishTimeMillis,
+             Collection<Recognition> results) {
+        this.sequence = sequence;
+        this.frameId = frameId;
+        this.captureTimeMillis = captureTimeMillis;
+        this.publishTimeMillis = publishTimeMillis;
+        count = 0;
+        if (results == null) {
+            return;
+        }
+        for (Recognition r : results) {
+            if (count == indices.length) {
+                break;
+            }
+            indices[count] = parseIndex(r.getId());
+            scores[count] = Math.max(0, Math.min(255, Math.round(r.getConfidence() * 255)));
+            titles[count] = r.getTitle();
+            count++;
+        }
+    }
+
+    void copyFrom(ResultEvent other) {
+        sequence = other.sequence;
+        frameId = other.frameId;
+        captureTimeMillis = other.captureTimeMillis;
+        publishTimeMillis = other.publishTimeMillis;
+        count = Math.min(other.count, indices.length);
+        System.arraycopy(other.indices, 0, indices, 0, count);
+        System.arraycopy(other.scores, 0, scores, 0, count);
+        System.arraycopy(other.titles, 0, titles, 0, count);
+    }
+
+    /** Model output index of a label id, or -1 for categories and custom classes. 标签id对应的模型输出下标，类别和自定义类别为-1 */
+    private static int parseIndex(String id) {
+        if (id == null || id.isEmpty()) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    /** Position of the event in the bus. 事件在总线中的序号 */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getFrameId() {
+        return frameId;
+    }
+
+    public long getCaptureTimeMillis() {
+        return captureTimeMillis;
+    }
+
+    public long getPublishTimeMillis() {
+        return publishTimeMillis;
+    }
+
+    /** Number of results, best first. 结果数，最好的在前 */
+    public int getCount() {
+        return count;
+    }
+
+    public int getIndex(int i) {
+        return indices[i];
+    }
+
+    /** Quantized confidence in [0, 255]. 量化的置信度 */
+    public int getScore(int i) {
+        return scores[i];
+    }
+
+    public String getTitle(int i) {
+        return titles[i];
+    }
+
+    /**
+     * Recreates the results for consumers that take {@link Recognition}s. Allocates.
+     * 为使用Recognition的消费者重建结果。会分配内存。
+     */
+    public List<Recognition> toRecognitions() {
+        List<Recognition> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(new Recognition(indices[i] < 0 ? null : String.valueOf(indices[i]),
+                    titles[i], scores[i] / 255.0f));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.results;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Durable classification history: fixed-size records appended through a memory mapping to
+ * segment files of a fixed number of records. A full segment is closed and a new one started;
+ * the oldest segments are deleted once the log exceeds its size limit. Has no Android
+ * dependencies.
+ * 持久的分类历史：通过内存映射将定长记录追加到记录数固定的段文件中。段写满后关闭并开始新段；
+ * 日志超过大小上限时删除最早的段。不依赖Android。
+ *
+ * <p>Every segment header holds the record count, the first and last timestamps and a bitmap of
+ * the labels that occur in it, all updated in place on each append. Opening the log only reads
+ * the headers, a time-range lookup skips to the right segments and binary searches inside them,
+ * and finding when a label was last seen only scans the newest segment whose bitmap has it.
+ * Timestamps are kept non-decreasing for the binary search, so a clock set backwards shows up as
+ * repeated times.
+ * 每个段的文件头保存记录数、首末时间戳以及段中出现过的标签位图，每次追加时原地更新。打开日志只读取文件头；
+ * 按时间范围查找时直接跳到相应的段并在段内二分查找；查找某个标签最后出现的时间只扫描位图中含有该标签的最新段。
+ * 为了二分查找，时间戳保持不递减，因此时钟回拨表现为重复的时间。
+ */
+public class ResultLog {
+
+    private static final int MAGIC = 0x52534C47; // "RSLG"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".seg";
+
+    /** Results kept per record. 每条记录保存的结果数 */
+    public static final int TOP_K = 5;
+
+    // Record layout: timestamp, frame id, latency, count, TOP_K label indices as shorts and
+    // TOP_K scores as bytes.
+    // 记录布局：时间戳、帧号、延迟、结果数、TOP_K个short标签下标和TOP_K个byte分数。
+    private static final int RECORD_BYTES = 40;
+    private static final int R_TIMESTAMP = 0;
+    private static final int R_FRAME = 8;
+    private static final int R_LATENCY = 16;
+    private static final int R_COUNT = 20;
+    private static final int R_INDICES = 22;
+    private static final int R_SCORES = R_INDICES + 2 * TOP_K;
+
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_RECORD_BYTES = 8;
+    private static final int H_LABEL_WORDS = 12;
+    private static final int H_COUNT = 16;
+    private static final int H_FIRST = 24;
+    private static final int H_LAST = 32;
+    private static final int H_LABELS = 40;
+
+    /** Appends between two syncs of the active segment to storage. 两次将活动段同步到存储之间的追加次数 */
+    private static final int FORCE_INTERVAL = 64;
+
+    private final File dir;
+    private final int segmentRecords;
+    private final long maxBytes;
+    private final int labelWords;
+    private final int headerBytes;
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active;
+    private int unforced;
+
+    /**
+     * @param segmentRecords records per segment file. 每个段文件的记录数
+     * @param maxBytes       total size above which the oldest segments are deleted
+     *                       超过后删除最早段的总大小
+     * @param labelCount     number of model labels; larger indices are logged but not indexed
+     *                       模型标签数；更大的下标会被记录但不进入索引
+     */
+    public ResultLog(File dir, int segmentRecords, long maxBytes, int labelCount)
+            throws IOException {
+        this.dir = dir;
+        this.segmentRecords = Math.max(1, segmentRecords);
+        this.maxBytes = maxBytes;
+        this.labelWords = (Math.max(1, labelCount) + 63) / 64;
+        this.headerBytes = H_LABELS + 8 * labelWords;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        open();
+    }
+
+    private void open() throws IOException {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                Segment segment = readHeader(file);
+                if (segment != null) {
+                    segments.add(segment);
+                }
+            }
+        }
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last != null && last.count < last.capacity && last.labels.length == labelWords) {
+            last.map = map(last.file, FileChannel.MapMode.READ_WRITE);
+            active = last;
+        } else {
+            startSegment();
+        }
+    }
+
+    /** Reads only the header of a segment; returns null for foreign files. 只读取段的文件头；不是段文件时返回null */
+    private Segment readHeader(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(H_LABELS).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) < H_LABELS || header.getInt(H_MAGIC) != MAGIC
+                    || header.getInt(H_VERSION) != VERSION
+                    || header.getInt(H_RECORD_BYTES) != RECORD_BYTES) {
+                return null;
+            }
+            int words = header.getInt(H_LABEL_WORDS);
+            ByteBuffer bitmap = ByteBuffer.allocate(8 * words).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(bitmap, H_LABELS);
+            Segment segment = new Segment(file, H_LABELS + 8 * words,
+                    (int) ((channel.size() - H_LABELS - 8 * words) / RECORD_BYTES), words);
+            segment.count = header.getInt(H_COUNT);
+            segment.first = header.getLong(H_FIRST);
+            segment.last = header.getLong(H_LAST);
+            for (int i = 0; i < words; i++) {
+                segment.labels[i] = bitmap.getLong(8 * i);
+            }
+            return segment;
+        }
+    }
+
+    private void startSegment() throws IOException {
+        if (active != null) {
+            active.map.force();
+            active.map = null;
+        }
+        int number = 0;
+        if (!segments.isEmpty()) {
+            String name = segments.get(segments.size() - 1).file.getName();
+            number = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())) + 1;
+        }
+        File file = new File(dir, String.format(Locale.US, "%010d%s", number, SUFFIX));
+        long size = headerBytes + (long) segmentRecords * RECORD_BYTES;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+        }
+        Segment segment = new Segment(file, headerBytes, segmentRecords, labelWords);
+        segment.map = map(file, FileChannel.MapMode.READ_WRITE);
+        segment.map.putInt(H_MAGIC, MAGIC).putInt(H_VERSION, VERSION)
+                .putInt(H_RECORD_BYTES, RECORD_BYTES).putInt(H_LABEL_WORDS, labelWords)
+                .putInt(H_COUNT, 0);
+        segments.add(segment);
+        active = segment;
+        applyRetention();
+    }
+
+    /** Deletes the oldest closed segments while the log is over its limit. 日志超过上限时删除最早的已关闭段 */
+    private void applyRetention() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.file.length();
+        }
+        while (total > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.remove(0);
+            total -= oldest.file.length();
+            oldest.file.delete();
+        }
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file,
+                mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer map = channel.map(mode, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            return map;
+        }
+    }
+
+    /**
+     * Appends the results of one frame.
+     * 追加一帧的结果。
+     *
+     * @param timestampMillis wall-clock capture time. 拍摄时的挂钟时间
+     */
+    public synchronized void append(long timestampMillis, long frameId, int latencyMillis,
+                                    ResultEvent event) throws IOException {
+        if (active == null) {
+            throw new IOException("Result log is closed");
+        }
+        if (active.count == active.capacity) {
+            startSegment();
+        }
+        Segment segment = active;
+        MappedByteBuffer map = segment.map;
+        long timestamp = segment.count == 0 && segments.size() > 1
+                ? Math.max(timestampMillis, segments.get(segments.size() - 2).last)
+                : Math.max(timestampMillis, segment.last);
+        int count = Math.min(TOP_K, event.getCount());
+        int offset = segment.offset(segment.count);
+        map.putLong(offset + R_TIMESTAMP, timestamp);
+        map.putLong(offset + R_FRAME, frameId);
+        map.putInt(offset + R_LATENCY, latencyMillis);
+        map.put(offset + R_COUNT, (byte) count);
+        for (int i = 0; i < TOP_K; i++) {
+            int index = i < count ? event.getIndex(i) : -1;
+            map.putShort(offset + R_INDICES + 2 * i, (short) index);
+            map.put(offset + R_SCORES + i, (byte) (i < count ? event.getScore(i) : 0));
+            if (index >= 0 && index < 64 * labelWords) {
+                long word = segment.labels[index >> 6] | (1L << (index & 63));
+                segment.labels[index >> 6] = word;
+                map.putLong(H_LABELS + 8 * (index >> 6), word);
+            }
+        }
+        if (segment.count == 0) {
+            segment.first = timestamp;
+            map.putLong(H_FIRST, timestamp);
+        }
+        segment.last = timestamp;
+        map.putLong(H_LAST, timestamp);
+        // 记录写完后才更新记录数，中途崩溃只会丢失这一条
+        segment.count++;
+        map.putInt(H_COUNT, segment.count);
+        if (++unforced >= FORCE_INTERVAL) {
+            flush();
+        }
+    }
+
+    /** Syncs the active segment to storage. 将活动段同步到存储 */
+    public synchronized void flush() {
+        if (active != null && active.map != null) {
+            active.map.force();
+        }
+        unforced = 0;
+    }
+
+    /**
+     * Returns up to {@code limit} records in [{@code fromMillis}, {@code toMillis}], oldest first,
+     * optionally only those containing {@code label}.
+     * 返回[fromMillis, toMillis]之间最多limit条记录，最早的在前；可以只返回含有label的记录。
+     *
+     * @param label label index to match, or -1 for every record. 要匹配的标签下标，为-1时匹配所有记录
+     */
+    public synchronized List<ResultRecord> query(long fromMillis, long toMillis, int label,
+                                                 int limit) throws IOException {
+        List<ResultRecord> records = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (records.size() >= limit) {
+                break;
+            }
+            if (segment.count == 0 || segment.last < fromMillis || segment.first > toMillis
+                    || (label >= 0 && !segment.hasLabel(label))) {
+                continue;
+            }
+            ByteBuffer map = read(segment);
+            for (int r = firstAtOrAfter(segment, map, fromMillis);
+                 r < segment.count && records.size() < limit; r++) {
+                int offset = segment.offset(r);
+                if (map.getLong(offset + R_TIMESTAMP) > toMillis) {
+                    break;
+                }
+                if (label < 0 || contains(map, offset, label)) {
+                    records.add(record(map, offset));
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Finds the newest record containing {@code label}, scanning only the newest segment that
+     * has it.
+     * 查找含有label的最新记录，只扫描含有该标签的最新段。
+     *
+     * @return the record, or null if the label is not in the log. 找不到时返回null
+     */
+    public synchronized ResultRecord lastSeen(int label) throws IOException {
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            Segment segment = segments.get(s);
+            if (!segment.hasLabel(label)) {
+                continue;
+            }
+            ByteBuffer map = read(segment);
+            for (int r = segment.count - 1; r >= 0; r--) {
+                if (contains(map, segment.offset(r), label)) {
+                    return record(map, segment.offset(r));
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Records in the log. 日志中的记录数 */
+    public synchronized long size() {
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.count;
+        }
+        return count;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized void close() {
+        flush();
+        if (active != null) {
+            active.map = null;
+            active = null;
+        }
+    }
+
+    private static ByteBuffer read(Segment segment) throws IOException {
+        return segment.map != null ? segment.map
+                : map(segment.file, FileChannel.MapMode.READ_ONLY);
+    }
+
+    private static int firstAtOrAfter(Segment segment, ByteBuffer map, long timestamp) {
+        int low = 0;
+        int high = segment.count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (map.getLong(segment.offset(mid) + R_TIMESTAMP) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static boolean contains(ByteBuffer map, int offset, int label) {
+        int count = map.get(offset + R_COUNT);
+        for (int i = 0; i < count; i++) {
+            if (map.getShort(offset + R_INDICES + 2 * i) == label) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ResultRecord record(ByteBuffer map, int offset) {
+        int count = map.get(offset + R_COUNT);
+        int[] indices = new int[count];
+        int[] scores = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = map.getShort(offset + R_INDICES + 2 * i);
+            scores[i] = map.get(offset + R_SCORES + i) & 0xFF;
+        }
+        return new ResultRecord(map.getLong(offset + R_TIMESTAMP),
+                map.getLong(offset + R_FRAME), map.getInt(offset + R_LATENCY), indices, scores);
+    }
+
+    private static class Segment {
+        final File file;
+        final int headerBytes;
+        final int capacity;
+        final long[] labels;
+        int count;
+        long first;
+        long last;
+        /** Writable mapping of the active segment, null once closed. 活动段的可写映射，关闭后为null */
+        MappedByteBuffer map;
+
+        Segment(File file, int headerBytes, int capacity, int labelWords) {
+            this.file = file;
+            this.headerBytes = headerBytes;
+            this.capacity = capacity;
+            this.labels = new long[labelWords];
+        }
+
+        int offset(int record) {
+            return headerBytes + record * RECORD_BYTES;
+        }
+
+        boolean hasLabel(int label) {
+            return label >= 0 && label < 64 * labels.length
+                    && (labels[label >> 6] & (1L << (label & 63))) != 0;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.results;
+
+import java.util.Arrays;
+
+/**
+ * One entry of the {@link ResultLog}, as read back from a segment.
+ * 从段文件中读回的ResultLog条目。
+ */
+public class ResultRecord {
+
+    private final long timestampMillis;
+    private final long frameId;
+    private final int latencyMillis;
+    private final int[] indices;
+    private final int[] scores;
+
+    public ResultRecord(long timestampMillis, long frameId, int latencyMillis, int[] indices,
+                        int[] scores) {
+        this.timestampMillis = timestampMillis;
+        this.frameId = frameId;
+        this.latencyMillis = latencyMillis;
+        this.indices = indices;
+        this.scores = scores;
+    }
+
+    /** Wall-clock capture time. 拍摄时的挂钟时间 */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public long getFrameId() {
+        return frameId;
+    }
+
+    /** Capture to result latency. 从拍摄到结果的延迟 */
+    public int getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /** Number of results, best first. 结果数，最好的在前 */
+    public int getCount() {
+        return indices.length;
+    }
+
+    /** Label index, or -1 for results that are not model labels. 标签下标，不是模型标签的结果为-1 */
+    public int getIndex(int i) {
+        return indices[i];
+    }
+
+    /** Quantized confidence in [0, 255]. 量化的置信度 */
+    public int getScore(int i) {
+        return scores[i];
+    }
+
+    @Override
+    public String toString() {
+        return "ResultRecord{time=" + timestampMillis + ", frame=" + frameId + ", latency="
+                + latencyMillis + "ms, indices=" + Arrays.toString(indices) + ", scores="
+                + Arrays.toString(scores) + "}";
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.results;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-key event counts in a ring of fixed-length time buckets, e.g. 60 one-minute buckets for
+ * the last hour. Counters live in one flat atomic array per stripe, and writers pick a stripe by
+ * thread, so concurrent writers rarely touch the same cache line. Incrementing does not
+ * allocate, lock or wait.
+ * 固定时长时间桶组成的环中每个键的事件计数，例如最近一小时的60个一分钟桶。计数器位于每个分条一个的扁平原子数组中，
+ * 写入方按线程选择分条，因此并发写入很少触及同一缓存行。递增既不分配内存，也不加锁或等待。
+ *
+ * <p>Each counter holds its period in the high 32 bits and its count in the low 32 bits, and is
+ * moved to a new period by the same compare-and-set that counts the first event of that period.
+ * A write therefore either lands in the period it was made for or, if the counter already holds
+ * a later period, is dropped; there is no separate clearing pass for writers to race with.
+ * Memory is {@code 8 * keys * buckets * stripes} bytes.
+ * 每个计数器的高32位保存其时段，低32位保存计数；记录新时段第一次事件的同一次compare-and-set将其切换到新时段。
+ * 因此写入要么落在它所属的时段，要么在计数器已对应更晚的时段时被丢弃；不存在与写入方竞争的单独清零过程。
+ * 内存为8 * keys * buckets * stripes字节。
+ */
+public class RollingCounters {
+
+    /** Period of a counter that was never written. 从未写入的计数器的时段 */
+    private static final int UNUSED = Integer.MIN_VALUE;
+
+    private final int keys;
+    private final int buckets;
+    private final long bucketMillis;
+    private final int stripeMask;
+    /** counts[stripe][bucket * keys + key]: period << 32 | count */
+    private final AtomicLongArray[] counts;
+
+    /**
+     * @param stripes rounded up to a power of two. 向上取整为2的幂
+     */
+    public RollingCounters(int keys, int buckets, long bucketMillis, int stripes) {
+        this.keys = keys;
+        this.buckets = buckets;
+        this.bucketMillis = bucketMillis;
+        int stripeCount = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripeMask = stripeCount - 1;
+        this.counts = new AtomicLongArray[stripeCount];
+        long unused = pack(UNUSED, 0);
+        for (int i = 0; i < stripeCount; i++) {
+            counts[i] = new AtomicLongArray(keys * buckets);
+            for (int j = 0; j < keys * buckets; j++) {
+                counts[i].set(j, unused);
+            }
+        }
+    }
+
+    public int getKeys() {
+        return keys;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * Counts one event of {@code key} at {@code nowMillis}. Events older than the period the
+     * counter already holds are dropped.
+     * 记录key在nowMillis的一次事件。早于计数器当前时段的事件会被丢弃。
+     */
+    public void increment(int key, long nowMillis) {
+        if (key < 0 || key >= keys) {
+            return;
+        }
+        long period = nowMillis / bucketMillis;
+        int tag = (int) period;
+        int index = (int) (period % buckets) * keys + key;
+        AtomicLongArray stripe = counts[(int) Thread.currentThread().getId() & stripeMask];
+        while (true) {
+            long value = stripe.get(index);
+            int current = periodOf(value);
+            long next;
+            if (current == tag) {
+                next = value + 1;
+            } else if (current == UNUSED || tag - current > 0) {
+                // 计数器还停留在更早的时段：在同一次CAS中切换到本时段
+                next = pack(tag, 1);
+            } else {
+                return;
+            }
+            if (stripe.compareAndSet(index, value, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of the newest {@code window} buckets, up to {@code nowMillis}, to
+     * {@code out}, one entry per key. Does not allocate.
+     * 将截至nowMillis最近window个桶的计数按键累加到out。不分配内存。
+     */
+    public void sum(long nowMillis, int window, long[] out) {
+        long newest = nowMillis / bucketMillis;
+        window = Math.min(window, buckets);
+        for (int w = 0; w < window; w++) {
+            long period = newest - w;
+            if (period < 0) {
+                break;
+            }
+            int tag = (int) period;
+            int offset = (int) (period % buckets) * keys;
+            for (AtomicLongArray stripe : counts) {
+                for (int key = 0; key < keys; key++) {
+                    long value = stripe.get(offset + key);
+                    if (periodOf(value) == tag) {
+                        out[key] += countOf(value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the count of {@code key} in each of the buckets up to {@code nowMillis} into
+     * {@code out}, oldest first; buckets without data count as zero.
+     * 将key在截至nowMillis的每个桶中的计数写入out，最早的在前；没有数据的桶计为0。
+     */
+    public void series(int key, long nowMillis, long[] out) {
+        long newest = nowMillis / bucketMillis;
+        int length = Math.min(out.length, buckets);
+        for (int i = 0; i < length; i++) {
+            long period = newest - length + 1 + i;
+            long count = 0;
+            if (period >= 0) {
+                int tag = (int) period;
+                int index = (int) (period % buckets) * keys + key;
+                for (AtomicLongArray stripe : counts) {
+                    long value = stripe.get(index);
+                    if (periodOf(value) == tag) {
+                        count += countOf(value);
+                    }
+                }
+            }
+            out[i] = count;
+        }
+    }
+
+    private static long pack(int period, int count) {
+        return (long) period << 32 | (count & 0xFFFFFFFFL);
+    }
+
+    private static int periodOf(long value) {
+        return (int) (value >>> 32);
+    }
+
+    private static long countOf(long value) {
+        return value & 0xFFFFFFFFL;
+    }
+}
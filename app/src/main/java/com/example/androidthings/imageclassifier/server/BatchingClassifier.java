@@ -0,0 +1,295 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.server;
+
+import com.example.androidthings.imageclassifier.classifier.Recognition;
+import com.example.androidthings.imageclassifier.pool.BufferPool;
+import com.example.androidthings.imageclassifier.trace.TraceRecorder;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Classifies images submitted from many threads by running the requests that arrive within a
+ * short window as one batch of the interpreter. Callers pack their image into a pooled input
+ * with the model's layout and block until their row of the batch output is ready; a single
+ * batch thread owns the interpreter.
+ * 将多个线程提交的图像在短时间窗口内到达的请求合并为解释器的一个批次进行分类。调用方将图像按模型布局打包进池化的输入，
+ * 然后阻塞直到批次输出中自己的那一行就绪；只有一个批次线程使用解释器。
+ *
+ * <p>As in {@link com.example.androidthings.imageclassifier.classifier.TiledClassifier}, the
+ * input is resized once to {@code maxBatch} and a short batch is padded: resizing reallocates the
+ * tensors on the next run, which costs more than the unused rows. Padding rows keep the pixels of
+ * an earlier batch and their output is ignored.
+ * 与TiledClassifier一样，输入只调整一次为maxBatch，不足的批次补齐：调整大小会在下一次运行时重新分配张量，
+ * 开销比多余的行更大。补齐的行保留之前批次的像素，其输出被忽略。
+ */
+public class BatchingClassifier implements Closeable {
+
+    private static final int DIM_PIXEL_SIZE = 3;
+
+    private final Interpreter tfLite;
+    private final List<String> labels;
+    private final int inputWidth;
+    private final int inputHeight;
+    private final int inputBytes;
+    private final int maxBatch;
+    private final long windowNanos;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Pending[] batch;
+    private final ByteBuffer batchData;
+    private final byte[][] output;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    private volatile long batches;
+    private volatile long batchedRequests;
+    private volatile long lastInferenceNanos;
+
+    /**
+     * @param interpreter  a dedicated interpreter; its input is resized to {@code maxBatch}
+     *                     专用的解释器，其输入会被调整为maxBatch
+     * @param windowMicros how long the first request of a batch waits for others
+     *                     批次中第一个请求等待其他请求的时间
+     */
+    public BatchingClassifier(Interpreter interpreter, List<String> labels, int inputWidth,
+                              int inputHeight, int maxBatch, long windowMicros) {
+        this.tfLite = interpreter;
+        this.labels = labels;
+        this.inputWidth = inputWidth;
+        this.inputHeight = inputHeight;
+        this.inputBytes = inputWidth * inputHeight * DIM_PIXEL_SIZE;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.windowNanos = windowMicros * 1000L;
+        batch = new Pending[this.maxBatch];
+        batchData = BufferPool.getDefault().acquireBuffer(inputBytes * this.maxBatch);
+        output = new byte[this.maxBatch][labels.size()];
+        tfLite.resizeInput(0, new int[] {this.maxBatch, inputHeight, inputWidth, DIM_PIXEL_SIZE});
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                batchLoop();
+            }
+        }, "inference-batch");
+        thread.start();
+    }
+
+    public int getInputWidth() {
+        return inputWidth;
+    }
+
+    public int getInputHeight() {
+        return inputHeight;
+    }
+
+    /**
+     * A pooled buffer for one image, {@code width x height} RGB bytes. Hand it to
+     * {@link #classify(ByteBuffer, int, long)}, which releases it.
+     * 一张图像的池化缓冲区，width x height个RGB字节。交给classify后由其释放。
+     */
+    public ByteBuffer acquireInput() {
+        return BufferPool.getDefault().acquireBuffer(inputBytes);
+    }
+
+    /**
+     * Queues a packed image and waits for its best {@code maxResults} labels. Takes ownership of
+     * {@code input} even when it fails.
+     * 将打包好的图像排队，并等待其最好的maxResults个标签。即使失败也会接管input。
+     *
+     * @throws TimeoutException if the batch did not run in time. 批次未能及时运行时抛出
+     */
+    public List<Recognition> classify(ByteBuffer input, int maxResults, long timeoutMillis)
+            throws InterruptedException, TimeoutException {
+        Pending pending = new Pending(input, Math.max(1, Math.min(maxResults, labels.size())));
+        if (closed) {
+            BufferPool.getDefault().release(input);
+            throw new IllegalStateException("Classifier is closed");
+        }
+        queue.add(pending);
+        if (closed && queue.remove(pending)) {
+            // close()在检查之后开始，批次线程可能已经退出，不会再处理这个请求
+            BufferPool.getDefault().release(input);
+            throw new IllegalStateException("Classifier is closed");
+        }
+        if (!pending.done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("No result within " + timeoutMillis + "ms");
+        }
+        if (pending.error != null) {
+            throw new IllegalStateException("Inference failed", pending.error);
+        }
+        return pending.results;
+    }
+
+    private void batchLoop() {
+        while (!closed) {
+            int n = 0;
+            try {
+                Pending first = queue.take();
+                batch[n++] = first;
+                // 从第一个请求开始计时，窗口内到达的请求加入同一批次
+                long deadline = System.nanoTime() + windowNanos;
+                while (n < maxBatch) {
+                    long wait = deadline - System.nanoTime();
+                    Pending next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch[n++] = next;
+                }
+                runBatch(n);
+            } catch (InterruptedException e) {
+                // 关闭时中断，还未运行的请求在下面失败
+                fail(n, new IllegalStateException("Classifier is closed"));
+                break;
+            } catch (RuntimeException e) {
+                fail(n, e);
+            }
+        }
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            BufferPool.getDefault().release(pending.input);
+            pending.error = new IllegalStateException("Classifier is closed");
+            pending.done.countDown();
+        }
+    }
+
+    private void runBatch(int n) {
+        for (int i = 0; i < n; i++) {
+            ByteBuffer input = batch[i].input;
+            input.limit(inputBytes).position(0);
+            batchData.position(i * inputBytes);
+            batchData.put(input);
+            BufferPool.getDefault().release(input);
+            batch[i].input = null;
+        }
+        long start = System.nanoTime();
+        // 总是运行完整的批次，n之后的行是补齐
+        batchData.limit(maxBatch * inputBytes).position(0);
+        TraceRecorder.getDefault().begin("interpreter");
+        try {
+            tfLite.run(batchData, output);
+        } finally {
+            TraceRecorder.getDefault().end("interpreter");
+        }
+        batchData.clear();
+        lastInferenceNanos = System.nanoTime() - start;
+        batches++;
+        batchedRequests += n;
+
+        for (int i = 0; i < n; i++) {
+            Pending pending = batch[i];
+            batch[i] = null;
+            pending.results = bestResults(output[i], pending.maxResults);
+            pending.done.countDown();
+        }
+    }
+
+    private void fail(int n, RuntimeException error) {
+        for (int i = 0; i < n; i++) {
+            Pending pending = batch[i];
+            batch[i] = null;
+            if (pending.input != null) {
+                BufferPool.getDefault().release(pending.input);
+                pending.input = null;
+            }
+            pending.error = error;
+            pending.done.countDown();
+        }
+    }
+
+    /** Best {@code count} labels of one output row, best first. 一行输出中最好的count个标签，最好的在前 */
+    private List<Recognition> bestResults(byte[] scores, int count) {
+        int[] best = new int[count];
+        int found = 0;
+        for (int label = 0; label < scores.length; label++) {
+            int score = scores[label] & 0xFF;
+            if (found == count && score <= (scores[best[found - 1]] & 0xFF)) {
+                continue;
+            }
+            int i = found < count ? found++ : count - 1;
+            while (i > 0 && (scores[best[i - 1]] & 0xFF) < score) {
+                best[i] = best[i - 1];
+                i--;
+            }
+            best[i] = label;
+        }
+        List<Recognition> results = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            results.add(new Recognition(String.valueOf(best[i]), labels.get(best[i]),
+                    (scores[best[i]] & 0xFF) / 255.0f));
+        }
+        return results;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    /** Requests per interpreter run so far. 目前为止每次解释器运行的平均请求数 */
+    public double getMeanBatchSize() {
+        long count = batches;
+        return count == 0 ? 0 : (double) batchedRequests / count;
+    }
+
+    public long getLastInferenceMillis() {
+        return lastInferenceNanos / 1000000;
+    }
+
+    /** Requests waiting for a batch. 等待进入批次的请求数 */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Fails queued requests, stops the batch thread and closes the interpreter.
+     * 使排队的请求失败，停止批次线程并关闭解释器。
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        tfLite.close();
+        BufferPool.getDefault().release(batchData);
+    }
+
+    private static class Pending {
+        final CountDownLatch done = new CountDownLatch(1);
+        final int maxResults;
+        ByteBuffer input;
+        List<Recognition> results;
+        RuntimeException error;
+
+        Pending(ByteBuffer input, int maxResults) {
+            this.input = input;
+            this.maxResults = maxResults;
+        }
+    }
+}
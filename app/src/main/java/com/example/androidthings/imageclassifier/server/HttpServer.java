@@ -0,0 +1,564 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server for local tools: keep-alive connections, bodies with a
+ * {@code Content-Length} (no chunked encoding), and exact-path routes. Every connection is served
+ * by its own thread up to a connection limit; further connections get a 503. Has no Android
+ * dependencies. Binds to loopback by default; use {@code adb forward} to reach it from a host.
+ * 供本地工具使用的最小HTTP/1.1服务器：保持连接，请求体需带Content-Length（不支持分块编码），按路径精确路由。
+ * 每个连接由独立线程服务，超过连接上限时返回503。不依赖Android。默认只绑定回环地址，从主机访问请使用adb forward。
+ */
+public class HttpServer implements Closeable {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_LINE = 8192;
+    private static final int MAX_HEADERS = 64;
+    private static final int IDLE_TIMEOUT_MILLIS = 30000;
+    /** Backoff after a failed accept, doubled up to the maximum. 接受失败后的退避时间，加倍直到最大值 */
+    private static final long ACCEPT_BACKOFF_MILLIS = 10;
+    private static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+
+    /**
+     * Serves the requests of one path. Called concurrently from connection threads.
+     * 服务一个路径的请求。会从多个连接线程并发调用。
+     */
+    public interface Handler {
+        /**
+         * @throws IllegalArgumentException answered with 400. 以400应答
+         */
+        Response handle(Request request) throws Exception;
+    }
+
+    private final InetAddress address;
+    private final int requestedPort;
+    private final int maxConnections;
+    private final int maxBodyBytes;
+    private final Map<String, Handler> routes = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Set<Connection> open =
+            Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+    private ExecutorService executor;
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    private volatile boolean closed;
+
+    /**
+     * @param address      null for loopback. 为null时绑定回环地址
+     * @param port         0 for an ephemeral port. 为0时使用临时端口
+     * @param maxBodyBytes larger bodies are answered with 413. 更大的请求体以413应答
+     */
+    public HttpServer(InetAddress address, int port, int maxConnections, int maxBodyBytes) {
+        this.address = address == null ? InetAddress.getLoopbackAddress() : address;
+        this.requestedPort = port;
+        this.maxConnections = maxConnections;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /** Serves {@code path}, e.g. "/classify", with {@code handler}. 用handler服务path */
+    public HttpServer route(String path, Handler handler) {
+        routes.put(path, handler);
+        return this;
+    }
+
+    /**
+     * Binds the socket and starts accepting connections.
+     * 绑定端口并开始接受连接。
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Already started");
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(address, requestedPort));
+        executor = Executors.newCachedThreadPool();
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "http-" + getPort());
+        acceptThread.start();
+    }
+
+    /** Port the server is listening on. 服务器监听的端口 */
+    public int getPort() {
+        return serverSocket == null ? requestedPort : serverSocket.getLocalPort();
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    private void acceptLoop() {
+        long backoff = 0;
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+                backoff = 0;
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                // 持续失败（例如文件描述符耗尽）时退避，避免空转
+                backoff = Math.min(MAX_ACCEPT_BACKOFF_MILLIS,
+                        backoff == 0 ? ACCEPT_BACKOFF_MILLIS : backoff * 2);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            if (connections.incrementAndGet() > maxConnections) {
+                connections.decrementAndGet();
+                rejectBusy(socket);
+                continue;
+            }
+            final Connection connection = new Connection(socket);
+            open.add(connection);
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(connection);
+                        } finally {
+                            open.remove(connection);
+                            connections.decrementAndGet();
+                            closeQuietly(socket);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 正在关闭
+                open.remove(connection);
+                connections.decrementAndGet();
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private static void rejectBusy(Socket socket) {
+        try {
+            OutputStream out = socket.getOutputStream();
+            writeResponse(out, Response.text(503, "Too many connections\n"), true, false);
+            out.flush();
+        } catch (IOException e) {
+            // 客户端已断开
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Serves the requests of one connection until the client closes it, asks to close it, or
+     * stays idle too long.
+     * 服务一个连接的请求，直到客户端关闭、要求关闭或空闲过久。
+     */
+    private void serve(Connection connection) {
+        Socket socket = connection.socket;
+        try {
+            socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (true) {
+                // 先标记为空闲再检查closed，与close()的顺序相反，因此空闲连接要么被close()关闭，要么在这里退出
+                connection.busy = false;
+                if (closed) {
+                    return;
+                }
+                Response response;
+                boolean close;
+                boolean keepAlive = false;
+                try {
+                    String requestLine = readLine(in);
+                    if (requestLine == null) {
+                        return;
+                    }
+                    connection.busy = true;
+                    if (requestLine.isEmpty()) {
+                        // 请求之间允许多余的空行
+                        continue;
+                    }
+                    Request request = readRequest(requestLine, in, out);
+                    close = request.wantsClose();
+                    // HTTP/1.0默认关闭连接，保持连接时必须在应答中确认
+                    keepAlive = !close && request.isHttp10();
+                    response = dispatch(request);
+                } catch (HttpException e) {
+                    response = Response.text(e.status, e.getMessage() + "\n");
+                    close = true;
+                }
+                writeResponse(out, response, close, keepAlive);
+                out.flush();
+                if (close) {
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException | SocketException | EOFException e) {
+            // 空闲超时或客户端断开
+        } catch (IOException e) {
+            // 连接出错时直接关闭
+        }
+    }
+
+    private Request readRequest(String requestLine, DataInputStream in, OutputStream out)
+            throws IOException, HttpException {
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+            throw new HttpException(400, "Malformed request line");
+        }
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0 || headers.size() >= MAX_HEADERS) {
+                throw new HttpException(400, "Malformed header");
+            }
+            headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                    line.substring(colon + 1).trim());
+        }
+        if (line == null) {
+            throw new EOFException();
+        }
+        if (headers.containsKey("transfer-encoding")) {
+            throw new HttpException(501, "Transfer-Encoding is not supported");
+        }
+        int length = 0;
+        String contentLength = headers.get("content-length");
+        if (contentLength != null) {
+            try {
+                length = Integer.parseInt(contentLength);
+            } catch (NumberFormatException e) {
+                throw new HttpException(400, "Bad Content-Length");
+            }
+            if (length < 0) {
+                throw new HttpException(400, "Bad Content-Length");
+            }
+            if (length > maxBodyBytes) {
+                throw new HttpException(413, "Body larger than " + maxBodyBytes + " bytes");
+            }
+        }
+        if (length > 0 && "100-continue".equalsIgnoreCase(headers.get("expect"))) {
+            out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(ASCII));
+            out.flush();
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+
+        String target = parts[1];
+        int question = target.indexOf('?');
+        String path = question < 0 ? target : target.substring(0, question);
+        Map<String, String> query = parseQuery(question < 0 ? null : target.substring(question + 1));
+        return new Request(parts[0], path, query, headers, body, parts[2]);
+    }
+
+    private Response dispatch(Request request) {
+        requests.incrementAndGet();
+        Handler handler = routes.get(request.getPath());
+        if (handler == null) {
+            return Response.text(404, "No route for " + request.getPath() + "\n");
+        }
+        try {
+            Response response = handler.handle(request);
+            return response == null ? Response.text(204, "") : response;
+        } catch (IllegalArgumentException e) {
+            return Response.text(400, e.getMessage() + "\n");
+        } catch (Exception e) {
+            return Response.text(500, e + "\n");
+        }
+    }
+
+    private static void writeResponse(OutputStream out, Response response, boolean close,
+                                      boolean keepAlive) throws IOException {
+        StringBuilder head = new StringBuilder()
+                .append("HTTP/1.1 ").append(response.status).append(' ')
+                .append(reason(response.status)).append("\r\n")
+                .append("Content-Type: ").append(response.contentType).append("\r\n")
+                .append("Content-Length: ").append(response.body.length).append("\r\n");
+        if (close) {
+            head.append("Connection: close\r\n");
+        } else if (keepAlive) {
+            head.append("Connection: keep-alive\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(ASCII));
+        out.write(response.body);
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 204: return "No Content";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 411: return "Length Required";
+            case 413: return "Payload Too Large";
+            case 415: return "Unsupported Media Type";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            default: return status < 500 ? "Error" : "Server Error";
+        }
+    }
+
+    /**
+     * Reads one CRLF- or LF-terminated line.
+     * 读取一行，以CRLF或LF结尾。
+     *
+     * @return null at the end of the stream before any byte. 读到任何字节前到达流末尾时返回null
+     */
+    private static String readLine(InputStream in) throws IOException, HttpException {
+        ByteArrayOutputStream line = null;
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (line == null) {
+                line = new ByteArrayOutputStream(128);
+            }
+            if (line.size() >= MAX_LINE) {
+                throw new HttpException(400, "Line too long");
+            }
+            line.write(c);
+        }
+        if (c == -1 && line == null) {
+            return null;
+        }
+        if (line == null) {
+            return "";
+        }
+        String s = new String(line.toByteArray(), ASCII);
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private static Map<String, String> parseQuery(String query) throws HttpException {
+        Map<String, String> values = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return values;
+        }
+        try {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                String name = equals < 0 ? pair : pair.substring(0, equals);
+                String value = equals < 0 ? "" : pair.substring(equals + 1);
+                values.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            throw new HttpException(400, "Malformed query");
+        }
+        return values;
+    }
+
+    /**
+     * Stops accepting, closes the listening socket and idle connections, and lets busy
+     * connections finish their current request.
+     * 停止接受连接，关闭监听套接字和空闲连接，正在处理请求的连接处理完当前请求后关闭。
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                // close quietly
+            }
+        }
+        for (Connection connection : open) {
+            if (!connection.busy) {
+                // 阻塞在读取上的线程随即以SocketException退出
+                closeQuietly(connection.socket);
+            }
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // close quietly
+        }
+    }
+
+    /**
+     * An open client connection; busy from the first byte of a request until its reply is sent.
+     * 一个打开的客户端连接；从请求的第一个字节到应答发出期间为忙碌。
+     */
+    private static class Connection {
+        final Socket socket;
+        volatile boolean busy;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+    }
+
+    private static class HttpException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * A parsed request with its whole body.
+     * 已解析的请求及其完整请求体。
+     */
+    public static class Request {
+        private final String method;
+        private final String path;
+        private final Map<String, String> query;
+        private final Map<String, String> headers;
+        private final byte[] body;
+        private final String version;
+
+        Request(String method, String path, Map<String, String> query,
+                Map<String, String> headers, byte[] body, String version) {
+            this.method = method;
+            this.path = path;
+            this.query = query;
+            this.headers = headers;
+            this.body = body;
+            this.version = version;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getQuery(String name) {
+            return query.get(name);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the parameter is not an integer. 参数不是整数时抛出
+         */
+        public int getQueryInt(String name, int defaultValue) {
+            String value = query.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Parameter " + name + " is not an integer");
+            }
+        }
+
+        /** @param name lower case. 小写 */
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        boolean isHttp10() {
+            return "HTTP/1.0".equals(version);
+        }
+
+        boolean wantsClose() {
+            String connection = headers.get("connection");
+            if ("HTTP/1.0".equals(version)) {
+                return !"keep-alive".equalsIgnoreCase(connection);
+            }
+            return "close".equalsIgnoreCase(connection);
+        }
+    }
+
+    /**
+     * Status, content type and body of a reply.
+     * 应答的状态、内容类型和正文。
+     */
+    public static class Response {
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+
+        public Response(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public static Response json(int status, String json) {
+            return new Response(status, "application/json; charset=utf-8", json.getBytes(UTF_8));
+        }
+
+        public static Response text(int status, String text) {
+            return new Response(status, "text/plain; charset=utf-8", text.getBytes(UTF_8));
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.server;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.example.androidthings.imageclassifier.classifier.Recognition;
+import com.example.androidthings.imageclassifier.classifier.Resampler;
+import com.example.androidthings.imageclassifier.pool.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@code POST /classify}: classifies the image in the request body with a
+ * {@link BatchingClassifier} and answers with the best labels as JSON.
+ * {@code POST /classify}：用BatchingClassifier对请求体中的图像分类，以JSON返回最好的标签。
+ *
+ * <p>The body is either a JPEG (or any other format {@link BitmapFactory} decodes), or raw RGB
+ * bytes, row by row, sent as {@code application/octet-stream} with {@code width} and
+ * {@code height} parameters; raw RGB of the model's input size needs neither and is copied
+ * straight into the input. Other images are center-cropped and resized like camera frames.
+ * {@code k} sets the number of results (default 3):
+ * 请求体可以是JPEG（或BitmapFactory能解码的其他格式），也可以是逐行排列的原始RGB字节，以application/octet-stream
+ * 发送并带width和height参数；模型输入尺寸的原始RGB两者都不需要，直接复制到输入。其他图像与相机帧一样居中裁剪并缩放。
+ * k设置结果数（默认3）：
+ * <pre>
+ * curl --data-binary @cat.jpg -H 'Content-Type: image/jpeg' 'http://127.0.0.1:8080/classify?k=5'
+ * {"results":[{"id":"284","label":"tabby","confidence":0.871},...],"latency_ms":41}
+ * </pre>
+ */
+public class InferenceEndpoint implements HttpServer.Handler {
+
+    private static final int DEFAULT_RESULTS = 3;
+    /**
+     * Largest image accepted after sampling; decoding it takes about 8 bytes per pixel.
+     * 降采样后接受的最大图像像素数；解码约需每像素8字节。
+     */
+    private static final long MAX_DECODED_PIXELS = 2048 * 2048;
+
+    private final BatchingClassifier classifier;
+    private final long timeoutMillis;
+
+    /**
+     * @param timeoutMillis longest wait for a batch before answering 504. 等待批次的最长时间，超时返回504
+     */
+    public InferenceEndpoint(BatchingClassifier classifier, long timeoutMillis) {
+        this.classifier = classifier;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public HttpServer.Response handle(HttpServer.Request request) throws InterruptedException {
+        if (!"POST".equals(request.getMethod())) {
+            return HttpServer.Response.text(405, "Use POST\n");
+        }
+        long start = System.nanoTime();
+        int k = request.getQueryInt("k", DEFAULT_RESULTS);
+        byte[] body = request.getBody();
+        if (body.length == 0) {
+            throw new IllegalArgumentException("Empty body");
+        }
+
+        ByteBuffer input = classifier.acquireInput();
+        List<Recognition> results;
+        try {
+            String type = request.getHeader("content-type");
+            if (type != null && type.startsWith("application/octet-stream")) {
+                packRgb(body, request.getQueryInt("width", classifier.getInputWidth()),
+                        request.getQueryInt("height", classifier.getInputHeight()), input);
+            } else if (!packImage(body, input)) {
+                BufferPool.getDefault().release(input);
+                return HttpServer.Response.text(413,
+                        "Image larger than " + MAX_DECODED_PIXELS + " pixels after sampling\n");
+            }
+        } catch (RuntimeException e) {
+            BufferPool.getDefault().release(input);
+            throw e;
+        }
+        try {
+            results = classifier.classify(input, k, timeoutMillis);
+        } catch (TimeoutException e) {
+            return HttpServer.Response.text(504, e.getMessage() + "\n");
+        }
+        return HttpServer.Response.json(200, toJson(results,
+                (System.nanoTime() - start) / 1000000));
+    }
+
+    private void packRgb(byte[] rgb, int width, int height, ByteBuffer input) {
+        if (width <= 0 || height <= 0 || (long) width * height * 3 != rgb.length) {
+            throw new IllegalArgumentException("Body is not " + width + "x" + height + " RGB");
+        }
+        if (width == classifier.getInputWidth() && height == classifier.getInputHeight()) {
+            input.put(rgb, 0, rgb.length);
+            input.position(0);
+            return;
+        }
+        int[] argb = new int[width * height];
+        for (int i = 0, j = 0; i < argb.length; i++, j += 3) {
+            argb[i] = 0xFF000000 | (rgb[j] & 0xFF) << 16 | (rgb[j + 1] & 0xFF) << 8
+                    | (rgb[j + 2] & 0xFF);
+        }
+        resample(argb, width, height, input);
+    }
+
+    /**
+     * @return false if the sampled image would be larger than {@link #MAX_DECODED_PIXELS}.
+     * 降采样后的图像超过MAX_DECODED_PIXELS时返回false
+     */
+    private boolean packImage(byte[] encoded, ByteBuffer input) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IllegalArgumentException("Body is not a decodable image");
+        }
+        // 按2的幂降采样解码，短边不小于模型输入
+        int minDim = Math.min(options.outWidth, options.outHeight);
+        int inputDim = Math.max(classifier.getInputWidth(), classifier.getInputHeight());
+        int sampleSize = 1;
+        while (minDim / (sampleSize * 2) >= inputDim) {
+            sampleSize *= 2;
+        }
+        // 在解码前检查尺寸：很小的压缩数据可能声明巨大的图像
+        long sampledWidth = (options.outWidth + sampleSize - 1) / sampleSize;
+        long sampledHeight = (options.outHeight + sampleSize - 1) / sampleSize;
+        if (sampledWidth * sampledHeight > MAX_DECODED_PIXELS) {
+            return false;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        if (bitmap == null) {
+            throw new IllegalArgumentException("Body is not a decodable image");
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] argb = new int[width * height];
+        bitmap.getPixels(argb, 0, width, 0, 0, width, height);
+        bitmap.recycle();
+        resample(argb, width, height, input);
+        return true;
+    }
+
+    private void resample(int[] argb, int width, int height, ByteBuffer input) {
+        new Resampler(width, height, classifier.getInputWidth(), classifier.getInputHeight(), 0,
+                Resampler.Mode.AREA, 1).resample(argb, input);
+    }
+
+    private static String toJson(List<Recognition> results, long latencyMillis) {
+        StringBuilder sb = new StringBuilder("{\"results\":[");
+        for (int i = 0; i < results.size(); i++) {
+            Recognition r = results.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":\"").append(r.getId())
+                    .append("\",\"label\":\"").append(escape(r.getTitle()))
+                    .append("\",\"confidence\":")
+                    .append(String.format(Locale.US, "%.3f", r.getConfidence())).append('}');
+        }
+        return sb.append("],\"latency_ms\":").append(latencyMillis).append('}').toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
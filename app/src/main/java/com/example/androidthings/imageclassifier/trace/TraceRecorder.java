@@ -0,0 +1,282 @@
+/*
+ * Copyright 2017 The Android Things Samples Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.androidthings.imageclassifier.trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Opt-in timeline of pipeline stages, dumped as Chrome trace-event JSON for Perfetto or
+ * chrome://tracing. Events go into a ring of preallocated parallel arrays: recording claims a
+ * slot with one atomic increment and stores the timestamp, thread and the caller's name string
+ * without allocating; once the ring is full the oldest events are overwritten. While disabled,
+ * every call returns after reading one volatile field.
+ * 可选开启的流水线阶段时间线，导出为Chrome trace-event JSON，可在Perfetto或chrome://tracing中查看。
+ * 事件写入预分配的并行数组组成的环：记录时用一次原子递增占用槽位，保存时间戳、线程和调用方的名称字符串，不分配内存；
+ * 环满后覆盖最早的事件。禁用时每次调用只读取一个volatile字段后返回。
+ *
+ * <p>Names must be constants or otherwise long-lived strings, since only references are kept.
+ * {@link #begin(String)} and {@link #end(String)} must pair up on the same thread; stages that
+ * start and finish on different threads, like speech synthesis, use the async variants with an
+ * id. A dump that races a wrapping writer skips the overwritten events.
+ * 名称必须是常量或长期存在的字符串，因为只保存引用。begin和end必须在同一线程上成对出现；在不同线程上开始和结束的阶段
+ * （例如语音合成）使用带id的异步版本。与回绕的写入方同时进行的导出会跳过被覆盖的事件。
+ *
+ * <p>Each slot is a seqlock: the writer clears its sequence, stores the fields and publishes the
+ * sequence again; the dump reads the sequence before and after the fields. The fields are atomic
+ * arrays so these accesses cannot be reordered across the sequence updates (VarHandle fences are
+ * not available on API 27). Fields are stored with {@code lazySet}, whose release ordering is
+ * enough to keep them after the cleared sequence and before the published one.
+ * 每个槽位是一个顺序锁：写入方先清除序号，保存各字段后再发布序号；导出在读取字段前后各读取一次序号。
+ * 字段使用原子数组，使这些访问不会越过序号的更新被重排（API 27上没有VarHandle屏障）。字段用lazySet保存，
+ * 其释放语义足以保证它们在清除序号之后、发布序号之前可见。
+ */
+public class TraceRecorder {
+
+    private static final byte PHASE_BEGIN = 'B';
+    private static final byte PHASE_END = 'E';
+    private static final byte PHASE_INSTANT = 'i';
+    private static final byte PHASE_ASYNC_BEGIN = 'b';
+    private static final byte PHASE_ASYNC_END = 'e';
+    private static final String CATEGORY = "app";
+
+    private static final TraceRecorder DEFAULT = new TraceRecorder();
+
+    /** Ring being recorded into, null while disabled. 正在记录的环，禁用时为null */
+    private volatile Ring recording;
+    /** Ring of the last enable, kept for dumping after disable. 最近一次启用的环，禁用后仍保留以供导出 */
+    private Ring last;
+
+    /** The recorder the pipeline records into. 流水线记录到的记录器 */
+    public static TraceRecorder getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Allocates a ring of {@code capacity} events, rounded up to a power of two, and starts
+     * recording. Events recorded before are discarded.
+     * 分配容量为capacity个事件的环（向上取整为2的幂）并开始记录。之前记录的事件被丢弃。
+     */
+    public synchronized void enable(int capacity) {
+        last = new Ring(Integer.highestOneBit(Math.max(2, capacity - 1)) << 1);
+        recording = last;
+    }
+
+    /** Stops recording; the recorded events can still be dumped. 停止记录，已记录的事件仍可导出 */
+    public void disable() {
+        recording = null;
+    }
+
+    public boolean isEnabled() {
+        return recording != null;
+    }
+
+    /** Starts a stage on the calling thread. 在调用线程上开始一个阶段 */
+    public void begin(String name) {
+        Ring ring = recording;
+        if (ring != null) {
+            ring.record(PHASE_BEGIN, name, null);
+        }
+    }
+
+    /** Ends the innermost stage of the calling thread. 结束调用线程最内层的阶段 */
+    public void end(String name) {
+        Ring ring = recording;
+        if (ring != null) {
+            ring.record(PHASE_END, name, null);
+        }
+    }
+
+    /** A point in time, e.g. an error. 一个时间点，例如错误 */
+    public void instant(String name) {
+        Ring ring = recording;
+        if (ring != null) {
+            ring.record(PHASE_INSTANT, name, null);
+        }
+    }
+
+    /** Starts a stage that may end on another thread. 开始一个可能在其他线程结束的阶段 */
+    public void asyncBegin(String name, String id) {
+        Ring ring = recording;
+        if (ring != null) {
+            ring.record(PHASE_ASYNC_BEGIN, name, id);
+        }
+    }
+
+    public void asyncEnd(String name, String id) {
+        Ring ring = recording;
+        if (ring != null) {
+            ring.record(PHASE_ASYNC_END, name, id);
+        }
+    }
+
+    /** Events recorded since enabled, including overwritten ones. 启用以来记录的事件数，包括被覆盖的 */
+    public synchronized long getRecorded() {
+        return last == null ? 0 : last.next.get();
+    }
+
+    /**
+     * Writes the events still in the ring, oldest first, as a Chrome trace-event JSON object.
+     * Recording can go on meanwhile.
+     * 将环中仍存在的事件按从旧到新写为Chrome trace-event JSON对象。期间可以继续记录。
+     *
+     * @param pid process id shown in the viewer. 查看器中显示的进程id
+     */
+    public synchronized void writeJson(Writer out, int pid) throws IOException {
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        Ring ring = last;
+        if (ring == null) {
+            out.write("]}");
+            return;
+        }
+        long end = ring.next.get();
+        long start = Math.max(0, end - ring.sequences.length());
+        Map<Long, String> threads = new HashMap<>();
+        StringBuilder event = new StringBuilder(160);
+        boolean first = true;
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & ring.mask);
+            if (ring.sequences.get(slot) != sequence) {
+                continue;
+            }
+            long timestamp = ring.timestamps.get(slot);
+            long tid = ring.threadIds.get(slot);
+            byte phase = (byte) ring.phases.get(slot);
+            String name = ring.names.get(slot);
+            String id = ring.ids.get(slot);
+            String threadName = ring.threadNames.get(slot);
+            if (ring.sequences.get(slot) != sequence) {
+                continue;
+            }
+            if (!threads.containsKey(tid)) {
+                threads.put(tid, threadName);
+            }
+            event.setLength(0);
+            event.append(first ? "\n" : ",\n").append("{\"name\":");
+            appendString(event, name);
+            event.append(",\"cat\":\"").append(CATEGORY).append("\",\"ph\":\"")
+                    .append((char) phase).append("\",\"ts\":")
+                    .append(String.format(Locale.US, "%.3f", timestamp / 1000.0))
+                    .append(",\"pid\":").append(pid).append(",\"tid\":").append(tid);
+            if (id != null) {
+                event.append(",\"id\":");
+                appendString(event, id);
+            }
+            if (phase == PHASE_INSTANT) {
+                event.append(",\"s\":\"t\"");
+            }
+            event.append('}');
+            out.write(event.toString());
+            first = false;
+        }
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            event.setLength(0);
+            event.append(first ? "\n" : ",\n")
+                    .append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":").append(pid)
+                    .append(",\"tid\":").append(thread.getKey()).append(",\"args\":{\"name\":");
+            appendString(event, thread.getValue());
+            event.append("}}");
+            out.write(event.toString());
+            first = false;
+        }
+        out.write("\n]}");
+    }
+
+    /**
+     * Writes the JSON to {@code file} through a temporary file.
+     * 通过临时文件将JSON写入file。
+     */
+    public void writeTo(File file, int pid) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp),
+                Charset.forName("UTF-8"))) {
+            writeJson(out, pid);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        if (s != null) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    sb.append('\\').append(c);
+                } else if (c < 0x20) {
+                    sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static class Ring {
+        final AtomicLong next = new AtomicLong();
+        final int mask;
+        /** Sequence of the event in each slot, -1 while it is written. 每个槽位中事件的序号，写入期间为-1 */
+        final AtomicLongArray sequences;
+        final AtomicLongArray timestamps;
+        final AtomicLongArray threadIds;
+        final AtomicIntegerArray phases;
+        final AtomicReferenceArray<String> names;
+        final AtomicReferenceArray<String> ids;
+        final AtomicReferenceArray<String> threadNames;
+
+        Ring(int size) {
+            mask = size - 1;
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, -1);
+            }
+            timestamps = new AtomicLongArray(size);
+            threadIds = new AtomicLongArray(size);
+            phases = new AtomicIntegerArray(size);
+            names = new AtomicReferenceArray<>(size);
+            ids = new AtomicReferenceArray<>(size);
+            threadNames = new AtomicReferenceArray<>(size);
+        }
+
+        void record(byte phase, String name, String id) {
+            long timestamp = System.nanoTime();
+            long sequence = next.getAndIncrement();
+            int slot = (int) (sequence & mask);
+            Thread thread = Thread.currentThread();
+            sequences.set(slot, -1);
+            timestamps.lazySet(slot, timestamp);
+            threadIds.lazySet(slot, thread.getId());
+            phases.lazySet(slot, phase);
+            names.lazySet(slot, name);
+            ids.lazySet(slot, id);
+            threadNames.lazySet(slot, thread.getName());
+            sequences.set(slot, sequence);
+        }
+    }
+}
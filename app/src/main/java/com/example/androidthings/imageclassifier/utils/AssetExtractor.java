@@ -0,0 +1,243 @@
+package com.example.androidthings.imageclassifier.utils;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * 将assets中的大文件（如离线语音模型）增量解压到目标目录。
+ * <p>
+ * 目标目录下的清单文件记录每个文件的大小、CRC32以及解压时APK的更新时间。APK未更新且目标文件大小一致时直接跳过，
+ * 不读取asset；APK更新后重新计算asset的CRC32，内容未变则只更新清单。需要复制时，未压缩的asset
+ * （见build.gradle中的noCompress）通过内存映射直接写入FileChannel，压缩的asset使用256KB缓冲区；
+ * 都先写入临时文件，再原子重命名为目标文件。
+ */
+public class AssetExtractor {
+
+    private static final String TAG = "AssetExtractor";
+
+    private static final String MANIFEST = ".asset-manifest";
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final AssetManager assets;
+    private final File destDir;
+    private final long packageStamp;
+    private final Properties manifest = new Properties();
+    private final File manifestFile;
+
+    private long bytesCopied;
+    private long millisSpent;
+    private int filesCopied;
+    private int filesSkipped;
+
+    public AssetExtractor(Context context, File destDir) {
+        this.assets = context.getAssets();
+        this.destDir = destDir;
+        this.manifestFile = new File(destDir, MANIFEST);
+        this.packageStamp = getPackageStamp(context);
+        if (manifestFile.exists()) {
+            try (FileInputStream in = new FileInputStream(manifestFile)) {
+                manifest.load(in);
+            } catch (IOException e) {
+                Log.w(TAG, "清单文件读取失败，全部重新复制", e);
+                manifest.clear();
+            }
+        }
+    }
+
+    private static long getPackageStamp(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 确保assets中的source已解压到目标目录，返回目标文件路径。
+     */
+    public synchronized String extract(String source) throws IOException {
+        long start = SystemClock.uptimeMillis();
+        File dest = new File(destDir, source);
+        Entry recorded = Entry.parse(manifest.getProperty(source));
+        if (recorded != null && recorded.stamp == packageStamp && packageStamp != -1
+                && dest.length() == recorded.size) {
+            filesSkipped++;
+            return dest.getAbsolutePath();
+        }
+
+        Entry current;
+        if (recorded != null && dest.length() == recorded.size) {
+            // APK已更新，但asset内容可能没有变化：先只读计算CRC
+            long crc = checksum(source);
+            if (crc == recorded.crc) {
+                current = new Entry(recorded.size, crc, packageStamp);
+                filesSkipped++;
+                record(source, current);
+                Log.i(TAG, "内容未变化，跳过复制：" + source);
+                return dest.getAbsolutePath();
+            }
+        }
+
+        current = copy(source, dest);
+        record(source, current);
+        filesCopied++;
+        bytesCopied += current.size;
+        long spent = SystemClock.uptimeMillis() - start;
+        millisSpent += spent;
+        Log.i(TAG, "文件复制成功：" + dest + "，" + current.size + " 字节，耗时 " + spent + "ms");
+        return dest.getAbsolutePath();
+    }
+
+    private long checksum(String source) throws IOException {
+        CRC32 crc = new CRC32();
+        AssetFileDescriptor fd = openFdOrNull(source);
+        if (fd != null) {
+            // createInputStream返回的流拥有fd，关闭流时同时关闭fd，不能再调用fd.close()
+            try (FileInputStream in = fd.createInputStream();
+                 FileChannel channel = in.getChannel()) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY,
+                        fd.getStartOffset(), fd.getLength()));
+            }
+        } else {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = assets.open(source)) {
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    crc.update(buffer, 0, n);
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
+    private Entry copy(String source, File dest) throws IOException {
+        File tmp = new File(dest.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        long size = 0;
+        AssetFileDescriptor fd = openFdOrNull(source);
+        try (FileOutputStream out = new FileOutputStream(tmp);
+             FileChannel outChannel = out.getChannel()) {
+            if (fd != null) {
+                try (FileInputStream in = fd.createInputStream();
+                     FileChannel inChannel = in.getChannel()) {
+                    MappedByteBuffer mapped = inChannel.map(FileChannel.MapMode.READ_ONLY,
+                            fd.getStartOffset(), fd.getLength());
+                    crc.update(mapped.duplicate());
+                    while (mapped.hasRemaining()) {
+                        size += outChannel.write(mapped);
+                    }
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                try (InputStream in = assets.open(source)) {
+                    int n;
+                    while ((n = in.read(buffer.array())) >= 0) {
+                        crc.update(buffer.array(), 0, n);
+                        buffer.clear();
+                        buffer.limit(n);
+                        while (buffer.hasRemaining()) {
+                            outChannel.write(buffer);
+                        }
+                        buffer.clear();
+                        size += n;
+                    }
+                }
+            }
+            outChannel.force(false);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(dest)) {
+            tmp.delete();
+            throw new IOException("无法重命名 " + tmp + " 为 " + dest);
+        }
+        return new Entry(size, crc.getValue(), packageStamp);
+    }
+
+    /**
+     * 只有未压缩的asset才能openFd，压缩的asset返回null
+     */
+    private AssetFileDescriptor openFdOrNull(String source) {
+        try {
+            return assets.openFd(source);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void record(String source, Entry entry) throws IOException {
+        manifest.setProperty(source, entry.toString());
+        File tmp = new File(manifestFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            manifest.store(out, null);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(manifestFile)) {
+            throw new IOException("无法写入清单 " + manifestFile);
+        }
+    }
+
+    public synchronized long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    public synchronized long getMillisSpent() {
+        return millisSpent;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AssetExtractor{copied=" + filesCopied + " (" + bytesCopied + " 字节, "
+                + millisSpent + "ms), skipped=" + filesSkipped + "}";
+    }
+
+    private static class Entry {
+        final long size;
+        final long crc;
+        final long stamp;
+
+        Entry(long size, long crc, long stamp) {
+            this.size = size;
+            this.crc = crc;
+            this.stamp = stamp;
+        }
+
+        static Entry parse(String value) {
+            if (value == null) {
+                return null;
+            }
+            String[] parts = value.split(",");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1], 16),
+                        Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return size + "," + Long.toHexString(crc) + "," + stamp;
+        }
+    }
+}
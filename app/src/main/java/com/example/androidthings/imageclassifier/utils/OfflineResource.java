@@ -1,11 +1,10 @@
 package com.example.androidthings.imageclassifier.utils;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.util.Log;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
 
 import static android.content.ContentValues.TAG;
 
@@ -27,18 +26,14 @@ public class OfflineResource {
 
     private static final String SAMPLE_DIR = "baiduTTS";
 
-    private AssetManager assets;
-    private String destPath;
+    private AssetExtractor extractor;
 
     private String textFilename;
     private String modelFilename;
 
-    private static HashMap<String, Boolean> mapInitied = new HashMap<String, Boolean>();
-
     public OfflineResource(Context context, String voiceType) throws IOException {
         context = context.getApplicationContext();
-        this.assets = context.getApplicationContext().getAssets();
-        this.destPath = FileUtil.createTmpDir(context);
+        this.extractor = new AssetExtractor(context, new File(FileUtil.createTmpDir(context)));
         setOfflineVoiceType(voiceType);
     }
 
@@ -71,14 +66,9 @@ public class OfflineResource {
 
 
     private String copyAssetsFile(String sourceFilename) throws IOException {
-        String destFilename = destPath + "/" + sourceFilename;
-        boolean recover = false;
-        Boolean existed = mapInitied.get(sourceFilename); // 启动时完全覆盖一次
-        if (existed == null || !existed) {
-            recover = true;
-        }
-        FileUtil.copyFromAssets(assets, sourceFilename, destFilename, recover);
-        Log.i(TAG, "文件复制成功：" + destFilename);
+        // 根据清单增量复制，未变化的文件不再覆盖
+        String destFilename = extractor.extract(sourceFilename);
+        Log.i(TAG, "文件就绪：" + destFilename + "，" + extractor);
         return destFilename;
     }
 